@@ -137,6 +137,78 @@ public abstract class GenericObject implements Serializable, Cloneable {
 
     }
 
+    /** The fields compared by the introspection based predicates, looked
+     * up once per class.
+     */
+    private static final ClassValue<Field[]> introspectedFields = new ClassValue<Field[]>() {
+        protected Field[] computeValue(Class<?> type) {
+            List<Field> fields = new ArrayList<Field>();
+            for (Class<?> c = type; c != null && c != GenericObject.class; c = c.getSuperclass()) {
+                for (Field f : c.getDeclaredFields()) {
+                    int modifier = f.getModifiers();
+                    if (Modifier.isPrivate(modifier) || Modifier.isStatic(modifier))
+                        continue;
+                    try {
+                        f.setAccessible(true);
+                    } catch (SecurityException ex) {
+                        // left to the access check of each call
+                    }
+                    fields.add(f);
+                }
+            }
+            return fields.toArray(new Field[fields.size()]);
+        }
+    };
+
+    /**
+     * Get the non private instance fields of a class and of its superclasses
+     * up to (not including) GenericObject, the fields that the introspection
+     * based equals and match of the subclasses compare. Classes that compare
+     * many objects should override equals rather than rely on this.
+     */
+    protected static Field[] getIntrospectedFields(Class<?> type) {
+        return introspectedFields.get(type);
+    }
+
+    /**
+     * Compare a primitive field of two objects of the same class.
+     */
+    protected static boolean equalPrimitiveFields(Field f, Object mine, Object his)
+            throws IllegalAccessException {
+        Class<?> fieldType = f.getType();
+        if (fieldType == Integer.TYPE)
+            return f.getInt(mine) == f.getInt(his);
+        else if (fieldType == Long.TYPE)
+            return f.getLong(mine) == f.getLong(his);
+        else if (fieldType == Boolean.TYPE)
+            return f.getBoolean(mine) == f.getBoolean(his);
+        else if (fieldType == Short.TYPE)
+            return f.getShort(mine) == f.getShort(his);
+        else if (fieldType == Character.TYPE)
+            return f.getChar(mine) == f.getChar(his);
+        else if (fieldType == Double.TYPE)
+            return f.getDouble(mine) == f.getDouble(his);
+        else if (fieldType == Float.TYPE)
+            return f.getFloat(mine) == f.getFloat(his);
+        return f.getByte(mine) == f.getByte(his);
+    }
+
+    /**
+     * Null safe equality of two field values, for the equals methods of the
+     * subclasses.
+     */
+    protected static boolean equalValues(Object mine, Object his) {
+        return mine == his || (mine != null && mine.equals(his));
+    }
+
+    /**
+     * Null safe hash code of a field value, for the hashCode methods matching
+     * the equals methods built with {@link #equalValues(Object, Object)}.
+     */
+    protected static int hashValue(Object value) {
+        return value == null ? 0 : value.hashCode();
+    }
+
     /** Clones the given object.
      *  If the object is a wrapped type, an array, a GenericObject
      *  or a GenericObjectList, it is cast to the appropriate type
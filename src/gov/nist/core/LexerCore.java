@@ -536,7 +536,7 @@ public class LexerCore extends StringTokenizer {
                 break;
             } else if (next == '\0') {
                 throw new ParseException(
-                    String.valueOf(this.buffer) + " :unexpected EOL",
+                    getBuffer() + " :unexpected EOL",
                     this.ptr);
             } else if (next == '\\') {
                 consume(1);
@@ -752,7 +752,7 @@ public class LexerCore extends StringTokenizer {
     /** Get the buffer.
      */
     public String getBuffer() {
-        return String.valueOf(buffer);
+        return String.valueOf(buffer, 0, bufferLen);
     }
 
     /** Create a parse exception.
@@ -55,6 +55,22 @@ public class StringTokenizer {
         ptr = 0;
     }
 
+    /**
+     * Start over on a new string, reusing the char array when it is big
+     * enough. The array may then be longer than the string, the characters
+     * beyond bufferLen are stale.
+     */
+    protected void reset(String buffer) {
+        int length = buffer.length();
+        if (this.buffer == null || this.buffer.length < length) {
+            this.buffer = new char[length];
+        }
+        buffer.getChars(0, length, this.buffer, 0);
+        bufferLen = length;
+        ptr = 0;
+        savedPtr = 0;
+    }
+
     public String nextToken() {
         int startIdx = ptr;
         
@@ -133,19 +149,17 @@ public class StringTokenizer {
     }
 
     public char lookAhead(int k) throws ParseException {
-        // Debug.out.println("ptr = " + ptr);
-        try {
-            return buffer[ptr + k];
-        }
-        catch (IndexOutOfBoundsException e) {
+        int index = ptr + k;
+        if (index < 0 || index >= bufferLen) {
             return '\0';
         }
+        return buffer[index];
     }
 
     public char getNextChar() throws ParseException {
         if (ptr >= bufferLen)
             throw new ParseException(
-                buffer + " getNextChar: End of buffer",
+                String.valueOf(buffer, 0, bufferLen) + " getNextChar: End of buffer",
                 ptr);
         else
             return buffer[ptr++];
@@ -0,0 +1,74 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ *
+ */
+package gov.nist.core.net;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.SocketAddress;
+
+/**
+ * A datagram socket that moves several datagrams per call. Any thread can send,
+ * the datagrams are queued and written by the thread calling
+ * {@link #receive(DatagramPacket[], long)}, which reads as many datagrams as
+ * are available in the same turn. Java has no multi message system calls, so
+ * the gain is one wake up and no blocked sender per burst rather than fewer
+ * system calls per datagram.
+ *
+ * @see DatagramIOFactory
+ */
+public interface DatagramIO {
+
+    /**
+     * Queue a datagram for sending. The data must not be modified afterwards.
+     *
+     * @throws IOException if the socket is closed or too many datagrams are
+     *             already waiting.
+     */
+    public void send(byte[] data, int offset, int length, SocketAddress target)
+            throws IOException;
+
+    /**
+     * Write the queued datagrams and wait for incoming ones. Must be called by
+     * a single thread.
+     *
+     * @param packets the packets to fill, in order. Each packet offers its
+     *            buffer and gets the length and source of a datagram.
+     * @param timeout the longest time to wait in milliseconds, 0 to wait until
+     *            a datagram arrives.
+     * @return the number of packets filled, 0 if the timeout expired.
+     */
+    public int receive(DatagramPacket[] packets, long timeout) throws IOException;
+
+    /**
+     * @return the underlying socket, to query or configure it. It must not be
+     *         used to send or receive.
+     */
+    public DatagramSocket getSocket();
+
+    /**
+     * Close the socket, dropping the datagrams still queued.
+     */
+    public void close();
+}
@@ -0,0 +1,63 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ *
+ */
+package gov.nist.core.net;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Implemented by the network layers that can serve UDP listening points with a
+ * {@link DatagramIO} or with SO_REUSEPORT channels. The stack uses it when
+ * gov.nist.javax.sip.UDP_BATCH_SIZE is set or gov.nist.javax.sip.UDP_RECEIVE_THREADS
+ * is more than 1, and falls back to
+ * {@link NetworkLayer#createDatagramSocket(int, InetAddress)} otherwise.
+ */
+public interface DatagramIOFactory {
+
+    /**
+     * Creates a datagram I/O bound to the specified local address.
+     *
+     * @param port
+     * @param laddr
+     * @param maxQueuedDatagrams the most datagrams waiting to be sent, 0 for
+     *            no limit.
+     * @return the datagram I/O or null if the address is not supported, in
+     *         which case a datagram socket is used.
+     */
+    public DatagramIO createDatagramIO(int port, InetAddress laddr,
+            int maxQueuedDatagrams) throws IOException;
+
+    /**
+     * Creates a datagram channel bound to the specified local address with
+     * SO_REUSEPORT set, one for each receive thread of a UDP listening point.
+     *
+     * @param port
+     * @param laddr
+     * @return the channel or null if SO_REUSEPORT is not available, in which
+     *         case the receive threads share one datagram socket.
+     */
+    public DatagramChannel createReusePortChannel(int port, InetAddress laddr)
+            throws IOException;
+}
@@ -37,6 +37,7 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.nio.channels.DatagramChannel;
 
 /* Added by Daniel J. Martinez Manzano <dani@dif.um.es> */
 import javax.net.ssl.SSLSocket;
@@ -52,7 +53,7 @@ import javax.net.ssl.SSLServerSocketFactory;
  * @since 1.1
  *
  */
-public class DefaultNetworkLayer implements NetworkLayer {
+public class DefaultNetworkLayer implements NetworkLayer, DatagramIOFactory {
 
     private SSLSocketFactory sslSocketFactory;
 
@@ -98,6 +99,22 @@ public class DefaultNetworkLayer implements NetworkLayer {
         } else return new DatagramSocket(port, laddr);
     }
 
+    public DatagramIO createDatagramIO(int port, InetAddress laddr,
+            int maxQueuedDatagrams) throws IOException {
+        if ( laddr.isMulticastAddress() ) {
+            return null;
+        }
+        return NioDatagramIO.open(port, laddr, maxQueuedDatagrams);
+    }
+
+    public DatagramChannel createReusePortChannel(int port, InetAddress laddr)
+            throws IOException {
+        if ( laddr.isMulticastAddress() ) {
+            return null;
+        }
+        return NioDatagramIO.openReusePortChannel(port, laddr);
+    }
+
     /* Added by Daniel J. Martinez Manzano <dani@dif.um.es> */
     public SSLServerSocket createSSLServerSocket(int port, int backlog,
             InetAddress bindAddress) throws IOException {
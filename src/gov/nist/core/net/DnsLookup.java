@@ -0,0 +1,48 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ *
+ */
+package gov.nist.core.net;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The upstream of the caching address resolver: queries the records of a name
+ * without caching them. Implement it to use another DNS client or to answer
+ * from a local stand-in, in tests for instance.
+ *
+ * @see JndiDnsLookup
+ */
+public interface DnsLookup {
+
+    /**
+     * Query the records of a type.
+     *
+     * @param name the domain name.
+     * @param type one of the types of {@link DnsRecord}.
+     * @return the records, empty if the name does not exist or has no record
+     *         of that type.
+     * @throws IOException if the lookup itself failed.
+     */
+    public List<DnsRecord> lookup(String name, String type) throws IOException;
+}
@@ -0,0 +1,192 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ *
+ */
+package gov.nist.core.net;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+
+/**
+ * A DNS resource record of one of the types used to locate SIP servers
+ * (RFC 3263): NAPTR, SRV, A and AAAA.
+ *
+ * @see DnsLookup
+ */
+public final class DnsRecord {
+
+    public static final String A = "A";
+
+    public static final String AAAA = "AAAA";
+
+    public static final String SRV = "SRV";
+
+    public static final String NAPTR = "NAPTR";
+
+    private final String type;
+
+    private final String name;
+
+    private final long ttl;
+
+    private final InetAddress address;
+
+    private final int order;
+
+    private final int preference;
+
+    private final int port;
+
+    private final String flags;
+
+    private final String service;
+
+    private final String target;
+
+    private DnsRecord(String type, String name, long ttl, InetAddress address,
+            int order, int preference, int port, String flags, String service,
+            String target) {
+        this.type = type;
+        this.name = name;
+        this.ttl = ttl;
+        this.address = address;
+        this.order = order;
+        this.preference = preference;
+        this.port = port;
+        this.flags = flags;
+        this.service = service;
+        this.target = target;
+    }
+
+    /**
+     * An A or AAAA record, depending on the address.
+     *
+     * @param ttl the time to live in seconds.
+     */
+    public static DnsRecord address(String name, InetAddress address, long ttl) {
+        return new DnsRecord(address instanceof Inet6Address ? AAAA : A, name,
+                ttl, address, 0, 0, 0, null, null, null);
+    }
+
+    /**
+     * An SRV record.
+     *
+     * @param ttl the time to live in seconds.
+     */
+    public static DnsRecord srv(String name, int priority, int weight, int port,
+            String target, long ttl) {
+        return new DnsRecord(SRV, name, ttl, null, priority, weight, port, null,
+                null, target);
+    }
+
+    /**
+     * A NAPTR record. The stack only follows replacements, so the regular
+     * expression is not kept.
+     *
+     * @param ttl the time to live in seconds.
+     */
+    public static DnsRecord naptr(String name, int order, int preference,
+            String flags, String service, String replacement, long ttl) {
+        return new DnsRecord(NAPTR, name, ttl, null, order, preference, 0,
+                flags, service, replacement);
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the time to live in seconds.
+     */
+    public long getTtl() {
+        return ttl;
+    }
+
+    /**
+     * @return the address of an A or AAAA record.
+     */
+    public InetAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * @return the order of a NAPTR record or the priority of an SRV record.
+     */
+    public int getOrder() {
+        return order;
+    }
+
+    /**
+     * @return the preference of a NAPTR record or the weight of an SRV record.
+     */
+    public int getPreference() {
+        return preference;
+    }
+
+    /**
+     * @return the port of an SRV record.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return the flags of a NAPTR record.
+     */
+    public String getFlags() {
+        return flags;
+    }
+
+    /**
+     * @return the service of a NAPTR record, SIP+D2U for instance.
+     */
+    public String getService() {
+        return service;
+    }
+
+    /**
+     * @return the target of an SRV record or the replacement of a NAPTR record.
+     */
+    public String getTarget() {
+        return target;
+    }
+
+    public String toString() {
+        StringBuilder retval = new StringBuilder(name).append(' ').append(ttl)
+                .append(' ').append(type).append(' ');
+        if (address != null) {
+            retval.append(address.getHostAddress());
+        } else if (SRV.equals(type)) {
+            retval.append(order).append(' ').append(preference).append(' ')
+                    .append(port).append(' ').append(target);
+        } else {
+            retval.append(order).append(' ').append(preference).append(" \"")
+                    .append(flags).append("\" \"").append(service).append("\" ")
+                    .append(target);
+        }
+        return retval.toString();
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ *
+ */
+package gov.nist.core.net;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.List;
+
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.InitialDirContext;
+
+/**
+ * A {@link DnsLookup} using the JDK only: NAPTR and SRV records are queried
+ * with the JNDI DNS provider, A and AAAA records with
+ * {@link InetAddress#getAllByName(String)} so the hosts file still applies.
+ * Neither API exposes the time to live of the records, so all of them get the
+ * same configurable one.
+ */
+public class JndiDnsLookup implements DnsLookup {
+
+    private final long ttl;
+
+    private final Hashtable<String, String> environment = new Hashtable<String, String>();
+
+    /**
+     * Query the DNS servers of the system, records live 60 seconds.
+     */
+    public JndiDnsLookup() {
+        this(60, null);
+    }
+
+    /**
+     * @param ttl the time to live given to the records, in seconds.
+     * @param dnsServers the DNS servers to query for NAPTR and SRV records, as
+     *            a space separated list of host[:port], null for those of the
+     *            system.
+     */
+    public JndiDnsLookup(long ttl, String dnsServers) {
+        this.ttl = ttl;
+        environment.put("java.naming.factory.initial", "com.sun.jndi.dns.DnsContextFactory");
+        if (dnsServers != null) {
+            StringBuilder url = new StringBuilder();
+            for (String server : dnsServers.trim().split("\\s+")) {
+                if (url.length() > 0) {
+                    url.append(' ');
+                }
+                url.append("dns://").append(server);
+            }
+            environment.put("java.naming.provider.url", url.toString());
+        }
+    }
+
+    public List<DnsRecord> lookup(String name, String type) throws IOException {
+        if (DnsRecord.A.equals(type) || DnsRecord.AAAA.equals(type)) {
+            return lookupAddresses(name, type);
+        }
+        List<DnsRecord> records = new ArrayList<DnsRecord>();
+        DirContext context = null;
+        try {
+            context = new InitialDirContext(environment);
+            Attributes attributes = context.getAttributes(name, new String[] { type });
+            Attribute attribute = attributes.get(type);
+            if (attribute == null) {
+                return records;
+            }
+            NamingEnumeration<?> values = attribute.getAll();
+            while (values.hasMore()) {
+                DnsRecord record = parse(name, type, values.next().toString());
+                if (record != null) {
+                    records.add(record);
+                }
+            }
+            return records;
+        } catch (NameNotFoundException ex) {
+            return records;
+        } catch (NamingException ex) {
+            throw new IOException("DNS " + type + " lookup of " + name + " failed: " + ex.getMessage(), ex);
+        } finally {
+            if (context != null) {
+                try {
+                    context.close();
+                } catch (NamingException ex) {
+                }
+            }
+        }
+    }
+
+    private List<DnsRecord> lookupAddresses(String name, String type) {
+        InetAddress[] addresses;
+        try {
+            addresses = InetAddress.getAllByName(name);
+        } catch (UnknownHostException ex) {
+            return Collections.emptyList();
+        }
+        List<DnsRecord> records = new ArrayList<DnsRecord>(addresses.length);
+        for (InetAddress address : addresses) {
+            DnsRecord record = DnsRecord.address(name, address, ttl);
+            if (record.getType().equals(type)) {
+                records.add(record);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Parse the presentation format of an SRV or NAPTR record, e.g.
+     * 10 60 5060 sip.example.com. or 10 50 "s" "SIP+D2U" "" _sip._udp.example.com.
+     */
+    private DnsRecord parse(String name, String type, String value) {
+        List<String> fields = new ArrayList<String>();
+        int i = 0;
+        int length = value.length();
+        while (i < length) {
+            char c = value.charAt(i);
+            if (c == ' ') {
+                i++;
+            } else if (c == '"') {
+                int end = value.indexOf('"', i + 1);
+                if (end < 0) {
+                    end = length;
+                }
+                fields.add(value.substring(i + 1, end));
+                i = end + 1;
+            } else {
+                int end = value.indexOf(' ', i);
+                if (end < 0) {
+                    end = length;
+                }
+                fields.add(value.substring(i, end));
+                i = end;
+            }
+        }
+        try {
+            if (DnsRecord.SRV.equals(type) && fields.size() == 4) {
+                return DnsRecord.srv(name, Integer.parseInt(fields.get(0)),
+                        Integer.parseInt(fields.get(1)), Integer.parseInt(fields.get(2)),
+                        fields.get(3), ttl);
+            }
+            if (DnsRecord.NAPTR.equals(type) && fields.size() == 6) {
+                return DnsRecord.naptr(name, Integer.parseInt(fields.get(0)),
+                        Integer.parseInt(fields.get(1)), fields.get(2), fields.get(3),
+                        fields.get(5), ttl);
+            }
+        } catch (NumberFormatException ex) {
+        }
+        return null;
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ *
+ */
+package gov.nist.core.net;
+
+import gov.nist.core.CommonLogger;
+import gov.nist.core.LogWriter;
+import gov.nist.core.StackLogger;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link DatagramIO} over a non-blocking {@link DatagramChannel}. The
+ * receiving thread selects for reads, and for writes while the socket send
+ * buffer is full, so the senders never block.
+ */
+public class NioDatagramIO implements DatagramIO {
+
+    private static StackLogger logger = CommonLogger.getLogger(NioDatagramIO.class);
+
+    private final DatagramChannel channel;
+
+    private final Selector selector;
+
+    private final SelectionKey key;
+
+    private final int maxQueuedDatagrams;
+
+    private final Queue<Datagram> sendQueue = new ConcurrentLinkedQueue<Datagram>();
+
+    private final AtomicInteger queuedDatagrams = new AtomicInteger();
+
+    // Set by the sender that wakes the receiving thread up, cleared by the
+    // receiving thread before it writes, so a burst of sends costs one wake up
+    private final AtomicBoolean wakeupRequested = new AtomicBoolean();
+
+    /**
+     * Open a channel bound to the specified local address.
+     */
+    public static NioDatagramIO open(int port, InetAddress laddr,
+            int maxQueuedDatagrams) throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            channel.bind(new InetSocketAddress(laddr, port));
+            return new NioDatagramIO(channel, maxQueuedDatagrams);
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Open a channel bound to the specified local address with SO_REUSEPORT
+     * set, so that several channels receive the datagrams of the address.
+     *
+     * @return the channel or null if the runtime or the platform does not
+     *         support the option.
+     */
+    public static DatagramChannel openReusePortChannel(int port, InetAddress laddr)
+            throws IOException {
+        SocketOption<Boolean> reusePort = getReusePortOption();
+        if (reusePort == null) {
+            return null;
+        }
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            if (!channel.supportedOptions().contains(reusePort)) {
+                channel.close();
+                return null;
+            }
+            channel.setOption(reusePort, Boolean.TRUE);
+            channel.bind(new InetSocketAddress(laddr, port));
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+        return channel;
+    }
+
+    /**
+     * SO_REUSEPORT is only exposed by StandardSocketOptions from JDK 9 on, so
+     * look it up reflectively to keep running on older runtimes.
+     *
+     * @return the option or null if the runtime does not know about it.
+     */
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> getReusePortOption() {
+        try {
+            Field field = StandardSocketOptions.class.getField("SO_REUSEPORT");
+            return (SocketOption<Boolean>) field.get(null);
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+
+    /**
+     * @param channel a bound channel, switched to non-blocking mode.
+     * @param maxQueuedDatagrams the most datagrams waiting to be sent, 0 for
+     *            no limit.
+     */
+    public NioDatagramIO(DatagramChannel channel, int maxQueuedDatagrams)
+            throws IOException {
+        this.channel = channel;
+        this.maxQueuedDatagrams = maxQueuedDatagrams;
+        channel.configureBlocking(false);
+        this.selector = Selector.open();
+        this.key = channel.register(selector, SelectionKey.OP_READ);
+    }
+
+    public void send(byte[] data, int offset, int length, SocketAddress target)
+            throws IOException {
+        if (!channel.isOpen()) {
+            throw new ClosedChannelException();
+        }
+        if (maxQueuedDatagrams > 0
+                && queuedDatagrams.incrementAndGet() > maxQueuedDatagrams) {
+            queuedDatagrams.decrementAndGet();
+            throw new IOException("Too many datagrams waiting to be sent on "
+                    + channel.socket().getLocalSocketAddress());
+        }
+        sendQueue.offer(new Datagram(ByteBuffer.wrap(data, offset, length), target));
+        if (wakeupRequested.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    public int receive(DatagramPacket[] packets, long timeout) throws IOException {
+        // senders queueing from now on wake the selector up again
+        wakeupRequested.set(false);
+        boolean flushed = flush();
+        int received = receiveAvailable(packets);
+        if (received > 0) {
+            return received;
+        }
+        key.interestOps(flushed ? SelectionKey.OP_READ
+                : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        selector.select(timeout);
+        selector.selectedKeys().clear();
+        flush();
+        return receiveAvailable(packets);
+    }
+
+    /**
+     * Write the queued datagrams until the socket send buffer fills up.
+     *
+     * @return true if the queue was emptied.
+     */
+    private boolean flush() throws IOException {
+        Datagram datagram;
+        while ((datagram = sendQueue.peek()) != null) {
+            try {
+                if (channel.send(datagram.data, datagram.target) == 0) {
+                    return false;
+                }
+            } catch (ClosedChannelException ex) {
+                throw ex;
+            } catch (IOException ex) {
+                // nobody waits for the outcome, the transaction layer
+                // retransmits as it does for a datagram lost on the way
+                if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+                    logger.logDebug("Dropping datagram to " + datagram.target + " : " + ex.getMessage());
+                }
+            }
+            sendQueue.poll();
+            if (maxQueuedDatagrams > 0) {
+                queuedDatagrams.decrementAndGet();
+            }
+        }
+        return true;
+    }
+
+    private int receiveAvailable(DatagramPacket[] packets) throws IOException {
+        int count = 0;
+        while (count < packets.length) {
+            DatagramPacket packet = packets[count];
+            ByteBuffer buffer = ByteBuffer.wrap(packet.getData(), packet.getOffset(),
+                    packet.getLength());
+            SocketAddress source = channel.receive(buffer);
+            if (source == null) {
+                break;
+            }
+            packet.setLength(buffer.position() - packet.getOffset());
+            packet.setSocketAddress(source);
+            count++;
+        }
+        return count;
+    }
+
+    public DatagramSocket getSocket() {
+        return channel.socket();
+    }
+
+    public void close() {
+        // closing the selector first wakes up the receiving thread
+        try {
+            selector.close();
+        } catch (IOException ex) {
+            logger.logException(ex);
+        }
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            logger.logException(ex);
+        }
+        sendQueue.clear();
+    }
+
+    private static final class Datagram {
+        final ByteBuffer data;
+        final SocketAddress target;
+
+        Datagram(ByteBuffer data, SocketAddress target) {
+            this.data = data;
+            this.target = target;
+        }
+    }
+}
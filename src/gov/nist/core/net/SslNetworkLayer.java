@@ -42,6 +42,7 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.nio.channels.DatagramChannel;
 import java.security.GeneralSecurityException;
 import java.security.KeyStore;
 import java.security.SecureRandom;
@@ -66,7 +67,7 @@ import javax.net.ssl.X509TrustManager;
  * @since 1.2
  *
  */
-public class SslNetworkLayer implements NetworkLayer {
+public class SslNetworkLayer implements NetworkLayer, DatagramIOFactory {
 
 	private static StackLogger logger = CommonLogger.getLogger(SslNetworkLayer.class);
 	
@@ -153,6 +154,22 @@ public class SslNetworkLayer implements NetworkLayer {
         return new DatagramSocket(port, laddr);
     }
 
+    public DatagramIO createDatagramIO(int port, InetAddress laddr,
+            int maxQueuedDatagrams) throws IOException {
+        if ( laddr.isMulticastAddress() ) {
+            return null;
+        }
+        return NioDatagramIO.open(port, laddr, maxQueuedDatagrams);
+    }
+
+    public DatagramChannel createReusePortChannel(int port, InetAddress laddr)
+            throws IOException {
+        if ( laddr.isMulticastAddress() ) {
+            return null;
+        }
+        return NioDatagramIO.openReusePortChannel(port, laddr);
+    }
+
     /* Added by Daniel J. Martinez Manzano <dani@dif.um.es> */
     public SSLServerSocket createSSLServerSocket(int port, int backlog,
             InetAddress bindAddress) throws IOException {
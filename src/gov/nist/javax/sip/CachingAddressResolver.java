@@ -0,0 +1,459 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ *
+ */
+package gov.nist.javax.sip;
+
+import gov.nist.core.CommonLogger;
+import gov.nist.core.LogWriter;
+import gov.nist.core.NamingThreadFactory;
+import gov.nist.core.StackLogger;
+import gov.nist.core.net.AddressResolver;
+import gov.nist.core.net.DnsLookup;
+import gov.nist.core.net.DnsRecord;
+import gov.nist.core.net.HostNameResolver;
+import gov.nist.core.net.JndiDnsLookup;
+import gov.nist.javax.sip.stack.HopImpl;
+import gov.nist.javax.sip.stack.MessageProcessor;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sip.ListeningPoint;
+import javax.sip.address.Hop;
+
+/**
+ * An address resolver locating SIP servers as described by RFC 3263 and
+ * caching the DNS answers. Register it with
+ * gov.nist.javax.sip.ADDRESS_RESOLVER=gov.nist.javax.sip.CachingAddressResolver.
+ *
+ * A hop without a port whose host is a name is resolved through the NAPTR
+ * records of the name, keeping the one whose service matches the transport of
+ * the hop, and the SRV records of its replacement, or of _sip._udp.name,
+ * _sip._tcp.name, _sips._tcp.name or _sip._sctp.name when there is no NAPTR
+ * record. The SRV target is picked by priority and weight (RFC 2782). Without
+ * SRV records the hop gets the default port of its transport, like with the
+ * {@link DefaultAddressResolver}.
+ *
+ * The resolver also resolves host names for the stack, which routes the
+ * lookups of its message path through {@link #getByName(String)}.
+ *
+ * The answers are cached for their time to live, bounded by the maximum time to
+ * live, and names without records for the negative time to live. An entry used
+ * in the last quarter of its life is refreshed in the background, so busy names
+ * never expire and the message path only blocks on a name the first time. After
+ * a failed refresh the entry keeps being served and the next refresh waits a few
+ * seconds, so a DNS outage does not turn every lookup into a query.
+ */
+public class CachingAddressResolver implements AddressResolver, HostNameResolver {
+
+    private static StackLogger logger = CommonLogger.getLogger(CachingAddressResolver.class);
+
+    // wait between the refreshes of an entry while they fail
+    private static final long REFRESH_RETRY_MILLIS = 5000;
+
+    private final DnsLookup dnsLookup;
+
+    private final Executor refreshExecutor;
+
+    private final Map<String, CacheEntry> cache = new ConcurrentHashMap<String, CacheEntry>();
+
+    private volatile long maxTtl = 3600;
+
+    private volatile long negativeTtl = 30;
+
+    private volatile int maxEntries = 10000;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong refreshes = new AtomicLong();
+
+    /**
+     * Query the DNS servers of the system through JNDI.
+     */
+    public CachingAddressResolver() {
+        this(new JndiDnsLookup(), null);
+    }
+
+    /**
+     * @param dnsLookup the upstream queried on cache misses and refreshes.
+     * @param refreshExecutor runs the background refreshes and prefetches,
+     *            null for two daemon threads of the resolver.
+     */
+    public CachingAddressResolver(DnsLookup dnsLookup, Executor refreshExecutor) {
+        if (dnsLookup == null) {
+            throw new NullPointerException("null dnsLookup");
+        }
+        this.dnsLookup = dnsLookup;
+        if (refreshExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 2, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new NamingThreadFactory("DnsRefresh",
+                            new ThreadFactory() {
+                                public Thread newThread(Runnable runnable) {
+                                    Thread thread = new Thread(runnable);
+                                    thread.setDaemon(true);
+                                    return thread;
+                                }
+                            }));
+            executor.allowCoreThreadTimeOut(true);
+            refreshExecutor = executor;
+        }
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see gov.nist.core.net.AddressResolver#resolveAddress(javax.sip.address.Hop)
+     */
+    public Hop resolveAddress(Hop inputAddress) {
+        String transport = inputAddress.getTransport();
+        if (inputAddress.getPort() != -1) {
+            return inputAddress;
+        }
+        String host = inputAddress.getHost();
+        if (!isAddressLiteral(host)) {
+            Hop server = lookupServer(host, transport);
+            if (server != null) {
+                return server;
+            }
+        }
+        return new HopImpl(host, MessageProcessor.getDefaultPort(transport), transport);
+    }
+
+    /**
+     * Resolve a host name through the cache.
+     */
+    public InetAddress getByName(String host) throws UnknownHostException {
+        if (host == null || isAddressLiteral(host)) {
+            return InetAddress.getByName(host);
+        }
+        List<DnsRecord> records = lookup(host, DnsRecord.A);
+        if (records.isEmpty()) {
+            records = lookup(host, DnsRecord.AAAA);
+        }
+        if (records.isEmpty()) {
+            throw new UnknownHostException(host);
+        }
+        return records.get(0).getAddress();
+    }
+
+    /**
+     * Resolve the addresses of a host in the background, so that a later
+     * {@link #getByName(String)} is answered from the cache.
+     */
+    public void prefetch(final String host) {
+        if (host == null || isAddressLiteral(host)) {
+            return;
+        }
+        refreshExecutor.execute(new Runnable() {
+            public void run() {
+                if (query(DnsRecord.A, host).records.isEmpty()) {
+                    query(DnsRecord.AAAA, host);
+                }
+            }
+        });
+    }
+
+    private Hop lookupServer(String host, String transport) {
+        String service;
+        String srvPrefix;
+        if (ListeningPoint.UDP.equalsIgnoreCase(transport)) {
+            service = "SIP+D2U";
+            srvPrefix = "_sip._udp.";
+        } else if (ListeningPoint.TCP.equalsIgnoreCase(transport)) {
+            service = "SIP+D2T";
+            srvPrefix = "_sip._tcp.";
+        } else if (ListeningPoint.TLS.equalsIgnoreCase(transport)) {
+            service = "SIPS+D2T";
+            srvPrefix = "_sips._tcp.";
+        } else if (ListeningPoint.SCTP.equalsIgnoreCase(transport)) {
+            service = "SIP+D2S";
+            srvPrefix = "_sip._sctp.";
+        } else {
+            // no SRV convention for the other transports
+            return null;
+        }
+        String srvName = null;
+        DnsRecord best = null;
+        for (DnsRecord naptr : lookup(host, DnsRecord.NAPTR)) {
+            if (service.equalsIgnoreCase(naptr.getService())
+                    && "s".equalsIgnoreCase(naptr.getFlags())
+                    && (best == null || naptr.getOrder() < best.getOrder()
+                            || (naptr.getOrder() == best.getOrder()
+                                    && naptr.getPreference() < best.getPreference()))) {
+                best = naptr;
+            }
+        }
+        if (best != null) {
+            srvName = stripRoot(best.getTarget());
+        } else {
+            srvName = srvPrefix + host;
+        }
+        DnsRecord srv = selectSrv(lookup(srvName, DnsRecord.SRV));
+        if (srv == null) {
+            return null;
+        }
+        String target = stripRoot(srv.getTarget());
+        if (target.length() == 0) {
+            // "." means the service is not available at this domain
+            return null;
+        }
+        return new HopImpl(target, srv.getPort(), transport);
+    }
+
+    /**
+     * Pick among the SRV records of the lowest priority, at random in
+     * proportion to their weights (RFC 2782).
+     */
+    private static DnsRecord selectSrv(List<DnsRecord> records) {
+        int priority = Integer.MAX_VALUE;
+        int totalWeight = 0;
+        for (DnsRecord record : records) {
+            if (record.getOrder() < priority) {
+                priority = record.getOrder();
+                totalWeight = 0;
+            }
+            if (record.getOrder() == priority) {
+                totalWeight += record.getPreference();
+            }
+        }
+        int pick = totalWeight > 0 ? ThreadLocalRandom.current().nextInt(totalWeight) : 0;
+        DnsRecord selected = null;
+        for (DnsRecord record : records) {
+            if (record.getOrder() != priority) {
+                continue;
+            }
+            if (selected == null) {
+                selected = record;
+            }
+            pick -= record.getPreference();
+            if (pick < 0) {
+                return record;
+            }
+        }
+        return selected;
+    }
+
+    private static String stripRoot(String name) {
+        return name.endsWith(".") ? name.substring(0, name.length() - 1) : name;
+    }
+
+    /**
+     * @return true for an IPv4 or IPv6 address, which needs no lookup.
+     */
+    private static boolean isAddressLiteral(String host) {
+        if (host.indexOf(':') >= 0) {
+            return true;
+        }
+        int length = host.length();
+        if (length == 0 || !Character.isDigit(host.charAt(length - 1))) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = host.charAt(i);
+            if (c != '.' && (c < '0' || c > '9')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private List<DnsRecord> lookup(String name, String type) {
+        String key = type + ' ' + name.toLowerCase();
+        CacheEntry entry = cache.get(key);
+        long now = System.currentTimeMillis();
+        if (entry != null && now < entry.expiresAt) {
+            hits.incrementAndGet();
+            if (now >= entry.refreshAt && entry.refreshing.compareAndSet(false, true)) {
+                scheduleRefresh(type, name);
+            }
+            return entry.records;
+        }
+        misses.incrementAndGet();
+        return query(type, name).records;
+    }
+
+    private void scheduleRefresh(final String type, final String name) {
+        refreshes.incrementAndGet();
+        refreshExecutor.execute(new Runnable() {
+            public void run() {
+                query(type, name);
+            }
+        });
+    }
+
+    /**
+     * Query the upstream and cache the answer. A failed query keeps serving the
+     * previous answer until it expires, and postpones its next refresh. Without
+     * a previous answer the failure is cached for the retry delay only, unlike
+     * a name without records.
+     */
+    private CacheEntry query(String type, String name) {
+        String key = type + ' ' + name.toLowerCase();
+        List<DnsRecord> records;
+        try {
+            records = Collections.unmodifiableList(new ArrayList<DnsRecord>(dnsLookup.lookup(name, type)));
+        } catch (IOException ex) {
+            if (logger.isLoggingEnabled(LogWriter.TRACE_WARN)) {
+                logger.logWarning("DNS lookup failed " + ex.getMessage());
+            }
+            CacheEntry previous = cache.get(key);
+            long now = System.currentTimeMillis();
+            if (previous != null && now < previous.expiresAt) {
+                previous.refreshAt = now + REFRESH_RETRY_MILLIS;
+                previous.refreshing.set(false);
+                return previous;
+            }
+            return cache(key, type, name, Collections.<DnsRecord>emptyList(),
+                    Math.min(negativeTtl * 1000, REFRESH_RETRY_MILLIS));
+        }
+        long ttl = negativeTtl;
+        if (!records.isEmpty()) {
+            ttl = maxTtl;
+            for (DnsRecord record : records) {
+                ttl = Math.min(ttl, record.getTtl());
+            }
+        }
+        return cache(key, type, name, records, ttl * 1000);
+    }
+
+    private CacheEntry cache(String key, String type, String name, List<DnsRecord> records,
+            long ttlMillis) {
+        CacheEntry entry = new CacheEntry(records, ttlMillis);
+        if (ttlMillis > 0) {
+            if (cache.size() >= maxEntries) {
+                purgeExpired();
+            }
+            if (cache.size() < maxEntries) {
+                cache.put(key, entry);
+            }
+        }
+        if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+            logger.logDebug("DNS " + type + " " + name + " -> " + records + " cached for " + ttlMillis + "ms");
+        }
+        return entry;
+    }
+
+    private void purgeExpired() {
+        long now = System.currentTimeMillis();
+        for (Iterator<CacheEntry> it = cache.values().iterator(); it.hasNext();) {
+            if (now >= it.next().expiresAt) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Drop all the cached answers.
+     */
+    public void clearCache() {
+        cache.clear();
+    }
+
+    /**
+     * @param maxTtl the longest time an answer is cached, in seconds, whatever
+     *            the time to live of its records. 3600 by default.
+     */
+    public void setMaxTtl(long maxTtl) {
+        this.maxTtl = maxTtl;
+    }
+
+    public long getMaxTtl() {
+        return maxTtl;
+    }
+
+    /**
+     * @param negativeTtl the time the absence of records is cached, in
+     *            seconds, 0 not to cache it. 30 by default.
+     */
+    public void setNegativeTtl(long negativeTtl) {
+        this.negativeTtl = negativeTtl;
+    }
+
+    public long getNegativeTtl() {
+        return negativeTtl;
+    }
+
+    /**
+     * @param maxEntries the most answers cached, 10000 by default.
+     */
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @return the number of lookups answered from the cache.
+     */
+    public long getCacheHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups that queried the upstream.
+     */
+    public long getCacheMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of background refreshes started.
+     */
+    public long getRefreshes() {
+        return refreshes.get();
+    }
+
+    private static final class CacheEntry {
+        final List<DnsRecord> records;
+        final long expiresAt;
+        // pushed out when a refresh fails
+        volatile long refreshAt;
+        final AtomicBoolean refreshing = new AtomicBoolean();
+
+        CacheEntry(List<DnsRecord> records, long ttlMillis) {
+            long now = System.currentTimeMillis();
+            this.records = records;
+            this.expiresAt = now + ttlMillis;
+            this.refreshAt = now + ttlMillis * 3 / 4;
+        }
+    }
+}
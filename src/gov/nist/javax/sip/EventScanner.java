@@ -32,6 +32,7 @@ import gov.nist.core.StackLogger;
 import gov.nist.core.ThreadAuditor;
 import gov.nist.javax.sip.message.SIPRequest;
 import gov.nist.javax.sip.message.SIPResponse;
+import gov.nist.javax.sip.stack.LoadMonitor;
 import gov.nist.javax.sip.stack.SIPClientTransaction;
 import gov.nist.javax.sip.stack.SIPDialog;
 import gov.nist.javax.sip.stack.SIPServerTransaction;
@@ -42,6 +43,7 @@ import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.sip.Dialog;
 import javax.sip.DialogState;
 import javax.sip.DialogTerminatedEvent;
 import javax.sip.IOExceptionEvent;
@@ -49,8 +51,10 @@ import javax.sip.RequestEvent;
 import javax.sip.ResponseEvent;
 import javax.sip.SipListener;
 import javax.sip.TimeoutEvent;
+import javax.sip.Transaction;
 import javax.sip.TransactionState;
 import javax.sip.TransactionTerminatedEvent;
+import javax.sip.header.CallIdHeader;
 import javax.sip.message.Request;
 import javax.sip.message.Response;
 
@@ -59,6 +63,12 @@ import javax.sip.message.Response;
 /**
  * Event Scanner to deliver events to the Listener.
  *
+ * By default a single thread delivers all the events. With
+ * gov.nist.javax.sip.EVENT_DELIVERY_THREADS set to more than one, each thread
+ * has its own queue and the events are routed to a queue by Call-ID, so the
+ * events of one call are still delivered one at a time and in order while
+ * different calls are delivered in parallel.
+ *
  * @version 1.2 $Revision: 1.47 $ $Date: 2010-12-02 22:04:18 $
  *
  * @author M. Ranganathan <br/>
@@ -72,6 +82,12 @@ public class EventScanner implements Runnable {
     private boolean isStopped;
 
     private BlockingQueue<EventWrapper> pendingEvents;
+
+    // One queue per delivery thread, the first one is pendingEvents.
+    private final BlockingQueue<EventWrapper>[] deliveryQueues;
+
+    // Queued on stop to wake up the delivery threads so they can exit.
+    private static final EventWrapper WAKE_UP = new EventWrapper(null, null);
     
     private AtomicInteger refCount;
 
@@ -84,24 +100,55 @@ public class EventScanner implements Runnable {
     public EventScanner(SipStackImpl sipStackImpl) {
     	refCount = new AtomicInteger(0);
         this.pendingEvents = new LinkedBlockingQueue<EventWrapper>();
-        Thread myThread = new Thread(this);
-        // This needs to be set to false else the
-        // main thread mysteriously exits.
-        myThread.setDaemon(false);
-
         this.sipStack = sipStackImpl;
+        // The events of a call must always go to the same queue, so the
+        // number of queues is fixed for the life of the scanner.
+        int threads = Math.max(1, sipStackImpl.getEventDeliveryThreads());
+        this.deliveryQueues = newQueues(threads);
+        this.deliveryQueues[0] = pendingEvents;
 
-        myThread.setName("EventScannerThread");
+        // This needs to be non daemon else the
+        // main thread mysteriously exits.
+        Thread myThread = sipStackImpl.newThread(this, "EventScannerThread", false);
 
         myThread.start();
 
+        for (int i = 1; i < threads; i++) {
+            final BlockingQueue<EventWrapper> queue = new LinkedBlockingQueue<EventWrapper>();
+            deliveryQueues[i] = queue;
+            Thread thread = sipStack.newThread(new Runnable() {
+                public void run() {
+                    deliverEvents(queue);
+                }
+            }, "EventScannerThread-" + i, false);
+            thread.start();
+        }
+    }
+
+    // Arrays of a generic type cannot be created, this one only ever holds
+    // queues of EventWrapper.
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static BlockingQueue<EventWrapper>[] newQueues(int length) {
+        return new BlockingQueue[length];
+    }
+
+    /**
+     * @return the number of threads delivering events to the listener.
+     */
+    public int getDeliveryThreads() {
+        return deliveryQueues.length;
     }
 
     public void addEvent(EventWrapper eventWrapper) {
     	if (logger.isLoggingEnabled(LogLevels.TRACE_DEBUG))
     		logger.logDebug("addEvent " + eventWrapper);
     		// Add the event into the pending events list
-            boolean added = pendingEvents.offer(eventWrapper);
+            if (sipStack.getLoadMonitor() != null) {
+                eventWrapper.queuedTime = System.currentTimeMillis();
+            }
+            BlockingQueue<EventWrapper> queue = deliveryQueues.length == 1 ? pendingEvents
+                    : deliveryQueues[partitionOf(eventWrapper, deliveryQueues.length)];
+            boolean added = queue.offer(eventWrapper);
 
             if (!added)
         		logger.logWarning("reached queue capacity limit couldn't addEvent " + eventWrapper);
@@ -115,6 +162,7 @@ public class EventScanner implements Runnable {
     public void stop() {
             if (refCount.get() == 0) {
                 isStopped = true;
+                wakeUp();
             }
     }
 
@@ -126,6 +174,83 @@ public class EventScanner implements Runnable {
     public void forceStop() {
             this.isStopped = true;
             this.refCount.set(0);
+            wakeUp();
+    }
+
+    private void wakeUp() {
+        for (BlockingQueue<EventWrapper> queue : deliveryQueues) {
+            queue.offer(WAKE_UP);
+        }
+    }
+
+    /**
+     * The queue of the events of a call. Events that do not belong to a call
+     * go to the first queue.
+     */
+    private static int partitionOf(EventWrapper eventWrapper, int partitions) {
+        String callId = null;
+        try {
+            callId = callIdOf(eventWrapper.sipEvent);
+        } catch (RuntimeException ex) {
+            // the event is delivered anyway, only ordering is at stake
+            if (logger.isLoggingEnabled(LogLevels.TRACE_DEBUG))
+                logger.logDebug("could not get the Call-ID of " + eventWrapper.sipEvent);
+        }
+        if (callId == null) {
+            return 0;
+        }
+        int h = callId.hashCode();
+        h ^= (h >>> 16);
+        return (h & 0x7fffffff) % partitions;
+    }
+
+    private static String callIdOf(EventObject sipEvent) {
+        if (sipEvent instanceof RequestEvent) {
+            return callIdOf(((RequestEvent) sipEvent).getRequest().getHeader(CallIdHeader.NAME));
+        } else if (sipEvent instanceof ResponseEvent) {
+            return callIdOf(((ResponseEvent) sipEvent).getResponse().getHeader(CallIdHeader.NAME));
+        } else if (sipEvent instanceof TimeoutEvent) {
+            TimeoutEvent timeoutEvent = (TimeoutEvent) sipEvent;
+            return callIdOf(timeoutEvent.isServerTransaction() ? timeoutEvent.getServerTransaction()
+                    : timeoutEvent.getClientTransaction());
+        } else if (sipEvent instanceof TransactionTerminatedEvent) {
+            TransactionTerminatedEvent terminatedEvent = (TransactionTerminatedEvent) sipEvent;
+            return callIdOf(terminatedEvent.isServerTransaction() ? terminatedEvent.getServerTransaction()
+                    : terminatedEvent.getClientTransaction());
+        } else if (sipEvent instanceof DialogTimeoutEvent) {
+            return callIdOf(((DialogTimeoutEvent) sipEvent).getDialog());
+        } else if (sipEvent instanceof DialogTerminatedEvent) {
+            return callIdOf(((DialogTerminatedEvent) sipEvent).getDialog());
+        }
+        return null;
+    }
+
+    private static String callIdOf(Object callIdHeader) {
+        return callIdHeader == null ? null : ((CallIdHeader) callIdHeader).getCallId();
+    }
+
+    private static String callIdOf(Dialog dialog) {
+        return dialog == null ? null : callIdOf(dialog.getCallId());
+    }
+
+    private static String callIdOf(Transaction transaction) {
+        if (transaction == null) {
+            return null;
+        }
+        String callId = callIdOf(transaction.getDialog());
+        if (callId != null) {
+            return callId;
+        }
+        // the request may have been released by the transaction already
+        SIPRequest originalRequest = ((SIPTransaction) transaction).getOriginalRequest();
+        if (originalRequest != null) {
+            return callIdOf(originalRequest.getCallId());
+        }
+        if (transaction instanceof SIPClientTransaction) {
+            return ((SIPClientTransaction) transaction).getOriginalRequestCallId();
+        }
+        Request request = transaction.getRequest();
+        return request == null ? null : callIdOf(request.getHeader(CallIdHeader.NAME));
     }
 
     public void deliverEvent(EventWrapper eventWrapper) {
@@ -142,6 +267,14 @@ public class EventScanner implements Runnable {
             sipListener = sipStack.getSipListener();
         }
 
+        LoadMonitor loadMonitor = sipStack.getLoadMonitor();
+        long startTime = 0;
+        if (loadMonitor != null) {
+            startTime = System.currentTimeMillis();
+            if (eventWrapper.queuedTime > 0) {
+                loadMonitor.queueDelay(startTime - eventWrapper.queuedTime);
+            }
+        }
         if (sipEvent instanceof RequestEvent) {
         	deliverRequestEvent((RequestEvent)sipEvent, eventWrapper, sipListener);
         } else if (sipEvent instanceof ResponseEvent) {
@@ -160,7 +293,9 @@ public class EventScanner implements Runnable {
 
             logger.logFatalError("bad event" + sipEvent);
         }
-
+        if (loadMonitor != null) {
+            loadMonitor.listenerTime(System.currentTimeMillis() - startTime);
+        }
     }
     
     private void deliverRequestEvent(RequestEvent sipEvent, EventWrapper eventWrapper, SipListener sipListener) {
@@ -475,6 +610,10 @@ public class EventScanner implements Runnable {
      * calls the deliverEvent method above.
      */
     public void run() {
+        deliverEvents(pendingEvents);
+    }
+
+    private void deliverEvents(BlockingQueue<EventWrapper> queue) {
         try {
             // Ask the auditor to monitor this thread
         	ThreadAuditor.ThreadHandle threadHandle = null;
@@ -509,8 +648,10 @@ public class EventScanner implements Runnable {
                 // tap-dancing is to avoid deadlocks and also to ensure that
                 // the list is not modified while we are iterating over it.
             	try {
-					eventWrapper = (EventWrapper) pendingEvents.take();
-					deliverEvent(eventWrapper);
+					eventWrapper = queue.take();
+					if (eventWrapper != WAKE_UP) {
+						deliverEvent(eventWrapper);
+					}
             	} catch (InterruptedException ex) {
             		// Let the thread die a normal death
             		if (logger.isLoggingEnabled(LogLevels.TRACE_ERROR))
@@ -35,6 +35,8 @@ public class EventWrapper {
 
     protected EventObject sipEvent;
     protected SIPTransaction transaction;
+    // when the event was queued for delivery, 0 if it was not timed
+    protected long queuedTime;
 
     public EventWrapper(EventObject sipEvent, SIPTransaction transaction) {
         this.sipEvent = sipEvent;
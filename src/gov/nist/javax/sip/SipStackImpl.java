@@ -30,6 +30,7 @@ import gov.nist.core.LogLevels;
 import gov.nist.core.ServerLogger;
 import gov.nist.core.StackLogger;
 import gov.nist.core.ThreadAuditor;
+import gov.nist.core.VirtualThreads;
 import gov.nist.core.net.AddressResolver;
 import gov.nist.core.net.DefaultSecurityManagerProvider;
 import gov.nist.core.net.NetworkLayer;
@@ -39,6 +40,8 @@ import gov.nist.javax.sip.clientauthutils.AccountManager;
 import gov.nist.javax.sip.clientauthutils.AuthenticationHelper;
 import gov.nist.javax.sip.clientauthutils.AuthenticationHelperImpl;
 import gov.nist.javax.sip.clientauthutils.SecureAccountManager;
+import gov.nist.javax.sip.header.SIPHeader;
+import gov.nist.javax.sip.message.SIPMessage;
 import gov.nist.javax.sip.parser.MessageParserFactory;
 import gov.nist.javax.sip.parser.PostParseExecutorServices;
 import gov.nist.javax.sip.parser.StringMsgParser;
@@ -51,10 +54,13 @@ import gov.nist.javax.sip.stack.DefaultRouter;
 import gov.nist.javax.sip.stack.MessageProcessor;
 import gov.nist.javax.sip.stack.MessageProcessorFactory;
 import gov.nist.javax.sip.stack.OIOMessageProcessorFactory;
+import gov.nist.javax.sip.stack.SIPDialog;
 import gov.nist.javax.sip.stack.SIPEventInterceptor;
 import gov.nist.javax.sip.stack.SIPMessageValve;
 import gov.nist.javax.sip.stack.SIPTransactionStack;
+import gov.nist.javax.sip.stack.SelectorAssignmentStrategy;
 import gov.nist.javax.sip.stack.SocketTimeoutAuditor;
+import gov.nist.javax.sip.stack.store.SipStoreFactory;
 import gov.nist.javax.sip.stack.timers.DefaultSipTimer;
 import gov.nist.javax.sip.stack.timers.SipTimer;
 
@@ -265,6 +271,21 @@ import javax.sip.message.Request;
  * multithreaded machine write your listener to be re-entrant and set this
  * property to be true </b></li>
  * 
+ * <li><b>gov.nist.javax.sip.EVENT_DELIVERY_THREADS = integer </b> <br/>
+ * Default is 1. Number of threads delivering events to a listener that is not
+ * re-entrant. Events are assigned to a thread by Call-ID, so the listener is
+ * still called for one call at a time and in order, but calls are handled in
+ * parallel: the listener must be able to handle different calls concurrently.
+ * Ignored when REENTRANT_LISTENER is true.</li>
+ * 
+ * <li><b>gov.nist.javax.sip.VIRTUAL_THREADS = true|false </b> <br/>
+ * Default is false. Requires JDK 21 or later, ignored with a warning otherwise.
+ * Set to true to run the connection threads of the blocking TCP and TLS
+ * transports, the self routing thread pool, the re-INVITE sender and the event
+ * delivery threads as virtual threads, so that a stack can hold a very large
+ * number of blocking connections. Virtual threads are daemon threads: the
+ * stack no longer keeps the JVM alive on its own.</li>
+ * 
  * <li><b>gov.nist.javax.sip.MAX_CONNECTIONS = integer </b> <br/>
  * Max number of simultaneous TCP connections handled by stack.</li>
  * 
@@ -345,7 +366,9 @@ import javax.sip.message.Request;
  * getHostByName. Specifying your own address resolver allows you to customize
  * address lookup. The default address resolver is a pass-through address
  * resolver (i.e. just returns the input string without doing a resolution). See
- * gov.nist.javax.sip.DefaultAddressResolver.</li>
+ * gov.nist.javax.sip.DefaultAddressResolver. Set it to
+ * gov.nist.javax.sip.CachingAddressResolver for RFC 3263 NAPTR/SRV lookups
+ * and cached host name resolution on the message path.</li>
  * 
  * <li><b>gov.nist.javax.sip.AUTO_GENERATE_TIMESTAMP= [true| false] </b><br/>
  * (default is false) Automatically generate a getTimeOfDay timestamp for a
@@ -372,6 +395,43 @@ import javax.sip.message.Request;
  * by the SIP RFC spec.
  * </li>
  * 
+ * <li><b>gov.nist.javax.sip.NIO_SELECTOR_THREADS = integer </b> <br/>
+ * Default is <it>1</it>. Number of I/O selector threads serving the connections of
+ * each NIO TCP/TLS/WS/WSS listening point. With the default a single thread accepts
+ * the connections and does all their reads and writes, which becomes the throughput
+ * ceiling with tens of thousands of persistent connections. When set higher, one
+ * thread only accepts connections and hands each one over to one of the I/O threads,
+ * which then serves all its reads and writes.
+ * </li>
+ * 
+ * <li><b>gov.nist.javax.sip.NIO_SELECTOR_ASSIGNMENT = [RoundRobin|LeastLoaded] </b> <br/>
+ * Default is <it>RoundRobin</it>. How new connections are assigned to the
+ * NIO_SELECTOR_THREADS I/O threads: in turn, or to the thread currently serving the
+ * fewest connections.
+ * </li>
+ * 
+ * <li><b>gov.nist.javax.sip.NIO_WRITE_BATCH_WINDOW = integer </b> <br/>
+ * Default is <it>0</it>. The messages queued for a NIO connection are written by its
+ * selector thread with a single gathering write. With 0 the selector thread is woken
+ * up as soon as a message is queued and writes everything queued by then. A positive
+ * value is a number of milliseconds during which the messages sent on a connection
+ * are held back to go out together, trading latency for fewer system calls on busy
+ * trunk connections.
+ * </li>
+ * 
+ * <li><b>gov.nist.javax.sip.NIO_MAX_QUEUED_BYTES_PER_CONNECTION = integer </b> <br/>
+ * Default is <it>0</it>, no limit. Number of bytes that may wait to be written on a
+ * NIO connection. Sending a message on a connection that has this much pending fails
+ * with an IOException, so a peer that stops reading cannot exhaust the memory.
+ * </li>
+ * 
+ * <li><b>gov.nist.javax.sip.WEBSOCKET_PERMESSAGE_DEFLATE = [true|false] </b> <br/>
+ * Default is <it>false</it>. Accept the permessage-deflate extension of RFC 7692
+ * offered by WebSocket clients. The messages of the connections that negotiate it
+ * are compressed both ways, which pays off for the large SDP bodies of WebRTC
+ * clients. Each such connection holds a deflater and an inflater.
+ * </li>
+ * 
  * <li><b>gov.nist.javax.sip.stack.USE_DIRECT_BUFFERS = [true|false]</b> <br/>
  * Default is <it>true</it> If set to <it>false</it>, the NIO stack won't use direct buffers.
  * As Direct buffers reside outside of the heap memory, they can lead to unforeseen out of memory exceptions
@@ -379,6 +439,53 @@ import javax.sip.message.Request;
  * monitoring and management.
  * </li>
  * 
+ * <li><b>gov.nist.javax.sip.stack.BUFFER_POOL_SIZE = integer</b> <br/>
+ * Default is <it>256</it>. The UDP and NIO TCP/TLS/WebSocket read paths lease their receive
+ * buffers from a pool (see {@link ByteBufferFactory}) instead of allocating a new one for every
+ * datagram or socket read. This is the maximum number of idle buffers kept per size class.
+ * Set it to 0 to disable pooling.
+ * </li>
+ * 
+ * <li><b>gov.nist.javax.sip.stack.BUFFER_POOL_LEAK_DETECTION = [true|false]</b> <br/>
+ * Default is <it>false</it>. Debugging aid: records where each pooled buffer was leased and
+ * logs the buffers that were never released when the stack is stopped.
+ * </li>
+ * 
+ * <li><b>gov.nist.javax.sip.LAZY_HEADER_PARSING = [true|false] </b> <br/>
+ * Default is <it>false</it>. If set to <it>true</it>, incoming messages only get the headers
+ * the stack needs for every message parsed right away (Via, From, To, Call-ID, CSeq,
+ * Max-Forwards, Route, Record-Route, Contact, Content-Type and Content-Length). The other
+ * headers are kept as received and parsed the first time they are looked up, headers that
+ * are never accessed are forwarded with exactly the text they were received with. A lazy
+ * header that turns out to be malformed is dropped when it is accessed rather than reported
+ * when the message is received. Used with the parsers created by the default
+ * MESSAGE_PARSER_FACTORY and by gov.nist.javax.sip.parser.ByteMsgParserFactory.
+ * </li>
+ * 
+ * <li><b>gov.nist.javax.sip.CONCURRENT_HEADER_ACCESS = [true|false] </b> <br/>
+ * Default is <it>false</it>. Messages keep their headers in compact structures that assume a
+ * message is used by one thread at a time. Set this to <it>true</it> if the application reads
+ * and modifies the headers of the same message from several threads concurrently, in which
+ * case every message uses concurrent collections for its headers. This is a JVM wide
+ * setting rather than a stack one: it is kept in a static of SIPMessage, applies to the
+ * messages created by every stack and by the factories of the JVM, and the last stack created
+ * with the property overrides the value set by the others. Stacks created without the property
+ * leave it unchanged.
+ * </li>
+ * 
+ * <li><b>gov.nist.javax.sip.COPY_ON_WRITE_HEADERS = [true|false] </b> <br/>
+ * Default is <it>false</it>. Set this to <it>true</it> to have the clones of the Call-ID,
+ * From and To headers, which the stack makes for every response, dialog and transaction,
+ * share the call identifier or address of the original header until either of them hands it
+ * out through a getter. The value is copied then, so that changes made through the getters
+ * stay private to each header. This is a JVM wide setting rather than a stack one: it is kept
+ * in a static of SIPHeader, applies to the headers cloned by every stack and application of
+ * the JVM, and the last stack created with the property overrides the value set by the others.
+ * Cloning marks the original header as shared as well, so a header must not be cloned while
+ * another thread reads or modifies it: with this option on, cloning counts as a modification of
+ * the original and the clones are not thread safe.
+ * </li>
+ * 
  * <li><b>gov.nist.javax.sip.COMPUTE_CONTENT_LENGTH_FROM_MESSAGE_BODY =
  * [true|false] </b> <br/>
  * Default is <it>false</it> If set to <it>true</it>, when you are creating a
@@ -427,6 +534,43 @@ import javax.sip.message.Request;
  * causing even more retransmissions. Good values to this property for servers
  * is a big number in the order of 8*8*1024 or higher.</li>
  * 
+ * <li><b>gov.nist.javax.sip.UDP_RECEIVE_THREADS = int </b> <br/>
+ * Default is <it>1</it>. The number of threads receiving datagrams on each UDP
+ * listening point. With a single thread all UDP ingress goes through one
+ * socket read loop, which caps it to one core. When set higher, each thread
+ * reads from its own socket bound to the same address and port with
+ * SO_REUSEPORT (the kernel spreads incoming datagrams over them) and hands the
+ * messages to its own share of the THREAD_POOL_SIZE workers. The sockets are
+ * created by the NETWORK_LAYER, which has to implement
+ * gov.nist.core.net.DatagramIOFactory as the default ones do. If it does not, or
+ * if the JVM or OS does not support SO_REUSEPORT, the threads share a single
+ * socket.</li>
+ * 
+ * <li><b>gov.nist.javax.sip.UDP_BATCH_SIZE = int </b> <br/>
+ * Default is <it>0</it>. When greater than 0 each UDP socket is driven by a
+ * non-blocking channel. Threads sending requests, responses and
+ * retransmissions queue their datagrams and return, and the I/O thread of the
+ * socket writes everything queued and reads up to this many datagrams each time
+ * it wakes up, so a burst of retransmissions or keep alives does not block the
+ * transaction threads one send at a time. Only applies when the network layer
+ * implements gov.nist.core.net.DatagramIOFactory, as the default ones do, and
+ * not to multicast addresses.</li>
+ * 
+ * <li><b>gov.nist.javax.sip.DIALOG_HIBERNATION_IDLE_TIME = int </b> <br/>
+ * Default is <it>0</it>, disabled. The time in seconds after which a confirmed
+ * dialog that was not used is hibernated: the addresses, route set, last ACK
+ * and other parsed headers it keeps for in-dialog requests are packed into a
+ * single block of bytes and the dialog lets go of its transactions. The
+ * dialog is restored transparently when it is used again, by a request,
+ * response or the application. This trims the memory held by long calls that
+ * sit idle between their INVITE and their BYE.</li>
+ * 
+ * <li><b>gov.nist.javax.sip.DIALOG_HIBERNATION_OFF_HEAP = [true|false] </b> <br/>
+ * Default is <it>false</it>. When true the state of hibernated dialogs is kept
+ * in direct buffers, outside the Java heap, so that it is not scanned nor
+ * copied by the garbage collector. The buffers are leased from the receive
+ * buffer pool and given back when the dialog wakes up or terminates.</li>
+ * 
  * <li><b>gov.nist.javax.sip.CONGESTION_CONTROL_TIMEOUT = int </b> How 
  * much time messages are allowed to wait in queue before being dropped due to
  * stack being too slow to respond. Default value is 8000 ms. The value is in
@@ -468,6 +612,13 @@ import javax.sip.message.Request;
  * will not be aligned any more. Eventually the connection will be closed.
  * </li>
  * 
+ * <li><b>gov.nist.javax.sip.TCP_POST_PARSING_MAX_QUEUED_PER_CALL = integer </b> <br/>
+ * Default is 0, no limit. Maximum number of messages of a single call waiting
+ * for the TCP post parsing thread pool. The messages of a call are processed one
+ * at a time and in order, further messages of a call that has this many waiting
+ * are dropped. Messages that waited longer than CONGESTION_CONTROL_TIMEOUT are
+ * dropped as well.</li>
+ * 
  * <li><b>gov.nist.javax.sip.DELIVER_UNSOLICITED_NOTIFY = [true|false] </b> <br/>
  * Default is <it>false</it>. This flag is added to allow Sip Listeners to
  * receive all NOTIFY requests including those that are not part of a valid
@@ -499,15 +650,28 @@ import javax.sip.message.Request;
  * 
  * <li><b>gov.nist.javax.sip.MESSAGE_PARSER_FACTORY =  name of the class implementing gov.nist.javax.sip.parser.MessageParserFactory</b>
  * This factory allows pluggable implementations of the MessageParser that will take care of parsing the incoming messages.
- * By example one could plug a lazy parser through this factory.</li>
+ * By example one could plug a lazy parser through this factory.
+ * gov.nist.javax.sip.parser.ByteMsgParserFactory selects a parser scanning the received bytes directly, which avoids
+ * most of the intermediate Strings and Lexer work for the common headers (Via, From, To, Call-ID, CSeq, Contact,
+ * Content-Length, Max-Forwards, Route, Record-Route).</li>
  * 
  * <li><b>gov.nist.javax.sip.MESSAGE_PROCESSOR_FACTORY =  name of the class implementing gov.nist.javax.sip.parser.MessageProcessorFactory</b>
  * This factory allows pluggable implementations of the MessageProcessor that will take care of incoming messages.
  * By example one could plug a NIO Processor through this factory.</li>
  * 
+ * <li><b>gov.nist.javax.sip.SIP_STORE_FACTORY =  name of the class implementing gov.nist.javax.sip.stack.store.SipStoreFactory</b>
+ * This allows pluggable storage of the dialog, early dialog, client transaction and server transaction tables
+ * of the stack. By default they are concurrent hash maps.
+ * gov.nist.javax.sip.stack.store.ReplicatedSipStoreFactory replicates the confirmed dialogs to peer stacks
+ * so that the calls of a stack survive its failure, see its documentation for its
+ * gov.nist.javax.sip.replication.* properties.</li>
+ * 
  * <li><b>gov.nist.javax.sip.TIMER_CLASS_NAME =  name of the class implementing gov.nist.javax.sip.stack.timers.SipTimer</b> interface
  * This allows pluggable implementations of the Timer that will take care of scheduling the various SIP Timers.
- * By example one could plug a regular timer, a scheduled thread pool executor.</li>
+ * By example one could plug a regular timer, a scheduled thread pool executor.
+ * gov.nist.javax.sip.stack.timers.HashedWheelSipTimer is a hashed timing wheel with O(1) schedule and
+ * cancel for stacks with a very large number of pending timers, see its documentation for its
+ * gov.nist.javax.sip.timers.HASHED_WHEEL_* properties.</li>
  * 
  * <li><b>gov.nist.javax.sip.DELIVER_RETRANSMITTED_ACK_TO_LISTENER=boolean</b> A testing property
  * that allows application to see the ACK for retransmitted 200 OK requests. <b>Note that this is for test
@@ -548,6 +712,9 @@ import javax.sip.message.Request;
  * implementation you can drop messages, send a response statelessly or otherwise transform/pre-process the message before it reaches
  * the next steps of the pipeline. Similarly from processResponse() you can manipulate a response or drop it silently, but dropping
  * responses is not recommended, because the transaction already exists when the request for the response was sent.
+ * The stack comes with gov.nist.javax.sip.stack.CongestionControlMessageValve, which sheds new requests over a number of
+ * server transactions, and gov.nist.javax.sip.stack.AdaptiveCongestionControlMessageValve, which adapts the rate of new
+ * requests it admits to the measured queueing delay and listener time and exposes its limit and rejection counters.
  * </li>
  * 
  * <li><b>gov.nist.javax.sip.SIP_EVENT_INTERCEPTOR</b> Default to null. The class name of your custom interceptor object.
@@ -585,6 +752,24 @@ import javax.sip.message.Request;
  * <li><b>gov.nist.javax.sip.SSL_HANDSHAKE_TIMEOUT</b> Value in seconds which is used as default timeout for performing the SSL Handshake
  * This prevents bad clients of connecting without sending any data to block the server</li>
  * 
+ * <li><b>gov.nist.javax.sip.TLS_SESSION_CACHE_SIZE = integer</b> Default is the JSSE default. The maximum number of
+ * TLS sessions cached by the server and by the client side of the NIO TLS and WSS listening points, 0 for no limit.
+ * Cached sessions let reconnecting peers resume them with an abbreviated handshake.</li>
+ *
+ * <li><b>gov.nist.javax.sip.TLS_SESSION_TIMEOUT = integer</b> Default is the JSSE default. The time in seconds a
+ * cached TLS session can be resumed, 0 for no limit.</li>
+ *
+ * <li><b>gov.nist.javax.sip.TLS_SESSION_TICKETS = [true|false]</b> Default is the JSSE default. Enables or disables
+ * the stateless session tickets of RFC 5077. JSSE only has JVM wide switches for them, so this sets the
+ * jdk.tls.server.enableSessionTicketExtension and jdk.tls.client.enableSessionTicketExtension system properties
+ * unless they are already set, and only takes effect if no TLS connection was made before.</li>
+ *
+ * <li><b>gov.nist.javax.sip.TLS_HANDSHAKE_THREADS = integer</b> Default is <b>0</b>. The number of threads that run
+ * the delegated tasks of the NIO TLS and WSS handshakes, the key exchange and certificate checks. By default they
+ * run on the selector thread, which serves all the connections, so a reconnection storm delays the established
+ * connections. Up to 1000 pending tasks are queued, beyond that they run on the selector thread again. The full
+ * and resumed handshakes of each listening point are counted by its message processor.</li>
+ *
  * <li><b>gov.nist.javax.sip.SSL_RENEGOTIATION_ENABLED = [true|false]</b> Default value is <b>true</b>. Allow or disallow SSL renegotiation to resolve potential DoS problem - 
  * <a href="http://web.nvd.nist.gov/view/vuln/detail?vulnId=CVE-2011-1473">reference</a> and <a href="http://www.ietf.org/mail-archive/web/tls/current/msg07553.html">another reference</a>. The safe option is to disable it.</li>
  *
@@ -640,6 +825,9 @@ public class SipStackImpl extends SIPTransactionStack implements
 	// Use this flag with caution.
 	private boolean reEntrantListener;
 
+	// Number of threads delivering events to a non re-entrant listener.
+	private int eventDeliveryThreads = 1;
+
 	SipListener sipListener;
 	TlsSecurityPolicy tlsSecurityPolicy;
 
@@ -688,6 +876,8 @@ public class SipStackImpl extends SIPTransactionStack implements
 	 * ReInitialize the stack instance.
 	 */
 	private void reInitialize() {
+		// the store factory was stopped with the stack
+		getStoreFactory().start(this, configurationProperties);
 		super.reInit();
 		this.eventScanner = new EventScanner(this);
 		this.listeningPoints = new Hashtable<String, ListeningPointImpl>();
@@ -702,6 +892,7 @@ public class SipStackImpl extends SIPTransactionStack implements
 		            // Start monitoring the timer thread
 		            getTimer().schedule(new PingTimer(null), 0);
 		        }
+				scheduleDialogHibernation();
 			} catch (Exception e) {
 				logger
 					.logError(
@@ -818,6 +1009,23 @@ public class SipStackImpl extends SIPTransactionStack implements
 		super.setSslHandshakeTimeout(Long.parseLong(
 		        configurationProperties.getProperty("gov.nist.javax.sip.SSL_HANDSHAKE_TIMEOUT", "-1")));
 
+		super.setTlsSessionCacheSize(Integer.parseInt(
+		        configurationProperties.getProperty("gov.nist.javax.sip.TLS_SESSION_CACHE_SIZE", "-1")));
+		super.setTlsSessionTimeout(Integer.parseInt(
+		        configurationProperties.getProperty("gov.nist.javax.sip.TLS_SESSION_TIMEOUT", "-1")));
+		String tlsSessionTickets = configurationProperties.getProperty("gov.nist.javax.sip.TLS_SESSION_TICKETS");
+		if (tlsSessionTickets != null) {
+			// JSSE only has JVM wide switches for the tickets, an explicit JVM setting wins
+			if (System.getProperty("jdk.tls.server.enableSessionTicketExtension") == null) {
+				System.setProperty("jdk.tls.server.enableSessionTicketExtension", tlsSessionTickets);
+			}
+			if (System.getProperty("jdk.tls.client.enableSessionTicketExtension") == null) {
+				System.setProperty("jdk.tls.client.enableSessionTicketExtension", tlsSessionTickets);
+			}
+		}
+		super.setTlsHandshakeThreads(Integer.parseInt(
+		        configurationProperties.getProperty("gov.nist.javax.sip.TLS_HANDSHAKE_THREADS", "0")));
+
 		super.setThreadPriority(Integer.parseInt(
 			        configurationProperties.getProperty("gov.nist.javax.sip.THREAD_PRIORITY","" + Thread.MAX_PRIORITY)));
 			
@@ -830,6 +1038,12 @@ public class SipStackImpl extends SIPTransactionStack implements
         ByteBufferFactory.getInstance().setUseDirect(Boolean.valueOf(
                 configurationProperties.getProperty("gov.nist.javax.sip.stack.USE_DIRECT_BUFFERS",
                         Boolean.TRUE.toString())));
+        ByteBufferFactory.getInstance().setMaxPooledBuffers(Integer.parseInt(
+                configurationProperties.getProperty("gov.nist.javax.sip.stack.BUFFER_POOL_SIZE",
+                        String.valueOf(ByteBufferFactory.DEFAULT_MAX_POOLED_BUFFERS))));
+        ByteBufferFactory.getInstance().setLeakDetection(Boolean.valueOf(
+                configurationProperties.getProperty("gov.nist.javax.sip.stack.BUFFER_POOL_LEAK_DETECTION",
+                        Boolean.FALSE.toString())));
 
 		this.defaultRouter = new DefaultRouter(this, outboundProxy);
 
@@ -1100,6 +1314,18 @@ public class SipStackImpl extends SIPTransactionStack implements
 		"8000"));
 		super.setStackCongestionControlTimeout(congetstionControlTimeout);
 
+		String maxQueuedPerCall = configurationProperties
+		.getProperty("gov.nist.javax.sip.TCP_POST_PARSING_MAX_QUEUED_PER_CALL");
+		if (maxQueuedPerCall != null) {
+			try {
+				super.setTcpPostParsingMaxQueuedPerCall(Integer.parseInt(maxQueuedPerCall));
+			} catch (NumberFormatException ex) {
+				if (logger.isLoggingEnabled())
+					logger.logError(
+							"TCP post-parse max queued per call - bad value " + maxQueuedPerCall + " : " + ex.getMessage());
+			}
+		}
+
 		String tcpTreadPoolSize = configurationProperties
 		.getProperty("gov.nist.javax.sip.TCP_POST_PARSING_THREAD_POOL_SIZE");
 		if (tcpTreadPoolSize != null) {
@@ -1249,6 +1475,38 @@ public class SipStackImpl extends SIPTransactionStack implements
 				.getProperty("gov.nist.javax.sip.REENTRANT_LISTENER");
 		this.reEntrantListener = (rel != null && "true".equalsIgnoreCase(rel));
 
+		String deliveryThreads = configurationProperties
+				.getProperty("gov.nist.javax.sip.EVENT_DELIVERY_THREADS");
+		if (deliveryThreads != null) {
+			try {
+				this.eventDeliveryThreads = Math.max(1, Integer.parseInt(deliveryThreads));
+				if (getEventDeliveryThreads() != this.eventScanner.getDeliveryThreads()) {
+					// the events of a call are partitioned over a fixed number
+					// of queues, the scanner started with the stack is replaced
+					this.eventScanner.forceStop();
+					this.eventScanner = new EventScanner(this);
+				}
+			} catch (NumberFormatException ex) {
+				if (logger.isLoggingEnabled())
+					logger.logError(
+						"EVENT_DELIVERY_THREADS - bad value " + ex.getMessage());
+			}
+		}
+
+		if (Boolean.valueOf(configurationProperties.getProperty(
+				"gov.nist.javax.sip.VIRTUAL_THREADS", "false")).booleanValue()) {
+			if (VirtualThreads.isAvailable()) {
+				super.setVirtualThreads(true);
+				// the event scanner threads were started with the stack,
+				// replace them by virtual ones
+				this.eventScanner.forceStop();
+				this.eventScanner = new EventScanner(this);
+			} else if (logger.isLoggingEnabled(LogLevels.TRACE_WARN)) {
+				logger.logWarning(
+					"VIRTUAL_THREADS - virtual threads are not supported by this JVM, using platform threads");
+			}
+		}
+
 		// Check if a thread audit interval is specified
 		String interval = configurationProperties
 				.getProperty("gov.nist.javax.sip.THREAD_AUDIT_INTERVAL_IN_MILLISECS");
@@ -1307,6 +1565,23 @@ public class SipStackImpl extends SIPTransactionStack implements
 		StringMsgParser
 				.setComputeContentLengthFromMessage(computeContentLength);
 
+		super.setLazyHeaderParsing(configurationProperties.getProperty(
+				"gov.nist.javax.sip.LAZY_HEADER_PARSING", "false").equalsIgnoreCase("true"));
+
+		String concurrentHeaderAccess = configurationProperties.getProperty(
+				"gov.nist.javax.sip.CONCURRENT_HEADER_ACCESS");
+		if (concurrentHeaderAccess != null) {
+			SIPMessage.setConcurrentHeaderAccess(concurrentHeaderAccess
+					.equalsIgnoreCase("true"));
+		}
+
+		String copyOnWriteHeaders = configurationProperties.getProperty(
+				"gov.nist.javax.sip.COPY_ON_WRITE_HEADERS");
+		if (copyOnWriteHeaders != null) {
+			SIPHeader.setCopyOnWriteClones(copyOnWriteHeaders
+					.equalsIgnoreCase("true"));
+		}
+
 		String tlsClientProtocols = configurationProperties.getProperty(
 				"gov.nist.javax.sip.TLS_CLIENT_PROTOCOLS");
 		if (tlsClientProtocols != null)
@@ -1372,6 +1647,42 @@ public class SipStackImpl extends SIPTransactionStack implements
 						.toString());
 		bufferSizeInteger = new Integer(bufferSize).intValue();
 		super.setSendUdpBufferSize(bufferSizeInteger);
+
+		String udpReceiveThreads = configurationProperties
+				.getProperty("gov.nist.javax.sip.UDP_RECEIVE_THREADS");
+		if (udpReceiveThreads != null) {
+			try {
+				super.setUdpReceiveThreads(Math.max(1, Integer.parseInt(udpReceiveThreads)));
+			} catch (NumberFormatException ex) {
+				if (logger.isLoggingEnabled())
+					logger.logError(
+						"UDP receive threads - bad value " + udpReceiveThreads + " : " + ex.getMessage());
+			}
+		}
+		String udpBatchSize = configurationProperties
+				.getProperty("gov.nist.javax.sip.UDP_BATCH_SIZE");
+		if (udpBatchSize != null) {
+			try {
+				super.setUdpBatchSize(Math.max(0, Integer.parseInt(udpBatchSize)));
+			} catch (NumberFormatException ex) {
+				if (logger.isLoggingEnabled())
+					logger.logError(
+						"UDP batch size - bad value " + udpBatchSize + " : " + ex.getMessage());
+			}
+		}
+		String dialogHibernationIdleTime = configurationProperties
+				.getProperty("gov.nist.javax.sip.DIALOG_HIBERNATION_IDLE_TIME");
+		if (dialogHibernationIdleTime != null) {
+			try {
+				super.setDialogHibernationIdleTime(Math.max(0, Integer.parseInt(dialogHibernationIdleTime)));
+			} catch (NumberFormatException ex) {
+				if (logger.isLoggingEnabled())
+					logger.logError(
+						"Dialog hibernation idle time - bad value " + dialogHibernationIdleTime + " : " + ex.getMessage());
+			}
+		}
+		super.setDialogHibernationOffHeap(Boolean.parseBoolean(configurationProperties
+				.getProperty("gov.nist.javax.sip.DIALOG_HIBERNATION_OFF_HEAP", "false")));
 		// Contribution for https://github.com/Mobicents/jain-sip/issues/40
 		super.setConnectionLingerTimer(Integer.parseInt(configurationProperties.getProperty(
 				"gov.nist.javax.sip.LINGER_TIMER", "8")));
@@ -1419,6 +1730,19 @@ public class SipStackImpl extends SIPTransactionStack implements
 						"Bad configuration value for gov.nist.javax.sip.MESSAGE_PROCESSOR_FACTORY", e);			
 		}
 		
+		String storeFactoryName = configurationProperties.getProperty("gov.nist.javax.sip.SIP_STORE_FACTORY");
+		if (storeFactoryName != null) {
+			try {
+				SipStoreFactory storeFactory = (SipStoreFactory) Class.forName(storeFactoryName).newInstance();
+				storeFactory.start(this, configurationProperties);
+				super.setStoreFactory(storeFactory);
+			} catch (Exception e) {
+				logger
+					.logError(
+							"Bad configuration value for gov.nist.javax.sip.SIP_STORE_FACTORY", e);
+			}
+		}
+
 		String maxIdleTimeString = configurationProperties.getProperty("gov.nist.javax.sip.NIO_MAX_SOCKET_IDLE_TIME", "7200000");
 		try {
 			super.nioSocketMaxIdleTime = Long.parseLong(maxIdleTimeString);
@@ -1428,6 +1752,37 @@ public class SipStackImpl extends SIPTransactionStack implements
 						"Bad configuration value for gov.nist.javax.sip.NIO_MAX_SOCKET_IDLE_TIME=" + maxIdleTimeString, e);			
 		}
 		
+		String nioSelectorThreads = configurationProperties.getProperty("gov.nist.javax.sip.NIO_SELECTOR_THREADS", "1");
+		try {
+			super.setNioSelectorThreads(Math.max(1, Integer.parseInt(nioSelectorThreads)));
+		} catch (NumberFormatException e) {
+			logger
+				.logError(
+						"Bad configuration value for gov.nist.javax.sip.NIO_SELECTOR_THREADS=" + nioSelectorThreads, e);
+		}
+		String selectorAssignment = configurationProperties.getProperty("gov.nist.javax.sip.NIO_SELECTOR_ASSIGNMENT");
+		if(selectorAssignment != null) {
+			super.setSelectorAssignmentStrategy(SelectorAssignmentStrategy.valueOf(selectorAssignment));
+		}
+		String writeBatchWindow = configurationProperties.getProperty("gov.nist.javax.sip.NIO_WRITE_BATCH_WINDOW", "0");
+		try {
+			super.setNioWriteBatchWindow(Math.max(0, Integer.parseInt(writeBatchWindow)));
+		} catch (NumberFormatException e) {
+			logger
+				.logError(
+						"Bad configuration value for gov.nist.javax.sip.NIO_WRITE_BATCH_WINDOW=" + writeBatchWindow, e);
+		}
+		String maxQueuedBytes = configurationProperties.getProperty("gov.nist.javax.sip.NIO_MAX_QUEUED_BYTES_PER_CONNECTION", "0");
+		try {
+			super.setNioMaxQueuedBytesPerConnection(Math.max(0, Integer.parseInt(maxQueuedBytes)));
+		} catch (NumberFormatException e) {
+			logger
+				.logError(
+						"Bad configuration value for gov.nist.javax.sip.NIO_MAX_QUEUED_BYTES_PER_CONNECTION=" + maxQueuedBytes, e);
+		}
+		super.setWebSocketPerMessageDeflate(Boolean.parseBoolean(configurationProperties.getProperty(
+				"gov.nist.javax.sip.WEBSOCKET_PERMESSAGE_DEFLATE", "false")));
+		
 		String defaultTimerName = configurationProperties.getProperty("gov.nist.javax.sip.TIMER_CLASS_NAME",DefaultSipTimer.class.getName());
 		try {
 			setTimer((SipTimer)Class.forName(defaultTimerName).newInstance());
@@ -1436,6 +1791,7 @@ public class SipStackImpl extends SIPTransactionStack implements
 	            // Start monitoring the timer thread
 	            getTimer().schedule(new PingTimer(null), 0);
 	        }
+			scheduleDialogHibernation();
 		} catch (Exception e) {
 			logger
 				.logError(
@@ -1713,6 +2069,23 @@ public class SipStackImpl extends SIPTransactionStack implements
 		this.stopStack();
 	}
 
+	/**
+	 * Besides attaching it to the stack, hand a loaded dialog to the first
+	 * provider of the stack, which delivers its events.
+	 */
+	protected void dialogLoaded(SIPDialog dialog) {
+		super.dialogLoaded(dialog);
+		if (dialog.getSipProvider() == null) {
+			synchronized (sipProviders) {
+				if (!sipProviders.isEmpty()) {
+					SipProviderImpl sipProvider = sipProviders.get(0);
+					dialog.setSipProvider(sipProvider);
+					dialog.addEventListener(sipProvider);
+				}
+			}
+		}
+	}
+
 	/**
 	 * This uses the default stack address to create a listening point.
 	 * 
@@ -1753,6 +2126,7 @@ public class SipStackImpl extends SIPTransactionStack implements
 			this.eventScanner.forceStop();
 		this.eventScanner = null;
 		PostParseExecutorServices.shutdownThreadpool();
+		ByteBufferFactory.getInstance().logLeaks();
 
 	}
 
@@ -1981,6 +2355,14 @@ public class SipStackImpl extends SIPTransactionStack implements
 		return reEntrantListener;
 	}
 
+	/**
+	 * @return the number of threads delivering events to a non re-entrant
+	 *         listener.
+	 */
+	public int getEventDeliveryThreads() {
+		return reEntrantListener ? 1 : eventDeliveryThreads;
+	}
+
 
     
 
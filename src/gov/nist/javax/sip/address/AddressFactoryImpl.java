@@ -47,6 +47,9 @@ import javax.sip.address.*;
  */
 public class AddressFactoryImpl implements AddressFactoryEx {
     public static final Pattern SCHEME_PATTERN = Pattern.compile("\\p{Alpha}[[{\\p{Alpha}][\\p{Digit}][\\+][-][\\.]]*");
+
+    // The parser keeps no state between parses and its lexers are per thread
+    private static final StringMsgParser stringMsgParser = new StringMsgParser();
     
     /** Creates a new instance of AddressFactoryImpl
      */
@@ -120,8 +123,7 @@ public class AddressFactoryImpl implements AddressFactoryEx {
             addressImpl.setURI( uri );
             return addressImpl;
         } else {
-            StringMsgParser smp = new StringMsgParser();
-            return smp.parseAddress(address);
+            return stringMsgParser.parseAddress(address);
         }
     }
 
@@ -134,8 +136,7 @@ public class AddressFactoryImpl implements AddressFactoryEx {
         if (uri == null)
             throw new NullPointerException("null URI");
         try {
-            StringMsgParser smp = new StringMsgParser();
-            SipUri sipUri = smp.parseSIPUrl(uri);
+            SipUri sipUri = stringMsgParser.parseSIPUrl(uri);
             return (SipURI) sipUri;
         } catch (ParseException ex) {
             throw new ParseException(ex.getMessage(), 0);
@@ -194,8 +195,7 @@ public class AddressFactoryImpl implements AddressFactoryEx {
         	telUrl = "tel:" + uri;
         }
         try {
-            StringMsgParser smp = new StringMsgParser();
-            TelURLImpl timp = (TelURLImpl) smp.parseUrl(telUrl);
+            TelURLImpl timp = (TelURLImpl) stringMsgParser.parseUrl(telUrl);
             return (TelURL) timp;
         } catch (ParseException ex) {
             throw new ParseException(ex.getMessage(), 0);
@@ -216,8 +216,13 @@ public class AddressFactoryImpl implements AddressFactoryEx {
         if (uri == null)
             throw new NullPointerException("null arg");
         try {
-            URLParser urlParser = new URLParser(uri);
-            String scheme = urlParser.peekScheme();
+            String scheme;
+            Lexer lexer = Lexer.lease("sip_urlLexer", uri);
+            try {
+                scheme = new URLParser(lexer).peekScheme();
+            } finally {
+                lexer.release();
+            }
             if (scheme == null)
                 throw new ParseException("bad scheme", 0);
             if (scheme.equalsIgnoreCase("sip") || scheme.equalsIgnoreCase("sips")) {
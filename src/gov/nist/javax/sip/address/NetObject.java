@@ -73,85 +73,34 @@ public abstract class NetObject extends GenericObject {
     }
 
     /**
-     * An introspection based equality predicate for SIPObjects.
-     *@param that is the other object to test against.
+     * An introspection based equality predicate for NetObjects. The fields
+     * are looked up once per class, the classes compared often override it.
+     *@param other the other object to test against.
      */
-    public boolean equals(Object that) {
-        if (!this.getClass().equals(that.getClass()))
+    public boolean equals(Object other) {
+        if (other == null || !this.getClass().equals(other.getClass()))
             return false;
-        Class<?> myclass = this.getClass();
-        Class<?> hisclass = that.getClass();
-        while (true) {
-            Field[] fields = myclass.getDeclaredFields();
-            Field[] hisfields = hisclass.getDeclaredFields();
-            for (int i = 0; i < fields.length; i++) {
-                Field f = fields[i];
-                Field g = hisfields[i];
-                // Only print protected and public members.
-                int modifier = f.getModifiers();
-                if ((modifier & Modifier.PRIVATE) == Modifier.PRIVATE)
-                    continue;
-                Class<?> fieldType = f.getType();
-                String fieldName = f.getName();
-                if (fieldName.compareTo("stringRepresentation") == 0) {
-                    continue;
-                }
-                if (fieldName.compareTo("indentation") == 0) {
-                    continue;
-                }
-                try {
-                    // Primitive fields are printed with type: value
-                    if (fieldType.isPrimitive()) {
-                        String fname = fieldType.toString();
-                        if (fname.compareTo("int") == 0) {
-                            if (f.getInt(this) != g.getInt(that))
-                                return false;
-                        } else if (fname.compareTo("short") == 0) {
-                            if (f.getShort(this) != g.getShort(that))
-                                return false;
-                        } else if (fname.compareTo("char") == 0) {
-                            if (f.getChar(this) != g.getChar(that))
-                                return false;
-                        } else if (fname.compareTo("long") == 0) {
-                            if (f.getLong(this) != g.getLong(that))
-                                return false;
-                        } else if (fname.compareTo("boolean") == 0) {
-                            if (f.getBoolean(this) != g.getBoolean(that))
-                                return false;
-                        } else if (fname.compareTo("double") == 0) {
-                            if (f.getDouble(this) != g.getDouble(that))
-                                return false;
-                        } else if (fname.compareTo("float") == 0) {
-                            if (f.getFloat(this) != g.getFloat(that))
-                                return false;
-                        }
-                    } else if (g.get(that) == f.get(this))
-                        continue;
-                    else if (f.get(this) == null && g.get(that) != null)
-                        return false;
-                    else if (g.get(that) == null && f.get(that) != null)
-                        return false;
-                    else if (!f.get(this).equals(g.get(that)))
+        Field[] fields = getIntrospectedFields(this.getClass());
+        for (int i = 0; i < fields.length; i++) {
+            Field f = fields[i];
+            try {
+                if (f.getType().isPrimitive()) {
+                    if (!equalPrimitiveFields(f, this, other))
                         return false;
-                } catch (IllegalAccessException ex1) {
-                    InternalErrorHandler.handleException(ex1);
-                }
-            }
-            if (myclass.equals(NetObject.class))
-                break;
-            else {
-                myclass = myclass.getSuperclass();
-                hisclass = hisclass.getSuperclass();
+                } else if (!equalValues(f.get(this), f.get(other)))
+                    return false;
+            } catch (IllegalAccessException ex1) {
+                InternalErrorHandler.handleException(ex1);
             }
         }
         return true;
     }
 
-
-
-
     /** An introspection based predicate matching using a template
      * object. Allows for partial match of two protocl Objects.
+     * You can set a generalized matcher (using regular expressions
+     * for example) by implementing the Match interface and registering
+     * it with the template.
      *@param other the match pattern to test against. The match object
      * has to be of the same type (class). Primitive types
      * and non-sip fields that are non null are matched for equality.
@@ -159,111 +108,59 @@ public abstract class NetObject extends GenericObject {
      * are ignored when making the comparison.
      *@return true if match succeeds false otherwise.
      */
-
     public boolean match(Object other) {
         if (other == null)
             return true;
         if (!this.getClass().equals(other.getClass()))
             return false;
         GenericObject that = (GenericObject) other;
-        // System.out.println("Comparing " + that.encode());
-        // System.out.println("this = " + this.encode());
-
-        Class<?> hisclass = other.getClass();
-        Class<?> myclass = this.getClass();
-        while (true) {
-            Field[] fields = myclass.getDeclaredFields();
-            Field[] hisfields = hisclass.getDeclaredFields();
-            for (int i = 0; i < fields.length; i++) {
-                Field f = fields[i];
-                Field g = hisfields[i];
-                // Only print protected and public members.
-                int modifier = f.getModifiers();
-                if ((modifier & Modifier.PRIVATE) == Modifier.PRIVATE)
-                    continue;
-                Class<?> fieldType = f.getType();
-                String fieldName = f.getName();
-                if (fieldName.compareTo("stringRepresentation") == 0) {
+        Field[] fields = getIntrospectedFields(this.getClass());
+        for (int i = 0; i < fields.length; i++) {
+            Field f = fields[i];
+            try {
+                if (f.getType().isPrimitive()) {
+                    if (!equalPrimitiveFields(f, this, that))
+                        return false;
                     continue;
                 }
-                if (fieldName.compareTo("indentation") == 0) {
+                Object myObj = f.get(this);
+                Object hisObj = f.get(that);
+                if (hisObj == null)
                     continue;
-                }
-                try {
-                    // Primitive fields are printed with type: value
-                    if (fieldType.isPrimitive()) {
-                        String fname = fieldType.toString();
-                        if (fname.compareTo("int") == 0) {
-                            if (f.getInt(this) != g.getInt(that))
-                                return false;
-                        } else if (fname.compareTo("short") == 0) {
-                            if (f.getShort(this) != g.getShort(that))
-                                return false;
-                        } else if (fname.compareTo("char") == 0) {
-                            if (f.getChar(this) != g.getChar(that))
-                                return false;
-                        } else if (fname.compareTo("long") == 0) {
-                            if (f.getLong(this) != g.getLong(that))
-                                return false;
-                        } else if (fname.compareTo("boolean") == 0) {
-                            if (f.getBoolean(this) != g.getBoolean(that))
-                                return false;
-                        } else if (fname.compareTo("double") == 0) {
-                            if (f.getDouble(this) != g.getDouble(that))
-                                return false;
-                        } else if (fname.compareTo("float") == 0) {
-                            if (f.getFloat(this) != g.getFloat(that))
-                                return false;
-                        }
-                    } else {
-                        Object myObj = f.get(this);
-                        Object hisObj = g.get(that);
-                        if (hisObj != null && myObj == null)
-                            return false;
-                        else if (hisObj == null && myObj != null)
-                            continue;
-                        else if (hisObj == null && myObj == null)
-                            continue;
-                        else if (
-                            hisObj instanceof java.lang.String
-                                && myObj instanceof java.lang.String) {
-                            if (((String) hisObj).equals(""))
-                                continue;
-                            if (((String) myObj)
-                                .compareToIgnoreCase((String) hisObj)
-                                != 0)
-                                return false;
-                        } else if (
-                            GenericObject.isMySubclass(myObj.getClass())
-                                && GenericObject.isMySubclass(hisObj.getClass())
-                                && myObj.getClass().equals(hisObj.getClass())
-                                && ((GenericObject) hisObj).getMatcher()
-                                    != null) {
-                            String myObjEncoded =
-                                ((GenericObject) myObj).encode();
-                            boolean retval =
-                                ((GenericObject) hisObj).getMatcher().match(
-                                    myObjEncoded);
-                            if (!retval)
-                                return false;
-                        } else if (
-                            GenericObject.isMySubclass(myObj.getClass())
-                                && !((GenericObject) myObj).match(hisObj))
-                            return false;
-                        else if (
-                            GenericObjectList.isMySubclass(myObj.getClass())
-                                && !((GenericObjectList) myObj).match(hisObj))
-                            return false;
-                    }
-                } catch (IllegalAccessException ex1) {
-                    InternalErrorHandler.handleException(ex1);
-                }
-            }
-            if (myclass.equals(NetObject.class))
-                break;
-            else {
-                myclass = myclass.getSuperclass();
-                hisclass = hisclass.getSuperclass();
+                else if (myObj == null)
+                    return false;
+                else if (
+                    hisObj instanceof java.lang.String
+                        && myObj instanceof java.lang.String) {
+                    if (((String) hisObj).equals(""))
+                        continue;
+                    if (((String) myObj)
+                        .compareToIgnoreCase((String) hisObj)
+                        != 0)
+                        return false;
+                } else if (
+                    GenericObject.isMySubclass(myObj.getClass())
+                        && GenericObject.isMySubclass(hisObj.getClass())
+                        && myObj.getClass().equals(hisObj.getClass())
+                        && ((GenericObject) hisObj).getMatcher()
+                            != null) {
+                    String myObjEncoded =
+                        ((GenericObject) myObj).encode();
+                    boolean retval =
+                        ((GenericObject) hisObj).getMatcher().match(
+                            myObjEncoded);
+                    if (!retval)
+                        return false;
+                } else if (
+                    GenericObject.isMySubclass(myObj.getClass())
+                        && !((GenericObject) myObj).match(hisObj))
+                    return false;
+                else if (
+                    GenericObjectList.isMySubclass(myObj.getClass())
+                        && !((GenericObjectList) myObj).match(hisObj))
+                    return false;
+            } catch (IllegalAccessException ex1) {
+                InternalErrorHandler.handleException(ex1);
             }
         }
         return true;
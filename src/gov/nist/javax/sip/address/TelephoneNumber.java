@@ -245,4 +245,21 @@ public class TelephoneNumber extends NetObject {
     public NameValueList getParameters() {
         return this.parameters;
     }
+
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        TelephoneNumber that = (TelephoneNumber) other;
+        return this.isglobal == that.isglobal
+                && equalValues(this.phoneNumber, that.phoneNumber)
+                && equalValues(this.parameters, that.parameters);
+    }
+
+    public int hashCode() {
+        int hash = isglobal ? 1 : 0;
+        hash = 31 * hash + hashValue(phoneNumber);
+        return 31 * hash + hashValue(parameters);
+    }
 }
@@ -198,4 +198,13 @@ public final class Accept
         return retval;
     }
 
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        Accept that = (Accept) other;
+        return equalValues(this.mediaRange, that.mediaRange)
+                && equalParameterLists(that);
+    }
 }
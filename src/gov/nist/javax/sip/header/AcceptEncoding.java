@@ -150,4 +150,13 @@ public final class AcceptEncoding extends ParametersHeader implements
         contentCoding = encoding;
     }
 
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        AcceptEncoding that = (AcceptEncoding) other;
+        return equalValues(this.contentCoding, that.contentCoding)
+                && equalParameterLists(that);
+    }
 }
@@ -195,4 +195,13 @@ public final class AcceptLanguage
         }
     }
 
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        AcceptLanguage that = (AcceptLanguage) other;
+        return equalValues(this.languageRange, that.languageRange)
+                && equalParameterLists(that);
+    }
 }
@@ -46,18 +46,66 @@ public abstract class AddressParametersHeader extends ParametersHeader implement
 
     protected AddressImpl address;
 
+    // Set while the address is shared with a clone. Not transient, the
+    // address is still shared once the headers are deserialized together.
+    // Written by clone() on the original too, without synchronization.
+    private boolean addressShared;
+
+    // Set once the address object is known outside of the header, handed out
+    // by a getter or passed to setAddress(). Such an address may still be
+    // changed through that reference, so clones get a copy of it.
+    private boolean addressExposed;
+
     /* (non-Javadoc)
      * @see gov.nist.javax.sip.header.AddressParameters#getAddress()
      */
     public Address getAddress() {
+        return exposeAddress();
+    }
+
+    /**
+     * Get the address, or a part of it, to hand out of the header: the address
+     * is no longer shared with the copy-on-write clones made afterwards.
+     */
+    protected AddressImpl exposeAddress() {
+        AddressImpl retval = ownAddress();
+        addressExposed = true;
+        return retval;
+    }
+
+    /**
+     * Get the address to hand out or modify, copying it first if it is still
+     * shared with a copy-on-write clone.
+     */
+    protected AddressImpl ownAddress() {
+        if (addressShared) {
+            address = (AddressImpl) address.clone();
+            addressShared = false;
+        }
         return address;
     }
 
+    public void merge(Object mergeObject) {
+        // the merge modifies the address in place
+        ownAddress();
+        super.merge(mergeObject);
+    }
+
+    /**
+     * Whether the clones of the header share its address until either of
+     * them hands it out, see {@link SIPHeader#setCopyOnWriteClones(boolean)}.
+     */
+    protected boolean isCopyOnWriteClone() {
+        return false;
+    }
+
     /* (non-Javadoc)
      * @see gov.nist.javax.sip.header.AddressParameters#setAddress(javax.sip.address.Address)
      */
     public void setAddress(Address address) {
         this.address = (AddressImpl) address;
+        this.addressShared = false;
+        this.addressExposed = true;
     }
 
     /**
@@ -83,8 +131,16 @@ public abstract class AddressParametersHeader extends ParametersHeader implement
      */
     public Object clone() {
         AddressParametersHeader retval = (AddressParametersHeader) super.clone();
-        if (this.address != null)
+        retval.addressExposed = false;
+        if (this.address == null) {
+            retval.addressShared = false;
+        } else if (isCopyOnWriteClone() && !addressExposed) {
+            this.addressShared = true;
+            retval.addressShared = true;
+        } else {
             retval.address = (AddressImpl) this.address.clone();
+            retval.addressShared = false;
+        }
         return retval;
     }
 
@@ -98,7 +154,10 @@ public abstract class AddressParametersHeader extends ParametersHeader implement
 
         if (other instanceof HeaderAddress && other instanceof Parameters) {
             final HeaderAddress o = (HeaderAddress) other;
-            return this.getAddress().equals( o.getAddress() ) && this.equalParameters( (Parameters) o );
+            // the fields, not getAddress(), which copies a shared address
+            Address hisAddress = other instanceof AddressParametersHeader ?
+                    ((AddressParametersHeader) other).address : o.getAddress();
+            return this.address.equals( hisAddress ) && this.equalParameters( (Parameters) o );
         }
         return false;
     }
@@ -126,4 +126,14 @@ public final class AlertInfo
         }
         return retval;
     }
+
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        AlertInfo that = (AlertInfo) other;
+        return equalValues(this.uri, that.uri) && equalValues(this.string, that.string)
+                && equalParameterLists(that);
+    }
 }
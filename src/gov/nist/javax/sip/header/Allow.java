@@ -88,4 +88,13 @@ public final class Allow extends
     protected StringBuilder encodeBody(StringBuilder buffer) {
         return buffer.append(method);
     }
+
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        Allow that = (Allow) other;
+        return equalValues(this.method, that.method);
+    }
 }
@@ -98,4 +98,13 @@ public final class AllowEvents
     protected StringBuilder encodeBody(StringBuilder buffer) {
         return buffer.append(eventType);
     }
+
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        AllowEvents that = (AllowEvents) other;
+        return equalValues(this.eventType, that.eventType);
+    }
 }
@@ -551,4 +551,12 @@ public abstract class AuthenticationHeader extends ParametersHeader {
         return getParameter(ParameterNamesIms.INTEGRITY_PROTECTED);
     }
 
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        AuthenticationHeader that = (AuthenticationHeader) other;
+        return equalValues(this.scheme, that.scheme) && equalParameterLists(that);
+    }
 }
@@ -316,4 +316,13 @@ public final class AuthenticationInfo
         } else
             nv.setValueAsObject(value);
     }
+
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        AuthenticationInfo that = (AuthenticationInfo) other;
+        return equalValues(this.scheme, that.scheme) && equalParameterLists(that);
+    }
 }
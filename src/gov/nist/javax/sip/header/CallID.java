@@ -54,6 +54,14 @@ public class CallID
      */
     protected CallIdentifier callIdentifier;
 
+    // Set while the call identifier is shared with a copy-on-write clone,
+    // written by clone() on the original too, without synchronization
+    private boolean identifierShared;
+
+    // Set once the call identifier was handed out or set from outside, it may
+    // then change through that reference and clones get a copy of it
+    private boolean identifierExposed;
+
     /**
      * Default constructor
      */
@@ -107,6 +115,17 @@ public class CallID
      * @return CallIdentifier
      */
     public CallIdentifier getCallIdentifer() {
+        CallIdentifier retval = ownIdentifier();
+        identifierExposed = true;
+        return retval;
+    }
+
+    // the call identifier to modify, copied first if shared with a clone
+    private CallIdentifier ownIdentifier() {
+        if (identifierShared) {
+            callIdentifier = (CallIdentifier) callIdentifier.clone();
+            identifierShared = false;
+        }
         return callIdentifier;
     }
 
@@ -120,6 +139,7 @@ public class CallID
     public void setCallId(String cid) throws ParseException {
         try {
             callIdentifier = new CallIdentifier(cid);
+            identifierShared = false;
         } catch (IllegalArgumentException ex) {
             throw new ParseException(cid, 0);
         }
@@ -131,6 +151,8 @@ public class CallID
      */
     public void setCallIdentifier(CallIdentifier cid) {
         callIdentifier = cid;
+        identifierShared = false;
+        identifierExposed = true;
     }
 
     /** Constructor given the call Identifier.
@@ -142,10 +164,25 @@ public class CallID
         this.callIdentifier = new CallIdentifier(callId);
     }
 
+    public void merge(Object mergeObject) {
+        // the merge modifies the call identifier in place
+        ownIdentifier();
+        super.merge(mergeObject);
+    }
+
     public Object clone() {
         CallID retval = (CallID) super.clone();
-        if (this.callIdentifier != null)
+        retval.identifierExposed = false;
+        if (this.callIdentifier == null) {
+            retval.identifierShared = false;
+        } else if (isCopyOnWriteClones() && !identifierExposed) {
+            // shared until either of them hands it out
+            this.identifierShared = true;
+            retval.identifierShared = true;
+        } else {
             retval.callIdentifier = (CallIdentifier) this.callIdentifier.clone();
+            retval.identifierShared = false;
+        }
         return retval;
     }
 }
@@ -120,4 +120,13 @@ public final class CallInfo
             retval.info = (GenericURI) this.info.clone();
         return retval;
     }
+
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        CallInfo that = (CallInfo) other;
+        return equalValues(this.info, that.info) && equalParameterLists(that);
+    }
 }
@@ -254,4 +254,18 @@ public class Challenge extends SIPObject {
             retval.authParams = (NameValueList) this.authParams.clone();
         return retval;
     }
+
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        Challenge that = (Challenge) other;
+        return equalValues(this.scheme, that.scheme)
+                && equalValues(this.authParams, that.authParams);
+    }
+
+    public int hashCode() {
+        return 31 * hashValue(scheme) + hashValue(authParams);
+    }
 }
@@ -121,6 +121,16 @@ public final class ContentDisposition
     public String getContentDisposition() {
         return this.encodeBody(new StringBuilder()).toString();
     }
+
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        ContentDisposition that = (ContentDisposition) other;
+        return equalValues(this.dispositionType, that.dispositionType)
+                && equalParameterLists(that);
+    }
 }
 /*
  * $Log: not supported by cvs2svn $
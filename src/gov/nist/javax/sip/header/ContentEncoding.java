@@ -132,4 +132,13 @@ public class ContentEncoding
                 "JAIN-SIP Exception, " + " encoding is null");
         contentEncoding = encoding;
     }
+
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        ContentEncoding that = (ContentEncoding) other;
+        return equalValues(this.contentEncoding, that.contentEncoding);
+    }
 }
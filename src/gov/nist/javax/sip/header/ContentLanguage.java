@@ -167,4 +167,13 @@ public class ContentLanguage
             retval.locale = (Locale) this.locale.clone();
         return retval;
     }
+
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        ContentLanguage that = (ContentLanguage) other;
+        return equalValues(this.locale, that.locale);
+    }
 }
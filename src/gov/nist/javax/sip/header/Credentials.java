@@ -132,4 +132,18 @@ public class Credentials extends SIPObject {
             retval.parameters = (NameValueList) this.parameters.clone();
         return retval;
     }
+
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        Credentials that = (Credentials) other;
+        return equalValues(this.scheme, that.scheme)
+                && equalValues(this.parameters, that.parameters);
+    }
+
+    public int hashCode() {
+        return 31 * hashValue(scheme) + hashValue(parameters);
+    }
 }
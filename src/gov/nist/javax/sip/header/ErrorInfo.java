@@ -138,5 +138,14 @@ public final class ErrorInfo
             retval.errorInfo = (GenericURI) this.errorInfo.clone();
         return retval;
     }
+
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        ErrorInfo that = (ErrorInfo) other;
+        return equalValues(this.errorInfo, that.errorInfo) && equalParameterLists(that);
+    }
 }
 
@@ -142,4 +142,13 @@ public class Event extends ParametersHeader implements EventHeader {
             && ((this.getEventId() == matchTarget.getEventId())
                 || this.getEventId().equalsIgnoreCase(matchTarget.getEventId()));
     }
+
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        Event that = (Event) other;
+        return equalValues(this.eventType, that.eventType) && equalParameterLists(that);
+    }
 }
@@ -102,4 +102,13 @@ public class Expires
             throw new InvalidArgumentException("bad argument " + expires);
         this.expires = expires;
     }
+
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        Expires that = (Expires) other;
+        return this.expires == that.expires;
+    }
 }
@@ -127,4 +127,14 @@ public class ExtensionHeaderImpl
     public String encodeBody() {
         return this.getHeaderValue();
     }
+
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        ExtensionHeaderImpl that = (ExtensionHeaderImpl) other;
+        return equalValues(this.headerName, that.headerName)
+                && equalValues(this.value, that.value);
+    }
 }
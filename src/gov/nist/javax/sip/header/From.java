@@ -64,7 +64,7 @@ public final class From
      */
     public From(To to) {
         super(NAME);
-        address = to.address;
+        address = to.exposeAddress();
         parameters = to.parameters;
     }
 
@@ -99,7 +99,7 @@ public final class From
      * @return hostport field
      */
     public HostPort getHostPort() {
-        return address.getHostPort();
+        return exposeAddress().getHostPort();
     }
 
     /**
@@ -138,7 +138,7 @@ public final class From
      * @param address Address to set
      */
     public void setAddress(javax.sip.address.Address address) {
-        this.address = (AddressImpl) address;
+        super.setAddress(address);
     }
 
     /**
@@ -157,6 +157,10 @@ public final class From
         return address.getUserAtHostPort();
     }
 
+    protected boolean isCopyOnWriteClone() {
+        return isCopyOnWriteClones();
+    }
+
     public boolean equals(Object other) {
         return (other instanceof FromHeader) && super.equals(other);
     }
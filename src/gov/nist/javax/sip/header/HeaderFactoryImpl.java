@@ -1163,8 +1163,14 @@ public class HeaderFactoryImpl implements HeaderFactory , HeaderFactoryExt {
      * @throws ParseException 
      */
     public javax.sip.header.Header createHeader(String headerText) throws ParseException {
-        StringMsgParser smp = new StringMsgParser();
-        SIPHeader sipHeader = smp.parseSIPHeader(headerText.trim());
+        int colon = headerText.indexOf(':');
+        if (colon > 0) {
+            Header header = createSimpleHeader(headerText.substring(0, colon).trim(),
+                    headerText.substring(colon + 1));
+            if (header != null)
+                return header;
+        }
+        SIPHeader sipHeader = StringMsgParser.parseSIPHeader(headerText.trim());
         if (sipHeader instanceof SIPHeaderList) {
             if (((SIPHeaderList) sipHeader).size() > 1) {
                 throw new ParseException(
@@ -1191,6 +1197,81 @@ public class HeaderFactoryImpl implements HeaderFactory , HeaderFactoryExt {
         
     }
 
+    /**
+     * Create the headers made of a plain token or number without the lexer:
+     * Call-ID, Max-Forwards, Expires, CSeq and Content-Length. Any other
+     * header, or a value that is not plain, gives null and goes through the
+     * parser, which also reports the errors.
+     */
+    private static Header createSimpleHeader(String name, String value) throws ParseException {
+        String text = value.trim();
+        if (text.length() == 0)
+            return null;
+        try {
+            if (name.equalsIgnoreCase(CallIdHeader.NAME) || name.equalsIgnoreCase("i")) {
+                for (int i = 0; i < text.length(); i++) {
+                    char c = text.charAt(i);
+                    if (c <= ' ' || c > '~')
+                        return null;
+                }
+                CallID callId = new CallID();
+                callId.setCallId(text);
+                return callId;
+            } else if (name.equalsIgnoreCase(MaxForwardsHeader.NAME)) {
+                if (!isNumber(text, 0, text.length(), 9))
+                    return null;
+                MaxForwards maxForwards = new MaxForwards();
+                maxForwards.setMaxForwards(Integer.parseInt(text));
+                return maxForwards;
+            } else if (name.equalsIgnoreCase(ExpiresHeader.NAME)) {
+                if (!isNumber(text, 0, text.length(), 9))
+                    return null;
+                Expires expires = new Expires();
+                expires.setExpires(Integer.parseInt(text));
+                return expires;
+            } else if (name.equalsIgnoreCase(ContentLengthHeader.NAME) || name.equalsIgnoreCase("l")) {
+                if (!isNumber(text, 0, text.length(), 9))
+                    return null;
+                ContentLength contentLength = new ContentLength();
+                contentLength.setContentLength(Integer.parseInt(text));
+                return contentLength;
+            } else if (name.equalsIgnoreCase(CSeqHeader.NAME)) {
+                int end = 0;
+                while (end < text.length() && text.charAt(end) >= '0' && text.charAt(end) <= '9')
+                    end++;
+                int start = end;
+                while (start < text.length() && (text.charAt(start) == ' ' || text.charAt(start) == '\t'))
+                    start++;
+                if (start == end || start == text.length() || !isNumber(text, 0, end, 10))
+                    return null;
+                for (int i = start; i < text.length(); i++) {
+                    char c = text.charAt(i);
+                    if (c > 127 || (!Character.isLetterOrDigit(c) && "-.!%*_+`'~".indexOf(c) < 0))
+                        return null;
+                }
+                CSeq cseq = new CSeq();
+                cseq.setSeqNumber(Long.parseLong(text.substring(0, end)));
+                cseq.setMethod(text.substring(start));
+                return cseq;
+            }
+        } catch (InvalidArgumentException ex) {
+            // out of range, the parser reports it
+        }
+        return null;
+    }
+
+    // ASCII digits only, few enough to be parsed without overflow
+    private static boolean isNumber(String text, int start, int end, int maxDigits) {
+        if (start == end || end - start > maxDigits)
+            return false;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9')
+                return false;
+        }
+        return true;
+    }
+
     /** Create and parse a header.
      *
      * @param headerName -- header name for the header to parse.
@@ -1204,6 +1285,11 @@ public class HeaderFactoryImpl implements HeaderFactory , HeaderFactoryExt {
         throws java.text.ParseException {
         if (headerName == null)
             throw new NullPointerException("header name is null");
+        if (headerValue != null) {
+            Header header = createSimpleHeader(headerName.trim(), headerValue);
+            if (header != null)
+                return header;
+        }
         String hdrText =
             new StringBuilder()
                 .append(headerName)
@@ -1224,8 +1310,7 @@ public class HeaderFactoryImpl implements HeaderFactory , HeaderFactoryExt {
         throws java.text.ParseException {
         if (headers == null)
             throw new NullPointerException("null arg!");
-        StringMsgParser smp = new StringMsgParser();
-        SIPHeader shdr = smp.parseSIPHeader(headers);
+        SIPHeader shdr = StringMsgParser.parseSIPHeader(headers);
         if (shdr instanceof SIPHeaderList)
             return (SIPHeaderList) shdr;
         else
@@ -106,5 +106,14 @@ public class InReplyTo extends SIPHeader implements InReplyToHeader {
             retval.callId = (CallIdentifier) this.callId.clone();
         return retval;
     }
+
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        InReplyTo that = (InReplyTo) other;
+        return equalValues(this.callId, that.callId);
+    }
 }
 
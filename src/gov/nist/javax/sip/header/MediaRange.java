@@ -114,4 +114,17 @@ public class MediaRange extends SIPObject {
                 .append(SLASH)
                 .append(subtype);
     }
+
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        MediaRange that = (MediaRange) other;
+        return equalValues(this.type, that.type) && equalValues(this.subtype, that.subtype);
+    }
+
+    public int hashCode() {
+        return 31 * hashValue(type) + hashValue(subtype);
+    }
 }
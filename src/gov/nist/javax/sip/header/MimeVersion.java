@@ -126,6 +126,15 @@ public class MimeVersion extends SIPHeader implements MimeVersionHeader {
             .append(Integer.toString(minorVersion));
     }
 
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        MimeVersion that = (MimeVersion) other;
+        return this.majorVersion == that.majorVersion
+                && this.minorVersion == that.minorVersion;
+    }
 }
 /*
  * $Log: not supported by cvs2svn $
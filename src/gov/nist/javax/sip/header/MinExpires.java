@@ -96,6 +96,14 @@ public class MinExpires extends SIPHeader implements MinExpiresHeader {
         this.expires = expires;
     }
 
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        MinExpires that = (MinExpires) other;
+        return this.expires == that.expires;
+    }
 }
 /*
  * $Log: not supported by cvs2svn $
@@ -89,6 +89,15 @@ public class Organization extends SIPHeader implements OrganizationHeader {
                     + " Organization, setOrganization(), the organization parameter is null");
         organization = o;
     }
+
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        Organization that = (Organization) other;
+        return equalValues(this.organization, that.organization);
+    }
 }
 /*
  * $Log: not supported by cvs2svn $
@@ -576,7 +576,16 @@ public abstract class ParametersHeader
     }
 
     //-------------------------------
-    
+
+    /**
+     * Field by field comparison of the parameters and multi parameters, for
+     * the equals methods of headers of the same class.
+     */
+    protected final boolean equalParameterLists(ParametersHeader other) {
+        return equalValues(this.parameters, other.parameters)
+                && equalValues(this.duplicates, other.duplicates);
+    }
+
     @SuppressWarnings("unchecked")
     protected final boolean equalParameters( Parameters other ) {
         if (this==other) return true;
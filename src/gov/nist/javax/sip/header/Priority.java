@@ -101,4 +101,13 @@ public class Priority extends SIPHeader implements PriorityHeader {
                     + "Priority, setPriority(), the priority parameter is null");
         priority = p;
     }
+
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        Priority that = (Priority) other;
+        return equalValues(this.priority, that.priority);
+    }
 }
@@ -150,6 +150,23 @@ public class Protocol extends SIPObject {
         protocolVersion = "2.0";
         transport = "UDP";
     }
+
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        Protocol that = (Protocol) other;
+        return equalValues(this.protocolName, that.protocolName)
+                && equalValues(this.protocolVersion, that.protocolVersion)
+                && equalValues(this.transport, that.transport);
+    }
+
+    public int hashCode() {
+        int hash = hashValue(protocolName);
+        hash = 31 * hash + hashValue(protocolVersion);
+        return 31 * hash + hashValue(transport);
+    }
 }
 /*
  * $Log: not supported by cvs2svn $
@@ -98,6 +98,15 @@ public class ProxyRequire extends SIPHeader implements ProxyRequireHeader {
     public String getOptionTag() {
         return optionTag;
     }
+
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        ProxyRequire that = (ProxyRequire) other;
+        return equalValues(this.optionTag, that.optionTag);
+    }
 }
 /*
  * $Log: not supported by cvs2svn $
@@ -153,4 +153,14 @@ public class RAck extends SIPHeader implements javax.sip.header.RAckHeader {
             throw new InvalidArgumentException("Bad rSeq # " + rSeqNumber);
         this.rSeqNumber = rSeqNumber;
     }
+
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        RAck that = (RAck) other;
+        return this.cSeqNumber == that.cSeqNumber
+                && this.rSeqNumber == that.rSeqNumber && equalValues(this.method, that.method);
+    }
 }
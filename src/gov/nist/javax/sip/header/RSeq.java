@@ -85,6 +85,12 @@ public class RSeq extends SIPHeader implements javax.sip.header.RSeqHeader {
 
     }
 
-
-
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        RSeq that = (RSeq) other;
+        return this.sequenceNumber == that.sequenceNumber;
+    }
 }
@@ -151,6 +151,14 @@ public class Reason
         return buffer;
     }
 
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        Reason that = (Reason) other;
+        return equalValues(this.protocol, that.protocol) && equalParameterLists(that);
+    }
 }
 /*
  * $Log: not supported by cvs2svn $
@@ -98,6 +98,15 @@ public class Require extends SIPHeader implements RequireHeader {
     public String getOptionTag() {
         return optionTag;
     }
+
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        Require that = (Require) other;
+        return equalValues(this.optionTag, that.optionTag);
+    }
 }
 /*
  * $Log: not supported by cvs2svn $
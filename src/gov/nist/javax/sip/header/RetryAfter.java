@@ -189,4 +189,14 @@ public class RetryAfter extends ParametersHeader implements RetryAfterHeader {
       if (this.getParameter(DURATION) == null) return -1;
       else return super.getParameterAsInt(DURATION);
     }
+
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        RetryAfter that = (RetryAfter) other;
+        return equalValues(this.retryAfter, that.retryAfter)
+                && equalValues(this.comment, that.comment) && equalParameterLists(that);
+    }
 }
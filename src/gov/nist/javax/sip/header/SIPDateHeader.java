@@ -101,6 +101,15 @@ public class SIPDateHeader extends SIPHeader implements DateHeader {
             retval.date = (SIPDate) this.date.clone();
         return retval;
     }
+
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        SIPDateHeader that = (SIPDateHeader) other;
+        return equalValues(this.date, that.date);
+    }
 }
 /*
  * $Log: not supported by cvs2svn $
@@ -98,4 +98,13 @@ public class SIPETag extends SIPHeader implements SIPETagHeader , ExtensionHeade
         this.setETag(value);
 
     }
+
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        SIPETag that = (SIPETag) other;
+        return equalValues(this.entityTag, that.entityTag);
+    }
 }
@@ -63,6 +63,8 @@ public abstract class SIPHeader
         return str;
     }
 
+    private static volatile boolean copyOnWriteClones;
+
     /** name of this header
      */
     protected String headerName;
@@ -70,6 +72,32 @@ public abstract class SIPHeader
     /** Value of the header.
     */
 
+    /**
+     * Choose whether the Call-ID, From and To headers cloned from now on share
+     * their call identifier or address with the original until either of them
+     * hands it out to be modified. The stack clones these headers into every
+     * response, dialog and transaction, and seldom changes them afterwards.
+     * A value that a header already handed out, or was given through a
+     * setter, can still be changed through that reference, so it is copied
+     * into the clone rather than shared.
+     * <p>
+     * The setting is JVM wide. It is not thread safe: a clone marks the
+     * original header as shared without synchronization, so a header must not
+     * be cloned while another thread uses it.
+     *
+     * @param copyOnWrite true to share the values of the clones.
+     */
+    public static void setCopyOnWriteClones(boolean copyOnWrite) {
+        copyOnWriteClones = copyOnWrite;
+    }
+
+    /**
+     * @return true if the Call-ID, From and To clones share their values.
+     */
+    public static boolean isCopyOnWriteClones() {
+        return copyOnWriteClones;
+    }
+
     /** Constructor
      * @param hname String to set
      */
@@ -96,4 +96,13 @@ public class SIPIfMatch extends SIPHeader implements SIPIfMatchHeader,ExtensionH
 
 
     }
+
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        SIPIfMatch that = (SIPIfMatch) other;
+        return equalValues(this.entityTag, that.entityTag);
+    }
 }
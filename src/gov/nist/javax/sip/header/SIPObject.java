@@ -76,81 +76,24 @@ public abstract class SIPObject extends GenericObject {
     }
 
     /**
-     * An introspection based equality predicate for SIPObjects.
+     * An introspection based equality predicate for SIPObjects. The fields
+     * are looked up once per class, the classes compared often override it.
      *@param other the other object to test against.
      */
     public boolean equals(Object other) {
-        if (!this.getClass().equals(other.getClass()))
+        if (other == null || !this.getClass().equals(other.getClass()))
             return false;
-        SIPObject that = (SIPObject) other;
-        Class myclass = this.getClass();
-        Class hisclass = other.getClass();
-        while (true) {
-            Field[] fields = myclass.getDeclaredFields();
-            if (!hisclass.equals(myclass))
-                return false;
-            Field[] hisfields = hisclass.getDeclaredFields();
-            for (int i = 0; i < fields.length; i++) {
-                Field f = fields[i];
-                Field g = hisfields[i];
-                // Only print protected and public members.
-                int modifier = f.getModifiers();
-                if ((modifier & Modifier.PRIVATE) == Modifier.PRIVATE)
-                    continue;
-                Class fieldType = f.getType();
-                String fieldName = f.getName();
-                if (fieldName.compareTo("stringRepresentation") == 0) {
-                    continue;
-                }
-                if (fieldName.compareTo("indentation") == 0) {
-                    continue;
-                }
-                try {
-                    // Primitive fields are printed with type: value
-                    if (fieldType.isPrimitive()) {
-                        String fname = fieldType.toString();
-                        if (fname.compareTo("int") == 0) {
-                            if (f.getInt(this) != g.getInt(that))
-                                return false;
-                        } else if (fname.compareTo("short") == 0) {
-                            if (f.getShort(this) != g.getShort(that))
-                                return false;
-                        } else if (fname.compareTo("char") == 0) {
-                            if (f.getChar(this) != g.getChar(that))
-                                return false;
-                        } else if (fname.compareTo("long") == 0) {
-                            if (f.getLong(this) != g.getLong(that))
-                                return false;
-                        } else if (fname.compareTo("boolean") == 0) {
-                            if (f.getBoolean(this) != g.getBoolean(that))
-                                return false;
-                        } else if (fname.compareTo("double") == 0) {
-                            if (f.getDouble(this) != g.getDouble(that))
-                                return false;
-                        } else if (fname.compareTo("float") == 0) {
-                            if (f.getFloat(this) != g.getFloat(that))
-                                return false;
-                        }
-                    } else if (g.get(that) == f.get(this))
-                        continue;
-                    else if (f.get(this) == null && g.get(that) != null)
-                        return false;
-                    else if (g.get(that) == null && f.get(this) != null)
-                        return false;
-                    else if (!f.get(this).equals(g.get(that)))
+        Field[] fields = getIntrospectedFields(this.getClass());
+        for (int i = 0; i < fields.length; i++) {
+            Field f = fields[i];
+            try {
+                if (f.getType().isPrimitive()) {
+                    if (!equalPrimitiveFields(f, this, other))
                         return false;
-                } catch (IllegalAccessException ex1) {
-                    System.out.println("accessed field " + fieldName);
-                    System.out.println("modifier  " + modifier);
-                    System.out.println("modifier.private  " + Modifier.PRIVATE);
-                    InternalErrorHandler.handleException(ex1);
-                }
-            }
-            if (myclass.equals(SIPObject.class))
-                break;
-            else {
-                myclass = myclass.getSuperclass();
-                hisclass = hisclass.getSuperclass();
+                } else if (!equalValues(f.get(this), f.get(other)))
+                    return false;
+            } catch (IllegalAccessException ex1) {
+                InternalErrorHandler.handleException(ex1);
             }
         }
         return true;
@@ -166,115 +109,61 @@ public abstract class SIPObject extends GenericObject {
      * and non-sip fields that are non null are matched for equality.
      * Null in any field  matches anything. Some book-keeping fields
      * are ignored when making the comparison.
-     *
+     *@return true if match succeeds false otherwise.
      */
     public boolean match(Object other) {
-        if (other == null) {
+        if (other == null)
             return true;
-        }
-
         if (!this.getClass().equals(other.getClass()))
             return false;
         GenericObject that = (GenericObject) other;
-        Class myclass = this.getClass();
-        Class hisclass = other.getClass();
-        while (true) {
-            Field[] fields = myclass.getDeclaredFields();
-            Field[] hisfields = hisclass.getDeclaredFields();
-            for (int i = 0; i < fields.length; i++) {
-                Field f = fields[i];
-                Field g = hisfields[i];
-                // Only print protected and public members.
-                int modifier = f.getModifiers();
-                if ((modifier & Modifier.PRIVATE) == Modifier.PRIVATE)
-                    continue;
-                Class fieldType = f.getType();
-                String fieldName = f.getName();
-                if (fieldName.compareTo("stringRepresentation") == 0) {
+        Field[] fields = getIntrospectedFields(this.getClass());
+        for (int i = 0; i < fields.length; i++) {
+            Field f = fields[i];
+            try {
+                if (f.getType().isPrimitive()) {
+                    if (!equalPrimitiveFields(f, this, that))
+                        return false;
                     continue;
                 }
-                if (fieldName.compareTo("indentation") == 0) {
+                Object myObj = f.get(this);
+                Object hisObj = f.get(that);
+                if (hisObj == null)
                     continue;
-                }
-                try {
-                    if (fieldType.isPrimitive()) {
-                        String fname = fieldType.toString();
-                        if (fname.compareTo("int") == 0) {
-                            if (f.getInt(this) != g.getInt(that))
-                                return false;
-                        } else if (fname.compareTo("short") == 0) {
-                            if (f.getShort(this) != g.getShort(that))
-                                return false;
-                        } else if (fname.compareTo("char") == 0) {
-                            if (f.getChar(this) != g.getChar(that))
-                                return false;
-                        } else if (fname.compareTo("long") == 0) {
-                            if (f.getLong(this) != g.getLong(that))
-                                return false;
-                        } else if (fname.compareTo("boolean") == 0) {
-                            if (f.getBoolean(this) != g.getBoolean(that))
-                                return false;
-                        } else if (fname.compareTo("double") == 0) {
-                            if (f.getDouble(this) != g.getDouble(that))
-                                return false;
-                        } else if (fname.compareTo("float") == 0) {
-                            if (f.getFloat(this) != g.getFloat(that))
-                                return false;
-                        } else {
-                            InternalErrorHandler.handleException(
-                                "unknown type");
-                        }
-                    } else {
-                        Object myObj = f.get(this);
-                        Object hisObj = g.get(that);
-                        if (hisObj != null && myObj == null)
-                            return false;
-                        else if (hisObj == null && myObj != null)
-                            continue;
-                        else if (hisObj == null && myObj == null)
-                            continue;
-                        else if (
-                            hisObj instanceof java.lang.String
-                                && myObj instanceof java.lang.String) {
-                            if ((((String) hisObj).trim()).equals(""))
-                                continue;
-                            if (((String) myObj)
-                                .compareToIgnoreCase((String) hisObj)
-                                != 0)
-                                return false;
-                        } else if (
-                            hisObj != null
-                                && GenericObject.isMySubclass(myObj.getClass())
-                                && GenericObject.isMySubclass(hisObj.getClass())
-                                && myObj.getClass().equals(hisObj.getClass())
-                                && ((GenericObject) hisObj).getMatcher()
-                                    != null) {
-                            String myObjEncoded =
-                                ((GenericObject) myObj).encode();
-                            boolean retval =
-                                ((GenericObject) hisObj).getMatcher().match(
-                                    myObjEncoded);
-                            if (!retval)
-                                return false;
-                        } else if (
-                            GenericObject.isMySubclass(myObj.getClass())
-                                && !((GenericObject) myObj).match(hisObj))
-                            return false;
-                        else if (
-                            GenericObjectList.isMySubclass(myObj.getClass())
-                                && !((GenericObjectList) myObj).match(hisObj))
-                            return false;
-
-                    }
-                } catch (IllegalAccessException ex1) {
-                    InternalErrorHandler.handleException(ex1);
-                }
-            }
-            if (myclass.equals(SIPObject.class))
-                break;
-            else {
-                myclass = myclass.getSuperclass();
-                hisclass = hisclass.getSuperclass();
+                else if (myObj == null)
+                    return false;
+                else if (
+                    hisObj instanceof java.lang.String
+                        && myObj instanceof java.lang.String) {
+                    if ((((String) hisObj).trim()).equals(""))
+                        continue;
+                    if (((String) myObj)
+                        .compareToIgnoreCase((String) hisObj)
+                        != 0)
+                        return false;
+                } else if (
+                    GenericObject.isMySubclass(myObj.getClass())
+                        && GenericObject.isMySubclass(hisObj.getClass())
+                        && myObj.getClass().equals(hisObj.getClass())
+                        && ((GenericObject) hisObj).getMatcher()
+                            != null) {
+                    String myObjEncoded =
+                        ((GenericObject) myObj).encode();
+                    boolean retval =
+                        ((GenericObject) hisObj).getMatcher().match(
+                            myObjEncoded);
+                    if (!retval)
+                        return false;
+                } else if (
+                    GenericObject.isMySubclass(myObj.getClass())
+                        && !((GenericObject) myObj).match(hisObj))
+                    return false;
+                else if (
+                    GenericObjectList.isMySubclass(myObj.getClass())
+                        && !((GenericObjectList) myObj).match(hisObj))
+                    return false;
+            } catch (IllegalAccessException ex1) {
+                InternalErrorHandler.handleException(ex1);
             }
         }
         return true;
@@ -289,7 +178,7 @@ public abstract class SIPObject extends GenericObject {
      */
     public String debugDump() {
         stringRepresentation = "";
-        Class myclass = getClass();
+        Class<?> myclass = getClass();
         sprint(myclass.getName());
         sprint("{");
         Field[] fields = myclass.getDeclaredFields();
@@ -299,7 +188,7 @@ public abstract class SIPObject extends GenericObject {
             int modifier = f.getModifiers();
             if ((modifier & Modifier.PRIVATE) == Modifier.PRIVATE)
                 continue;
-            Class fieldType = f.getType();
+            Class<?> fieldType = f.getType();
             String fieldName = f.getName();
             if (fieldName.compareTo("stringRepresentation") == 0) {
                 // avoid nasty recursions...
@@ -121,6 +121,15 @@ public class Server extends SIPHeader implements ServerHeader {
                     + " product parameter is null");
         productTokens = product;
     }
+
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        Server that = (Server) other;
+        return equalValues(this.productTokens, that.productTokens);
+    }
 }
 /*
  * $Log: not supported by cvs2svn $
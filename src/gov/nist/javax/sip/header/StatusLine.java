@@ -205,6 +205,24 @@ public final class StatusLine extends SIPObject implements SipStatusLine {
         }
         return minor;
     }
+
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        StatusLine that = (StatusLine) other;
+        return this.statusCode == that.statusCode
+                && this.matchStatusClass == that.matchStatusClass
+                && equalValues(this.sipVersion, that.sipVersion)
+                && equalValues(this.reasonPhrase, that.reasonPhrase);
+    }
+
+    public int hashCode() {
+        int hash = 31 * statusCode + (matchStatusClass ? 1 : 0);
+        hash = 31 * hash + hashValue(sipVersion);
+        return 31 * hash + hashValue(reasonPhrase);
+    }
 }
 /*
  * $Log: not supported by cvs2svn $
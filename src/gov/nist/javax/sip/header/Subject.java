@@ -98,6 +98,14 @@ public class Subject extends SIPHeader implements SubjectHeader {
         return subject;
     }
 
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        Subject that = (Subject) other;
+        return equalValues(this.subject, that.subject);
+    }
 }
 /*
  * $Log: not supported by cvs2svn $
@@ -183,5 +183,16 @@ public class SubscriptionState
         }
         return buffer;
     }
+
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        SubscriptionState that = (SubscriptionState) other;
+        return this.expires == that.expires && this.retryAfter == that.retryAfter
+                && equalValues(this.reasonCode, that.reasonCode)
+                && equalValues(this.state, that.state) && equalParameterLists(that);
+    }
 }
 
@@ -113,6 +113,15 @@ public class Supported extends SIPHeader implements SupportedHeader {
     public String getOptionTag() {
         return optionTag;
     }
+
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        Supported that = (Supported) other;
+        return equalValues(this.optionTag, that.optionTag);
+    }
 }
 /*
  * $Log: not supported by cvs2svn $
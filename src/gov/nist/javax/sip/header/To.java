@@ -67,7 +67,7 @@ public final class To extends AddressParametersHeader implements
      */
     public To(From from) {
         super(TO);
-        setAddress(from.address);
+        setAddress(from.exposeAddress());
         setParameters(from.parameters);
     }
 
@@ -117,7 +117,7 @@ public final class To extends AddressParametersHeader implements
     public HostPort getHostPort() {
         if (address == null)
             return null;
-        return address.getHostPort();
+        return exposeAddress().getHostPort();
     }
 
     /**
@@ -185,6 +185,10 @@ public final class To extends AddressParametersHeader implements
         return address.getUserAtHostPort();
     }
 
+    protected boolean isCopyOnWriteClone() {
+        return isCopyOnWriteClones();
+    }
+
     public boolean equals(Object other) {
         return (other instanceof ToHeader) && super.equals(other);
     }
@@ -91,6 +91,15 @@ public class Unsupported
                     + " Unsupported, setOptionTag(), The option tag parameter is null");
         optionTag = o;
     }
+
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        Unsupported that = (Unsupported) other;
+        return equalValues(this.optionTag, that.optionTag);
+    }
 }
 /*
  * $Log: not supported by cvs2svn $
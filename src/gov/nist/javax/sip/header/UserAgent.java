@@ -124,6 +124,14 @@ public class UserAgent extends SIPHeader implements UserAgentHeader {
         return retval;
     }
 
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        UserAgent that = (UserAgent) other;
+        return equalValues(this.productTokens, that.productTokens);
+    }
 }
 /*
  * $Log: not supported by cvs2svn $
@@ -148,6 +148,16 @@ public class Warning extends SIPHeader implements WarningHeader {
         } else
             this.text = text;
     }
+
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        Warning that = (Warning) other;
+        return this.code == that.code && equalValues(this.agent, that.agent)
+                && equalValues(this.text, that.text);
+    }
 }
 /*
  * $Log: not supported by cvs2svn $
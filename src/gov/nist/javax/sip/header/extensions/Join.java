@@ -184,5 +184,15 @@ public class Join
 //      retval.setCallIdentifier( (CallIdentifier) this.callIdentifier.clone() );
 //      return retval;
 //  }
+
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        Join that = (Join) other;
+        return equalValues(this.callIdentifier, that.callIdentifier)
+                && equalValues(this.callId, that.callId) && equalParameterLists(that);
+    }
 }
 
@@ -96,4 +96,13 @@ public class MinSE
             throw new InvalidArgumentException("bad argument " + expires);
         this.expires = expires;
     }
+
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        MinSE that = (MinSE) other;
+        return this.expires == that.expires && equalParameterLists(that);
+    }
 }
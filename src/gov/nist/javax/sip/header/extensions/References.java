@@ -87,4 +87,12 @@ public class References extends ParametersHeader  implements ReferencesHeader,Ex
         throw new UnsupportedOperationException("operation not supported");
     }
 
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        References that = (References) other;
+        return equalValues(this.callId, that.callId) && equalParameterLists(that);
+    }
 }
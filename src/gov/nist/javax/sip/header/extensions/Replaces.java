@@ -184,6 +184,16 @@ public class Replaces
 //          retval.setCallIdentifier( (CallIdentifier) this.callIdentifier.clone() );
 //      return retval;
 //  }
+
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        Replaces that = (Replaces) other;
+        return equalValues(this.callIdentifier, that.callIdentifier)
+                && equalValues(this.callId, that.callId) && equalParameterLists(that);
+    }
 }
 /*
  * $Log: not supported by cvs2svn $
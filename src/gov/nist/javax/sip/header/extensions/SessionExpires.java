@@ -99,6 +99,15 @@ public final class SessionExpires
     public void setRefresher(String refresher) {
         this.parameters.set(REFRESHER,refresher);
     }
+
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        SessionExpires that = (SessionExpires) other;
+        return this.expires == that.expires && equalParameterLists(that);
+    }
 }
 
 
@@ -297,4 +297,12 @@ public class PChargingFunctionAddresses
 
     }
 
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        PChargingFunctionAddresses that = (PChargingFunctionAddresses) other;
+        return equalParameterLists(that);
+    }
 }
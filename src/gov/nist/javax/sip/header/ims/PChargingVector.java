@@ -217,4 +217,12 @@ public class PChargingVector extends gov.nist.javax.sip.header.ParametersHeader
 
     }
 
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || other.getClass() != this.getClass())
+            return false;
+        PChargingVector that = (PChargingVector) other;
+        return equalParameterLists(that);
+    }
 }
@@ -0,0 +1,136 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ *
+ */
+package gov.nist.javax.sip.message;
+
+import gov.nist.javax.sip.header.SIPHeader;
+
+import java.util.AbstractQueue;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The headers of a message in the order they were added, held in a plain
+ * array. Like the ConcurrentLinkedQueue it replaces, its iterators never
+ * throw ConcurrentModificationException and support remove(), which is how
+ * SIPMessage drops headers, but it is not thread safe.
+ */
+final class HeaderQueue extends AbstractQueue<SIPHeader> {
+
+    private static final int INITIAL_CAPACITY = 12;
+
+    private SIPHeader[] elements;
+
+    private int size;
+
+    HeaderQueue() {
+        elements = new SIPHeader[INITIAL_CAPACITY];
+    }
+
+    HeaderQueue(int capacity) {
+        elements = new SIPHeader[Math.max(capacity, 1)];
+    }
+
+    public boolean offer(SIPHeader header) {
+        if (header == null) {
+            throw new NullPointerException();
+        }
+        if (size == elements.length) {
+            SIPHeader[] grown = new SIPHeader[size + (size >> 1) + 1];
+            System.arraycopy(elements, 0, grown, 0, size);
+            elements = grown;
+        }
+        elements[size++] = header;
+        return true;
+    }
+
+    public SIPHeader poll() {
+        if (size == 0) {
+            return null;
+        }
+        SIPHeader first = elements[0];
+        removeAt(0);
+        return first;
+    }
+
+    public SIPHeader peek() {
+        return size == 0 ? null : elements[0];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            elements[i] = null;
+        }
+        size = 0;
+    }
+
+    private void removeAt(int index) {
+        int moved = size - index - 1;
+        if (moved > 0) {
+            System.arraycopy(elements, index + 1, elements, index, moved);
+        }
+        elements[--size] = null;
+    }
+
+    @Override
+    public Iterator<SIPHeader> iterator() {
+        return new Iterator<SIPHeader>() {
+            private int cursor;
+
+            private SIPHeader last;
+
+            public boolean hasNext() {
+                return cursor < size;
+            }
+
+            public SIPHeader next() {
+                if (cursor >= size) {
+                    throw new NoSuchElementException();
+                }
+                last = elements[cursor++];
+                return last;
+            }
+
+            public void remove() {
+                if (last == null) {
+                    throw new IllegalStateException();
+                }
+                // the header may have moved if the queue was changed since next()
+                for (int i = Math.min(cursor, size) - 1; i >= 0; i--) {
+                    if (elements[i] == last) {
+                        removeAt(i);
+                        cursor = i;
+                        break;
+                    }
+                }
+                last = null;
+            }
+        };
+    }
+}
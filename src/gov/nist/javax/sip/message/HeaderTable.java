@@ -0,0 +1,218 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ *
+ */
+package gov.nist.javax.sip.message;
+
+import gov.nist.javax.sip.header.SIPHeader;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Index of the headers of a message by lower case header name. This is a small
+ * open addressing (linear probing) table held in two parallel arrays. Header
+ * names normally come from SIPHeaderNamesCache, so keys are compared by
+ * reference first. Not thread safe: a message is normally owned by one thread
+ * at a time, see {@link SIPMessage#setConcurrentHeaderAccess(boolean)}.
+ *
+ * Removal through the iterators of the views is not supported.
+ */
+final class HeaderTable extends AbstractMap<String, SIPHeader> {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private String[] keys;
+
+    private SIPHeader[] values;
+
+    private int size;
+
+    HeaderTable() {
+        keys = new String[INITIAL_CAPACITY];
+        values = new SIPHeader[INITIAL_CAPACITY];
+    }
+
+    private int indexOf(Object key) {
+        String[] k = keys;
+        int mask = k.length - 1;
+        int i = key.hashCode() & mask;
+        while (true) {
+            String candidate = k[i];
+            if (candidate == null) {
+                return -1;
+            }
+            if (candidate == key || candidate.equals(key)) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    @Override
+    public SIPHeader get(Object key) {
+        if (key == null) {
+            return null;
+        }
+        int i = indexOf(key);
+        return i < 0 ? null : values[i];
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key != null && indexOf(key) >= 0;
+    }
+
+    @Override
+    public SIPHeader put(String key, SIPHeader value) {
+        if (key == null || value == null) {
+            throw new NullPointerException();
+        }
+        int mask = keys.length - 1;
+        int i = key.hashCode() & mask;
+        while (keys[i] != null) {
+            if (keys[i] == key || keys[i].equals(key)) {
+                SIPHeader old = values[i];
+                values[i] = value;
+                return old;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        // keep the table at most half full so probe sequences stay short
+        if (++size * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+        return null;
+    }
+
+    @Override
+    public SIPHeader remove(Object key) {
+        if (key == null) {
+            return null;
+        }
+        int i = indexOf(key);
+        if (i < 0) {
+            return null;
+        }
+        SIPHeader old = values[i];
+        int mask = keys.length - 1;
+        // backward shift deletion: move up entries whose probe sequence ran through slot i
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            String k = keys[j];
+            if (k == null) {
+                break;
+            }
+            int home = k.hashCode() & mask;
+            if ((j > i && (home <= i || home > j)) || (j < i && home <= i && home > j)) {
+                keys[i] = k;
+                values[i] = values[j];
+                i = j;
+            }
+        }
+        keys[i] = null;
+        values[i] = null;
+        size--;
+        return old;
+    }
+
+    private void resize(int capacity) {
+        String[] oldKeys = keys;
+        SIPHeader[] oldValues = values;
+        keys = new String[capacity];
+        values = new SIPHeader[capacity];
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != null) {
+                int i = oldKeys[j].hashCode() & mask;
+                while (keys[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        keys = new String[INITIAL_CAPACITY];
+        values = new SIPHeader[INITIAL_CAPACITY];
+        size = 0;
+    }
+
+    @Override
+    public Set<Map.Entry<String, SIPHeader>> entrySet() {
+        return new AbstractSet<Map.Entry<String, SIPHeader>>() {
+            @Override
+            public Iterator<Map.Entry<String, SIPHeader>> iterator() {
+                final String[] k = keys;
+                final SIPHeader[] v = values;
+                return new Iterator<Map.Entry<String, SIPHeader>>() {
+                    private int next = advance(0);
+
+                    private int advance(int from) {
+                        while (from < k.length && k[from] == null) {
+                            from++;
+                        }
+                        return from;
+                    }
+
+                    public boolean hasNext() {
+                        return next < k.length;
+                    }
+
+                    public Map.Entry<String, SIPHeader> next() {
+                        if (next >= k.length) {
+                            throw new NoSuchElementException();
+                        }
+                        Map.Entry<String, SIPHeader> entry =
+                            new SimpleImmutableEntry<String, SIPHeader>(k[next], v[next]);
+                        next = advance(next + 1);
+                        return entry;
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+}
@@ -58,6 +58,9 @@ public class MessageFactoryImpl implements MessageFactory, MessageFactoryExt {
 
     private static String defaultContentEncodingCharset = "UTF-8";
 
+    // The parser keeps no state between parses and its lexers are per thread
+    private static final StringMsgParser stringMsgParser = new StringMsgParser();
+
 
     /*
      * The UserAgent header to include for all requests created from this message factory.
@@ -696,7 +699,6 @@ public class MessageFactoryImpl implements MessageFactory, MessageFactoryExt {
             return retval;
         }
 
-        StringMsgParser smp = new StringMsgParser();
 //        smp.setStrict(this.strict);
 
         /*
@@ -733,7 +735,7 @@ public class MessageFactoryImpl implements MessageFactory, MessageFactoryExt {
         if (this.testing)
             exHandler = parseExceptionListener;
 
-        SIPMessage sipMessage = smp.parseSIPMessage(requestString.getBytes(), true, this.strict, exHandler);
+        SIPMessage sipMessage = stringMsgParser.parseSIPMessage(requestString.getBytes(), true, this.strict, exHandler);
 
         if (!(sipMessage instanceof SIPRequest))
             throw new ParseException(requestString, 0);
@@ -754,9 +756,7 @@ public class MessageFactoryImpl implements MessageFactory, MessageFactoryExt {
         if (responseString == null)
             return new SIPResponse();
 
-        StringMsgParser smp = new StringMsgParser();
-
-        SIPMessage sipMessage = smp.parseSIPMessage(responseString.getBytes(), true, false, null);
+        SIPMessage sipMessage = stringMsgParser.parseSIPMessage(responseString.getBytes(), true, false, null);
 
         if (!(sipMessage instanceof SIPResponse))
             throw new ParseException(responseString, 0);
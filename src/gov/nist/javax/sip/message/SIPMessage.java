@@ -28,8 +28,11 @@
  ******************************************************************************/
 package gov.nist.javax.sip.message;
 
+import gov.nist.core.CommonLogger;
 import gov.nist.core.InternalErrorHandler;
+import gov.nist.core.LogWriter;
 import gov.nist.core.Separators;
+import gov.nist.core.StackLogger;
 import gov.nist.javax.sip.SIPConstants;
 import gov.nist.javax.sip.Utils;
 import gov.nist.javax.sip.header.AlertInfo;
@@ -78,12 +81,15 @@ import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Field;
 import java.net.InetAddress;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
@@ -134,6 +140,28 @@ import javax.sip.message.Request;
 public abstract class SIPMessage extends MessageObject implements javax.sip.message.Message,
         MessageExt {
 
+    private static StackLogger logger = CommonLogger.getLogger(SIPMessage.class);
+
+    /**
+     * Scratch buffer reused by encodeAsBytes on each thread.
+     */
+    private static final ThreadLocal<StringBuilder> ENCODE_BUFFER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(1024);
+        }
+    };
+
+    /**
+     * Scratch buffers that grew beyond this many characters are not kept for reuse.
+     */
+    private static final int MAX_RETAINED_ENCODE_BUFFER = 64 * 1024;
+
+    /**
+     * When true, messages keep their headers in concurrent collections.
+     */
+    private static volatile boolean concurrentHeaderAccess;
+
     // JvB: use static here?
     private String contentEncodingCharset = MessageFactoryImpl.getDefaultContentEncodingCharset();
 
@@ -148,9 +176,11 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
     protected LinkedList<String> unrecognizedHeaders;
 
     /**
-     * List of parsed headers (in the order they were added)
+     * List of parsed headers (in the order they were added). This used to be a
+     * ConcurrentLinkedQueue, it is now only one when concurrent header access is on (see
+     * {@link #setConcurrentHeaderAccess(boolean)}), subclasses must use it as a Queue.
      */
-    protected ConcurrentLinkedQueue<SIPHeader> headers;
+    protected Queue<SIPHeader> headers;
 
     /**
      * Direct accessors for frequently accessed headers
@@ -180,6 +210,9 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
     // Table of headers indexed by name.
     protected Map<String, SIPHeader> headerTable;
 
+    // Headers kept as received by a lazy parser, indexed by lower case name, null if there are none.
+    private Map<String, List<LazyHeader>> lazyHeaderTable;
+
     /**
      * The application data pointer. This is un-interpreted by the stack. This is provided as a
      * convenient way of keeping book-keeping data for applications.
@@ -346,6 +379,7 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
         if (!other.getClass().equals(this.getClass()))
             return false;
         SIPMessage matchObj = (SIPMessage) other;
+        this.parseLazyHeaders();
         Iterator<SIPHeader> li = matchObj.getHeaders();
         while (li.hasNext()) {
             SIPHeader hisHeaders = (SIPHeader) li.next();
@@ -403,6 +437,8 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
         if (!template.getClass().equals(this.getClass()))
             throw new IllegalArgumentException("Bad class " + template.getClass());
         SIPMessage templateMessage = (SIPMessage) template;
+        templateMessage.parseLazyHeaders();
+        this.parseLazyHeaders();
         Object[] templateHeaders = templateMessage.headers.toArray();
         for (int i = 0; i < templateHeaders.length; i++) {
             SIPHeader hdr = (SIPHeader) templateHeaders[i];
@@ -480,6 +516,21 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
      *         byte array).
      */
     public byte[] encodeAsBytes(String transport) {
+        return encodeAsBytes(transport, null);
+    }
+
+    /**
+     * Encode the message, preceded by the given first line, straight into a single byte array.
+     * Headers are rendered into a per-thread scratch buffer and, when they are plain ASCII
+     * (the usual case), copied byte for byte into an array sized for headers and body, so no
+     * intermediate String or byte array is created. Headers still held in their received form
+     * (see lazy header parsing) are copied verbatim without being re-encoded.
+     *
+     * @param transport the transport to set in the topmost Via header.
+     * @param firstLine the encoded request or status line, or null.
+     * @return the encoded message.
+     */
+    protected byte[] encodeAsBytes(String transport, String firstLine) {
         if (this instanceof SIPRequest && ((SIPRequest) this).isNullRequest()) {
             return "\r\n\r\n".getBytes();
         }
@@ -492,45 +543,73 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
             InternalErrorHandler.handleException(e);
         }
 
-        StringBuilder encoding = new StringBuilder();
-        synchronized (this.headers) {
-            Iterator<SIPHeader> it = this.headers.iterator();
-
-            while (it.hasNext()) {
-                SIPHeader siphdr = (SIPHeader) it.next();
-                if (!(siphdr instanceof ContentLength))
-                    siphdr.encode(encoding);
-
-            }
-        }
-        contentLengthHeader.encode(encoding);
-        encoding.append(NEWLINE);
-
-        byte[] retval = null;
         byte[] content = this.getRawContent();
-        if (content != null) {
-            // Append the content
+        String charset = getCharset();
 
-            byte[] msgarray = null;
-            try {
-                msgarray = encoding.toString().getBytes( getCharset() );
-            } catch (UnsupportedEncodingException ex) {
-                InternalErrorHandler.handleException(ex);
-            }
+        StringBuilder encoding = ENCODE_BUFFER.get();
+        encoding.setLength(0);
+        try {
+            if (firstLine != null)
+                encoding.append(firstLine);
+            int headersStart = encoding.length();
+            synchronized (this.headers) {
+                Iterator<SIPHeader> it = this.headers.iterator();
 
-            retval = new byte[msgarray.length + content.length];
-            System.arraycopy(msgarray, 0, retval, 0, msgarray.length);
-            System.arraycopy(content, 0, retval, msgarray.length, content.length);
-        } else {
-            // Message content does not exist.
+                while (it.hasNext()) {
+                    SIPHeader siphdr = it.next();
+                    if (!(siphdr instanceof ContentLength))
+                        siphdr.encode(encoding);
 
-            try {
-                retval = encoding.toString().getBytes( getCharset() );
-            } catch (UnsupportedEncodingException ex) {
-                InternalErrorHandler.handleException(ex);
+                }
+            }
+            contentLengthHeader.encode(encoding);
+            encoding.append(NEWLINE);
+
+            int length = encoding.length();
+            int contentLength = content == null ? 0 : content.length;
+            byte[] retval = null;
+            if (isAsciiCompatible(charset)) {
+                retval = new byte[length + contentLength];
+                for (int i = 0; i < length; i++) {
+                    char c = encoding.charAt(i);
+                    if (c >= 0x80) {
+                        // Non ASCII text somewhere in the headers, let the charset encoder do it.
+                        retval = null;
+                        break;
+                    }
+                    retval[i] = (byte) c;
+                }
+            }
+            if (retval == null) {
+                byte[] firstLineBytes = encoding.substring(0, headersStart).getBytes("UTF-8");
+                byte[] headerBytes = encoding.substring(headersStart).getBytes(charset);
+                length = firstLineBytes.length + headerBytes.length;
+                retval = new byte[length + contentLength];
+                System.arraycopy(firstLineBytes, 0, retval, 0, firstLineBytes.length);
+                System.arraycopy(headerBytes, 0, retval, firstLineBytes.length, headerBytes.length);
+            }
+            if (content != null) {
+                System.arraycopy(content, 0, retval, length, contentLength);
+            }
+            return retval;
+        } catch (UnsupportedEncodingException ex) {
+            InternalErrorHandler.handleException(ex);
+            return null;
+        } finally {
+            if (encoding.capacity() > MAX_RETAINED_ENCODE_BUFFER) {
+                // do not pin the memory of an exceptionally large message to the thread
+                ENCODE_BUFFER.remove();
             }
         }
-        return retval;
+    }
+
+    /**
+     * Returns true if ASCII characters are encoded as single identical bytes in the given
+     * charset, so that ASCII text can be copied without a charset encoder.
+     */
+    private static boolean isAsciiCompatible(String charset) {
+        return "UTF-8".equalsIgnoreCase(charset) || "ISO-8859-1".equalsIgnoreCase(charset)
+                || "US-ASCII".equalsIgnoreCase(charset);
     }
 
     /**
@@ -545,7 +624,7 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
      */
     public Object clone() {
         SIPMessage retval = (SIPMessage) super.clone();
-        retval.headerTable = new ConcurrentHashMap<String, SIPHeader>();
+        retval.headerTable = newHeaderTable();
         retval.fromHeader = null;
         retval.toHeader = null;
         retval.cSeqHeader = null;
@@ -553,11 +632,17 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
         retval.contentLengthHeader = null;
         retval.maxForwardsHeader = null;
         retval.forkId = null;        
+        retval.lazyHeaderTable = null;
         if (this.headers != null) {
-            retval.headers = new ConcurrentLinkedQueue<SIPHeader>();
+            retval.headers = newHeaderQueue(headers.size() + 1);
             for (Iterator<SIPHeader> iter = headers.iterator(); iter.hasNext();) {
                 SIPHeader hdr = (SIPHeader) iter.next();
-                retval.attachHeader((SIPHeader) hdr.clone());
+                if (hdr instanceof LazyHeader) {
+                    // Still the bytes we received, nothing to copy
+                    retval.attachLazyHeader((LazyHeader) hdr);
+                } else {
+                    retval.attachHeader((SIPHeader) hdr.clone());
+                }
             }
 
         }
@@ -617,15 +702,46 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
      * headers are derived from SIPHeader class.
      */
     public SIPMessage() {
-        this.unrecognizedHeaders = new LinkedList<String>();
-        this.headers = new ConcurrentLinkedQueue<SIPHeader>();
-        headerTable = new ConcurrentHashMap<String, SIPHeader>();
+        this.headers = newHeaderQueue(0);
+        headerTable = newHeaderTable();
         try {
             this.attachHeader(new ContentLength(0), false);
         } catch (Exception ex) {
         }
     }
 
+    /**
+     * Choose whether messages created from now on keep their headers in concurrent
+     * collections. By default a message is assumed to be used by one thread at a time and its
+     * headers are kept in compact array based structures. The setting is JVM wide, it applies
+     * to the messages of every stack in the JVM.
+     *
+     * @param concurrent true if the headers of a message may be accessed by several threads
+     *        at the same time.
+     */
+    public static void setConcurrentHeaderAccess(boolean concurrent) {
+        concurrentHeaderAccess = concurrent;
+    }
+
+    /**
+     * @return true if messages keep their headers in concurrent collections.
+     */
+    public static boolean isConcurrentHeaderAccess() {
+        return concurrentHeaderAccess;
+    }
+
+    private static Queue<SIPHeader> newHeaderQueue(int capacity) {
+        if (concurrentHeaderAccess)
+            return new ConcurrentLinkedQueue<SIPHeader>();
+        return capacity > 0 ? new HeaderQueue(capacity) : new HeaderQueue();
+    }
+
+    private static Map<String, SIPHeader> newHeaderTable() {
+        if (concurrentHeaderAccess)
+            return new ConcurrentHashMap<String, SIPHeader>();
+        return new HeaderTable();
+    }
+
     /**
      * Attach a header and die if you get a duplicate header exception.
      *
@@ -721,6 +837,7 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
 
         SIPHeader h;
 
+        parseLazyHeader(SIPHeaderNamesCache.toLowerCase(header.getName()));
         if (ListMap.hasList(header) && !SIPHeaderList.class.isAssignableFrom(header.getClass())) {
             SIPHeaderList<SIPHeader> hdrList = ListMap.getList(header);
             hdrList.add(header);
@@ -800,6 +917,7 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
     public void removeHeader(String headerName, boolean top) {
 
         String headerNameLowerCase = SIPHeaderNamesCache.toLowerCase(headerName);
+        parseLazyHeader(headerNameLowerCase);
         SIPHeader toRemove = (SIPHeader) headerTable.get(headerNameLowerCase);
         // nothing to do then we are done.
         if (toRemove == null)
@@ -858,6 +976,9 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
         if (headerName == null)
             throw new NullPointerException("null arg");
         String headerNameLowerCase = SIPHeaderNamesCache.toLowerCase(headerName);
+        if (removeLazyHeader(headerNameLowerCase)) {
+            return;
+        }
         SIPHeader removed = (SIPHeader) headerTable.remove(headerNameLowerCase);
         // nothing to do then we are done.
         if (removed == null)
@@ -978,6 +1099,7 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
      * @return an Iterator for the headers of this message.
      */
     public Iterator<SIPHeader> getHeaders() {
+        parseLazyHeaders();
         return headers.iterator();
     }
 
@@ -993,6 +1115,7 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
     protected Header getHeaderLowerCase(String lowerCaseHeaderName) {
         if (lowerCaseHeaderName == null)
             throw new NullPointerException("bad name");
+        parseLazyHeader(lowerCaseHeaderName);
         SIPHeader sipHeader = (SIPHeader) headerTable.get(lowerCaseHeaderName);
         if (sipHeader instanceof SIPHeaderList)
             return (Header) ((SIPHeaderList) sipHeader).getFirst();
@@ -1463,8 +1586,9 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
     public ListIterator<SIPHeader> getHeaders(String headerName) {
         if (headerName == null)
             throw new NullPointerException("null headerName");
-        SIPHeader sipHeader = (SIPHeader) headerTable.get(SIPHeaderNamesCache
-                .toLowerCase(headerName));
+        String lowerCaseHeaderName = SIPHeaderNamesCache.toLowerCase(headerName);
+        parseLazyHeader(lowerCaseHeaderName);
+        SIPHeader sipHeader = headerTable.get(lowerCaseHeaderName);
         // empty iterator
         if (sipHeader == null)
             return new LinkedList<SIPHeader>().listIterator();
@@ -1484,6 +1608,7 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
      */
     public String getHeaderAsFormattedString(String name) {
         String lowerCaseName = SIPHeaderNamesCache.toLowerCase(name);
+        parseLazyHeader(lowerCaseName);
         if (this.headerTable.containsKey(lowerCaseName)) {
             return this.headerTable.get(lowerCaseName).toString();
         } else {
@@ -1492,6 +1617,7 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
     }
 
     public SIPHeader getSIPHeaderListLowerCase(String lowerCaseHeaderName) {
+        parseLazyHeader(lowerCaseHeaderName);
         return headerTable.get(lowerCaseHeaderName);
     }
 
@@ -1503,8 +1629,9 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
      */
     @SuppressWarnings("unchecked")
     private List<SIPHeader> getHeaderList(String headerName) {
-        SIPHeader sipHeader = (SIPHeader) headerTable.get(SIPHeaderNamesCache
-                .toLowerCase(headerName));
+        String lowerCaseHeaderName = SIPHeaderNamesCache.toLowerCase(headerName);
+        parseLazyHeader(lowerCaseHeaderName);
+        SIPHeader sipHeader = headerTable.get(lowerCaseHeaderName);
         if (sipHeader == null)
             return null;
         else if (sipHeader instanceof SIPHeaderList)
@@ -1523,7 +1650,9 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
      * @return true if the header is present in the message
      */
     public boolean hasHeader(String headerName) {
-        return headerTable.containsKey(SIPHeaderNamesCache.toLowerCase(headerName));
+        String lowerCaseHeaderName = SIPHeaderNamesCache.toLowerCase(headerName);
+        parseLazyHeader(lowerCaseHeaderName);
+        return headerTable.containsKey(lowerCaseHeaderName);
     }
 
     /**
@@ -1647,7 +1776,9 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
      * @return a linked list containing unrecongnized headers.
      */
     public ListIterator<String> getUnrecognizedHeaders() {
-        return this.getUnrecognizedHeadersList().listIterator();
+        if (unrecognizedHeaders == null)
+            return Collections.<String>emptyList().listIterator();
+        return this.unrecognizedHeaders.listIterator();
     }
 
     /**
@@ -1677,6 +1808,8 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
             return false;
         }
         SIPMessage otherMessage = (SIPMessage) other;
+        this.parseLazyHeaders();
+        otherMessage.parseLazyHeaders();
         Collection<SIPHeader> values = this.headerTable.values();
         Iterator<SIPHeader> it = values.iterator();
         if (headerTable.size() != otherMessage.headerTable.size()) {
@@ -1981,6 +2114,151 @@ public abstract class SIPMessage extends MessageObject implements javax.sip.mess
 
     public abstract String toString();
 
+    /**
+     * Attach a header without parsing it. The header is kept as received and
+     * parsed the first time it is looked up; until then it is encoded with
+     * exactly the text it was received with. Used by parsers in lazy header
+     * parsing mode for the headers the stack itself does not need.
+     *
+     * @param headerName the name of the header as received.
+     * @param headerLine the complete header line (name and value) without the line terminator.
+     */
+    public void attachLazyHeader(String headerName, String headerLine) {
+        attachLazyHeader(new LazyHeader(headerName, headerLine));
+    }
+
+    private void attachLazyHeader(LazyHeader header) {
+        String headerNameLowerCase = SIPHeaderNamesCache.toLowerCase(header.getName());
+        synchronized (this.headers) {
+            if (lazyHeaderTable == null) {
+                lazyHeaderTable = new ConcurrentHashMap<String, List<LazyHeader>>();
+            }
+            List<LazyHeader> lazyHeaders = lazyHeaderTable.get(headerNameLowerCase);
+            if (lazyHeaders == null) {
+                lazyHeaders = new ArrayList<LazyHeader>(1);
+                lazyHeaderTable.put(headerNameLowerCase, lazyHeaders);
+            }
+            lazyHeaders.add(header);
+            headers.add(header);
+        }
+    }
+
+    /**
+     * Parse the headers of the given name that were attached without being
+     * parsed, the parsed header takes the place of the first of them.
+     * Headers that fail to parse are dropped.
+     */
+    private void parseLazyHeader(String headerNameLowerCase) {
+        if (lazyHeaderTable == null) {
+            return;
+        }
+        synchronized (this.headers) {
+            List<LazyHeader> lazyHeaders = lazyHeaderTable.remove(headerNameLowerCase);
+            if (lazyHeaders == null) {
+                return;
+            }
+            for (LazyHeader lazyHeader : lazyHeaders) {
+                try {
+                    attachHeader(ParserFactory.createParser(lazyHeader.line + "\n").parse(), false, false);
+                } catch (SIPDuplicateHeaderException ex) {
+                } catch (ParseException ex) {
+                    if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+                        logger.logDebug("Dropping unparseable header " + lazyHeader.line + " : " + ex.getMessage());
+                    }
+                }
+            }
+            SIPHeader parsed = headerTable.get(headerNameLowerCase);
+            List<SIPHeader> ordered = new ArrayList<SIPHeader>(headers.size());
+            for (SIPHeader header : headers) {
+                if (header == lazyHeaders.get(0)) {
+                    if (parsed != null) {
+                        ordered.add(parsed);
+                    }
+                } else if (header != parsed && !isLazyHeaderOf(header, lazyHeaders)) {
+                    ordered.add(header);
+                }
+            }
+            headers.clear();
+            headers.addAll(ordered);
+        }
+    }
+
+    private static boolean isLazyHeaderOf(SIPHeader header, List<LazyHeader> lazyHeaders) {
+        if (header instanceof LazyHeader) {
+            for (LazyHeader lazyHeader : lazyHeaders) {
+                if (header == lazyHeader) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Drop the headers of the given name that were attached without being parsed.
+     *
+     * @return true if there were such headers.
+     */
+    private boolean removeLazyHeader(String headerNameLowerCase) {
+        if (lazyHeaderTable == null) {
+            return false;
+        }
+        synchronized (this.headers) {
+            List<LazyHeader> lazyHeaders = lazyHeaderTable.remove(headerNameLowerCase);
+            if (lazyHeaders == null) {
+                return false;
+            }
+            Iterator<SIPHeader> li = headers.iterator();
+            while (li.hasNext()) {
+                if (isLazyHeaderOf(li.next(), lazyHeaders)) {
+                    li.remove();
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Parse all the headers that were attached without being parsed.
+     */
+    protected void parseLazyHeaders() {
+        if (lazyHeaderTable == null) {
+            return;
+        }
+        for (String headerNameLowerCase : lazyHeaderTable.keySet()) {
+            parseLazyHeader(headerNameLowerCase);
+        }
+    }
+
+    /**
+     * A header attached by a lazy parser, it encodes as the text it was received with.
+     * LazyHeaders never leave the message, they are replaced by the parsed header as
+     * soon as one of the accessors looks for them.
+     */
+    static final class LazyHeader extends SIPHeader {
+
+        private static final long serialVersionUID = 2855917522553917707L;
+
+        private final String line;
+
+        LazyHeader(String headerName, String line) {
+            super(headerName);
+            this.line = line;
+        }
+
+        public StringBuilder encode(StringBuilder buffer) {
+            return buffer.append(line).append(NEWLINE);
+        }
+
+        protected StringBuilder encodeBody(StringBuilder buffer) {
+            return buffer.append(line.substring(line.indexOf(':') + 1).trim());
+        }
+
+        public Object clone() {
+            return this;
+        }
+    }
+
     public void cleanUp() {
 //        callIdHeader = null;
 //        contentEncodingCharset = null;
@@ -0,0 +1,404 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement
+ *
+ * .
+ *
+ */
+package gov.nist.javax.sip.parser;
+
+import gov.nist.core.CommonLogger;
+import gov.nist.core.LexerCore;
+import gov.nist.core.StackLogger;
+import gov.nist.javax.sip.header.CSeq;
+import gov.nist.javax.sip.header.CallID;
+import gov.nist.javax.sip.header.ContentLength;
+import gov.nist.javax.sip.header.MaxForwards;
+import gov.nist.javax.sip.header.SIPHeader;
+import gov.nist.javax.sip.message.SIPMessage;
+import gov.nist.javax.sip.message.SIPRequest;
+
+import java.nio.charset.Charset;
+import java.text.ParseException;
+
+import javax.sip.InvalidArgumentException;
+import javax.sip.message.Request;
+
+/**
+ * A message parser working directly on the received bytes. Unlike
+ * {@link StringMsgParser} it does not turn every line into a String before
+ * looking at it: header names are recognised on the raw bytes, Call-ID, CSeq,
+ * Content-Length and Max-Forwards are built without going through a Lexer,
+ * and Via, From, To, Contact, Route and Record-Route are handed to their
+ * parser directly instead of being looked up through the {@link ParserFactory}.
+ * All other headers, folded headers and any header the fast path cannot
+ * handle go through the regular StringMsgParser path, so the resulting
+ * messages and the error reporting are the same as with the default parser.
+ *
+ * Enable it with gov.nist.javax.sip.MESSAGE_PARSER_FACTORY =
+ * gov.nist.javax.sip.parser.ByteMsgParserFactory
+ *
+ * @see ByteMsgParserFactory
+ */
+public class ByteMsgParser extends StringMsgParser {
+
+    private static StackLogger logger = CommonLogger.getLogger(ByteMsgParser.class);
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int OTHER = 0;
+    private static final int VIA = 1;
+    private static final int FROM = 2;
+    private static final int TO = 3;
+    private static final int CALL_ID = 4;
+    private static final int CSEQ = 5;
+    private static final int CONTACT = 6;
+    private static final int CONTENT_LENGTH = 7;
+    private static final int MAX_FORWARDS = 8;
+    private static final int ROUTE = 9;
+    private static final int RECORD_ROUTE = 10;
+
+    // Lower case header names indexed by their length, a perfect hash for the headers we handle ourselves
+    private static final byte[][][] NAMES = new byte[15][][];
+    private static final int[][] CODES = new int[15][];
+
+    private static final String[] METHODS = {
+        Request.INVITE, Request.ACK, Request.BYE, Request.CANCEL, Request.OPTIONS,
+        Request.REGISTER, Request.SUBSCRIBE, Request.NOTIFY, Request.MESSAGE,
+        Request.INFO, Request.PRACK, Request.UPDATE, Request.REFER, Request.PUBLISH
+    };
+
+    private static final byte[][] METHOD_BYTES = new byte[METHODS.length][];
+
+    static {
+        addName("v", VIA);
+        addName("f", FROM);
+        addName("t", TO);
+        addName("i", CALL_ID);
+        addName("m", CONTACT);
+        addName("l", CONTENT_LENGTH);
+        addName("via", VIA);
+        addName("from", FROM);
+        addName("to", TO);
+        addName("call-id", CALL_ID);
+        addName("cseq", CSEQ);
+        addName("contact", CONTACT);
+        addName("content-length", CONTENT_LENGTH);
+        addName("max-forwards", MAX_FORWARDS);
+        addName("route", ROUTE);
+        addName("record-route", RECORD_ROUTE);
+        for (int i = 0; i < METHODS.length; i++) {
+            METHOD_BYTES[i] = METHODS[i].getBytes(UTF8);
+        }
+    }
+
+    private static void addName(String name, int code) {
+        int length = name.length();
+        byte[][] names = NAMES[length];
+        int[] codes = CODES[length];
+        int count = names == null ? 0 : names.length;
+        byte[][] newNames = new byte[count + 1][];
+        int[] newCodes = new int[count + 1];
+        if (count > 0) {
+            System.arraycopy(names, 0, newNames, 0, count);
+            System.arraycopy(codes, 0, newCodes, 0, count);
+        }
+        newNames[count] = name.getBytes(UTF8);
+        newCodes[count] = code;
+        NAMES[length] = newNames;
+        CODES[length] = newCodes;
+    }
+
+    public ByteMsgParser() {
+        super();
+    }
+
+    /**
+     * Parse a buffer containing a single SIP Message. Same contract as
+     * {@link StringMsgParser#parseSIPMessage(byte[], boolean, boolean, ParseExceptionListener)}.
+     */
+    public SIPMessage parseSIPMessage(byte[] msgBuffer, boolean readBody, boolean strict, ParseExceptionListener parseExceptionListener) throws ParseException {
+        if (msgBuffer == null || msgBuffer.length == 0)
+            return null;
+
+        int length = msgBuffer.length;
+        int i = 0;
+
+        // Squeeze out any leading control character.
+        while (i < length && msgBuffer[i] < 0x20)
+            i++;
+        if (i == length) {
+            if (logger.isLoggingEnabled(StackLogger.TRACE_DEBUG)) {
+                logger.logDebug("handled only control char so returning null");
+            }
+            return null;
+        }
+
+        SIPMessage message = null;
+        boolean isFirstLine = true;
+        // The header being accumulated, it is only processed once we know it is not folded
+        int headerStart = -1;
+        int headerEnd = -1;
+        String foldedHeader = null;
+        boolean endOfHeaders = false;
+        while (!endOfHeaders) {
+            int lineStart = i;
+            while (i < length && msgBuffer[i] != '\r' && msgBuffer[i] != '\n')
+                i++;
+            if (i == length) {
+                // End of the message.
+                break;
+            }
+            int lineEnd = i;
+            while (lineEnd > lineStart && (msgBuffer[lineEnd - 1] & 0xff) <= 0x20)
+                lineEnd--;
+
+            if (lineEnd == lineStart) {
+                // Last header line, process the previous buffered header.
+                if (message != null) {
+                    processHeader(message, msgBuffer, headerStart, headerEnd, foldedHeader, parseExceptionListener);
+                }
+                endOfHeaders = true;
+            } else if (isFirstLine) {
+                message = processFirstLine(new String(msgBuffer, lineStart, lineEnd - lineStart, UTF8), parseExceptionListener, msgBuffer);
+            } else if (msgBuffer[lineStart] == '\t' || msgBuffer[lineStart] == ' ') {
+                if (headerStart < 0)
+                    throw new ParseException("Bad header continuation.", 0);
+
+                // This is a continuation, append it to the previous line.
+                if (foldedHeader == null) {
+                    foldedHeader = new String(msgBuffer, headerStart, headerEnd - headerStart, UTF8);
+                }
+                foldedHeader += new String(msgBuffer, lineStart + 1, lineEnd - lineStart - 1, UTF8);
+            } else {
+                if (message != null) {
+                    processHeader(message, msgBuffer, headerStart, headerEnd, foldedHeader, parseExceptionListener);
+                }
+                headerStart = lineStart;
+                headerEnd = lineEnd;
+                foldedHeader = null;
+            }
+
+            if (msgBuffer[i] == '\r' && length > i + 1 && msgBuffer[i + 1] == '\n')
+                i++;
+
+            i++;
+
+            isFirstLine = false;
+        }
+
+        if (message == null) throw new ParseException("Bad message", 0);
+        message.setSize(i);
+
+        processBody(message, msgBuffer, i, readBody, strict);
+
+        return message;
+    }
+
+    private void processHeader(SIPMessage message, byte[] msgBuffer, int start, int end, String foldedHeader,
+            ParseExceptionListener parseExceptionListener) throws ParseException {
+        if (start < 0) {
+            return;
+        }
+        if (foldedHeader != null) {
+            processHeader(foldedHeader, message, parseExceptionListener, msgBuffer);
+            return;
+        }
+
+        SIPHeader header = null;
+        int colon = start;
+        while (colon < end && msgBuffer[colon] != ':')
+            colon++;
+        if (colon < end) {
+            int nameEnd = colon;
+            while (nameEnd > start && (msgBuffer[nameEnd - 1] == ' ' || msgBuffer[nameEnd - 1] == '\t'))
+                nameEnd--;
+            int valueStart = colon + 1;
+            while (valueStart < end && (msgBuffer[valueStart] == ' ' || msgBuffer[valueStart] == '\t'))
+                valueStart++;
+            try {
+                header = parseHeader(headerCode(msgBuffer, start, nameEnd), msgBuffer, start, valueStart, end);
+            } catch (ParseException ex) {
+                // Let the regular path report it
+                header = null;
+            }
+        }
+
+        if (header != null) {
+            message.attachHeader(header, false);
+        } else {
+            processHeader(new String(msgBuffer, start, end - start, UTF8), message, parseExceptionListener, msgBuffer);
+        }
+    }
+
+    /**
+     * Build the header from its bytes, or return null if it has to go through
+     * the regular string based parsing.
+     */
+    private SIPHeader parseHeader(int code, byte[] msgBuffer, int start, int valueStart, int end) throws ParseException {
+        switch (code) {
+        case CALL_ID:
+            if (valueStart == end) {
+                return null;
+            }
+            CallID callID = new CallID();
+            callID.setCallId(new String(msgBuffer, valueStart, end - valueStart, UTF8));
+            return callID;
+        case CSEQ:
+            return parseCSeq(msgBuffer, valueStart, end);
+        case CONTENT_LENGTH: {
+            int value = parseInt(msgBuffer, valueStart, end);
+            if (value < 0) {
+                return null;
+            }
+            ContentLength contentLength = new ContentLength();
+            try {
+                contentLength.setContentLength(value);
+            } catch (InvalidArgumentException ex) {
+                return null;
+            }
+            return contentLength;
+        }
+        case MAX_FORWARDS: {
+            int value = parseInt(msgBuffer, valueStart, end);
+            if (value < 0) {
+                return null;
+            }
+            MaxForwards maxForwards = new MaxForwards();
+            try {
+                maxForwards.setMaxForwards(value);
+            } catch (InvalidArgumentException ex) {
+                return null;
+            }
+            return maxForwards;
+        }
+        case VIA:
+        case FROM:
+        case TO:
+        case CONTACT:
+        case ROUTE:
+        case RECORD_ROUTE: {
+            // parsed on the lexer of the thread rather than a lexer per header
+            String line = headerLine(msgBuffer, start, end);
+            Lexer lexer = Lexer.lease("command_keywordLexer", line);
+            try {
+                return ParserFactory.createParser(line, lexer).parse();
+            } finally {
+                lexer.release();
+            }
+        }
+        default:
+            return null;
+        }
+    }
+
+    private static String headerLine(byte[] msgBuffer, int start, int end) {
+        return new String(msgBuffer, start, end - start, UTF8) + "\n";
+    }
+
+    private static SIPHeader parseCSeq(byte[] msgBuffer, int start, int end) throws ParseException {
+        int i = start;
+        long seqNumber = 0;
+        while (i < end && msgBuffer[i] >= '0' && msgBuffer[i] <= '9' && i - start < 18) {
+            seqNumber = seqNumber * 10 + (msgBuffer[i] - '0');
+            i++;
+        }
+        if (i == start || i == end || (msgBuffer[i] != ' ' && msgBuffer[i] != '\t')) {
+            return null;
+        }
+        while (i < end && (msgBuffer[i] == ' ' || msgBuffer[i] == '\t'))
+            i++;
+        int methodStart = i;
+        while (i < end && msgBuffer[i] > 0 && LexerCore.isTokenChar((char) msgBuffer[i]))
+            i++;
+        if (i == methodStart || i != end) {
+            return null;
+        }
+        CSeq cseq = new CSeq();
+        try {
+            cseq.setSeqNumber(seqNumber);
+        } catch (InvalidArgumentException ex) {
+            return null;
+        }
+        cseq.setMethod(method(msgBuffer, methodStart, end));
+        return cseq;
+    }
+
+    private static String method(byte[] msgBuffer, int start, int end) {
+        int length = end - start;
+        for (int m = 0; m < METHOD_BYTES.length; m++) {
+            byte[] method = METHOD_BYTES[m];
+            if (method.length == length) {
+                int k = 0;
+                while (k < length && method[k] == msgBuffer[start + k])
+                    k++;
+                if (k == length) {
+                    return METHODS[m];
+                }
+            }
+        }
+        return SIPRequest.getCannonicalName(new String(msgBuffer, start, length, UTF8));
+    }
+
+    /**
+     * @return the decimal value of the bytes or -1 if they are not a (reasonably sized) number
+     */
+    private static int parseInt(byte[] msgBuffer, int start, int end) {
+        if (start == end || end - start > 9) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            byte b = msgBuffer[i];
+            if (b < '0' || b > '9') {
+                return -1;
+            }
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+
+    private static int headerCode(byte[] msgBuffer, int start, int end) {
+        int length = end - start;
+        if (length >= NAMES.length || NAMES[length] == null) {
+            return OTHER;
+        }
+        byte[][] names = NAMES[length];
+        for (int n = 0; n < names.length; n++) {
+            byte[] name = names[n];
+            int k = 0;
+            while (k < length) {
+                int c = msgBuffer[start + k];
+                if (c >= 'A' && c <= 'Z') {
+                    c += 'a' - 'A';
+                }
+                if (c != name[k]) {
+                    break;
+                }
+                k++;
+            }
+            if (k == length) {
+                return CODES[length][n];
+            }
+        }
+        return OTHER;
+    }
+}
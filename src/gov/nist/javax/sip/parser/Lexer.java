@@ -140,11 +140,63 @@ public class Lexer extends LexerCore {
         return headerName;
     }
 
+    // The lexer of each thread, reused by the parsers of strings
+    private static final ThreadLocal<Lexer> threadLexer = new ThreadLocal<Lexer>();
+
+    // Buffers beyond this size are not kept for the next parse
+    private static final int MAX_RETAINED_BUFFER = 4096;
+
+    private boolean leased;
+
     public Lexer(String lexerName, String buffer) {
         super(lexerName, buffer);
         this.selectLexer(lexerName);
     }
 
+    /**
+     * Start over on a new buffer with the given lexer. Whatever was parsed
+     * before is forgotten.
+     */
+    public void reset(String lexerName, String buffer) {
+        super.reset(buffer);
+        this.currentMatch = null;
+        this.selectLexer(lexerName);
+    }
+
+    /**
+     * Get the lexer of the calling thread, reset on the buffer, to parse a
+     * string without allocating a lexer. A parse nested in another one gets a
+     * new lexer. The lexer must be given back with {@link #release()} once the
+     * parse is over, and must not be used afterwards.
+     */
+    public static Lexer lease(String lexerName, String buffer) {
+        Lexer lexer = threadLexer.get();
+        if (lexer == null) {
+            lexer = new Lexer(lexerName, buffer);
+            threadLexer.set(lexer);
+        } else if (lexer.leased) {
+            return new Lexer(lexerName, buffer);
+        } else {
+            lexer.reset(lexerName, buffer);
+        }
+        lexer.leased = true;
+        return lexer;
+    }
+
+    /**
+     * Give back a lexer obtained from {@link #lease(String, String)}.
+     */
+    public void release() {
+        if (!leased) {
+            return;
+        }
+        leased = false;
+        if (buffer.length > MAX_RETAINED_BUFFER) {
+            // do not hold on to the array of an unusually long string
+            threadLexer.remove();
+        }
+    }
+
     /**
      * get the header value of the line
      *
@@ -164,6 +216,10 @@ public class Lexer extends LexerCore {
     }
 
     public void selectLexer(String lexerName) {
+        if (lexerName == currentLexerName && currentLexer != null) {
+            // the parsers switch back and forth, the tables never change
+            return;
+        }
         // Synchronization Bug fix by Robert Rosen.
     	ConcurrentHashMap<String, Integer> lexer = lexerTables.get(lexerName);
         this.currentLexerName = lexerName;
@@ -36,6 +36,8 @@ import gov.nist.javax.sip.header.CallID;
 import gov.nist.javax.sip.header.ContentLength;
 import gov.nist.javax.sip.message.SIPMessage;
 import gov.nist.javax.sip.stack.ConnectionOrientedMessageChannel;
+import gov.nist.javax.sip.stack.KeyedSerialExecutor;
+import gov.nist.javax.sip.stack.LoadMonitor;
 import gov.nist.javax.sip.stack.QueuedMessageDispatchBase;
 import gov.nist.javax.sip.stack.SIPTransactionStack;
 
@@ -43,11 +45,6 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.text.ParseException;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.Semaphore;
-import java.util.concurrent.TimeUnit;
 
 /**
  * This is a FSM that can parse a single stream of messages with they bodies and 
@@ -83,32 +80,6 @@ public class NioPipelineParser {
 	String partialLine = "";
 	String callId;
 	
-	private ConcurrentHashMap<String, CallIDOrderingStructure> messagesOrderingMap = new ConcurrentHashMap<String, CallIDOrderingStructure>();
-	   
-	class CallIDOrderingStructure {
-        private Semaphore semaphore;
-        private Queue<UnparsedMessage> messagesForCallID;
-        
-        public CallIDOrderingStructure() {
-            semaphore = new Semaphore(1, true);
-            messagesForCallID = new ConcurrentLinkedQueue<UnparsedMessage>();
-        }        
-
-        /**
-         * @return the semaphore
-         */
-        public Semaphore getSemaphore() {
-            return semaphore;
-        }
-       
-        /**
-         * @return the messagesForCallID
-         */
-        public Queue<UnparsedMessage> getMessagesForCallID() {
-            return messagesForCallID;
-        }
-    }
-	
 	public static class UnparsedMessage {
 		String lines;
 		byte[] body;
@@ -123,45 +94,23 @@ public class NioPipelineParser {
 	}
 	
     public class Dispatch implements Runnable, QueuedMessageDispatchBase{
-    	CallIDOrderingStructure callIDOrderingStructure;
+    	UnparsedMessage unparsedMessage;
     	String callId;
     	long time;
-    	public Dispatch(CallIDOrderingStructure callIDOrderingStructure, String callId) {
-    		this.callIDOrderingStructure = callIDOrderingStructure;
+    	public Dispatch(UnparsedMessage unparsedMessage, String callId) {
+    		this.unparsedMessage = unparsedMessage;
     		this.callId = callId;
     		time = System.currentTimeMillis();
     	}
         public void run() {   
-        	
-            // we acquire it in the thread to avoid blocking other messages with a different call id
-            // that could be processed in parallel                                    
-            Semaphore semaphore = callIDOrderingStructure.getSemaphore();
-            final Queue<UnparsedMessage> messagesForCallID = callIDOrderingStructure.getMessagesForCallID();
-            try {                                                                                
-                boolean acquired = semaphore.tryAcquire(30, TimeUnit.SECONDS);
-                if(!acquired) {
-                	if (logger.isLoggingEnabled(StackLogger.TRACE_WARN)) {
-                		logger.logWarning("Semaphore acquisition for callId " + callId + " wasn't successful so don't process message, returning");
-                	}
-                	// https://java.net/jira/browse/JSIP-499 don't process the message if the semaphore wasn't acquired
-                	return;
-                } else {
-	                if (logger.isLoggingEnabled(StackLogger.TRACE_DEBUG)) {
-	                	logger.logDebug("semaphore acquired for message " + callId + " acquired");
-	                }
-                }
-            } catch (InterruptedException e) {
-            	logger.logError("Semaphore acquisition for callId " + callId + " interrupted, couldn't process message, returning", e);
-            	// https://java.net/jira/browse/JSIP-499 don't process the message if the semaphore wasn't acquired
-            	return;
-            }
-            
-            UnparsedMessage unparsedMessage = null;
+            // the call id executor runs the messages of a call one at a time and in order
             SIPMessage parsedSIPMessage = null;
-            boolean messagePolled = false;
+            LoadMonitor loadMonitor = sipStack.getLoadMonitor();
+            if(loadMonitor != null) {
+            	loadMonitor.queueDelay(System.currentTimeMillis() - time);
+            }
             try {
             	synchronized(smp) {
-            		unparsedMessage = messagesForCallID.peek();
             		if (logger.isLoggingEnabled(StackLogger.TRACE_DEBUG)) {
             			logger.logDebug( "\nUnparsed message before parser is:\n" + unparsedMessage);
             		}
@@ -182,15 +131,10 @@ public class NioPipelineParser {
             		sipStack.sipEventInterceptor.beforeMessage(parsedSIPMessage);
             	}
 
-            	// once acquired we get the first message to process
-            	messagesForCallID.poll();
-            	messagePolled = true;
             	if(parsedSIPMessage != null) { // https://java.net/jira/browse/JSIP-503
             		sipMessageListener.processMessage(parsedSIPMessage);
             	}
             } catch (ParseException e) {
-            	// https://java.net/jira/browse/JSIP-499 move the ParseException here so the finally block 
-            	// is called, the semaphore released and map cleaned up if need be
             	if (logger.isLoggingEnabled(StackLogger.TRACE_WARN)) {
             		logger.logWarning("Problem parsing message " + unparsedMessage);
             	}
@@ -198,29 +142,6 @@ public class NioPipelineParser {
             	logger.logError("Error occured processing message " + message, e);
                 // We do not break the TCP connection because other calls use the same socket here
             } finally {            
-            	if(!messagePolled) {
-            		// https://java.net/jira/browse/JSIP-503 we poll the message only if it 
-            		// wasn't polled in case of some exception by example while parsing or before processing the message
-            		// as in the interceptor can cause the poll not to be called
-            		messagesForCallID.poll(); // move on to the next one
-            	}
-                if(messagesForCallID.size() <= 0) {
-                    messagesOrderingMap.remove(callId);
-                    if (logger.isLoggingEnabled(StackLogger.TRACE_DEBUG)) {
-                    	logger.logDebug("CallIDOrderingStructure removed for callId " + callId);
-                    }
-                }
-                if (logger.isLoggingEnabled(StackLogger.TRACE_DEBUG)) {
-                	logger.logDebug("releasing semaphore for message " + parsedSIPMessage);
-                }
-                //release the semaphore so that another thread can process another message from the call id queue in the correct order
-                // or a new message from another call id queue
-                semaphore.release(); 
-                if(messagesOrderingMap.isEmpty()) {
-                    synchronized (messagesOrderingMap) {
-                        messagesOrderingMap.notify();
-                    }
-                }
                 if(sipStack.sipEventInterceptor != null
                 		// https://java.net/jira/browse/JSIP-503
                 		&& parsedSIPMessage != null) {
@@ -348,32 +269,21 @@ public class NioPipelineParser {
 			final int finalContentLength = contentLength;
 			
 			
-			if(PostParseExecutorServices.getPostParseExecutor() != null) {
+			// the messages of a call are processed in order, other calls
+			// multiplexed on the connection are processed in parallel
+			KeyedSerialExecutor<String> callIdExecutor = PostParseExecutorServices.getCallIdExecutor();
+			if(callIdExecutor != null) {
 				final String callId = this.callId;
 				if(callId == null || callId.trim().length() < 1) {
 					// http://code.google.com/p/jain-sip/issues/detail?id=18
 					// NIO Message with no Call-ID throws NPE
 					throw new IOException("received message with no Call-ID");
 				}
-                // http://dmy999.com/article/34/correct-use-of-concurrenthashmap
-                CallIDOrderingStructure orderingStructure = messagesOrderingMap.get(callId);
-                if(orderingStructure == null) {
-                    CallIDOrderingStructure newCallIDOrderingStructure = new CallIDOrderingStructure();
-                    orderingStructure = messagesOrderingMap.putIfAbsent(callId, newCallIDOrderingStructure);
-                    if(orderingStructure == null) {
-                        orderingStructure = newCallIDOrderingStructure;       
-                        if (logger.isLoggingEnabled(StackLogger.TRACE_DEBUG)) {
-                            logger.logDebug("new CallIDOrderingStructure added for message " + message);
-                        }
-                    }
+                if(!callIdExecutor.execute(callId, new Dispatch(new UnparsedMessage(msgLines, msgBodyBytes), callId))) {
+                	if (logger.isLoggingEnabled(StackLogger.TRACE_WARN)) {
+                		logger.logWarning("Dropping message for callId " + callId + ", too many messages of the call are waiting");
+                	}
                 }
-                final CallIDOrderingStructure callIDOrderingStructure = orderingStructure;                                 
-                // we add the message to the pending queue of messages to be processed for that call id here 
-                // to avoid blocking other messages with a different call id
-                // that could be processed in parallel
-                callIDOrderingStructure.getMessagesForCallID().offer(new UnparsedMessage(msgLines, msgBodyBytes));                                                                                   
-                
-                PostParseExecutorServices.getPostParseExecutor().execute(new Dispatch(callIDOrderingStructure, callId)); // run in executor thread
 			} else {
 				SIPMessage sipMessage = null;
 				synchronized(smp) {
@@ -400,8 +310,16 @@ public class NioPipelineParser {
 	}
 	
 	public synchronized void addBytes(byte[] bytes)  throws Exception{
+		addBytes(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Feed a slice of a buffer to the parser. The bytes are consumed before
+	 * this method returns, so the caller is free to reuse the array afterwards.
+	 */
+	public synchronized void addBytes(byte[] bytes, int offset, int length)  throws Exception{
 		currentStreamEnded = false;
-		ByteArrayInputStream inputStream = new ByteArrayInputStream(bytes);
+		ByteArrayInputStream inputStream = new ByteArrayInputStream(bytes, offset, length);
 		readStream(inputStream);
 	}
 
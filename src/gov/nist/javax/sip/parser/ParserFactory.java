@@ -154,10 +154,12 @@ public class ParserFactory {
     private static Map<String,Class<? extends HeaderParser>> parserTable;
     private static Class[] constructorArgs;
     private static ConcurrentHashMap<Class, Constructor> parserConstructorCache;
+    private static ConcurrentHashMap<Class<? extends HeaderParser>, Constructor<? extends HeaderParser>> lexerConstructorCache;
 
     static {
         parserTable = new ConcurrentHashMap<String,Class<? extends HeaderParser>>(90);
         parserConstructorCache = new ConcurrentHashMap<Class, Constructor>();
+        lexerConstructorCache = new ConcurrentHashMap<Class<? extends HeaderParser>, Constructor<? extends HeaderParser>>();
         constructorArgs = new Class[1];
         constructorArgs[0] = String.class;
         parserTable.put(ReplyToHeader.NAME.toLowerCase(), ReplyToParser.class);
@@ -431,6 +433,42 @@ public class ParserFactory {
             return new HeaderParser(line);
         }
     }
+
+    /**
+     * Create a parser for the header line working on the given lexer instead
+     * of a lexer of its own.
+     *
+     * @param lexer a lexer reset on the line, as leased by
+     *            {@link Lexer#lease(String, String)}.
+     */
+    public static HeaderParser createParser(String line, Lexer lexer)
+        throws ParseException {
+        String headerName = Lexer.getHeaderName(line);
+        String headerValue = Lexer.getHeaderValue(line);
+        if (headerName == null || headerValue == null)
+            throw new ParseException("The header name or value is null", 0);
+
+        Class<? extends HeaderParser> parserClass = parserTable.get(SIPHeaderNamesCache.toLowerCase(headerName));
+        if (parserClass != null) {
+            try {
+                Constructor<? extends HeaderParser> cons = lexerConstructorCache.get(parserClass);
+                if (cons == null) {
+                    // most of the lexer constructors are protected
+                    cons = parserClass.getDeclaredConstructor(Lexer.class);
+                    cons.setAccessible(true);
+                    lexerConstructorCache.putIfAbsent(parserClass, cons);
+                }
+                return cons.newInstance(lexer);
+
+            } catch (Exception ex) {
+                InternalErrorHandler.handleException(ex);
+                return null; // to placate the compiler.
+            }
+
+        } else {
+            return new HeaderParser(lexer);
+        }
+    }
 }
 /*
  * $Log: not supported by cvs2svn $
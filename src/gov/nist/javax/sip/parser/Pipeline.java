@@ -33,6 +33,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.LinkedList;
 import java.util.NoSuchElementException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Input class for the pipelined parser. Buffer all bytes read from the socket
@@ -46,6 +48,12 @@ import java.util.NoSuchElementException;
 public class Pipeline extends InputStream {
     private LinkedList buffList;
 
+    // guards buffList; a lock rather than a monitor so that a reader waiting
+    // on a virtual thread does not pin its carrier thread.
+    private final ReentrantLock buffLock = new ReentrantLock();
+
+    private final Condition buffAvailable = buffLock.newCondition();
+
     private Buffer currentBuffer;
 
     private boolean isClosed;
@@ -138,9 +146,12 @@ public class Pipeline extends InputStream {
             throw new IOException("Closed!!");
         Buffer buff = new Buffer(bytes, length);
         buff.ptr = start;
-        synchronized (this.buffList) {
+        buffLock.lock();
+        try {
             buffList.add(buff);
-            buffList.notifyAll();
+            buffAvailable.signalAll();
+        } finally {
+            buffLock.unlock();
         }
     }
 
@@ -148,16 +159,22 @@ public class Pipeline extends InputStream {
         if (this.isClosed)
             throw new IOException("Closed!!");
         Buffer buff = new Buffer(bytes, bytes.length);
-        synchronized (this.buffList) {
+        buffLock.lock();
+        try {
             buffList.add(buff);
-            buffList.notifyAll();
+            buffAvailable.signalAll();
+        } finally {
+            buffLock.unlock();
         }
     }
 
     public void close() throws IOException {
         this.isClosed = true;
-        synchronized (this.buffList) {
-            this.buffList.notifyAll();
+        buffLock.lock();
+        try {
+            buffAvailable.signalAll();
+        } finally {
+            buffLock.unlock();
         }
 
         // JvB: added
@@ -166,7 +183,8 @@ public class Pipeline extends InputStream {
 
     public int read() throws IOException {
         // if (this.isClosed) return -1;
-        synchronized (this.buffList) {
+        buffLock.lock();
+        try {
             if (currentBuffer != null
                     && currentBuffer.ptr < currentBuffer.length) {
                 int retval = currentBuffer.getNextByte();
@@ -180,7 +198,7 @@ public class Pipeline extends InputStream {
             try {
                 // wait till something is posted.
                 while (this.buffList.isEmpty()) {
-                    this.buffList.wait();
+                    buffAvailable.await();
                     // jeand : Issue 314 : return -1 only is the buffer is empty
                     if (this.buffList.isEmpty() && this.isClosed)
                         return -1;
@@ -196,6 +214,8 @@ public class Pipeline extends InputStream {
                 ex.printStackTrace();
                 throw new IOException(ex.getMessage());
             }
+        } finally {
+            buffLock.unlock();
         }
     }
 
@@ -44,23 +44,22 @@ import gov.nist.core.StackLogger;
 import gov.nist.javax.sip.header.ContentLength;
 import gov.nist.javax.sip.message.SIPMessage;
 import gov.nist.javax.sip.stack.BlockingQueueDispatchAuditor;
+import gov.nist.javax.sip.stack.DroppableMessageDispatch;
 import gov.nist.javax.sip.stack.ConnectionOrientedMessageChannel;
-import gov.nist.javax.sip.stack.QueuedMessageDispatchBase;
+import gov.nist.javax.sip.stack.KeyedSerialExecutor;
+import gov.nist.javax.sip.stack.LoadMonitor;
 import gov.nist.javax.sip.stack.SIPTransactionStack;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.text.ParseException;
-import java.util.Queue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This implements a pipelined message parser suitable for use with a stream -
@@ -97,7 +96,8 @@ public final class PipelinedMsgParser implements Runnable {
     private int sizeCounter;
     private SIPTransactionStack sipStack;
     private MessageParser smp = null;
-    private ConcurrentHashMap<String, CallIDOrderingStructure> messagesOrderingMap = new ConcurrentHashMap<String, CallIDOrderingStructure>();
+    // messages handed to the post parsing thread pool and not processed yet
+    private final AtomicInteger pendingDispatches = new AtomicInteger();
     boolean isRunning = false;
     
     /**
@@ -133,8 +133,8 @@ public final class PipelinedMsgParser implements Runnable {
         this.sipMessageListener = sipMessageListener;
         rawInputStream = in;
         this.maxMessageSize = maxMessageSize;
-        mythread = new Thread(this);
-        mythread.setName("PipelineThread-" + getNewUid());
+        mythread = sipStack.newThread(this, "PipelineThread-" + getNewUid(),
+                Thread.currentThread().isDaemon());
 
     }
 
@@ -253,58 +253,29 @@ public final class PipelinedMsgParser implements Runnable {
         
     }
     
-    public class Dispatch implements Runnable, QueuedMessageDispatchBase{
-    	CallIDOrderingStructure callIDOrderingStructure;
-    	String callId;
+    public class Dispatch implements Runnable, DroppableMessageDispatch{
+    	SIPMessage message;
     	long time;
-    	public Dispatch(CallIDOrderingStructure callIDOrderingStructure, String callId) {
-    		this.callIDOrderingStructure = callIDOrderingStructure;
-    		this.callId = callId;
+    	public Dispatch(SIPMessage message) {
+    		this.message = message;
     		time = System.currentTimeMillis();
     	}
         public void run() {   
-        	
-            // we acquire it in the thread to avoid blocking other messages with a different call id
-            // that could be processed in parallel                                    
-            Semaphore semaphore = callIDOrderingStructure.getSemaphore();
-            final Queue<SIPMessage> messagesForCallID = callIDOrderingStructure.getMessagesForCallID();
-            if(sipStack.sipEventInterceptor != null) {
-            	sipStack.sipEventInterceptor.beforeMessage(messagesForCallID.peek());
-            }
-            try {                                                                                
-                semaphore.acquire();                                        
-            } catch (InterruptedException e) {
-                logger.logError("Semaphore acquisition for callId " + callId + " interrupted", e);
+            // the call id executor runs the messages of a call one at a time and in order
+            LoadMonitor loadMonitor = sipStack.getLoadMonitor();
+            if(loadMonitor != null) {
+            	loadMonitor.queueDelay(System.currentTimeMillis() - time);
             }
-            // once acquired we get the first message to process
-            SIPMessage message = messagesForCallID.poll();
-            if (logger.isLoggingEnabled(StackLogger.TRACE_DEBUG)) {
-            	logger.logDebug("semaphore acquired for message " + message);
+            if(sipStack.sipEventInterceptor != null) {
+            	sipStack.sipEventInterceptor.beforeMessage(message);
             }
-            
             try {
                 sipMessageListener.processMessage(message);
             } catch (Exception e) {
             	logger.logError("Error occured processing message", e);    
                 // We do not break the TCP connection because other calls use the same socket here
             } finally {                                        
-                if(messagesForCallID.size() <= 0) {
-                    messagesOrderingMap.remove(callId);
-                    if (logger.isLoggingEnabled(StackLogger.TRACE_DEBUG)) {
-                    	logger.logDebug("CallIDOrderingStructure removed for message " + callId);
-                    }
-                }
-                if (logger.isLoggingEnabled(StackLogger.TRACE_DEBUG)) {
-                	logger.logDebug("releasing semaphore for message " + message);
-                }
-                //release the semaphore so that another thread can process another message from the call id queue in the correct order
-                // or a new message from another call id queue
-                semaphore.release(); 
-                if(messagesOrderingMap.isEmpty()) {
-                    synchronized (messagesOrderingMap) {
-                        messagesOrderingMap.notify();
-                    }
-                }
+                dispatchDone();
                 if(sipStack.sipEventInterceptor != null) {
                 	sipStack.sipEventInterceptor.afterMessage(message);
                 }
@@ -316,7 +287,20 @@ public final class PipelinedMsgParser implements Runnable {
 		public long getReceptionTime() {
 			return time;
 		}
+		public void dropped() {
+			// the message waited too long, the reader must not wait for it
+			dispatchDone();
+		}
     };
+
+    private void dispatchDone() {
+        if(pendingDispatches.decrementAndGet() <= 0) {
+            synchronized (pendingDispatches) {
+                pendingDispatches.notifyAll();
+            }
+        }
+    }
+
     /**
      * This is input reading thread for the pipelined parser. You feed it input
      * through the input stream (see the constructor) and it calls back an event
@@ -388,14 +372,16 @@ public final class PipelinedMsgParser implements Runnable {
                     	// or we are leaking because the thread is waiting forever
                     	if(PostParseExecutorServices.getPostParseExecutor() != null && isRunning){
                     		if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
-                                logger.logDebug("waiting for messagesOrderingMap " + this + " threadname " + mythread.getName());
-                            synchronized (messagesOrderingMap) {
+                                logger.logDebug("waiting for pending dispatches " + this + " threadname " + mythread.getName());
+                            synchronized (pendingDispatches) {
                                 try {
-                                    messagesOrderingMap.wait(64000);
+                                    if(pendingDispatches.get() > 0) {
+                                        pendingDispatches.wait(64000);
+                                    }
                                 } catch (InterruptedException e) {}                                
                             }  
                             if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
-                                logger.logDebug("got notified for messagesOrderingMap " + this + " threadname " + mythread.getName());                            
+                                logger.logDebug("got notified for pending dispatches " + this + " threadname " + mythread.getName());                            
                         }
                         this.rawInputStream.stopTimer();
                         if (logger.isLoggingEnabled(StackLogger.TRACE_DEBUG)) {
@@ -428,14 +414,16 @@ public final class PipelinedMsgParser implements Runnable {
                     	// or we are leaking because the thread is waiting forever
                     	if(PostParseExecutorServices.getPostParseExecutor() != null && isRunning){
                     		if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
-                                logger.logDebug("waiting for messagesOrderingMap " + this + " threadname " + mythread.getName());
-                            synchronized (messagesOrderingMap) {
+                                logger.logDebug("waiting for pending dispatches " + this + " threadname " + mythread.getName());
+                            synchronized (pendingDispatches) {
                                 try {
-                                    messagesOrderingMap.wait(64000);
+                                    if(pendingDispatches.get() > 0) {
+                                        pendingDispatches.wait(64000);
+                                    }
                                 } catch (InterruptedException e) {}                                
                             }  
                             if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
-                                logger.logDebug("got notified for messagesOrderingMap " + this + " threadname " + mythread.getName());                            
+                                logger.logDebug("got notified for pending dispatches " + this + " threadname " + mythread.getName());                            
                         }
                         this.rawInputStream.stopTimer();
                         if (logger.isLoggingEnabled(StackLogger.TRACE_DEBUG)) {
@@ -529,7 +517,8 @@ public final class PipelinedMsgParser implements Runnable {
                 // return error from there.
                 if (sipMessageListener != null) {
                     try {
-                        if(PostParseExecutorServices.getPostParseExecutor() == null) {
+                        KeyedSerialExecutor<String> callIdExecutor = PostParseExecutorServices.getCallIdExecutor();
+                        if(callIdExecutor == null) {
                         	
                             /**
                              * If gov.nist.javax.sip.TCP_POST_PARSING_THREAD_POOL_SIZE is disabled
@@ -548,28 +537,15 @@ public final class PipelinedMsgParser implements Runnable {
                              * we use the threadpool to execute the task.
                              */
                             // we need to guarantee message ordering on the same socket on TCP
-                            // so we lock and queue of messages per Call Id
-                            
+                            // so the messages of a call go through the call id executor
                             final String callId = sipMessage.getCallId().getCallId();
-                            // http://dmy999.com/article/34/correct-use-of-concurrenthashmap
-                            CallIDOrderingStructure orderingStructure = messagesOrderingMap.get(callId);
-                            if(orderingStructure == null) {
-                                CallIDOrderingStructure newCallIDOrderingStructure = new CallIDOrderingStructure();
-                                orderingStructure = messagesOrderingMap.putIfAbsent(callId, newCallIDOrderingStructure);
-                                if(orderingStructure == null) {
-                                    orderingStructure = newCallIDOrderingStructure;       
-                                    if (stackLogger.isLoggingEnabled(StackLogger.TRACE_DEBUG)) {
-                                        stackLogger.logDebug("new CallIDOrderingStructure added for message " + sipMessage);
-                                    }
+                            pendingDispatches.incrementAndGet();
+                            if(!callIdExecutor.execute(callId, new Dispatch(sipMessage))) {
+                                dispatchDone();
+                                if (stackLogger.isLoggingEnabled(StackLogger.TRACE_WARN)) {
+                                    stackLogger.logWarning("Dropping message for callId " + callId + ", too many messages of the call are waiting");
                                 }
                             }
-                            final CallIDOrderingStructure callIDOrderingStructure = orderingStructure;                                 
-                            // we add the message to the pending queue of messages to be processed for that call id here 
-                            // to avoid blocking other messages with a different call id
-                            // that could be processed in parallel
-                            callIDOrderingStructure.getMessagesForCallID().offer(sipMessage);                                                                                   
-                            
-                            PostParseExecutorServices.getPostParseExecutor().execute(new Dispatch(callIDOrderingStructure, callId)); // run in executor thread
                         }
                     } catch (Exception ex) {
                         // fatal error in processing - close the
@@ -580,7 +556,7 @@ public final class PipelinedMsgParser implements Runnable {
             }
         } finally {
             try {
-                cleanMessageOrderingMap();
+                wakeUpPendingDispatchesWait();
                 if(!inputStream.isClosed()) {
             		inputStream.close();
             	}
@@ -590,35 +566,6 @@ public final class PipelinedMsgParser implements Runnable {
         }
     }
 
-    /**
-     * Data structure to make sure ordering of Messages is guaranteed under TCP when the post parsing thread pool is used
-     * @author jean.deruelle@gmail.com
-     *
-     */
-    class CallIDOrderingStructure {
-        private Semaphore semaphore;
-        private Queue<SIPMessage> messagesForCallID;
-        
-        public CallIDOrderingStructure() {
-            semaphore = new Semaphore(1, true);
-            messagesForCallID = new ConcurrentLinkedQueue<SIPMessage>();
-        }        
-
-        /**
-         * @return the semaphore
-         */
-        public Semaphore getSemaphore() {
-            return semaphore;
-        }
-       
-        /**
-         * @return the messagesForCallID
-         */
-        public Queue<SIPMessage> getMessagesForCallID() {
-            return messagesForCallID;
-        }
-    }
-
     public void close() {
         isRunning = false;
     	if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
@@ -631,28 +578,20 @@ public final class PipelinedMsgParser implements Runnable {
             // Ignore.
         }                
         if(PostParseExecutorServices.getPostParseExecutor() != null){
-        	cleanMessageOrderingMap();
+        	wakeUpPendingDispatchesWait();
         	synchronized (mythread) {
             	mythread.notifyAll();
-            	//interrupting because there is a race condition on the messagesOrderingMap.wait() that
+            	//interrupting because there is a race condition on the pendingDispatches.wait() that
             	// eventually leads to thread leaking and OutOfMemory
             	mythread.interrupt();
     		} 
         }         
     }
     
-    private void cleanMessageOrderingMap() {        
-    	// not needed and can cause NPE on close if race condition
-//    	for (CallIDOrderingStructure callIDOrderingStructure: messagesOrderingMap.values()) {
-//			callIDOrderingStructure.getSemaphore().release();
-//			callIDOrderingStructure.getMessagesForCallID().clear();
-//		}
-        messagesOrderingMap.clear();
-        synchronized (messagesOrderingMap) {
-            messagesOrderingMap.notifyAll();
+    private void wakeUpPendingDispatchesWait() {        
+        synchronized (pendingDispatches) {
+            pendingDispatches.notifyAll();
         }
-    	if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
-            logger.logDebug("cleaned the messagesOrderingMap " + this + " threadname " + mythread.getName());
     }
 }
 /*
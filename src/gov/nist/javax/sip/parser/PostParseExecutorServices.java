@@ -2,6 +2,7 @@ package gov.nist.javax.sip.parser;
 
 import gov.nist.javax.sip.SipStackImpl;
 import gov.nist.javax.sip.stack.BlockingQueueDispatchAuditor;
+import gov.nist.javax.sip.stack.KeyedSerialExecutor;
 
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
@@ -12,6 +13,7 @@ import java.util.concurrent.TimeUnit;
 
 public class PostParseExecutorServices {
 	private static ExecutorService postParseExecutor = null;
+	private static KeyedSerialExecutor<String> callIdExecutor = null;
     
     public static class NamedThreadFactory implements ThreadFactory {
     	static long threadNumber = 0;
@@ -36,19 +38,21 @@ public class PostParseExecutorServices {
 
     		}
     	}
+    	staticQueueAuditor = null;
     	if(threads<=0) {
     		postParseExecutor = null;
+    		callIdExecutor = null;
     	} else {
     		staticQueue = new LinkedBlockingQueue<Runnable>();
     		postParseExecutor = new ThreadPoolExecutor(threads, threads,
     				0, TimeUnit.SECONDS, staticQueue,
     				new NamedThreadFactory());
     		// Contribution for https://github.com/Mobicents/jain-sip/issues/39
-    		if(sipStack.getStackCongestionControlTimeout() > 0) {
-	    		staticQueueAuditor = new BlockingQueueDispatchAuditor(staticQueue);
-	    		staticQueueAuditor.setTimeout(queueTimeout);
-	    		staticQueueAuditor.start(2000);
-    		}
+    		// the messages waiting for too long are dropped by the call queues, the
+    		// pool queue only holds call queues that must not be dropped
+    		callIdExecutor = new KeyedSerialExecutor<String>(postParseExecutor,
+    				sipStack.getTcpPostParsingMaxQueuedPerCall(),
+    				sipStack.getStackCongestionControlTimeout() > 0 ? queueTimeout : 0);
     	}
 
     }
@@ -56,10 +60,20 @@ public class PostParseExecutorServices {
     public static ExecutorService getPostParseExecutor() {
     	return postParseExecutor;
     }
+    /**
+     * The messages parsed from a connection are processed in order per Call-ID
+     * by the post parse thread pool through this executor.
+     *
+     * @return the executor, null if there is no post parse thread pool.
+     */
+    public static KeyedSerialExecutor<String> getCallIdExecutor() {
+    	return callIdExecutor;
+    }
     public static void shutdownThreadpool() {
     	if(postParseExecutor != null) {
     		postParseExecutor.shutdown();
     		postParseExecutor = null;
+    		callIdExecutor = null;
         }
     	if(staticQueueAuditor != null) {
     		try {
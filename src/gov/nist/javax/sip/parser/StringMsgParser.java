@@ -43,6 +43,7 @@ import gov.nist.javax.sip.header.ExtensionHeaderImpl;
 import gov.nist.javax.sip.header.NameMap;
 import gov.nist.javax.sip.header.RequestLine;
 import gov.nist.javax.sip.header.SIPHeader;
+import gov.nist.javax.sip.header.SIPHeaderNamesCache;
 import gov.nist.javax.sip.header.StatusLine;
 import gov.nist.javax.sip.message.SIPMessage;
 import gov.nist.javax.sip.message.SIPRequest;
@@ -50,11 +51,24 @@ import gov.nist.javax.sip.message.SIPResponse;
 
 import java.io.UnsupportedEncodingException;
 import java.text.ParseException;
+import java.util.HashSet;
+import java.util.Set;
 /*
  * Acknowledgement: 1/12/2007: Yanick Belanger rewrote the parsing loops to make them
  * simpler and quicker.
  */
 
+import javax.sip.header.CSeqHeader;
+import javax.sip.header.CallIdHeader;
+import javax.sip.header.ContactHeader;
+import javax.sip.header.ContentLengthHeader;
+import javax.sip.header.ContentTypeHeader;
+import javax.sip.header.FromHeader;
+import javax.sip.header.MaxForwardsHeader;
+import javax.sip.header.RecordRouteHeader;
+import javax.sip.header.RouteHeader;
+import javax.sip.header.ToHeader;
+import javax.sip.header.ViaHeader;
 import javax.xml.bind.DatatypeConverter;
 
 /**
@@ -81,6 +95,29 @@ import javax.xml.bind.DatatypeConverter;
 public class StringMsgParser implements MessageParser {
 
     protected static boolean computeContentLengthFromMessage = false;
+
+    // Headers the stack needs for every message, never left unparsed
+    private static final Set<String> EAGER_HEADERS = new HashSet<String>();
+
+    static {
+        EAGER_HEADERS.add(SIPHeaderNamesCache.toLowerCase(ViaHeader.NAME));
+        EAGER_HEADERS.add(SIPHeaderNamesCache.toLowerCase(FromHeader.NAME));
+        EAGER_HEADERS.add(SIPHeaderNamesCache.toLowerCase(ToHeader.NAME));
+        EAGER_HEADERS.add(SIPHeaderNamesCache.toLowerCase(CallIdHeader.NAME));
+        EAGER_HEADERS.add(SIPHeaderNamesCache.toLowerCase(CSeqHeader.NAME));
+        EAGER_HEADERS.add(SIPHeaderNamesCache.toLowerCase(MaxForwardsHeader.NAME));
+        EAGER_HEADERS.add(SIPHeaderNamesCache.toLowerCase(RouteHeader.NAME));
+        EAGER_HEADERS.add(SIPHeaderNamesCache.toLowerCase(RecordRouteHeader.NAME));
+        EAGER_HEADERS.add(SIPHeaderNamesCache.toLowerCase(ContactHeader.NAME));
+        EAGER_HEADERS.add(SIPHeaderNamesCache.toLowerCase(ContentTypeHeader.NAME));
+        EAGER_HEADERS.add(SIPHeaderNamesCache.toLowerCase(ContentLengthHeader.NAME));
+    }
+
+    /**
+     * If true the headers the stack does not need are attached unparsed to the
+     * message and only parsed when they are accessed.
+     */
+    protected boolean lazyHeaderParsing;
     
     private static StackLogger logger = CommonLogger.getLogger(StringMsgParser.class);
 
@@ -194,6 +231,16 @@ public class StringMsgParser implements MessageParser {
         if (message == null) throw new ParseException("Bad message", 0);
         message.setSize(i);
 
+        processBody(message, msgBuffer, i, readBody, strict);
+
+        return message;
+    }
+
+    /**
+     * Attach the body that starts at offset i in msgBuffer to the message,
+     * or check that nothing follows the headers when there is no body.
+     */
+    protected void processBody(SIPMessage message, byte[] msgBuffer, int i, boolean readBody, boolean strict) throws ParseException {
         // Check for content legth header
         if (readBody && message.getContentLength() != null ) {
           if ( message.getContentLength().getContentLength() != 0) {
@@ -210,8 +257,6 @@ public class StringMsgParser implements MessageParser {
            } 
 
         }
-
-        return message;
     }
 
     protected static String trimEndOfLine(String line) {
@@ -235,8 +280,9 @@ public class StringMsgParser implements MessageParser {
         SIPMessage message;
         if (!firstLine.startsWith(SIPConstants.SIP_VERSION_STRING)) {
             message = new SIPRequest();
+            Lexer lexer = Lexer.lease("method_keywordLexer", firstLine + "\n");
             try {
-                RequestLine requestLine = new RequestLineParser(firstLine + "\n")
+                RequestLine requestLine = new RequestLineParser(lexer)
                         .parse();
                 ((SIPRequest) message).setRequestLine(requestLine);
             } catch (ParseException ex) {
@@ -250,11 +296,14 @@ public class StringMsgParser implements MessageParser {
 				else
                     throw ex;
 
+            } finally {
+                lexer.release();
             }
         } else {
             message = new SIPResponse();
+            Lexer lexer = Lexer.lease("status_lineLexer", firstLine + "\n");
             try {
-                StatusLine sl = new StatusLineParser(firstLine + "\n").parse();
+                StatusLine sl = new StatusLineParser(lexer).parse();
                 ((SIPResponse) message).setStatusLine(sl);
             } catch (ParseException ex) {
                 if (parseExceptionListener != null) {
@@ -267,6 +316,8 @@ public class StringMsgParser implements MessageParser {
                 } else
                     throw ex;
 
+            } finally {
+                lexer.release();
             }
         }
         return message;
@@ -276,9 +327,30 @@ public class StringMsgParser implements MessageParser {
         if (header == null || header.length() == 0)
             return;
 
+        if (lazyHeaderParsing) {
+            // Compact names are always parsed, they are rare and would need their long form to be looked up
+            String headerName = Lexer.getHeaderName(header);
+            if (headerName != null && headerName.length() > 1
+                    && !EAGER_HEADERS.contains(SIPHeaderNamesCache.toLowerCase(headerName))) {
+                message.attachLazyHeader(headerName, header);
+                return;
+            }
+        }
+
+        String line = header + "\n";
+        Lexer lexer = Lexer.lease("command_keywordLexer", line);
+        try {
+            processHeader(header, line, lexer, message, parseExceptionListener, rawMessage);
+        } finally {
+            lexer.release();
+        }
+    }
+
+    private void processHeader(String header, String line, Lexer lexer, SIPMessage message,
+            ParseExceptionListener parseExceptionListener, byte[] rawMessage) throws ParseException {
         HeaderParser headerParser = null;
         try {
-            headerParser = ParserFactory.createParser(header + "\n");
+            headerParser = ParserFactory.createParser(line, lexer);
         } catch (ParseException ex) {
             // https://java.net/jira/browse/JSIP-456
      	    if (parseExceptionListener != null) {
@@ -324,8 +396,12 @@ public class StringMsgParser implements MessageParser {
      *                when the address is badly formatted.
      */
     public AddressImpl parseAddress(String address) throws ParseException {
-        AddressParser addressParser = new AddressParser(address);
-        return addressParser.address(true);
+        Lexer lexer = Lexer.lease("charLexer", address);
+        try {
+            return new AddressParser(lexer).address(true);
+        } finally {
+            lexer.release();
+        }
     }
 
     /**
@@ -356,9 +432,12 @@ public class StringMsgParser implements MessageParser {
      *                a ParseException when the hostname is badly formatted.
      */
     public Host parseHost(String host) throws ParseException {
-        Lexer lexer = new Lexer("charLexer", host);
-        return new HostNameParser(lexer).host();
-
+        Lexer lexer = Lexer.lease("charLexer", host);
+        try {
+            return new HostNameParser(lexer).host();
+        } finally {
+            lexer.release();
+        }
     }
 
     /**
@@ -374,7 +453,12 @@ public class StringMsgParser implements MessageParser {
     public TelephoneNumber parseTelephoneNumber(String telephone_number)
             throws ParseException {
         // Bug fix contributed by Will Scullin
-        return new URLParser(telephone_number).parseTelephoneNumber(true);
+        Lexer lexer = Lexer.lease("sip_urlLexer", telephone_number);
+        try {
+            return new URLParser(lexer).parseTelephoneNumber(true);
+        } finally {
+            lexer.release();
+        }
 
     }
 
@@ -389,10 +473,13 @@ public class StringMsgParser implements MessageParser {
      */
 
     public SipUri parseSIPUrl(String url) throws ParseException {
+        Lexer lexer = Lexer.lease("sip_urlLexer", url);
         try {
-            return new URLParser(url).sipURL(true);
+            return new URLParser(lexer).sipURL(true);
         } catch (ClassCastException ex) {
             throw new ParseException(url + " Not a SIP URL ", 0);
+        } finally {
+            lexer.release();
         }
     }
 
@@ -407,7 +494,12 @@ public class StringMsgParser implements MessageParser {
      */
 
     public GenericURI parseUrl(String url) throws ParseException {
-        return new URLParser(url).parse();
+        Lexer lexer = Lexer.lease("sip_urlLexer", url);
+        try {
+            return new URLParser(lexer).parse();
+        } finally {
+            lexer.release();
+        }
     }
 
     /**
@@ -466,10 +558,16 @@ public class StringMsgParser implements MessageParser {
         buffer.append(header.substring(lineStart, i));
         buffer.append('\n');
 
-        HeaderParser hp = ParserFactory.createParser(buffer.toString());
-        if (hp == null)
-            throw new ParseException("could not create parser", 0);
-        return hp.parse();
+        String line = buffer.toString();
+        Lexer lexer = Lexer.lease("command_keywordLexer", line);
+        try {
+            HeaderParser hp = ParserFactory.createParser(line, lexer);
+            if (hp == null)
+                throw new ParseException("could not create parser", 0);
+            return hp.parse();
+        } finally {
+            lexer.release();
+        }
     }
 
     /**
@@ -505,6 +603,14 @@ public class StringMsgParser implements MessageParser {
         return new StatusLineParser(statusLine).parse();
     }
 
+    /**
+     * @param lazyHeaderParsing if true the headers the stack does not need are
+     *            only parsed when they are accessed on the message.
+     */
+    public void setLazyHeaderParsing(boolean lazyHeaderParsing) {
+        this.lazyHeaderParsing = lazyHeaderParsing;
+    }
+
     public static void setComputeContentLengthFromMessage(
             boolean computeContentLengthFromMessage) {
         StringMsgParser.computeContentLengthFromMessage = computeContentLengthFromMessage;
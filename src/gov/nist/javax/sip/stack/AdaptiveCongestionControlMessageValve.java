@@ -0,0 +1,293 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ *
+ */
+package gov.nist.javax.sip.stack;
+
+import gov.nist.core.CommonLogger;
+import gov.nist.core.LogLevels;
+import gov.nist.core.StackLogger;
+import gov.nist.javax.sip.SipStackImpl;
+import gov.nist.javax.sip.header.RetryAfter;
+import gov.nist.javax.sip.message.SIPRequest;
+import gov.nist.javax.sip.message.SIPResponse;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sip.InvalidArgumentException;
+import javax.sip.SipStack;
+import javax.sip.message.Request;
+import javax.sip.message.Response;
+
+/**
+ * A congestion control valve that adapts the rate of new requests it admits to
+ * the load the stack actually sees, rather than to a fixed number of server
+ * transactions as {@link CongestionControlMessageValve} does.
+ *
+ * The valve installs a {@link LoadMonitor} the stack reports to with the time
+ * messages wait in the UDP message queue, in the post-parse queue of the
+ * connection oriented transports and in the event scanner queue, and with the
+ * time the listener takes with its events. Every update interval the limit on
+ * new requests per second is adjusted the AIMD way: it is cut by the backoff
+ * factor while the smoothed queueing delay or listener time is over its
+ * target, and raised by a constant step while they are under target and the
+ * admitted requests used at least half of the limit.
+ *
+ * New INVITE, REGISTER and SUBSCRIBE requests are shed first, once the limit
+ * of the interval is reached. Other out of dialog requests are given half the
+ * limit again. Shed requests are answered with a 503 Service Unavailable
+ * carrying a Retry-After between RETRY_AFTER and twice that, so the rejected
+ * clients do not all come back at once. Requests with a To tag, BYE, ACK,
+ * PRACK, CANCEL and retransmissions of admitted requests are always let
+ * through, because they complete the work already accepted.
+ *
+ * To enable this in your application you must specify this property:
+ * gov.nist.javax.sip.SIP_MESSAGE_VALVE=gov.nist.javax.sip.stack.AdaptiveCongestionControlMessageValve
+ *
+ * It is configured with these properties, all optional:
+ * <ul>
+ * <li>gov.nist.javax.sip.congestion.TARGET_QUEUE_DELAY, the queueing delay in
+ * milliseconds over which the stack is overloaded, 50 by default.</li>
+ * <li>gov.nist.javax.sip.congestion.TARGET_LISTENER_TIME, the listener time
+ * in milliseconds over which the stack is overloaded, 0 by default to ignore
+ * it.</li>
+ * <li>gov.nist.javax.sip.congestion.INITIAL_LIMIT, MIN_LIMIT and MAX_LIMIT,
+ * the new requests per second admitted at start and the bounds of the limit,
+ * 1000, 10 and 100000 by default.</li>
+ * <li>gov.nist.javax.sip.congestion.INCREASE, the requests per second added
+ * to the limit per interval, 10 by default.</li>
+ * <li>gov.nist.javax.sip.congestion.BACKOFF, the factor applied to the limit
+ * per overloaded interval, 0.9 by default.</li>
+ * <li>gov.nist.javax.sip.congestion.UPDATE_INTERVAL, the update interval in
+ * milliseconds, 100 by default.</li>
+ * <li>gov.nist.javax.sip.congestion.RETRY_AFTER, the minimum Retry-After in
+ * seconds of the 503 responses, 5 by default, 0 for none.</li>
+ * </ul>
+ *
+ * It is advised to extend this class to add your application-specific control
+ * conditions.
+ */
+public class AdaptiveCongestionControlMessageValve implements SIPMessageValve {
+
+    private static StackLogger logger = CommonLogger.getLogger(AdaptiveCongestionControlMessageValve.class);
+
+    private static final String PREFIX = "gov.nist.javax.sip.congestion.";
+
+    protected SipStackImpl sipStack;
+
+    protected LoadMonitor loadMonitor;
+
+    protected long targetQueueDelay;
+
+    protected long targetListenerTime;
+
+    protected double minLimit;
+
+    protected double maxLimit;
+
+    protected double increase;
+
+    protected double backoff;
+
+    protected long updateInterval;
+
+    protected int retryAfter;
+
+    // new requests per second
+    private volatile double limit;
+
+    private final AtomicLong nextUpdate = new AtomicLong();
+
+    private final AtomicInteger admittedInInterval = new AtomicInteger();
+
+    private final AtomicLong admittedRequests = new AtomicLong();
+
+    private final AtomicLong rejectedInitialRequests = new AtomicLong();
+
+    private final AtomicLong rejectedOtherRequests = new AtomicLong();
+
+    public boolean processRequest(SIPRequest request, MessageChannel messageChannel) {
+        String requestMethod = request.getMethod();
+        // these requests free resources or belong to work already accepted
+        if (request.getToTag() != null
+                || requestMethod.equals(Request.BYE)
+                || requestMethod.equals(Request.ACK)
+                || requestMethod.equals(Request.PRACK)
+                || requestMethod.equals(Request.CANCEL)) {
+            return true;
+        }
+        update(System.currentTimeMillis());
+        if (sipStack.findTransaction(request, true) != null) {
+            // retransmission of an admitted request
+            return true;
+        }
+        boolean initial = requestMethod.equals(Request.INVITE)
+                || requestMethod.equals(Request.REGISTER)
+                || requestMethod.equals(Request.SUBSCRIBE);
+        int permits = getPermits();
+        int allowed = initial ? permits : permits + permits / 2;
+        if (admittedInInterval.incrementAndGet() <= allowed) {
+            admittedRequests.incrementAndGet();
+            return true;
+        }
+        admittedInInterval.decrementAndGet();
+        if (initial) {
+            rejectedInitialRequests.incrementAndGet();
+        } else {
+            rejectedOtherRequests.incrementAndGet();
+        }
+        reject(request, messageChannel);
+        return false;
+    }
+
+    public boolean processResponse(Response response, MessageChannel messageChannel) {
+        return true;
+    }
+
+    /**
+     * @return true if the stack is overloaded according to the load monitor.
+     */
+    protected boolean isOverloaded() {
+        return loadMonitor.getQueueDelay() > targetQueueDelay
+                || (targetListenerTime > 0 && loadMonitor.getListenerTime() > targetListenerTime);
+    }
+
+    private int getPermits() {
+        return Math.max(1, (int) (limit * updateInterval / 1000));
+    }
+
+    private void update(long now) {
+        long next = nextUpdate.get();
+        if (now < next || !nextUpdate.compareAndSet(next, now + updateInterval)) {
+            return;
+        }
+        int admitted = admittedInInterval.getAndSet(0);
+        loadMonitor.sample();
+        double oldLimit = limit;
+        if (isOverloaded()) {
+            limit = Math.max(minLimit, oldLimit * backoff);
+        } else if (admitted >= getPermits() / 2) {
+            limit = Math.min(maxLimit, oldLimit + increase);
+        }
+        if (limit != oldLimit && logger.isLoggingEnabled(LogLevels.TRACE_DEBUG)) {
+            logger.logDebug("Congestion limit " + oldLimit + " -> " + limit + " requests/s, queue delay "
+                    + loadMonitor.getQueueDelay() + " ms, listener time " + loadMonitor.getListenerTime() + " ms");
+        }
+    }
+
+    private void reject(SIPRequest request, MessageChannel messageChannel) {
+        SIPResponse response = request.createResponse(Response.SERVICE_UNAVAILABLE);
+        if (retryAfter > 0) {
+            try {
+                RetryAfter retryAfterHeader = new RetryAfter();
+                retryAfterHeader.setRetryAfter(retryAfter + ThreadLocalRandom.current().nextInt(retryAfter + 1));
+                response.setHeader(retryAfterHeader);
+            } catch (InvalidArgumentException e) {
+                logger.logError("Invalid Retry-After " + retryAfter, e);
+            }
+        }
+        try {
+            messageChannel.sendMessage(response);
+        } catch (IOException e) {
+            logger.logError("Failed to send congestion control error response" + response, e);
+        }
+    }
+
+    /**
+     * @return the current limit of new requests admitted per second.
+     */
+    public double getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return the smoothed queueing delay in milliseconds.
+     */
+    public double getQueueDelay() {
+        return loadMonitor.getQueueDelay();
+    }
+
+    /**
+     * @return the smoothed listener processing time in milliseconds.
+     */
+    public double getListenerTime() {
+        return loadMonitor.getListenerTime();
+    }
+
+    /**
+     * @return the number of new requests admitted so far.
+     */
+    public long getAdmittedRequests() {
+        return admittedRequests.get();
+    }
+
+    /**
+     * @return the number of INVITE, REGISTER and SUBSCRIBE requests shed so
+     *         far.
+     */
+    public long getRejectedInitialRequests() {
+        return rejectedInitialRequests.get();
+    }
+
+    /**
+     * @return the number of other out of dialog requests shed so far.
+     */
+    public long getRejectedOtherRequests() {
+        return rejectedOtherRequests.get();
+    }
+
+    /**
+     * @return the number of requests shed so far.
+     */
+    public long getRejectedRequests() {
+        return rejectedInitialRequests.get() + rejectedOtherRequests.get();
+    }
+
+    public void destroy() {
+        logger.logInfo("Destroying the adaptive congestion control valve " + this);
+        if (sipStack.getLoadMonitor() == loadMonitor) {
+            sipStack.setLoadMonitor(null);
+        }
+    }
+
+    public void init(SipStack stack) {
+        sipStack = (SipStackImpl) stack;
+        logger.logInfo("Initializing adaptive congestion control valve");
+        Properties properties = sipStack.getConfigurationProperties();
+        targetQueueDelay = Long.parseLong(properties.getProperty(PREFIX + "TARGET_QUEUE_DELAY", "50"));
+        targetListenerTime = Long.parseLong(properties.getProperty(PREFIX + "TARGET_LISTENER_TIME", "0"));
+        minLimit = Double.parseDouble(properties.getProperty(PREFIX + "MIN_LIMIT", "10"));
+        maxLimit = Double.parseDouble(properties.getProperty(PREFIX + "MAX_LIMIT", "100000"));
+        limit = Math.max(minLimit, Math.min(maxLimit,
+                Double.parseDouble(properties.getProperty(PREFIX + "INITIAL_LIMIT", "1000"))));
+        increase = Double.parseDouble(properties.getProperty(PREFIX + "INCREASE", "10"));
+        backoff = Double.parseDouble(properties.getProperty(PREFIX + "BACKOFF", "0.9"));
+        updateInterval = Math.max(1, Long.parseLong(properties.getProperty(PREFIX + "UPDATE_INTERVAL", "100")));
+        retryAfter = Integer.parseInt(properties.getProperty(PREFIX + "RETRY_AFTER", "5"));
+        loadMonitor = new LoadMonitor();
+        sipStack.setLoadMonitor(loadMonitor);
+    }
+}
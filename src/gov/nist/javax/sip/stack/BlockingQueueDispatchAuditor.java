@@ -80,6 +80,9 @@ public class BlockingQueueDispatchAuditor extends TimerTask {
     				QueuedMessageDispatchBase d = (QueuedMessageDispatchBase) runnable;
     				if(System.currentTimeMillis() - d.getReceptionTime() > timeout) {
     					queue.poll();
+    					if(d instanceof DroppableMessageDispatch) {
+    						((DroppableMessageDispatch) d).dropped();
+    					}
     					runnable = (QueuedMessageDispatchBase) this.queue.peek();
     					removed ++;
     				} else {
@@ -30,11 +30,27 @@ import gov.nist.core.LogWriter;
 import gov.nist.core.StackLogger;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Contributed by Alexander Saveliev, Avistar Communications for Issue http://java.net/jira/browse/JSIP-430
  * Allows to choose between direct vs non direct buffers
  * 
+ * The factory also keeps a pool of receive buffers so that the UDP and NIO
+ * read paths don't allocate a new buffer for every datagram or read. Buffers
+ * are handed out with {@link #lease(int)} or {@link #leaseDirect(int)} and must
+ * be given back with {@link #release(ByteBuffer)} once the bytes have been
+ * consumed. The pool is organized in power of two size classes from 512 bytes
+ * to 64KB, each holding at most a bounded number of idle buffers; bigger
+ * requests are simply allocated. When leak detection is enabled, the stack
+ * trace of every outstanding lease is kept so that buffers which are never
+ * released can be reported with {@link #logLeaks()}.
  */
 public class ByteBufferFactory {
 
@@ -42,8 +58,37 @@ public class ByteBufferFactory {
 
     private static ByteBufferFactory instance = new ByteBufferFactory();
 
+    private static final int MIN_POOLED_SIZE_SHIFT = 9;
+
+    private static final int MAX_POOLED_SIZE_SHIFT = 16;
+
+    private static final int SIZE_CLASSES = MAX_POOLED_SIZE_SHIFT - MIN_POOLED_SIZE_SHIFT + 1;
+
+    public static final int DEFAULT_MAX_POOLED_BUFFERS = 256;
+
     private boolean useDirect = true;
 
+    private int maxPooledBuffers = DEFAULT_MAX_POOLED_BUFFERS;
+
+    private ArrayBlockingQueue<ByteBuffer>[] heapPool;
+
+    private ArrayBlockingQueue<ByteBuffer>[] directPool;
+
+    private boolean leakDetection = false;
+
+    private final Map<ByteBuffer, Throwable> outstandingLeases =
+        Collections.synchronizedMap(new IdentityHashMap<ByteBuffer, Throwable>());
+
+    private final AtomicLong leaseCount = new AtomicLong();
+
+    private final AtomicLong allocationCount = new AtomicLong();
+
+    private final AtomicLong releaseCount = new AtomicLong();
+
+    public ByteBufferFactory() {
+        createPools();
+    }
+
     public static ByteBufferFactory getInstance() {
         return instance;
     }
@@ -60,10 +105,169 @@ public class ByteBufferFactory {
         return ByteBuffer.allocate(capacity);
     }
 
+    /**
+     * Take a heap buffer from the pool. The returned buffer is cleared, backed
+     * by an accessible array and its limit is set to the requested capacity.
+     *
+     * @param capacity the number of bytes needed
+     * @return a pooled or freshly allocated buffer
+     */
+    public ByteBuffer lease(int capacity) {
+        return lease(capacity, false);
+    }
+
+    /**
+     * Take a buffer from the pool, direct unless direct buffers are disabled
+     * through gov.nist.javax.sip.stack.USE_DIRECT_BUFFERS. The returned buffer
+     * is cleared and its limit is set to the requested capacity.
+     *
+     * @param capacity the number of bytes needed
+     * @return a pooled or freshly allocated buffer
+     */
+    public ByteBuffer leaseDirect(int capacity) {
+        return lease(capacity, useDirect);
+    }
+
+    private ByteBuffer lease(int capacity, boolean direct) {
+        leaseCount.incrementAndGet();
+        int sizeClass = sizeClass(capacity);
+        ByteBuffer buffer = null;
+        if (sizeClass >= 0) {
+            buffer = (direct ? directPool : heapPool)[sizeClass].poll();
+        }
+        if (buffer == null) {
+            int size = sizeClass >= 0 ? 1 << (sizeClass + MIN_POOLED_SIZE_SHIFT) : capacity;
+            allocationCount.incrementAndGet();
+            buffer = direct ? allocateDirect(size) : allocate(size);
+        }
+        buffer.limit(capacity);
+        if (leakDetection) {
+            outstandingLeases.put(buffer, new Throwable("Buffer of " + capacity + " bytes leased"));
+        }
+        return buffer;
+    }
+
+    /**
+     * Give a leased buffer back to the pool. The caller must not touch the
+     * buffer afterwards. Buffers that don't fit a size class or that would
+     * overflow the pool are left to the garbage collector.
+     *
+     * @param buffer the buffer to return, null is ignored
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        releaseCount.incrementAndGet();
+        if (leakDetection && outstandingLeases.remove(buffer) == null) {
+            if (logger.isLoggingEnabled(LogWriter.TRACE_WARN)) {
+                logger.logWarning("Releasing a buffer that is not leased (double release?) " + buffer);
+                logger.logStackTrace(LogWriter.TRACE_WARN);
+            }
+            return;
+        }
+        int capacity = buffer.capacity();
+        int sizeClass = sizeClass(capacity);
+        if (sizeClass < 0 || (1 << (sizeClass + MIN_POOLED_SIZE_SHIFT)) != capacity) {
+            return;
+        }
+        buffer.clear();
+        (buffer.isDirect() ? directPool : heapPool)[sizeClass].offer(buffer);
+    }
+
+    /**
+     * @return the index of the smallest size class holding capacity bytes or
+     *         -1 if the request is too large (or pooling is disabled)
+     */
+    private int sizeClass(int capacity) {
+        if (maxPooledBuffers <= 0 || capacity > (1 << MAX_POOLED_SIZE_SHIFT)) {
+            return -1;
+        }
+        int sizeClass = 0;
+        while ((1 << (sizeClass + MIN_POOLED_SIZE_SHIFT)) < capacity) {
+            sizeClass++;
+        }
+        return sizeClass;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void createPools() {
+        int queueSize = Math.max(1, maxPooledBuffers);
+        heapPool = new ArrayBlockingQueue[SIZE_CLASSES];
+        directPool = new ArrayBlockingQueue[SIZE_CLASSES];
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            heapPool[i] = new ArrayBlockingQueue<ByteBuffer>(queueSize);
+            directPool[i] = new ArrayBlockingQueue<ByteBuffer>(queueSize);
+        }
+    }
+
+    /**
+     * Log the stack traces of the leases that have not been released yet.
+     * Only available when leak detection is enabled.
+     */
+    public void logLeaks() {
+        if (!leakDetection) {
+            return;
+        }
+        List<Throwable> leases;
+        synchronized (outstandingLeases) {
+            leases = new ArrayList<Throwable>(outstandingLeases.values());
+        }
+        if (!leases.isEmpty() && logger.isLoggingEnabled(LogWriter.TRACE_WARN)) {
+            logger.logWarning(leases.size() + " leased buffers were not released");
+            for (Throwable lease : leases) {
+                logger.logException(lease);
+            }
+        }
+    }
+
+    /**
+     * @return the number of buffers leased so far
+     */
+    public long getLeaseCount() {
+        return leaseCount.get();
+    }
+
+    /**
+     * @return the number of leases that could not be served from the pool
+     */
+    public long getAllocationCount() {
+        return allocationCount.get();
+    }
+
+    /**
+     * @return the number of leases not released yet
+     */
+    public long getOutstandingLeaseCount() {
+        return leaseCount.get() - releaseCount.get();
+    }
 
     public void setUseDirect(boolean useDirect) {
         if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
             logger.logTrace("Direct buffers are " + (useDirect ? "enabled" : "disabled"));
         this.useDirect = useDirect;
     }
+
+    /**
+     * Set the maximum number of idle buffers kept per size class. 0 disables
+     * pooling. The idle buffers pooled so far are dropped.
+     */
+    public void setMaxPooledBuffers(int maxPooledBuffers) {
+        if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
+            logger.logTrace("Max pooled buffers per size class " + maxPooledBuffers);
+        if (this.maxPooledBuffers == maxPooledBuffers) {
+            return;
+        }
+        this.maxPooledBuffers = maxPooledBuffers;
+        createPools();
+    }
+
+    public void setLeakDetection(boolean leakDetection) {
+        if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
+            logger.logTrace("Buffer leak detection is " + (leakDetection ? "enabled" : "disabled"));
+        this.leakDetection = leakDetection;
+        if (!leakDetection) {
+            outstandingLeases.clear();
+        }
+    }
 }
@@ -0,0 +1,168 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ *
+ */
+package gov.nist.javax.sip.stack;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Secondary index of transactions or dialogs by Call-ID. Every lookup that
+ * cannot use the primary key of a table (RFC 2543 transactions, CANCEL,
+ * NOTIFY to SUBSCRIBE matching, Replaces) is between messages of the same
+ * call, so the stack narrows the candidates to one Call-ID through this index
+ * and then applies its usual matching rules to that handful of entries
+ * instead of walking the whole table.
+ *
+ * Call-IDs are indexed in lower case: the matching rules decide whether case
+ * matters. The entries of one Call-ID are kept in a small copy on write
+ * array, so lookups never lock and never see a partially updated bucket.
+ *
+ * @param <V> the indexed transaction or dialog type.
+ */
+final class CallIdIndex<V> {
+
+    private final ConcurrentHashMap<String, Object[]> buckets =
+        new ConcurrentHashMap<String, Object[]>();
+
+    // the key an entry was indexed under, as the request or Call-ID header of
+    // a transaction may have been released by the time it is removed. Entries
+    // are compared by identity: the hash codes of transactions and dialogs
+    // follow ids that change over their lifetime.
+    private final ConcurrentHashMap<Identity, String> keys =
+        new ConcurrentHashMap<Identity, String>();
+
+    /**
+     * Index the value under the given Call-ID. Adding a value that is already
+     * indexed has no effect.
+     */
+    void add(String callId, V value) {
+        if (callId == null || value == null) {
+            return;
+        }
+        String key = callId.toLowerCase();
+        if (keys.putIfAbsent(new Identity(value), key) != null) {
+            return;
+        }
+        while (true) {
+            Object[] current = buckets.get(key);
+            if (current == null) {
+                if (buckets.putIfAbsent(key, new Object[] { value }) == null) {
+                    return;
+                }
+            } else {
+                Object[] next = Arrays.copyOf(current, current.length + 1);
+                next[current.length] = value;
+                if (buckets.replace(key, current, next)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Drop the value from the index, if it was indexed.
+     */
+    void remove(V value) {
+        if (value == null) {
+            return;
+        }
+        String key = keys.remove(new Identity(value));
+        if (key == null) {
+            return;
+        }
+        while (true) {
+            Object[] current = buckets.get(key);
+            if (current == null) {
+                return;
+            }
+            int index = -1;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == value) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index < 0) {
+                return;
+            }
+            if (current.length == 1) {
+                if (buckets.remove(key, current)) {
+                    return;
+                }
+            } else {
+                Object[] next = new Object[current.length - 1];
+                System.arraycopy(current, 0, next, 0, index);
+                System.arraycopy(current, index + 1, next, index, next.length - index);
+                if (buckets.replace(key, current, next)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * A snapshot of the values indexed under the Call-ID, compared ignoring
+     * case. Never null.
+     */
+    @SuppressWarnings("unchecked")
+    List<V> get(String callId) {
+        if (callId == null) {
+            return Collections.emptyList();
+        }
+        Object[] current = buckets.get(callId.toLowerCase());
+        if (current == null) {
+            return Collections.emptyList();
+        }
+        return (List<V>) Arrays.asList(current);
+    }
+
+    int size() {
+        return keys.size();
+    }
+
+    void clear() {
+        keys.clear();
+        buckets.clear();
+    }
+
+    private static final class Identity {
+        private final Object referent;
+
+        Identity(Object referent) {
+            this.referent = referent;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(referent);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Identity && ((Identity) other).referent == referent;
+        }
+    }
+}
@@ -52,6 +52,7 @@ import java.net.Socket;
 import java.text.ParseException;
 import java.util.Iterator;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.sip.ListeningPoint;
 import javax.sip.SipListener;
@@ -101,6 +102,11 @@ public abstract class ConnectionOrientedMessageChannel extends MessageChannel im
 
     private SIPStackTimerTask pingKeepAliveTimeoutTask;
     private Semaphore keepAliveSemaphore;
+
+    // serializes the messages sent on the channel. A lock rather than a
+    // monitor, so that a virtual thread blocked in a write does not pin its
+    // carrier thread.
+    protected final ReentrantLock sendLock = new ReentrantLock();
     
     private long keepAliveTimeout;    
     
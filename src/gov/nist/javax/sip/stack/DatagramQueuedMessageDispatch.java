@@ -26,15 +26,22 @@
 package gov.nist.javax.sip.stack;
 
 import java.net.DatagramPacket;
+import java.nio.ByteBuffer;
 
 
-public class DatagramQueuedMessageDispatch implements QueuedMessageDispatchBase {
+public class DatagramQueuedMessageDispatch implements DroppableMessageDispatch {
 	public DatagramPacket packet;
+	// pooled buffer backing the packet data, to be released once processed
+	public ByteBuffer buffer;
 	long time;
 	public DatagramQueuedMessageDispatch(DatagramPacket packet, long time) {
 		this.time = time;
 		this.packet = packet;
 	}
+	public DatagramQueuedMessageDispatch(DatagramPacket packet, ByteBuffer buffer, long time) {
+		this(packet, time);
+		this.buffer = buffer;
+	}
 	public long getReceptionTime() {
 		return time;
 	}
@@ -42,4 +49,9 @@ public class DatagramQueuedMessageDispatch implements QueuedMessageDispatchBase
 		// TODO Auto-generated method stub
 		
 	}
+	public void dropped() {
+		// the datagram is never processed, give its buffer back
+		ByteBufferFactory.getInstance().release(buffer);
+		buffer = null;
+	}
 }
@@ -0,0 +1,88 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ *
+ */
+package gov.nist.javax.sip.stack;
+
+import gov.nist.core.CommonLogger;
+import gov.nist.core.LogWriter;
+import gov.nist.core.StackLogger;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Periodically packs the state of the confirmed dialogs that were not used
+ * for longer than the hibernation idle time, see
+ * {@link SIPDialog#hibernate(boolean)}. A hibernated dialog is restored by its
+ * next use.
+ */
+public class DialogHibernationAuditor extends SIPStackTimerTask {
+
+    private static StackLogger logger = CommonLogger.getLogger(DialogHibernationAuditor.class);
+
+    private final SIPTransactionStack sipStack;
+
+    private final long idleTime;
+
+    private final boolean offHeap;
+
+    private final AtomicLong hibernatedDialogs = new AtomicLong();
+
+    /**
+     * @param idleTime the time in milliseconds after which an unused dialog is
+     *            hibernated.
+     * @param offHeap true to keep the hibernated state outside the Java heap.
+     */
+    public DialogHibernationAuditor(SIPTransactionStack sipStack, long idleTime, boolean offHeap) {
+        this.sipStack = sipStack;
+        this.idleTime = idleTime;
+        this.offHeap = offHeap;
+    }
+
+    public void runTask() {
+        long idleSince = System.currentTimeMillis() - idleTime;
+        int hibernated = 0;
+        for (SIPDialog dialog : sipStack.dialogTable.values()) {
+            if (dialog.isHibernated() || dialog.getLastActivityTime() > idleSince) {
+                continue;
+            }
+            try {
+                if (dialog.hibernate(offHeap, idleSince)) {
+                    hibernated++;
+                }
+            } catch (Exception ex) {
+                logger.logError("could not hibernate dialog " + dialog.getDialogId(), ex);
+            }
+        }
+        hibernatedDialogs.addAndGet(hibernated);
+        if (hibernated > 0 && logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+            logger.logDebug("hibernated " + hibernated + " idle dialogs");
+        }
+    }
+
+    /**
+     * @return the number of dialogs hibernated so far.
+     */
+    public long getHibernatedDialogs() {
+        return hibernatedDialogs.get();
+    }
+}
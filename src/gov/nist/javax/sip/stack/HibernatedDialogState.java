@@ -0,0 +1,178 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ *
+ */
+package gov.nist.javax.sip.stack;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * The parsed state of an idle dialog packed into one block of bytes. Each
+ * field is stored as its encoded string, prefixed by its length, or by -1 for
+ * a null field. The block is a heap byte array or, when asked for, a direct
+ * buffer outside the Java heap so that a large number of idle dialogs does not
+ * weigh on the garbage collector. The direct buffers are leased from the
+ * {@link ByteBufferFactory} pool rather than allocated one per dialog, and
+ * must be given back with {@link #release()} once the state is dropped.
+ */
+final class HibernatedDialogState {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final int fieldCount;
+
+    private byte[] heap;
+
+    private ByteBuffer direct;
+
+    // the pooled buffer may be larger than the packed fields
+    private int length;
+
+    private HibernatedDialogState(int fieldCount) {
+        this.fieldCount = fieldCount;
+    }
+
+    /**
+     * Pack the fields.
+     *
+     * @param fields the encoded fields, possibly null.
+     * @param offHeap true to store the fields in a direct buffer.
+     */
+    static HibernatedDialogState encode(String[] fields, boolean offHeap) {
+        byte[][] encoded = new byte[fields.length][];
+        int size = 0;
+        for (int i = 0; i < fields.length; i++) {
+            size += 4;
+            if (fields[i] != null) {
+                encoded[i] = fields[i].getBytes(UTF8);
+                size += encoded[i].length;
+            }
+        }
+        HibernatedDialogState state = new HibernatedDialogState(fields.length);
+        state.length = size;
+        ByteBuffer buffer;
+        if (offHeap) {
+            buffer = ByteBufferFactory.getInstance().leaseDirect(size);
+            state.direct = buffer;
+        } else {
+            state.heap = new byte[size];
+            buffer = ByteBuffer.wrap(state.heap);
+        }
+        for (byte[] field : encoded) {
+            if (field == null) {
+                buffer.putInt(-1);
+            } else {
+                buffer.putInt(field.length);
+                buffer.put(field);
+            }
+        }
+        return state;
+    }
+
+    /**
+     * @return the fields in the order they were packed.
+     */
+    String[] decode() {
+        ByteBuffer buffer = direct != null ? direct.duplicate() : ByteBuffer.wrap(heap);
+        buffer.position(0);
+        String[] fields = new String[fieldCount];
+        byte[] bytes = new byte[0];
+        for (int i = 0; i < fieldCount; i++) {
+            int length = buffer.getInt();
+            if (length >= 0) {
+                if (bytes.length < length) {
+                    bytes = new byte[length];
+                }
+                buffer.get(bytes, 0, length);
+                fields[i] = new String(bytes, 0, length, UTF8);
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * @return the packed fields, to be restored with
+     *         {@link #fromBytes(int, byte[])}.
+     */
+    byte[] toBytes() {
+        if (heap != null) {
+            return heap;
+        }
+        byte[] bytes = new byte[length];
+        ByteBuffer buffer = direct.duplicate();
+        buffer.position(0);
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Restore packed fields in the Java heap.
+     *
+     * @throws IOException if the bytes do not hold the given number of fields.
+     */
+    static HibernatedDialogState fromBytes(int fieldCount, byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        for (int i = 0; i < fieldCount; i++) {
+            if (buffer.remaining() < 4) {
+                throw new IOException("truncated hibernated dialog state");
+            }
+            int length = buffer.getInt();
+            if (length < -1 || length > buffer.remaining()) {
+                throw new IOException("bad field length in hibernated dialog state " + length);
+            }
+            if (length > 0) {
+                buffer.position(buffer.position() + length);
+            }
+        }
+        if (buffer.hasRemaining()) {
+            throw new IOException("extra bytes in hibernated dialog state");
+        }
+        HibernatedDialogState state = new HibernatedDialogState(fieldCount);
+        state.heap = bytes;
+        state.length = bytes.length;
+        return state;
+    }
+
+    /**
+     * @return the number of bytes used by the packed fields.
+     */
+    int size() {
+        return length;
+    }
+
+    /**
+     * Give the direct buffer back to the pool. The state must not be used
+     * afterwards.
+     */
+    void release() {
+        if (direct != null) {
+            ByteBufferFactory.getInstance().release(direct);
+            direct = null;
+        }
+    }
+
+    boolean isOffHeap() {
+        return direct != null;
+    }
+}
@@ -116,21 +116,21 @@ public class IOHandler {
     }
 
     /**
-     * A private function to write things out. This needs to be synchronized as
-     * writes can occur from multiple threads. We write in chunks to allow the
-     * other side to synchronize for large sized writes.
+     * A private function to write things out. Writes can occur from multiple
+     * threads: callers hold the IO critical section of the socket key, a
+     * semaphore rather than a monitor on the stream so that a virtual thread
+     * blocked in the write does not pin its carrier thread. We write in chunks
+     * to allow the other side to synchronize for large sized writes.
      */
     private void writeChunks(OutputStream outputStream, byte[] bytes, int length)
             throws IOException {
         // Chunk size is 16K - this hack is for large
         // writes over slow connections.
-        synchronized (outputStream) {
-            // outputStream.write(bytes,0,length);
-            int chunksize = 8 * 1024;
-            for (int p = 0; p < length; p += chunksize) {
-                int chunk = p + chunksize < length ? chunksize : length - p;
-                outputStream.write(bytes, p, chunk);
-            }
+        // outputStream.write(bytes,0,length);
+        int chunksize = 8 * 1024;
+        for (int p = 0; p < length; p += chunksize) {
+            int chunk = p + chunksize < length ? chunksize : length - p;
+            outputStream.write(bytes, p, chunk);
         }
         outputStream.flush();
     }
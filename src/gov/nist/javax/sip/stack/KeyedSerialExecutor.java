@@ -0,0 +1,286 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ *
+ */
+package gov.nist.javax.sip.stack;
+
+import gov.nist.core.CommonLogger;
+import gov.nist.core.LogLevels;
+import gov.nist.core.StackLogger;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the tasks of a key one after the other, in submission order, and the
+ * tasks of different keys in parallel on a shared executor. The stack uses it
+ * to keep the messages of a call in order while the calls multiplexed on one
+ * connection are processed by a thread pool.
+ *
+ * Every key with pending tasks has a mailbox. The mailbox is handed to the
+ * executor when its first task arrives and runs one task per turn, handing
+ * itself back to the executor while tasks remain, so a busy key never holds a
+ * pool thread while other keys wait and no thread ever blocks on a key. A
+ * mailbox that drains is removed from the map at once.
+ *
+ * Submissions beyond the per-key limit are rejected. Tasks that implement
+ * {@link QueuedMessageDispatchBase} and waited longer than the expiry timeout
+ * are dropped instead of run, as the stack congestion control does for the
+ * other message queues. Dropped tasks that implement
+ * {@link DroppableMessageDispatch} are told so, whether they expired or the
+ * executor rejected their mailbox; a task rejected by {@link #execute} is left
+ * to its submitter.
+ *
+ * @param <K> the key type, a Call-ID for the stack.
+ */
+public class KeyedSerialExecutor<K> {
+
+    private static StackLogger logger = CommonLogger.getLogger(KeyedSerialExecutor.class);
+
+    private final Executor executor;
+
+    private final int maxQueuedPerKey;
+
+    private final long expiryTimeout;
+
+    private final ConcurrentHashMap<K, Mailbox> mailboxes = new ConcurrentHashMap<K, Mailbox>();
+
+    private final AtomicLong executedTasks = new AtomicLong();
+
+    private final AtomicLong failedTasks = new AtomicLong();
+
+    private final AtomicLong rejectedTasks = new AtomicLong();
+
+    private final AtomicLong expiredTasks = new AtomicLong();
+
+    /**
+     * @param executor the executor running the tasks.
+     * @param maxQueuedPerKey the maximum number of pending tasks of a key, 0
+     *            or less for no limit.
+     * @param expiryTimeout the time in milliseconds after which a queued
+     *            message dispatch is dropped, 0 or less to run all of them.
+     */
+    public KeyedSerialExecutor(Executor executor, int maxQueuedPerKey, long expiryTimeout) {
+        if (executor == null) {
+            throw new NullPointerException("null executor");
+        }
+        this.executor = executor;
+        this.maxQueuedPerKey = maxQueuedPerKey;
+        this.expiryTimeout = expiryTimeout;
+    }
+
+    /**
+     * Run the task after the tasks already submitted for its key.
+     *
+     * @return false if the task was rejected because its key has too many
+     *         pending tasks or the executor is shut down.
+     */
+    public boolean execute(K key, Runnable task) {
+        if (key == null || task == null) {
+            throw new NullPointerException("null key or task");
+        }
+        while (true) {
+            Mailbox mailbox = mailboxes.get(key);
+            if (mailbox == null) {
+                Mailbox newMailbox = new Mailbox(key);
+                mailbox = mailboxes.putIfAbsent(key, newMailbox);
+                if (mailbox == null) {
+                    mailbox = newMailbox;
+                }
+            }
+            int pending = mailbox.pending.get();
+            if (pending < 0) {
+                // drained and being removed, help and use a new one
+                mailboxes.remove(key, mailbox);
+                continue;
+            }
+            if (maxQueuedPerKey > 0 && pending >= maxQueuedPerKey) {
+                rejectedTasks.incrementAndGet();
+                if (logger.isLoggingEnabled(LogLevels.TRACE_WARN)) {
+                    logger.logWarning("Rejecting task for key " + key + ", "
+                            + pending + " tasks already pending");
+                }
+                return false;
+            }
+            if (!mailbox.pending.compareAndSet(pending, pending + 1)) {
+                continue;
+            }
+            mailbox.tasks.offer(task);
+            if (pending == 0) {
+                return mailbox.schedule(task);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @return the number of keys with pending tasks.
+     */
+    public int getActiveKeys() {
+        return mailboxes.size();
+    }
+
+    /**
+     * @return the number of pending tasks of the key, including a running one.
+     */
+    public int getPendingTasks(K key) {
+        Mailbox mailbox = mailboxes.get(key);
+        return mailbox == null ? 0 : Math.max(0, mailbox.pending.get());
+    }
+
+    /**
+     * @return the number of tasks run so far.
+     */
+    public long getExecutedTasks() {
+        return executedTasks.get();
+    }
+
+    /**
+     * @return the number of tasks that ended with an exception.
+     */
+    public long getFailedTasks() {
+        return failedTasks.get();
+    }
+
+    /**
+     * @return the number of tasks rejected because their key had too many
+     *         pending tasks or the executor was shut down.
+     */
+    public long getRejectedTasks() {
+        return rejectedTasks.get();
+    }
+
+    /**
+     * @return the number of message dispatches dropped because they waited
+     *         longer than the expiry timeout.
+     */
+    public long getExpiredTasks() {
+        return expiredTasks.get();
+    }
+
+    private final class Mailbox implements Runnable {
+
+        private final K key;
+
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+        // tasks submitted and not finished, -1 once retired.
+        // A submission reserves its slot before queueing the task, which
+        // keeps a retired mailbox from accepting tasks.
+        private final AtomicInteger pending = new AtomicInteger();
+
+        Mailbox(K key) {
+            this.key = key;
+        }
+
+        /**
+         * @param submitted the task being submitted, which is not told that
+         *            it is dropped since the submitter learns it, or null.
+         */
+        boolean schedule(Runnable submitted) {
+            try {
+                executor.execute(this);
+                return true;
+            } catch (RejectedExecutionException ex) {
+                if (logger.isLoggingEnabled(LogLevels.TRACE_WARN)) {
+                    logger.logWarning("Executor rejected tasks of key " + key);
+                }
+                // retire the mailbox first so no more slots are reserved, then
+                // drop the tasks of the slots reserved so far, waiting for the
+                // submitters that reserved one and have yet to queue the task
+                int reserved;
+                do {
+                    reserved = pending.get();
+                } while (!pending.compareAndSet(reserved, -1));
+                mailboxes.remove(key, this);
+                int dropped = 0;
+                while (dropped < reserved) {
+                    Runnable task = tasks.poll();
+                    if (task == null) {
+                        Thread.yield();
+                        continue;
+                    }
+                    dropped++;
+                    if (task != submitted) {
+                        drop(task);
+                    }
+                }
+                rejectedTasks.addAndGet(dropped);
+                return false;
+            }
+        }
+
+        public void run() {
+            Runnable task = tasks.poll();
+            if (task == null) {
+                // the submitter that reserved the next slot is queueing it
+                schedule(null);
+                return;
+            }
+            try {
+                if (isExpired(task)) {
+                    expiredTasks.incrementAndGet();
+                    if (logger.isLoggingEnabled(LogLevels.TRACE_WARN)) {
+                        logger.logWarning("Dropping message of key " + key + " queued for more than "
+                                + expiryTimeout + " ms");
+                    }
+                    drop(task);
+                } else {
+                    executedTasks.incrementAndGet();
+                    task.run();
+                }
+            } catch (RuntimeException ex) {
+                failedTasks.incrementAndGet();
+                logger.logError("Task of key " + key + " failed", ex);
+            } finally {
+                if (pending.decrementAndGet() > 0) {
+                    schedule(null);
+                } else if (pending.compareAndSet(0, -1)) {
+                    mailboxes.remove(key, this);
+                }
+                // otherwise a task arrived between the decrement and the
+                // retirement and its submitter scheduled the mailbox
+            }
+        }
+
+        private void drop(Runnable task) {
+            if (task instanceof DroppableMessageDispatch) {
+                try {
+                    ((DroppableMessageDispatch) task).dropped();
+                } catch (RuntimeException ex) {
+                    logger.logError("Dropped task of key " + key + " failed", ex);
+                }
+            }
+        }
+
+        private boolean isExpired(Runnable task) {
+            return expiryTimeout > 0 && task instanceof QueuedMessageDispatchBase
+                    && System.currentTimeMillis()
+                            - ((QueuedMessageDispatchBase) task).getReceptionTime() > expiryTimeout;
+        }
+    }
+}
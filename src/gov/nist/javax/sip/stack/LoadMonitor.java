@@ -0,0 +1,105 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ *
+ */
+package gov.nist.javax.sip.stack;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects how long messages wait in the stack queues and how long the
+ * listener takes with its events, for valves that adapt their admission to the
+ * load. The stack records samples only while a monitor is installed with
+ * {@link SIPTransactionStack#setLoadMonitor(LoadMonitor)}.
+ *
+ * Samples are summed until the owner calls {@link #sample()}, which folds the
+ * average of the interval into a smoothed value. An interval without samples
+ * leaves the smoothed values as they were.
+ */
+public class LoadMonitor {
+
+    // weight of a new interval in the smoothed values, as TCP does for RTT
+    private static final double GAIN = 0.25;
+
+    private final AtomicLong queueDelaySum = new AtomicLong();
+
+    private final AtomicLong queueDelayCount = new AtomicLong();
+
+    private final AtomicLong listenerTimeSum = new AtomicLong();
+
+    private final AtomicLong listenerTimeCount = new AtomicLong();
+
+    private volatile double queueDelay;
+
+    private volatile double listenerTime;
+
+    /**
+     * Record the time a message or event spent in a queue.
+     *
+     * @param delay the time in milliseconds between queueing and dequeueing.
+     */
+    public void queueDelay(long delay) {
+        queueDelaySum.addAndGet(Math.max(0, delay));
+        queueDelayCount.incrementAndGet();
+    }
+
+    /**
+     * Record the time the listener took to process an event.
+     *
+     * @param time the time in milliseconds spent in the listener.
+     */
+    public void listenerTime(long time) {
+        listenerTimeSum.addAndGet(Math.max(0, time));
+        listenerTimeCount.incrementAndGet();
+    }
+
+    /**
+     * Fold the samples recorded since the previous call into the smoothed
+     * values.
+     */
+    public synchronized void sample() {
+        long count = queueDelayCount.getAndSet(0);
+        long sum = queueDelaySum.getAndSet(0);
+        if (count > 0) {
+            queueDelay += ((double) sum / count - queueDelay) * GAIN;
+        }
+        count = listenerTimeCount.getAndSet(0);
+        sum = listenerTimeSum.getAndSet(0);
+        if (count > 0) {
+            listenerTime += ((double) sum / count - listenerTime) * GAIN;
+        }
+    }
+
+    /**
+     * @return the smoothed queueing delay in milliseconds.
+     */
+    public double getQueueDelay() {
+        return queueDelay;
+    }
+
+    /**
+     * @return the smoothed listener processing time in milliseconds.
+     */
+    public double getListenerTime() {
+        return listenerTime;
+    }
+}
@@ -209,7 +209,7 @@ public abstract class MessageChannel {
      */
     public void sendMessage(final SIPMessage sipMessage, Hop hop) throws IOException {
         long time = System.currentTimeMillis();
-        InetAddress hopAddr = InetAddress.getByName(hop.getHost());
+        InetAddress hopAddr = getSIPStack().getByName(hop.getHost());
 
         try {
 
@@ -298,7 +298,7 @@ public abstract class MessageChannel {
         String sourceAddress = getPeerAddress();
         String rawIpSourceAddress = null;
         try {
-            InetAddress sourceInetAddress = InetAddress.getByName(sourceAddress);
+            InetAddress sourceInetAddress = getSIPStack().getByName(sourceAddress);
             rawIpSourceAddress = sourceInetAddress.getHostAddress();
         } catch (Exception ex) {
             InternalErrorHandler.handleException(ex);
@@ -36,6 +36,7 @@ import gov.nist.javax.sip.header.Via;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.text.ParseException;
 
 import javax.sip.InvalidArgumentException;
@@ -280,6 +281,16 @@ public abstract class MessageProcessor  {
      */
     public abstract SIPTransactionStack getSIPStack();
 
+    /**
+     * Resolve the address of a target host/port through the stack, which may
+     * cache the lookup.
+     */
+    protected InetAddress getInetAddress(HostPort targetHostPort)
+            throws UnknownHostException {
+        Host host = targetHostPort.getHost();
+        return host == null ? null : sipStack.getByName(host.getAddress());
+    }
+
     /**
      * Create a message channel for the specified host/port.
      *
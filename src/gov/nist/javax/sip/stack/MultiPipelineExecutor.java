@@ -34,6 +34,12 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Semaphore;
 
+/**
+ * @deprecated the tasks are only handed to the threads by a loop calling
+ *             {@link #processTasks()}; use {@link KeyedSerialExecutor}, which
+ *             hands them over as they are added.
+ */
+@Deprecated
 public class MultiPipelineExecutor<K> {
 	private ExecutorService executor;
 	private ConcurrentHashMap<K, SemaphoreLinkedList<SemaphoreRunnable<K>>> map =
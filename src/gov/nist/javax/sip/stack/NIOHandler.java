@@ -141,16 +141,15 @@ public class NIOHandler {
 
     /**
      * A private function to write things out. This needs to be synchronized as
-     * writes can occur from multiple threads. We write in chunks to allow the
-     * other side to synchronize for large sized writes.
+     * writes can occur from multiple threads. The bytes are queued for the
+     * selector thread of the channel.
+     *
+     * @throws IOException if too much data is already waiting for the channel.
      */
-    private void writeChunks(SocketChannel channel, byte[] bytes, int length) {
-        // Chunk size is 16K - this hack is for large
-        // writes over slow connections.
+    private void writeChunks(SocketChannel channel, byte[] bytes, int length) throws IOException {
+        // The selector thread coalesces the queued messages of the
+        // channel into gathering writes.
         synchronized (channel) {
-            // outputStream.write(bytes,0,length);
-        	byte[] buff = new byte[length];
-        	System.arraycopy(bytes, 0, buff, 0, length);
         	messageProcessor.send(channel, bytes);
         }
     }
@@ -282,7 +281,7 @@ public class NIOHandler {
         	 * and send the response to.
         	 */
         	if (!isClient) {
-        		receiverAddress = InetAddress.getByName(messageChannel
+        		receiverAddress = sipStack.getByName(messageChannel
         				.peerAddressAdvertisedInHeaders);
         		contactPort = messageChannel.peerPortAdvertisedInHeaders;
         		if (contactPort <= 0)
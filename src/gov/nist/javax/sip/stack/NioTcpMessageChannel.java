@@ -90,17 +90,14 @@ public class NioTcpMessageChannel extends ConnectionOrientedMessageChannel {
                     logger.logDebug("NioTcpMessageChannel::readChannel");
                 }
 		int bufferSize = 4096;
-		byte[] msg = new byte[bufferSize];
+		// leased from the pool and given back once the parser consumed the bytes
+		ByteBuffer byteBuffer = ByteBufferFactory.getInstance().lease(bufferSize);
 		this.isRunning = true;
 		try {
-			ByteBuffer byteBuffer  = ByteBuffer.wrap(msg);
 			int nbytes = this.socketChannel.read(byteBuffer);
 			byteBuffer.flip();
-			msg = new byte[byteBuffer.remaining()];
-			byteBuffer.get(msg);
 			boolean streamError = nbytes == -1;
-			nbytes = msg.length;
-			byteBuffer.clear();
+			nbytes = byteBuffer.remaining();
 			if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
 				logger.logDebug("Read " + nbytes + " from socketChannel");
 			}
@@ -115,10 +112,7 @@ public class NioTcpMessageChannel extends ConnectionOrientedMessageChannel {
 					"This is usually an indication we are stuck and it is better to disconnect.");
 			
 			// Otherwise just add the bytes to queue
-			
-			byte[] bytes = new byte[nbytes];
-			System.arraycopy(msg, 0, bytes, 0, nbytes);
-			addBytes(bytes);
+			addBytes(byteBuffer);
 			lastActivityTimeStamp = System.currentTimeMillis();
 
 		} catch (Exception ex) { // https://java.net/jira/browse/JSIP-464 make sure to close connections on all exceptions to avoid the stack to hang
@@ -143,7 +137,9 @@ public class NioTcpMessageChannel extends ConnectionOrientedMessageChannel {
 				if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
 					logger.logDebug("Exception closing the socket " + ex1);
 			}
-		} 
+		} finally {
+			ByteBufferFactory.getInstance().release(byteBuffer);
+		}
 //		catch (Exception ex) {
 //			InternalErrorHandler.handleException(ex, logger);
 //		}
@@ -155,6 +151,15 @@ public class NioTcpMessageChannel extends ConnectionOrientedMessageChannel {
 		nioParser.addBytes(bytes);
 	}
 
+	/**
+	 * Hand the bytes read from the socket to the parser. The buffer is a
+	 * pooled heap buffer that is released as soon as this returns, so
+	 * implementations must consume or copy its content before returning.
+	 */
+	protected void addBytes(ByteBuffer buffer) throws Exception {
+		nioParser.addBytes(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+	}
+
 	protected NioTcpMessageChannel(NioTcpMessageProcessor nioTcpMessageProcessor,
 			SocketChannel socketChannel) throws IOException {
 		super(nioTcpMessageProcessor.getSIPStack());
@@ -36,6 +36,11 @@ import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * NIO implementation for TCP.
@@ -52,21 +57,34 @@ public class NioTcpMessageProcessor extends ConnectionOrientedMessageProcessor {
 
     protected ServerSocketChannel channel;
 
-    // Cache the change request here, the selector thread will read it when it wakes up and execute the request
-    private final List<ChangeRequest> changeRequests = new LinkedList<ChangeRequest> ();
+    // The selector loops serving the connections, only one that also accepts unless NIO_SELECTOR_THREADS > 1
+    private ProcessorTask[] ioTasks;
 
-    // Data send over a socket is cached here before hand, the selector thread will take it later for physical send
-    private final Map<SocketChannel, List<ByteBuffer>> pendingData =
-    		new WeakHashMap<SocketChannel, List<ByteBuffer>>();
+    // The selector loop owning each connection, all changes and writes for a socket go through that loop
+    private final Map<SocketChannel, ProcessorTask> socketTasks =
+    		new ConcurrentHashMap<SocketChannel, ProcessorTask>();
+
+    private final AtomicInteger nextIoTask = new AtomicInteger();
+
+    // Messages queued by the senders and socket writes taking them, to tell how much the writes are batched
+    private final AtomicLong queuedMessages = new AtomicLong();
+
+    private final AtomicLong socketWrites = new AtomicLong();
 
     
+    // Most buffers handed to a single gathering write
+    private static final int MAX_GATHERED_BUFFERS = 64;
+
     public static class ChangeRequest {
     	public static final int REGISTER = 1;
     	public static final int CHANGEOPS = 2;
+    	// CHANGEOPS once the write batching window is over
+    	public static final int DEFERRED_CHANGEOPS = 3;
 
     	public SocketChannel socket;
     	public int type;
     	public int ops;
+    	public long due;
 
     	public ChangeRequest(SocketChannel socket, int type, int ops) {
     		this.socket = socket;
@@ -74,10 +92,27 @@ public class NioTcpMessageProcessor extends ConnectionOrientedMessageProcessor {
     		this.ops = ops;
     	}
     	
+    	public ChangeRequest(SocketChannel socket, int type, int ops, long due) {
+    		this(socket, type, ops);
+    		this.due = due;
+    	}
+    	
     	public String toString() {
     		return socket + " type = " + type + " ops = " + ops;
     	}
     }
+
+    // The messages waiting to be written on a connection. Senders append to it,
+    // the selector thread serving the connection takes from it.
+    static final class PendingWrites {
+    	final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+
+    	final AtomicInteger queuedBytes = new AtomicInteger();
+
+    	// Set by the sender that asks the selector thread for a write, cleared by the
+    	// selector thread before it writes, so a burst of sends costs a single wake up
+    	final AtomicBoolean writeRequested = new AtomicBoolean();
+    }
     
 //  Commented out as part of https://java.net/jira/browse/JSIP-504
 //	public void assignChannelToDestination(HostPort targetHostPort, NioTcpMessageChannel channel) {
@@ -98,42 +133,133 @@ public class NioTcpMessageProcessor extends ConnectionOrientedMessageProcessor {
         if(logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
         	logger.logDebug("Blocking set to false now " + address);
       
-        synchronized(this.changeRequests) {
-        	changeRequests.add(new ChangeRequest(socketChannel, ChangeRequest.REGISTER, SelectionKey.OP_READ));
-        }
-        selector.wakeup();
+        ProcessorTask task = assignIoTask(socketChannel);
+        task.changeRequests.offer(new ChangeRequest(socketChannel, ChangeRequest.REGISTER, SelectionKey.OP_READ));
+        task.selector.wakeup();
         return socketChannel;
     }
 
+    /**
+     * Pick the selector loop that will serve all the I/O of a new connection.
+     */
+    private ProcessorTask assignIoTask(SocketChannel socketChannel) {
+    	ProcessorTask[] tasks = ioTasks;
+    	ProcessorTask task = tasks[0];
+    	if(tasks.length > 1) {
+    		if(sipStack.getSelectorAssignmentStrategy() == SelectorAssignmentStrategy.LeastLoaded) {
+    			for(int i = 1; i < tasks.length; i++) {
+    				if(tasks[i].connections.get() < task.connections.get()) {
+    					task = tasks[i];
+    				}
+    			}
+    		} else {
+    			task = tasks[(nextIoTask.getAndIncrement() & Integer.MAX_VALUE) % tasks.length];
+    		}
+    	}
+    	socketTasks.put(socketChannel, task);
+    	task.connections.incrementAndGet();
+    	return task;
+    }
+
+    private void releaseIoTask(SocketChannel socketChannel) {
+    	ProcessorTask task = socketTasks.remove(socketChannel);
+    	if(task != null) {
+    		task.pendingData.remove(socketChannel);
+    		task.connections.decrementAndGet();
+    	}
+    }
+
     public SocketChannel blockingConnect(InetSocketAddress address, int timeout) throws IOException {
     	return initiateConnection(address, timeout);
     }
+
+    /**
+     * @return the number of messages queued for writing so far.
+     */
+    public long getQueuedMessages() {
+    	return queuedMessages.get();
+    }
+
+    /**
+     * @return the number of writes on the sockets so far, fewer than the queued
+     *         messages when they are written together.
+     */
+    public long getSocketWrites() {
+    	return socketWrites.get();
+    }
         
-    public void send(SocketChannel socket, byte[] data)  {
+    public void send(SocketChannel socket, byte[] data) throws IOException {
     	if(logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
     		logger.logDebug("Sending data " + data.length + " bytes on socket " + socket);
     	
-    	synchronized (this.changeRequests) {
-    		this.changeRequests.add(new ChangeRequest(socket, ChangeRequest.CHANGEOPS, SelectionKey.OP_WRITE));
-
-    		synchronized (this.pendingData) {
-    			List<ByteBuffer> queue = this.pendingData.get(socket);
-    			if (queue == null) {
-    				queue = new ArrayList<ByteBuffer>();
-    				this.pendingData.put(socket, queue);
-    			}
-    			queue.add(ByteBuffer.wrap(data));
+    	ProcessorTask task = socketTasks.get(socket);
+    	if(task == null) {
+    		if(logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
+    			logger.logDebug("Dropping data for socket no longer served " + socket);
+    		return;
+    	}
+    	// The data must be queued before the change request so the selector thread finds it when it sets OP_WRITE
+    	PendingWrites writes = task.pendingData.get(socket);
+    	if (writes == null) {
+    		writes = new PendingWrites();
+    		PendingWrites existing = task.pendingData.putIfAbsent(socket, writes);
+    		if(existing != null) {
+    			writes = existing;
     		}
     	}
+    	int maxQueuedBytes = sipStack.getNioMaxQueuedBytesPerConnection();
+    	int queuedBytes = writes.queuedBytes.get();
+    	// a message larger than the limit still goes out on a connection that keeps up
+    	if(maxQueuedBytes > 0 && queuedBytes > 0 && queuedBytes + data.length > maxQueuedBytes) {
+    		throw new IOException("Too much data waiting to be written on socket " + socket
+    				+ ": " + queuedBytes + " bytes queued");
+    	}
+    	writes.queuedBytes.addAndGet(data.length);
+    	writes.buffers.offer(ByteBuffer.wrap(data));
+    	queuedMessages.incrementAndGet();
+    	if(!writes.writeRequested.compareAndSet(false, true)) {
+    		// the selector thread has yet to write what is queued, ours included
+    		return;
+    	}
+    	int batchWindow = sipStack.getNioWriteBatchWindow();
+    	if(batchWindow > 0) {
+    		task.changeRequests.offer(new ChangeRequest(socket, ChangeRequest.DEFERRED_CHANGEOPS, SelectionKey.OP_WRITE,
+    				System.currentTimeMillis() + batchWindow));
+    	} else {
+    		task.changeRequests.offer(new ChangeRequest(socket, ChangeRequest.CHANGEOPS, SelectionKey.OP_WRITE));
+    	}
     	if(logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
     		logger.logDebug("Waking up selector thread");
-    	this.selector.wakeup();
+    	task.selector.wakeup();
     }
     
-    // This will be our selector thread, only one thread for all sockets. If you want to understand the overall design decisions read this first http://rox-xmlrpc.sourceforge.net/niotut/
+    // A selector thread. With the default configuration there is only one thread for all sockets, with NIO_SELECTOR_THREADS > 1
+    // one of them only accepts and every connection is then served by one of the I/O ones.
+    // If you want to understand the overall design decisions read this first http://rox-xmlrpc.sourceforge.net/niotut/
     class ProcessorTask implements Runnable {
 
+        protected final Selector selector;
+
+        // Cache the change request here, the selector thread will read it when it wakes up and execute the request
+        final Queue<ChangeRequest> changeRequests = new ConcurrentLinkedQueue<ChangeRequest>();
+
+        // Data send over a socket is cached here before hand, the selector thread will take it later for physical send
+        final ConcurrentHashMap<SocketChannel, PendingWrites> pendingData =
+        		new ConcurrentHashMap<SocketChannel, PendingWrites>();
+
+        // Writes held back by the batching window, in due order as the window is the same for all
+        private final Queue<ChangeRequest> deferredWrites = new ArrayDeque<ChangeRequest>();
+
+        private final ByteBuffer[] gathered = new ByteBuffer[MAX_GATHERED_BUFFERS];
+
+        final AtomicInteger connections = new AtomicInteger();
+
         public ProcessorTask() {
+        	this(NioTcpMessageProcessor.this.selector);
+        }
+
+        public ProcessorTask(Selector selector) {
+        	this.selector = selector;
         }
         
         public void read(SelectionKey selectionKey) {
@@ -147,7 +273,7 @@ public class NioTcpMessageProcessor extends ConnectionOrientedMessageProcessor {
             		logger.logDebug("Dead socketChannel" + socketChannel + " socket " + socketChannel.socket().getInetAddress() + ":"+socketChannel.socket().getPort());
             	selectionKey.cancel();
             	// https://java.net/jira/browse/JSIP-475 remove the socket from the hashmap
-            	pendingData.remove(socketChannel);
+            	releaseIoTask(socketChannel);
             	return;
             }
             
@@ -166,51 +292,86 @@ public class NioTcpMessageProcessor extends ConnectionOrientedMessageProcessor {
             		logger.logDebug("Dead socketChannel" + socketChannel + " socket " + socketChannel.socket().getInetAddress() + ":"+socketChannel.socket().getPort());
             	selectionKey.cancel();
             	// https://java.net/jira/browse/JSIP-475 remove the socket from the hashmap
-            	pendingData.remove(socketChannel);
+            	releaseIoTask(socketChannel);
             	return;
             }
           	
-        	synchronized (pendingData) {
-        		List<ByteBuffer> queue = pendingData.get(socketChannel);
-        		if(logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
-        			logger.logDebug("Queued items for writing " + queue.size());
-        		while (!queue.isEmpty()) {
-        			ByteBuffer buf = queue.get(0);
-        			
-        			try {
-						socketChannel.write(buf);
-					} catch (IOException e) {
-						if(logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
-		            		logger.logDebug("Dead socketChannel" + socketChannel + " socket " + socketChannel.socket().getInetAddress() + ":"+socketChannel.socket().getPort() + " : error message " + e.getMessage());
-						nioTcpMessageChannel.close();
-						// Shall we perform a retry mechanism in case the remote host connection was closed due to a TCP RST ?
-						// https://java.net/jira/browse/JSIP-475 in the meanwhile remove the data from the hashmap
-						queue.remove(0); 
-						pendingData.remove(socketChannel);
-						return;
-					}
-
-        			int remain = buf.remaining();
-        			
-        			if (remain > 0) {
-        				// ... or the socket's buffer fills up
-        				if(logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
-        					logger.logDebug("Socket buffer filled and more is remaining" + queue.size() + " remain = " + remain);
-        				break;
-        			}
-        			queue.remove(0);
+        	// Only this selector thread takes from the queue, senders just append to it
+        	PendingWrites writes = pendingData.get(socketChannel);
+        	if(writes == null) {
+        		selectionKey.interestOps(SelectionKey.OP_READ);
+        		return;
+        	}
+        	// Senders queueing from now on ask for another write
+        	writes.writeRequested.set(false);
+        	Queue<ByteBuffer> queue = writes.buffers;
+        	if(logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
+        		logger.logDebug("Queued items for writing " + queue.size());
+        	while (true) {
+        		// Coalesce the queued messages into a single gathering write
+        		int count = 0;
+        		for (Iterator<ByteBuffer> it = queue.iterator(); it.hasNext() && count < gathered.length; ) {
+        			gathered[count++] = it.next();
+        		}
+        		if (count == 0) {
+        			break;
+        		}
+        		try {
+        			long written = socketChannel.write(gathered, 0, count);
+        			socketWrites.incrementAndGet();
+        			writes.queuedBytes.addAndGet((int) -written);
+        		} catch (IOException e) {
+        			if(logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
+        				logger.logDebug("Dead socketChannel" + socketChannel + " socket " + socketChannel.socket().getInetAddress() + ":"+socketChannel.socket().getPort() + " : error message " + e.getMessage());
+        			Arrays.fill(gathered, 0, count, null);
+        			nioTcpMessageChannel.close();
+        			// Shall we perform a retry mechanism in case the remote host connection was closed due to a TCP RST ?
+        			// https://java.net/jira/browse/JSIP-475 in the meanwhile remove the data from the hashmap
+        			releaseIoTask(socketChannel);
+        			return;
+        		}
+        		ByteBuffer last = gathered[count - 1];
+        		Arrays.fill(gathered, 0, count, null);
+        		ByteBuffer buf;
+        		while ((buf = queue.peek()) != null && !buf.hasRemaining()) {
+        			queue.poll();
         		}
 
-        		if (queue.isEmpty()) {
+        		if (last.hasRemaining()) {
+        			// ... or the socket's buffer fills up
         			if(logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
-        				logger.logDebug("We wrote away all data. Setting READ interest. Queue is emtpy now size =" + queue.size());
-        			selectionKey.interestOps(SelectionKey.OP_READ);
+        				logger.logDebug("Socket buffer filled and more is remaining" + queue.size() + " remain = " + last.remaining());
+        			break;
         		}
         	}
+
+        	// A sender appending after this check also queues a CHANGEOPS that sets OP_WRITE again on the next cycle
+        	if (queue.isEmpty()) {
+        		if(logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
+        			logger.logDebug("We wrote away all data. Setting READ interest. Queue is emtpy now size =" + queue.size());
+        		selectionKey.interestOps(SelectionKey.OP_READ);
+        	}
         	if(logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
         		logger.logDebug("Done writing");
         }
         
+        // Ask for the writes whose batching window is over, returns the time to wait for the next one, 0 if there is none
+        private long dueDeferredWrites() {
+        	ChangeRequest change;
+        	long now = System.currentTimeMillis();
+        	while ((change = deferredWrites.peek()) != null) {
+        		if (change.due > now) {
+        			return change.due - now;
+        		}
+        		deferredWrites.poll();
+        		SelectionKey key = change.socket.keyFor(selector);
+        		if(key != null && key.isValid()) {
+        			key.interestOps(change.ops);
+        		}
+        	}
+        	return 0;
+        }
+        
         public void connect(SelectionKey selectionKey) throws IOException {
         	// Ignoring the advice from http://rox-xmlrpc.sourceforge.net/niotut/ because it leads to spinning on my machine
         	throw new IOException("We should use blocking connect, we must never reach here");
@@ -245,10 +406,15 @@ public class NioTcpMessageProcessor extends ConnectionOrientedMessageProcessor {
         	 
         	 createMessageChannel(NioTcpMessageProcessor.this, client);
         	 
+        	 ProcessorTask task = assignIoTask(client);
         	 if(logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
-        		 logger.logDebug("Adding to selector " + client);
-        	 client.register(selector, SelectionKey.OP_READ);
-        	 
+        		 logger.logDebug("Adding to selector " + client + " selector = " + task.selector);
+        	 if(task == this) {
+        		 client.register(selector, SelectionKey.OP_READ);
+        	 } else {
+        		 task.changeRequests.offer(new ChangeRequest(client, ChangeRequest.REGISTER, SelectionKey.OP_READ));
+        		 task.selector.wakeup();
+        	 }
         }
         @Override
         public void run() {
@@ -256,38 +422,39 @@ public class NioTcpMessageProcessor extends ConnectionOrientedMessageProcessor {
         		if(logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
         			logger.logDebug("Selector thread cycle begin...");
         		}
-        		synchronized(changeRequests) {
-        			for (ChangeRequest change: changeRequests) {
-        				if(logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
-        					logger.logDebug("ChangeRequest " + change + " selector = " + selector);
-        				try {
-        					switch(change.type) {
-        					case ChangeRequest.CHANGEOPS:
-        						SelectionKey key = change.socket.keyFor(selector);
-        						if(key == null || !key.isValid()) continue;
-        						key.interestOps(change.ops);
+        		ChangeRequest change;
+        		while ((change = changeRequests.poll()) != null) {
+        			if(logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
+        				logger.logDebug("ChangeRequest " + change + " selector = " + selector);
+        			try {
+        				switch(change.type) {
+        				case ChangeRequest.CHANGEOPS:
+        					SelectionKey key = change.socket.keyFor(selector);
+        					if(key == null || !key.isValid()) continue;
+        					key.interestOps(change.ops);
+        					if(logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+        						logger.logDebug("Change opts " + change + " selector = " + selector + " key = " + key + " blocking=" + change.socket.isBlocking());
+        					}
+        					break;
+        				case ChangeRequest.DEFERRED_CHANGEOPS:
+        					deferredWrites.offer(change);
+        					break;
+        				case ChangeRequest.REGISTER:
+        					try {
+        						
         						if(logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
-        							logger.logDebug("Change opts " + change + " selector = " + selector + " key = " + key + " blocking=" + change.socket.isBlocking());
+        							logger.logDebug("NIO register " + change + " selector = " + selector + " blocking=" + change.socket.isBlocking());
         						}
-        						break;
-        					case ChangeRequest.REGISTER:
-        						try {
-        							
-        							if(logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
-        								logger.logDebug("NIO register " + change + " selector = " + selector + " blocking=" + change.socket.isBlocking());
-        							}
             						
-        							change.socket.register(selector, change.ops);
-        						} catch (ClosedChannelException e) {
-        							logger.logWarning("Socket closed before register ops " + change.socket);
-        						}
-        						break;
+        						change.socket.register(selector, change.ops);
+        					} catch (ClosedChannelException e) {
+        						logger.logWarning("Socket closed before register ops " + change.socket);
         					}
-        				} catch (Exception e) {
-        					logger.logError("Problem setting changes", e);
+        					break;
         				}
+        			} catch (Exception e) {
+        				logger.logError("Problem setting changes", e);
         			}
-    				changeRequests.clear(); 
         		}
         		try {
         			if(logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
@@ -299,7 +466,12 @@ public class NioTcpMessageProcessor extends ConnectionOrientedMessageProcessor {
                         }
                         return;
                     } else {
-                        selector.select();
+                        long nextDeferredWrite = dueDeferredWrites();
+                        if (nextDeferredWrite > 0) {
+                            selector.select(nextDeferredWrite);
+                        } else {
+                            selector.select();
+                        }
                         if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
                             logger.logDebug("After select");
                         }
@@ -391,7 +563,7 @@ public class NioTcpMessageProcessor extends ConnectionOrientedMessageProcessor {
     		if (messageChannels.get(key) != null) {
     			return this.messageChannels.get(key);
     		} else {
-    			NioTcpMessageChannel retval = new NioTcpMessageChannel(targetHostPort.getInetAddress(),
+    			NioTcpMessageChannel retval = new NioTcpMessageChannel(getInetAddress(targetHostPort),
     					targetHostPort.getPort(), sipStack, this);
     			
     			
@@ -443,7 +615,7 @@ public class NioTcpMessageProcessor extends ConnectionOrientedMessageProcessor {
     	if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
             logger.logDebug(Thread.currentThread() + " removing " + ((NioTcpMessageChannel)messageChannel).getSocketChannel() + " from processor " + getIpAddress()+ ":" + getPort() + "/" + getTransport());
         }
-    	pendingData.remove(((NioTcpMessageChannel)messageChannel).getSocketChannel());
+    	releaseIoTask(((NioTcpMessageChannel)messageChannel).getSocketChannel());
     	super.remove(messageChannel);
     }
     
@@ -467,15 +639,33 @@ public class NioTcpMessageProcessor extends ConnectionOrientedMessageProcessor {
         InetSocketAddress isa  = new InetSocketAddress(super.getIpAddress(), super.getPort());
         channel.socket().bind(isa);
         channel.register(selector, SelectionKey.OP_ACCEPT);
-        selectorThread = new Thread(createProcessorTask());
+        ProcessorTask acceptorTask = createProcessorTask();
+        String threadName = "NioSelector-" + getTransport() + '-' + getIpAddress().getHostAddress() + '/' + getPort();
+        int selectorThreads = sipStack.getNioSelectorThreads();
+        if(selectorThreads > 1) {
+        	ioTasks = new ProcessorTask[selectorThreads];
+        	for(int i = 0; i < selectorThreads; i++) {
+        		ioTasks[i] = createProcessorTask(Selector.open());
+        		Thread ioThread = new Thread(ioTasks[i]);
+        		ioThread.setName(threadName + '-' + i);
+        		ioThread.start();
+        	}
+        } else {
+        	ioTasks = new ProcessorTask[] {acceptorTask};
+        }
+        selectorThread = new Thread(acceptorTask);
         selectorThread.start();
-        selectorThread.setName("NioSelector-" + getTransport() + '-' + getIpAddress().getHostAddress() + '/' + getPort());
+        selectorThread.setName(threadName);
     }
     
     protected ProcessorTask createProcessorTask() {
     	return new ProcessorTask();
     }
 
+    protected ProcessorTask createProcessorTask(Selector selector) {
+    	return new ProcessorTask(selector);
+    }
+
     @Override
     public void stop() {
     	try {
@@ -486,6 +676,15 @@ public class NioTcpMessageProcessor extends ConnectionOrientedMessageProcessor {
     	} catch (Exception ex) {
     		logger.logError("Problem closing channel " , ex);
     	}
+    	for(ProcessorTask task : ioTasks == null ? new ProcessorTask[0] : ioTasks) {
+    		try {
+    			if(task.selector.isOpen()) {
+    				task.selector.close();
+    			}
+    		} catch (Exception ex) {
+    			logger.logError("Problem closing selector " , ex);
+    		}
+    	}
         try {
             channel.close();
         } catch (Exception ex) {
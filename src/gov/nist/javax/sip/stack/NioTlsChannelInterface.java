@@ -43,17 +43,23 @@ public interface NioTlsChannelInterface {
 	 */
 	void sendEncryptedData(byte[] msg) throws IOException ;
 	/**
-	 * Initialize the buffer again.
+	 * Initialize the buffer again. The buffer is leased from the
+	 * {@link ByteBufferFactory} pool and released by the caller once the
+	 * decrypted data has been consumed.
 	 * @return
 	 */
 	ByteBuffer prepareAppDataBuffer();
 	/**
-	 * Initialize the buffer again.
+	 * Initialize a bigger buffer when the decrypted data overflows the current
+	 * one. The buffer is leased from the {@link ByteBufferFactory} pool like
+	 * the default one.
 	 * @return
 	 */
 	ByteBuffer prepareAppDataBuffer(int capacity);
 	/**
-	 * Initialize the buffer again.
+	 * Initialize the buffer to encrypt into. The buffer is leased from the
+	 * {@link ByteBufferFactory} pool and released by the
+	 * {@link SSLStateMachine} once the records have been sent.
 	 * @return
 	 */
 	ByteBuffer prepareEncryptedDataBuffer();
@@ -73,4 +79,10 @@ public interface NioTlsChannelInterface {
 	 * @return
 	 */
 	ClientTransactionExt getEncapsulatedClientTransaction();
+	/**
+	 * Called once the TLS handshake of the channel is over, to count it on
+	 * the listening point
+	 * @param resumed true if the handshake resumed a cached session
+	 */
+	void handshakeFinished(boolean resumed);
 }
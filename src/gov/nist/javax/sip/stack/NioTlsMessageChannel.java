@@ -87,7 +87,8 @@ public class NioTlsMessageChannel extends NioTcpMessageChannel implements NioTls
         SSLContext ctx = clientMode ?
                 ((NioTlsMessageProcessor)messageProcessor).sslClientCtx :
                 ((NioTlsMessageProcessor)messageProcessor).sslServerCtx;
-		sslStateMachine = new SSLStateMachine(ctx.createSSLEngine(), this);
+		sslStateMachine = new SSLStateMachine(
+				NioTlsMessageProcessor.createSSLEngine(ctx, clientMode, peerAddress, peerPort), this);
 
         sslStateMachine.sslEngine.setUseClientMode(clientMode);
         String auth = ((SipStackImpl)super.sipStack).
@@ -117,15 +118,15 @@ public class NioTlsMessageChannel extends NioTcpMessageChannel implements NioTls
 	}
 	
 	public ByteBuffer prepareEncryptedDataBuffer() {
-		return ByteBufferFactory.getInstance().allocateDirect(netBufferMax);
+		return ByteBufferFactory.getInstance().leaseDirect(netBufferMax);
 	}
 	
 	public ByteBuffer prepareAppDataBuffer() {
-		return ByteBufferFactory.getInstance().allocateDirect(appBufferMax);
+		return ByteBufferFactory.getInstance().leaseDirect(appBufferMax);
 	}
 	
 	public ByteBuffer prepareAppDataBuffer(int capacity) {
-		return ByteBufferFactory.getInstance().allocateDirect(capacity);
+		return ByteBufferFactory.getInstance().leaseDirect(capacity);
 	}
 	
 	public static class SSLReconnectedException extends IOException {
@@ -137,15 +138,7 @@ public class NioTlsMessageChannel extends NioTcpMessageChannel implements NioTls
 		
 		ByteBuffer b = ByteBuffer.wrap(msg);
 		try {
-			sslStateMachine.wrap(b, ByteBufferFactory.getInstance().allocateDirect(netBufferMax), new MessageSendCallback() {
-
-				@Override
-				public void doSend(byte[] bytes) throws IOException {
-					
-						NioTlsMessageChannel.super.sendMessage(bytes, isClient);
-					
-				}
-			});
+			sslStateMachine.wrap(b, prepareEncryptedDataBuffer(), new ConnectionSendCallback(isClient));
 		} catch (Exception e) {
 			throw new IOException("Can't send message", e);
 		}
@@ -173,19 +166,83 @@ public class NioTlsMessageChannel extends NioTcpMessageChannel implements NioTls
 		
 		ByteBuffer b = ByteBuffer.wrap(message);
 		try {
-			sslStateMachine.wrap(b, ByteBufferFactory.getInstance().allocateDirect(netBufferMax), new MessageSendCallback() {
-				
-				@Override
-				public void doSend(byte[] bytes) throws IOException {
-					NioTlsMessageChannel.super.sendMessage(bytes,
-							receiverAddress, receiverPort, retry);
-					
-				}
-			});
+			sslStateMachine.wrap(b, prepareEncryptedDataBuffer(), 
+					new TargetSendCallback(receiverAddress, receiverPort, retry));
 		} catch (IOException e) {
 			throw e;
 		}
 	}
+	/**
+	 * Sends the records over the connection of the channel, as a client or
+	 * as a server. The messages sent the same way may share TLS records.
+	 */
+	private class ConnectionSendCallback implements MessageSendCallback {
+		private final boolean isClient;
+
+		ConnectionSendCallback(boolean isClient) {
+			this.isClient = isClient;
+		}
+
+		public void doSend(byte[] bytes) throws IOException {
+			NioTlsMessageChannel.super.sendMessage(bytes, isClient);
+		}
+
+		private NioTlsMessageChannel getChannel() {
+			return NioTlsMessageChannel.this;
+		}
+
+		public boolean equals(Object other) {
+			if (!(other instanceof ConnectionSendCallback)) {
+				return false;
+			}
+			ConnectionSendCallback that = (ConnectionSendCallback) other;
+			return that.getChannel() == getChannel() && that.isClient == isClient;
+		}
+
+		public int hashCode() {
+			return isClient ? 1 : 0;
+		}
+	}
+
+	/**
+	 * Sends the records to the given target. The messages sent to the same
+	 * target with the same retry option may share TLS records.
+	 */
+	private class TargetSendCallback implements MessageSendCallback {
+		private final InetAddress receiverAddress;
+		private final int receiverPort;
+		private final boolean retry;
+
+		TargetSendCallback(InetAddress receiverAddress, int receiverPort, boolean retry) {
+			this.receiverAddress = receiverAddress;
+			this.receiverPort = receiverPort;
+			this.retry = retry;
+		}
+
+		public void doSend(byte[] bytes) throws IOException {
+			NioTlsMessageChannel.super.sendMessage(bytes,
+					receiverAddress, receiverPort, retry);
+		}
+
+		private NioTlsMessageChannel getChannel() {
+			return NioTlsMessageChannel.this;
+		}
+
+		public boolean equals(Object other) {
+			if (!(other instanceof TargetSendCallback)) {
+				return false;
+			}
+			TargetSendCallback that = (TargetSendCallback) other;
+			return that.getChannel() == getChannel() && that.receiverPort == receiverPort
+					&& that.retry == retry && (receiverAddress == null ? that.receiverAddress == null
+							: receiverAddress.equals(that.receiverAddress));
+		}
+
+		public int hashCode() {
+			return (receiverAddress == null ? 0 : receiverAddress.hashCode()) ^ receiverPort;
+		}
+	}
+
 	 protected void createBuffers() {
 
 	        SSLSession session = sslStateMachine.sslEngine.getSession();
@@ -218,6 +275,15 @@ public class NioTlsMessageChannel extends NioTcpMessageChannel implements NioTls
 		ByteBuffer buffer = ByteBuffer.wrap(bytes);
 		sslStateMachine.unwrap(buffer);
 	}
+
+	@Override
+	protected void addBytes(ByteBuffer buffer) throws Exception {
+		if(logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+			logger.logDebug("Adding TLS bytes for decryption " + buffer.remaining());
+		}
+		if(!buffer.hasRemaining()) return;
+		sslStateMachine.unwrap(buffer);
+	}
 	
 	@Override
 	public String getTransport() {
@@ -297,4 +363,8 @@ public class NioTlsMessageChannel extends NioTcpMessageChannel implements NioTls
 	public SipStackImpl getSIPStack() {
 		return (SipStackImpl) super.getSIPStack();
 	}
+
+	public void handshakeFinished(boolean resumed) {
+		((NioTlsMessageProcessor) messageProcessor).handshakeFinished(resumed);
+	}
 }
@@ -32,6 +32,8 @@ import gov.nist.core.LogWriter;
 import gov.nist.core.StackLogger;
 
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 
@@ -41,6 +43,7 @@ import java.net.InetAddress;
 import java.nio.channels.SocketChannel;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class NioTlsMessageProcessor extends NioTcpMessageProcessor{
 
@@ -69,6 +72,9 @@ public class NioTlsMessageProcessor extends NioTcpMessageProcessor{
     SSLContext sslServerCtx;
     SSLContext sslClientCtx;
 
+    private final AtomicLong fullHandshakes = new AtomicLong();
+    private final AtomicLong resumedHandshakes = new AtomicLong();
+
 	public NioTlsMessageProcessor(InetAddress ipAddress,
 			SIPTransactionStack sipStack, int port) {
 		super(ipAddress, sipStack, port);
@@ -98,7 +104,7 @@ public class NioTlsMessageProcessor extends NioTcpMessageProcessor{
     			retval = (NioTlsMessageChannel) this.messageChannels.get(key);
     			return retval;
     		} else {
-    			retval = new NioTlsMessageChannel(targetHostPort.getInetAddress(),
+    			retval = new NioTlsMessageChannel(getInetAddress(targetHostPort),
     					targetHostPort.getPort(), sipStack, this);
     			
     		//	retval.getSocketChannel().register(selector, SelectionKey.OP_READ);
@@ -174,6 +180,55 @@ public class NioTlsMessageProcessor extends NioTcpMessageProcessor{
                      null);
 
         }
+        configureSessionContexts(sipStack, sslServerCtx, sslClientCtx);
+    }
+
+    /**
+     * Apply the TLS session cache size and timeout of the stack to the server
+     * and client session caches of the contexts.
+     */
+    static void configureSessionContexts(SIPTransactionStack sipStack, SSLContext serverCtx, SSLContext clientCtx) {
+        SSLSessionContext[] sessionContexts = new SSLSessionContext[] {
+                serverCtx.getServerSessionContext(), clientCtx.getClientSessionContext() };
+        for (SSLSessionContext sessionContext : sessionContexts) {
+            if (sipStack.getTlsSessionCacheSize() >= 0) {
+                sessionContext.setSessionCacheSize(sipStack.getTlsSessionCacheSize());
+            }
+            if (sipStack.getTlsSessionTimeout() >= 0) {
+                sessionContext.setSessionTimeout(sipStack.getTlsSessionTimeout());
+            }
+        }
+    }
+
+    /**
+     * Create the engine of a connection. Client engines are given the peer
+     * so that they can resume the session cached for it.
+     */
+    static SSLEngine createSSLEngine(SSLContext ctx, boolean clientMode, InetAddress peerAddress, int peerPort) {
+        if (clientMode && peerAddress != null && peerPort > 0) {
+            return ctx.createSSLEngine(peerAddress.getHostAddress(), peerPort);
+        }
+        return ctx.createSSLEngine();
+    }
+
+    void handshakeFinished(boolean resumed) {
+        (resumed ? resumedHandshakes : fullHandshakes).incrementAndGet();
+    }
+
+    /**
+     * @return the number of TLS handshakes of the connections of this
+     *         listening point that negotiated a new session.
+     */
+    public long getFullHandshakes() {
+        return fullHandshakes.get();
+    }
+
+    /**
+     * @return the number of TLS handshakes of the connections of this
+     *         listening point that resumed a cached session.
+     */
+    public long getResumedHandshakes() {
+        return resumedHandshakes.get();
     }
 
 }
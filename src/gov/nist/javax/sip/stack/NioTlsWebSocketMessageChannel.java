@@ -87,7 +87,8 @@ public class NioTlsWebSocketMessageChannel extends NioWebSocketMessageChannel im
         SSLContext ctx = clientMode ?
         		((NioTlsWebSocketMessageProcessor)messageProcessor).sslClientCtx:
                 ((NioTlsWebSocketMessageProcessor)messageProcessor).sslServerCtx;
-		sslStateMachine = new SSLStateMachine(ctx.createSSLEngine(), this);
+		sslStateMachine = new SSLStateMachine(
+				NioTlsMessageProcessor.createSSLEngine(ctx, clientMode, peerAddress, peerPort), this);
 
         sslStateMachine.sslEngine.setUseClientMode(clientMode);
         String auth = ((SipStackImpl)super.sipStack).
@@ -105,15 +106,15 @@ public class NioTlsWebSocketMessageChannel extends NioWebSocketMessageChannel im
 	}
 	
 	public ByteBuffer prepareEncryptedDataBuffer() {
-		return ByteBufferFactory.getInstance().allocateDirect(netBufferMax);
+		return ByteBufferFactory.getInstance().leaseDirect(netBufferMax);
 	}
 	
 	public ByteBuffer prepareAppDataBuffer() {
-		return ByteBufferFactory.getInstance().allocateDirect(appBufferMax);
+		return ByteBufferFactory.getInstance().leaseDirect(appBufferMax);
 	}
 	
 	public ByteBuffer prepareAppDataBuffer(int capacity) {
-		return ByteBufferFactory.getInstance().allocateDirect(capacity);
+		return ByteBufferFactory.getInstance().leaseDirect(capacity);
 	}
 	
 	public static class SSLReconnectedException extends IOException {
@@ -123,9 +124,9 @@ public class NioTlsWebSocketMessageChannel extends NioWebSocketMessageChannel im
 	protected void sendMessage(final byte[] msg, final boolean isClient) throws IOException {
 		checkSocketState();
 
-		ByteBuffer b = ByteBuffer.wrap(NioWebSocketMessageChannel.wrapBufferIntoWebSocketFrame(msg, client));
+		ByteBuffer b = ByteBuffer.wrap(wrapIntoWebSocketFrame(msg));
 		try {
-			sslStateMachine.wrap(b, ByteBufferFactory.getInstance().allocateDirect(netBufferMax), new MessageSendCallback() {
+			sslStateMachine.wrap(b, prepareEncryptedDataBuffer(), new MessageSendCallback() {
 
 				@Override
 				public void doSend(byte[] bytes) throws IOException {
@@ -156,9 +157,9 @@ public class NioTlsWebSocketMessageChannel extends NioWebSocketMessageChannel im
 			final int receiverPort, final boolean retry) throws IOException {
 		checkSocketState();
 		
-		ByteBuffer b = ByteBuffer.wrap(NioWebSocketMessageChannel.wrapBufferIntoWebSocketFrame(message, client));
+		ByteBuffer b = ByteBuffer.wrap(wrapIntoWebSocketFrame(message));
 		try {
-			sslStateMachine.wrap(b, ByteBufferFactory.getInstance().allocateDirect(netBufferMax), new MessageSendCallback() {
+			sslStateMachine.wrap(b, prepareEncryptedDataBuffer(), new MessageSendCallback() {
 				
 				@Override
 				public void doSend(byte[] bytes) throws IOException {
@@ -194,7 +195,7 @@ public class NioTlsWebSocketMessageChannel extends NioWebSocketMessageChannel im
 				
 				ByteBuffer b = ByteBuffer.wrap(http.getBytes());
 				try {
-					sslStateMachine.wrap(b, ByteBufferFactory.getInstance().allocateDirect(netBufferMax), new MessageSendCallback() {
+					sslStateMachine.wrap(b, prepareEncryptedDataBuffer(), new MessageSendCallback() {
 
 						@Override
 						public void doSend(byte[] bytes) throws IOException {
@@ -202,10 +203,10 @@ public class NioTlsWebSocketMessageChannel extends NioWebSocketMessageChannel im
 									receiverAddress, receiverPort, false);
 
 							byte[] wsM = sipMessage.toString().getBytes();
-							byte[] wsMessage = NioWebSocketMessageChannel.wrapBufferIntoWebSocketFrame(wsM, client);
+							byte[] wsMessage = wrapIntoWebSocketFrame(wsM);
 							ByteBuffer b = ByteBuffer.wrap(wsMessage);
 							try {
-								sslStateMachine.wrap(b, ByteBufferFactory.getInstance().allocateDirect(netBufferMax), new MessageSendCallback() {
+								sslStateMachine.wrap(b, prepareEncryptedDataBuffer(), new MessageSendCallback() {
 
 									@Override
 									public void doSend(byte[] bytes) throws IOException {
@@ -236,7 +237,7 @@ public class NioTlsWebSocketMessageChannel extends NioWebSocketMessageChannel im
 		
 		ByteBuffer b = ByteBuffer.wrap(message);
 		try {
-			sslStateMachine.wrap(b, ByteBufferFactory.getInstance().allocateDirect(netBufferMax), new MessageSendCallback() {
+			sslStateMachine.wrap(b, prepareEncryptedDataBuffer(), new MessageSendCallback() {
 				
 				@Override
 				public void doSend(byte[] bytes) throws IOException {
@@ -281,6 +282,15 @@ public class NioTlsWebSocketMessageChannel extends NioWebSocketMessageChannel im
 		ByteBuffer buffer = ByteBuffer.wrap(bytes);
 		sslStateMachine.unwrap(buffer);
 	}
+
+	@Override
+	protected void addBytes(ByteBuffer buffer) throws Exception {
+		if(logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+			logger.logDebug("Adding WSS bytes for decryption " + buffer.remaining());
+		}
+		if(!buffer.hasRemaining()) return;
+		sslStateMachine.unwrap(buffer);
+	}
 	
 	@Override
 	protected void sendNonWebSocketMessage(byte[] msg, final boolean isClient) throws IOException {
@@ -298,7 +308,7 @@ public class NioTlsWebSocketMessageChannel extends NioWebSocketMessageChannel im
 
 		ByteBuffer b = ByteBuffer.wrap(msg);
 		try {
-			sslStateMachine.wrap(b, ByteBufferFactory.getInstance().allocateDirect(netBufferMax), new MessageSendCallback() {
+			sslStateMachine.wrap(b, prepareEncryptedDataBuffer(), new MessageSendCallback() {
 
 				@Override
 				public void doSend(byte[] bytes) throws IOException {
@@ -363,4 +373,8 @@ public class NioTlsWebSocketMessageChannel extends NioWebSocketMessageChannel im
 	public SipStackImpl getSIPStack() {
 		return (SipStackImpl) super.getSIPStack();
 	}
+
+	public void handshakeFinished(boolean resumed) {
+		((NioTlsWebSocketMessageProcessor) messageProcessor).handshakeFinished(resumed);
+	}
 }
@@ -37,6 +37,7 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.nio.channels.SocketChannel;
 import java.security.cert.CertificateException;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class NioTlsWebSocketMessageProcessor extends NioWebSocketMessageProcessor {
 
@@ -45,6 +46,9 @@ public class NioTlsWebSocketMessageProcessor extends NioWebSocketMessageProcesso
     SSLContext sslServerCtx;
     SSLContext sslClientCtx;
 
+    private final AtomicLong fullHandshakes = new AtomicLong();
+    private final AtomicLong resumedHandshakes = new AtomicLong();
+
 	public NioTlsWebSocketMessageProcessor(InetAddress ipAddress,
 			SIPTransactionStack sipStack, int port) {
 		super(ipAddress, sipStack, port);
@@ -77,7 +81,7 @@ public class NioTlsWebSocketMessageProcessor extends NioWebSocketMessageProcesso
     			retval = (NioTlsWebSocketMessageChannel) this.messageChannels.get(key);
     			return retval;
     		} else {
-    			retval = new NioTlsWebSocketMessageChannel(targetHostPort.getInetAddress(),
+    			retval = new NioTlsWebSocketMessageChannel(getInetAddress(targetHostPort),
     					targetHostPort.getPort(), sipStack, this);
     			
     		//	retval.getSocketChannel().register(selector, SelectionKey.OP_READ);
@@ -139,7 +143,27 @@ public class NioTlsWebSocketMessageProcessor extends NioWebSocketMessageProcesso
         sslClientCtx.init(sipStack.securityManagerProvider.getKeyManagers(true),
                 sipStack.securityManagerProvider.getTrustManagers(true),
                 null);
+        NioTlsMessageProcessor.configureSessionContexts(sipStack, sslServerCtx, sslClientCtx);
+    }
+
+    void handshakeFinished(boolean resumed) {
+        (resumed ? resumedHandshakes : fullHandshakes).incrementAndGet();
+    }
+
+    /**
+     * @return the number of TLS handshakes of the connections of this
+     *         listening point that negotiated a new session.
+     */
+    public long getFullHandshakes() {
+        return fullHandshakes.get();
+    }
 
+    /**
+     * @return the number of TLS handshakes of the connections of this
+     *         listening point that resumed a cached session.
+     */
+    public long getResumedHandshakes() {
+        return resumedHandshakes.get();
     }
 
 }
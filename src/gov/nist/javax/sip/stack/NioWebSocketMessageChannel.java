@@ -34,7 +34,6 @@ import gov.nist.javax.sip.header.RecordRoute;
 import gov.nist.javax.sip.message.SIPMessage;
 import gov.nist.javax.sip.message.SIPRequest;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
@@ -82,6 +81,7 @@ public class NioWebSocketMessageChannel extends NioTcpMessageChannel{
 
 		messageProcessor = nioTcpMessageProcessor;
 		myClientInputStream = socketChannel.socket().getInputStream();
+		codec.setMaxMessageSize(sipStack.getMaxMessageSize());
 	}
 	
 	@Override
@@ -123,9 +123,17 @@ public class NioWebSocketMessageChannel extends NioTcpMessageChannel{
 		return null;
 	}
 
+	/**
+	 * Frame a message for this connection, deflated if the connection
+	 * negotiated permessage-deflate.
+	 */
+	protected byte[] wrapIntoWebSocketFrame(byte[] buffer) {
+		return codec.encode(buffer, client);
+	}
+
 	public void sendWrapped(byte message[], InetAddress receiverAddress,
 			int receiverPort, boolean retry) throws IOException {
-		message = wrapBufferIntoWebSocketFrame(message, client);
+		message = wrapIntoWebSocketFrame(message);
 		super.sendTCPMessage(message, receiverAddress, receiverPort, retry);
 	}
 	
@@ -171,13 +179,13 @@ public class NioWebSocketMessageChannel extends NioTcpMessageChannel{
 		super(inetAddress, port, sipStack, nioTcpMessageProcessor);
 		client = true;
 		this.codec = new WebSocketCodec(false, true);
+		codec.setMaxMessageSize(sipStack.getMaxMessageSize());
 	}
 	
 	@Override
 	protected void addBytes(byte[] bytes) throws Exception {
-		String s = new String(bytes);
-		
 		if(readingHttp) {
+			String s = new String(bytes);
 			byte[] remaining = null;
 			for(int q=0;q<bytes.length-3;q++) {
 				if(bytes[q]=='\r' && bytes[q+1] =='\n' && bytes[q+2]=='\r' && bytes[q+3] =='\n') {
@@ -186,13 +194,17 @@ public class NioWebSocketMessageChannel extends NioTcpMessageChannel{
 					for(int w=0;w<remaining.length;w++) {
 						remaining[w] = bytes[q+4+w];
 					}
+					// the frames that follow may hold blank lines too
+					break;
 				}
 			}
 			httpInput += s;
 			if(s.endsWith("\r\n") || s.endsWith("\n")) {
 				readingHttp = false;
 				if(!httpInput.startsWith("HTTP")) {
-					byte[] response = new WebSocketHttpHandshake().createHttpResponse(s);
+					WebSocketHttpHandshake handshake = new WebSocketHttpHandshake();
+					byte[] response = handshake.createHttpResponse(s, sipStack.isWebSocketPerMessageDeflate());
+					codec.setPerMessageDeflate(handshake.isPerMessageDeflate());
 					sendNonWebSocketMessage(response, false);
 				} else {
 					logger.logDebug("HTTP Response. We are websocket client.\n" + httpInput);
@@ -200,31 +212,43 @@ public class NioWebSocketMessageChannel extends NioTcpMessageChannel{
 			}
 			if(remaining != null) addBytes(remaining);
 			return;
-		} else if(!readingHttp) {
-			ByteArrayInputStream bios = new ByteArrayInputStream(bytes);
-			byte[] decodedMsg = null;
-			do {
-				decodedMsg = codec.decode(bios);
-				
-				// Chrome waits for us to close the socket when it sends a close opcode https://code.google.com/p/chromium/issues/detail?id=388243#c15
-				if(codec.isCloseOpcodeReceived()) {
-					
-					logger.logDebug("Websocket close, sending polite close response");
-					ByteBuffer byteBuff = ByteBuffer.wrap(new byte[]{(byte) 0x88,(byte)0x00});
-					socketChannel.write(byteBuff);// We must skip in the queue, don't use sendNonWebSocketMessage(new byte[]{(byte) 0x88,(byte)0x00}, false);
-					return;
-				}
-
-				if(decodedMsg == null) {
-					return; // the codec can't parse a full websocket frame, we will try again when have more data
-				}
-				nioParser.addBytes(decodedMsg);
-				logger.logDebug("Nio websocket bytes were added " + decodedMsg.length);
-			} while (decodedMsg != null);
-			
 		}
+		addFrameBytes(ByteBuffer.wrap(bytes));
 	}
 	
+	@Override
+	protected void addBytes(ByteBuffer buffer) throws Exception {
+		if(readingHttp) {
+			// the handshake works on arrays, it only comes once per connection
+			byte[] bytes = new byte[buffer.remaining()];
+			buffer.get(bytes);
+			addBytes(bytes);
+			return;
+		}
+		addFrameBytes(buffer);
+	}
+	
+	// Decode the frames straight from the read buffer
+	private void addFrameBytes(ByteBuffer buffer) throws Exception {
+		byte[] decodedMsg;
+		while((decodedMsg = codec.decode(buffer)) != null) {
+			nioParser.addBytes(decodedMsg);
+			logger.logDebug("Nio websocket bytes were added " + decodedMsg.length);
+		}
+		
+		// Chrome waits for us to close the socket when it sends a close opcode https://code.google.com/p/chromium/issues/detail?id=388243#c15
+		if(codec.isCloseOpcodeReceived()) {
+			logger.logDebug("Websocket close, sending polite close response");
+			ByteBuffer byteBuff = ByteBuffer.wrap(new byte[]{(byte) 0x88,(byte)0x00});
+			socketChannel.write(byteBuff);// We must skip in the queue, don't use sendNonWebSocketMessage(new byte[]{(byte) 0x88,(byte)0x00}, false);
+			return;
+		}
+		byte[] pong = codec.takePongFrame();
+		if(pong != null) {
+			sendNonWebSocketMessage(pong, false);
+		}
+	}
+
 	@Override
 	public String getTransport() {
 		return this.messageProcessor.transport;
@@ -60,7 +60,7 @@ public class NioWebSocketMessageProcessor extends NioTcpMessageProcessor {
     		if (messageChannels.get(key) != null) {
     			return this.messageChannels.get(key);
     		} else {
-    			NioWebSocketMessageChannel retval = new NioWebSocketMessageChannel(targetHostPort.getInetAddress(),
+    			NioWebSocketMessageChannel retval = new NioWebSocketMessageChannel(getInetAddress(targetHostPort),
     					targetHostPort.getPort(), sipStack, this);
     			
     			
@@ -243,7 +243,7 @@ public class SIPClientTransactionImpl extends SIPTransactionImpl implements SIPC
       if (isTerminated()) {
 
         try {
-          sipStack.getTimer().cancel(this);
+          cancelTransactionTimer();
 
         } catch (IllegalStateException ex) {
           if (!sipStack.isAlive())
@@ -256,7 +256,7 @@ public class SIPClientTransactionImpl extends SIPTransactionImpl implements SIPC
         // If this transaction has not
         // terminated,
         // Fire the transaction timer.
-        fireTimer();
+        runTransactionTimer();
 
       }
 
@@ -670,13 +670,13 @@ public class SIPClientTransactionImpl extends SIPTransactionImpl implements SIPC
     }
   }
 
-  // avoid re-scheduling the transaction timer every 500ms while we know we have to wait for TIMER_K
+  // the transaction timer is not needed anymore once we know we only have to wait for TIMER_K
   // * 500 ms
   private void scheduleTimerK(long time) {
     if (transactionTimer != null && timerKStarted.compareAndSet(false, true)) {
       synchronized (transactionTimerLock) {
         if (!transactionTimerCancelled) {
-          sipStack.getTimer().cancel(transactionTimer);
+          cancelTransactionTimer();
           transactionTimer = null;
           if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
             logger.logDebug("starting TransactionTimerK() : " + getTransactionId() + " time "
@@ -1426,9 +1426,7 @@ public class SIPClientTransactionImpl extends SIPTransactionImpl implements SIPC
         synchronized (transactionTimerLock) {
           if (!transactionTimerCancelled) {
             transactionTimer = new TransactionTimer();
-            sipStack.getTimer().scheduleWithFixedDelay(transactionTimer,
-                                                       baseTimerInterval,
-                                                       baseTimerInterval);
+            startTransactionTimer(transactionTimer);
           }
         }
       }
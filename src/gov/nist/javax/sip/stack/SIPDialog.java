@@ -62,6 +62,7 @@ import gov.nist.javax.sip.header.SIPHeader;
 import gov.nist.javax.sip.header.TimeStamp;
 import gov.nist.javax.sip.header.To;
 import gov.nist.javax.sip.header.Via;
+import gov.nist.javax.sip.header.ViaList;
 import gov.nist.javax.sip.message.MessageFactoryImpl;
 import gov.nist.javax.sip.message.SIPMessage;
 import gov.nist.javax.sip.message.SIPRequest;
@@ -69,9 +70,17 @@ import gov.nist.javax.sip.message.SIPResponse;
 import gov.nist.javax.sip.parser.AddressParser;
 import gov.nist.javax.sip.parser.CallIDParser;
 import gov.nist.javax.sip.parser.ContactParser;
+import gov.nist.javax.sip.parser.EventParser;
+import gov.nist.javax.sip.parser.ProxyAuthorizationParser;
 import gov.nist.javax.sip.parser.RecordRouteParser;
+import gov.nist.javax.sip.parser.RouteParser;
+import gov.nist.javax.sip.parser.StringMsgParser;
+import gov.nist.javax.sip.parser.ViaParser;
 
 import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.PrintWriter;
 import java.io.Serializable;
 import java.io.StringWriter;
@@ -88,6 +97,7 @@ import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import javax.sip.ClientTransaction;
 import javax.sip.Dialog;
@@ -148,7 +158,9 @@ import javax.sip.message.Response;
 public class SIPDialog implements javax.sip.Dialog, DialogExt {
 	private static StackLogger logger = CommonLogger.getLogger(SIPDialog.class);
 
-    private static final long serialVersionUID = -1429794423085204069L;
+    // changed when the first and last transactions became transient and the
+    // hibernated state was appended, older dialogs cannot be read back
+    private static final long serialVersionUID = -1429794423085204070L;
 
     private transient boolean dialogTerminatedEventDelivered; // prevent
     // duplicate
@@ -186,10 +198,12 @@ public class SIPDialog implements javax.sip.Dialog, DialogExt {
 
     // jeand: needed for reliable response sending but nullifyed right after the
     // ACK has been received or sent to let go of the ref ASAP
-    protected SIPTransaction firstTransaction;
+    // Transactions are bound to their stack and not part of the replicated
+    // state of the dialog.
+    protected transient SIPTransaction firstTransaction;
     // jeand needed for checking 491 but nullifyed right after the ACK has been
     // received or sent to let go of the ref ASAP
-    protected SIPTransaction lastTransaction;
+    protected transient SIPTransaction lastTransaction;
 
     protected String dialogId;
 
@@ -331,6 +345,32 @@ public class SIPDialog implements javax.sip.Dialog, DialogExt {
 
   private transient AckSendingStrategy ackSendingStrategy = new AckSendingStrategyImpl();
 
+    // Time of the last use of the dialog, used to find idle dialogs
+    private transient volatile long lastActivityTime = System.currentTimeMillis();
+
+    // Counts the uses of the dialog state, so that hibernate() can tell that
+    // the state was used while it was being packed
+    private transient volatile int activityCount;
+
+    private static final AtomicIntegerFieldUpdater<SIPDialog> ACTIVITY_COUNT =
+            AtomicIntegerFieldUpdater.newUpdater(SIPDialog.class, "activityCount");
+
+    // The parsed state of an idle dialog, packed by hibernate()
+    private transient volatile HibernatedDialogState hibernatedState;
+
+    // Slots of the fields packed in the hibernated state
+    private static final int LOCAL_PARTY = 0;
+    private static final int REMOTE_PARTY = 1;
+    private static final int REMOTE_TARGET = 2;
+    private static final int CONTACT = 3;
+    private static final int RECORD_ROUTE = 4;
+    private static final int ROUTE = 5;
+    private static final int EVENT = 6;
+    private static final int PROXY_AUTHORIZATION = 7;
+    private static final int LAST_ACK_SENT = 8;
+    private static final int LAST_RESPONSE_VIA = 9;
+    private static final int HIBERNATED_FIELDS = 10;
+
 	
     // //////////////////////////////////////////////////////
     // Inner classes
@@ -353,7 +393,7 @@ public class SIPDialog implements javax.sip.Dialog, DialogExt {
                 throw new SipException(
                         "No listening point for this provider registered at "
                                 + hop);
-            InetAddress inetAddress = InetAddress.getByName(hop.getHost());
+            InetAddress inetAddress = sipStack.getByName(hop.getHost());
             MessageChannel messageChannel = lp.getMessageProcessor()
                     .createMessageChannel(inetAddress, hop.getPort());
                         messageChannel.sendMessage(ackRequest);
@@ -968,6 +1008,7 @@ public class SIPDialog implements javax.sip.Dialog, DialogExt {
      *            -- SIP Message to extract the relevant information from.
      */
     protected void setRemoteParty(SIPMessage sipMessage) {
+        ensureAwake();
 
         if (!isServer()) {
 
@@ -1070,6 +1111,7 @@ public class SIPDialog implements javax.sip.Dialog, DialogExt {
      */
 
     protected void setRemoteTarget(ContactHeader contact) {
+        ensureAwake();
         this.remoteTarget = contact.getAddress();
         if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
             logger.logDebug(
@@ -1087,6 +1129,7 @@ public class SIPDialog implements javax.sip.Dialog, DialogExt {
      *            is the SIP message for which we want to add the route.
      */
     private synchronized void addRoute(SIPResponse sipResponse) {
+        ensureAwake();
 
         try {
             if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
@@ -1158,6 +1201,7 @@ public class SIPDialog implements javax.sip.Dialog, DialogExt {
      * @return -- a cloned copy of the dialog route list.
      */
     private synchronized RouteList getRouteList() {
+        ensureAwake();
         if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
             logger.logDebug("getRouteList " + this);
         // Find the top via in the route list.
@@ -1188,6 +1232,7 @@ public class SIPDialog implements javax.sip.Dialog, DialogExt {
     }
 
     void setRouteList(RouteList routeList) {
+        ensureAwake();
         this.routeList = routeList;
     }
 
@@ -1209,6 +1254,7 @@ public class SIPDialog implements javax.sip.Dialog, DialogExt {
      */
     private void sendAck(Request request, boolean throwIOExceptionAsSipException)
             throws SipException {
+        ensureAwake();
 
         SIPRequest ackRequest = (SIPRequest) request;
         if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
@@ -1537,6 +1583,7 @@ public class SIPDialog implements javax.sip.Dialog, DialogExt {
         this.dialogState = state;
         // Dialog is in terminated state set it up for GC.
         if (state == TERMINATED_STATE) {
+            dropHibernatedState();
             this.removeEventListener(this.getSipProvider());
             if (sipStack.getTimer() != null && sipStack.getTimer().isStarted() ) { // may be null after shutdown
             	if(sipStack.getConnectionLingerTimer() > 0) {
@@ -1613,6 +1660,7 @@ public class SIPDialog implements javax.sip.Dialog, DialogExt {
      * Get the last ACK for this transaction.
      */
     public SIPRequest getLastAckSent() {
+        ensureAwake();
         return this.lastAckSent;
     }
 
@@ -1621,6 +1669,7 @@ public class SIPDialog implements javax.sip.Dialog, DialogExt {
      * NO-OP ( we dont send ACK).
      */
     public boolean isAckSent(long cseqNo) {
+        ensureAwake();
         if (this.getLastTransaction() == null)
             return true;
         if (this.getLastTransaction() instanceof ClientTransaction) {
@@ -1678,6 +1727,7 @@ public class SIPDialog implements javax.sip.Dialog, DialogExt {
      *         established.
      */
     public Iterator getRouteSet() {
+        ensureAwake();
         if (this.routeList == null) {
             return new LinkedList().listIterator();
         } else {
@@ -1691,6 +1741,7 @@ public class SIPDialog implements javax.sip.Dialog, DialogExt {
      * @param sipRequest
      */
     public synchronized void addRoute(SIPRequest sipRequest) {
+        ensureAwake();
         if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
             logger.logDebug(
                     "setContact: dialogState: " + this + "state = "
@@ -1829,6 +1880,7 @@ public class SIPDialog implements javax.sip.Dialog, DialogExt {
      *            is the transaction to add to the dialog.
      */
     public boolean addTransaction(SIPTransaction transaction) {
+        ensureAwake();
 
         SIPRequest sipRequest = (SIPRequest) transaction.getOriginalRequest();
 
@@ -2206,6 +2258,7 @@ public class SIPDialog implements javax.sip.Dialog, DialogExt {
      */
 
     public javax.sip.address.Address getLocalParty() {
+        ensureAwake();
         // jeand : we save the address in a string form and reparse it, help GC
         // for dialogs updated not too often
         if (localParty == null && localPartyStringified != null) {
@@ -2221,6 +2274,7 @@ public class SIPDialog implements javax.sip.Dialog, DialogExt {
     }
 
     protected void setLocalParty(SIPMessage sipMessage) {
+        ensureAwake();
         if (!isServer()) {
             this.localParty = sipMessage.getFrom().getAddress();
         } else {
@@ -2239,6 +2293,7 @@ public class SIPDialog implements javax.sip.Dialog, DialogExt {
      * @return the address object of the remote party.
      */
     public javax.sip.address.Address getRemoteParty() {
+        ensureAwake();
         // jeand : we save the address in a string form and reparse it, help GC
         // for dialogs updated not too often
         if (remoteParty == null && remotePartyStringified != null) {
@@ -2264,6 +2319,7 @@ public class SIPDialog implements javax.sip.Dialog, DialogExt {
      * @see javax.sip.Dialog#getRemoteTarget()
      */
     public javax.sip.address.Address getRemoteTarget() {
+        ensureAwake();
         // jeand : we save the address in a string form and reparse it, help GC
         // for dialogs updated not too often
         if (remoteTarget == null && remoteTargetStringified != null) {
@@ -2316,6 +2372,7 @@ public class SIPDialog implements javax.sip.Dialog, DialogExt {
      * @see javax.sip.Dialog#createRequest(java.lang.String)
      */
     public Request createRequest(String method) throws SipException {
+        ensureAwake();
 
         if (method.equals(Request.ACK) || method.equals(Request.PRACK)) {
             throw new SipException(
@@ -2338,6 +2395,7 @@ public class SIPDialog implements javax.sip.Dialog, DialogExt {
      */
     private SIPRequest createRequest(String method, String topMostViaTransport)
             throws SipException {
+        ensureAwake();
         /*
          * Check if the dialog is in the right state (RFC 3261 section 15). The
          * caller's UA MAY send a BYE for either CONFIRMED or EARLY dialogs, and
@@ -2578,6 +2636,7 @@ public class SIPDialog implements javax.sip.Dialog, DialogExt {
     public void sendRequest(ClientTransaction clientTransaction,
             boolean allowInterleaving) throws TransactionDoesNotExistException,
             SipException {
+        ensureAwake();
 
         if (clientTransaction == null)
             throw new NullPointerException("null parameter");
@@ -2947,6 +3006,7 @@ public class SIPDialog implements javax.sip.Dialog, DialogExt {
      */
     public Request createPrack(Response relResponse)
             throws DialogDoesNotExistException, SipException {
+        ensureAwake();
 
         if (this.getState() == null
                 || this.getState().equals(DialogState.TERMINATED))
@@ -3024,6 +3084,7 @@ public class SIPDialog implements javax.sip.Dialog, DialogExt {
      */
     public Request createAck(long cseqno) throws InvalidArgumentException,
             SipException {
+        ensureAwake();
 
         // JvB: strictly speaking it is allowed to start a dialog with
         // SUBSCRIBE,
@@ -3268,6 +3329,7 @@ public class SIPDialog implements javax.sip.Dialog, DialogExt {
      */
     public void setLastResponse(SIPTransaction transaction,
             SIPResponse sipResponse) {
+        ensureAwake();
         this.callIdHeader = sipResponse.getCallId();
         final int statusCode = sipResponse.getStatusCode();
         if (statusCode == 100) {
@@ -3709,6 +3771,7 @@ public class SIPDialog implements javax.sip.Dialog, DialogExt {
      */
     public Response createReliableProvisionalResponse(int statusCode)
             throws InvalidArgumentException, SipException {
+        ensureAwake();
 
         if (!(firstTransactionIsServerTransaction)) {
             throw new SipException("Not a Server Dialog!");
@@ -3954,10 +4017,11 @@ public class SIPDialog implements javax.sip.Dialog, DialogExt {
      * @return contact header belonging to the dialog.
      */
     public Contact getMyContactHeader() {
+        ensureAwake();
         if (contactHeader == null && contactHeaderStringified != null) {
             try {
-                this.contactHeader = (Contact) new ContactParser(
-                        contactHeaderStringified).parse();
+                this.contactHeader = (Contact) ((ContactList) new ContactParser(
+                        contactHeaderStringified).parse()).getFirst();
             } catch (ParseException e) {
                 logger.logError(
                         "error reparsing the contact header", e);
@@ -4071,6 +4135,7 @@ public class SIPDialog implements javax.sip.Dialog, DialogExt {
     }
     
     boolean takeAckSem() {
+        ensureAwake();
         if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
             logger.logDebug("[takeAckSem " + this + " sem=" + this.ackSem);
         }
@@ -4112,6 +4177,7 @@ public class SIPDialog implements javax.sip.Dialog, DialogExt {
      *            the lastAckSent to set
      */
     private void setLastAckSent(SIPRequest lastAckSent) {
+        ensureAwake();
         this.lastAckSent = lastAckSent;
         this.lastAckSent.setTransaction(null); // null out the associated Tx (release memory)
     }
@@ -4159,6 +4225,7 @@ public class SIPDialog implements javax.sip.Dialog, DialogExt {
      * @return the eventHeader
      */
     EventHeader getEventHeader() {
+        ensureAwake();
         return eventHeader;
     }
 
@@ -4167,6 +4234,7 @@ public class SIPDialog implements javax.sip.Dialog, DialogExt {
      *            the eventHeader to set
      */
     void setEventHeader(EventHeader eventHeader) {
+        ensureAwake();
         this.eventHeader = eventHeader;
     }
 
@@ -4328,7 +4396,236 @@ public class SIPDialog implements javax.sip.Dialog, DialogExt {
         }
     }
 
+    /**
+     * Pack the parsed state of an idle confirmed dialog into a compact block,
+     * in the Java heap or outside of it, and drop the parsed objects and the
+     * references to the transactions of the dialog. The identifiers, tags and
+     * sequence numbers the dialog is looked up with stay as they are. Any use
+     * of the dialog state parses it back first.
+     *
+     * A dialog used while it is being packed is left awake. The caller must
+     * still make sure that no thread is using the dialog when it starts, as
+     * the stack does by only hibernating the dialogs idle for a while.
+     *
+     * @param offHeap true to keep the packed state in a direct buffer.
+     * @return true if the dialog was hibernated, false if it was not
+     *         confirmed, has timers running, a transaction in progress or was
+     *         used meanwhile.
+     */
+    public synchronized boolean hibernate(boolean offHeap) {
+        return hibernate(offHeap, Long.MAX_VALUE);
+    }
+
+    /**
+     * Hibernate the dialog if its state was not used since the given time.
+     */
+    synchronized boolean hibernate(boolean offHeap, long idleSince) {
+        if (hibernatedState != null) {
+            return true;
+        }
+        int activity = activityCount;
+        if (lastActivityTime > idleSince || dialogState != CONFIRMED_STATE || timerTask != null
+                || dialogDeleteTask != null
+                || (dialogDeleteIfNoAckSentTask != null
+                        && highestSequenceNumberAcknowledged < dialogDeleteIfNoAckSentTask.seqno)
+                || (lastTransaction != null
+                        && lastTransaction.getInternalState() != TransactionState._TERMINATED)) {
+            return false;
+        }
+        String[] fields = new String[HIBERNATED_FIELDS];
+        fields[LOCAL_PARTY] = localParty != null ? localParty.toString()
+                : localPartyStringified;
+        fields[REMOTE_PARTY] = remoteParty != null ? remoteParty.toString()
+                : remotePartyStringified;
+        fields[REMOTE_TARGET] = remoteTarget != null ? remoteTarget.toString()
+                : remoteTargetStringified;
+        fields[CONTACT] = headerLine(contactHeader != null ? contactHeader.encode()
+                : contactHeaderStringified);
+        fields[RECORD_ROUTE] = headerLine(originalRequestRecordRouteHeaders != null
+                ? originalRequestRecordRouteHeaders.encode()
+                : originalRequestRecordRouteHeadersString);
+        if (routeList != null && !routeList.isEmpty()) {
+            fields[ROUTE] = headerLine(routeList.encode());
+        }
+        if (eventHeader != null) {
+            fields[EVENT] = headerLine(((SIPHeader) eventHeader).encode());
+        }
+        if (proxyAuthorizationHeader != null) {
+            fields[PROXY_AUTHORIZATION] = headerLine(((SIPHeader) proxyAuthorizationHeader).encode());
+        }
+        if (lastAckSent != null) {
+            fields[LAST_ACK_SENT] = lastAckSent.encode();
+        }
+        if (lastResponseTopMostVia != null) {
+            fields[LAST_RESPONSE_VIA] = headerLine(lastResponseTopMostVia.encode());
+        }
+        hibernatedState = HibernatedDialogState.encode(fields, offHeap);
+        if (activityCount != activity) {
+            // a reader that missed the packed state may be reading the fields,
+            // leave them alone. The readers coming later wake the dialog up
+            // and wait for this method to return.
+            hibernatedState.release();
+            hibernatedState = null;
+            return false;
+        }
+        if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+            logger.logDebug("hibernating dialog " + getDialogId() + " in "
+                    + hibernatedState.size() + " bytes");
+        }
+        if (callIdHeader != null) {
+            callIdHeaderString = callIdHeader.toString();
+            callIdHeader = null;
+        }
+        localParty = null;
+        localPartyStringified = null;
+        remoteParty = null;
+        remotePartyStringified = null;
+        remoteTarget = null;
+        remoteTargetStringified = null;
+        contactHeader = null;
+        contactHeaderStringified = null;
+        originalRequestRecordRouteHeaders = null;
+        originalRequestRecordRouteHeadersString = null;
+        routeList = null;
+        eventHeader = null;
+        proxyAuthorizationHeader = null;
+        lastAckSent = null;
+        lastResponseTopMostVia = null;
+        originalRequest = null;
+        firstTransaction = null;
+        lastTransaction = null;
+        responsesReceivedInForkingCase.clear();
+        return true;
+    }
+
+    /**
+     * The header parsers expect a header line ending with a bare line feed,
+     * as the message parser hands it to them.
+     */
+    private static String headerLine(String encoded) {
+        if (encoded == null) {
+            return null;
+        }
+        return encoded.trim() + "\n";
+    }
+
+    /**
+     * @return true if the state of the dialog is packed by
+     *         {@link #hibernate(boolean)}.
+     */
+    public boolean isHibernated() {
+        return hibernatedState != null;
+    }
+
+    /**
+     * @return the time in milliseconds the dialog state was last used.
+     */
+    long getLastActivityTime() {
+        return lastActivityTime;
+    }
+
+    /**
+     * Record a use of the dialog state and restore it if it is hibernated.
+     */
+    private void ensureAwake() {
+        lastActivityTime = System.currentTimeMillis();
+        // counted before the state is checked, see hibernate()
+        ACTIVITY_COUNT.incrementAndGet(this);
+        if (hibernatedState != null) {
+            wakeUp();
+        }
+    }
+
+    private synchronized void wakeUp() {
+        HibernatedDialogState state = hibernatedState;
+        if (state == null) {
+            return;
+        }
+        String[] fields = state.decode();
+        // these are parsed back lazily by their getters
+        localPartyStringified = fields[LOCAL_PARTY];
+        remotePartyStringified = fields[REMOTE_PARTY];
+        remoteTargetStringified = fields[REMOTE_TARGET];
+        contactHeaderStringified = fields[CONTACT];
+        originalRequestRecordRouteHeadersString = fields[RECORD_ROUTE];
+        try {
+            if (fields[ROUTE] != null) {
+                routeList = (RouteList) new RouteParser(fields[ROUTE]).parse();
+            }
+            if (fields[EVENT] != null) {
+                eventHeader = (EventHeader) new EventParser(fields[EVENT]).parse();
+            }
+            if (fields[PROXY_AUTHORIZATION] != null) {
+                proxyAuthorizationHeader = (ProxyAuthorizationHeader) new ProxyAuthorizationParser(
+                        fields[PROXY_AUTHORIZATION]).parse();
+            }
+            if (fields[LAST_ACK_SENT] != null) {
+                lastAckSent = (SIPRequest) new StringMsgParser().parseSIPMessage(
+                        fields[LAST_ACK_SENT].getBytes("UTF-8"), true, false, null);
+            }
+            if (fields[LAST_RESPONSE_VIA] != null) {
+                lastResponseTopMostVia = (Via) ((ViaList) new ViaParser(
+                        fields[LAST_RESPONSE_VIA]).parse()).getFirst();
+            }
+        } catch (Exception ex) {
+            logger.logError("error restoring the state of hibernated dialog "
+                    + getDialogId(), ex);
+        }
+        // only now, the readers that see no packed state read the fields
+        // without waiting for this method
+        hibernatedState = null;
+        state.release();
+        if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+            logger.logDebug("woke up dialog " + getDialogId());
+        }
+    }
+
+    /**
+     * Forget the packed state of a terminated dialog, waiting for a wake up
+     * or a writer that is reading it.
+     */
+    private synchronized void dropHibernatedState() {
+        HibernatedDialogState state = hibernatedState;
+        if (state != null) {
+            hibernatedState = null;
+            state.release();
+        }
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        // a hibernated dialog is written with its packed state, so that
+        // writing it, to replicate it for instance, neither wakes it up nor
+        // counts as a use. Writers synchronize on the dialog to keep it from
+        // being hibernated or woken up meanwhile.
+        HibernatedDialogState state = hibernatedState;
+        out.defaultWriteObject();
+        out.writeObject(state != null ? state.toBytes() : null);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException,
+            ClassNotFoundException {
+        in.defaultReadObject();
+        byte[] packed = (byte[]) in.readObject();
+        if (packed != null) {
+            try {
+                hibernatedState = HibernatedDialogState.fromBytes(HIBERNATED_FIELDS, packed);
+            } catch (IOException ex) {
+                throw new InvalidObjectException(ex.getMessage());
+            }
+        }
+        // transient state of a new dialog, the stack and provider are set
+        // when the dialog is attached to a stack
+        eventListeners = new CopyOnWriteArraySet<SIPDialogEventListener>();
+        ackSem = new Semaphore(1);
+        timerTaskLock = new Semaphore(1);
+        ackSendingStrategy = new AckSendingStrategyImpl();
+        reInviteWaitTime = 100;
+        highestSequenceNumberAcknowledged = -1;
+        lastActivityTime = System.currentTimeMillis();
+    }
+
     protected RecordRouteList getOriginalRequestRecordRouteHeaders() {
+        ensureAwake();
         if (originalRequestRecordRouteHeaders == null
                 && originalRequestRecordRouteHeadersString != null) {
             try {
@@ -4349,6 +4646,7 @@ public class SIPDialog implements javax.sip.Dialog, DialogExt {
      * @return the lastResponseTopMostVia
      */
     public Via getLastResponseTopMostVia() {
+        ensureAwake();
         return lastResponseTopMostVia;
     }
 
@@ -369,7 +369,7 @@ public class SIPServerTransactionImpl extends SIPTransactionImpl implements SIPS
                 // Note that the transaction record is actually removed in
                 // the connection linger timer.
                 try {
-                       sipStack.getTimer().cancel(this);
+                       cancelTransactionTimer();
                 } catch (IllegalStateException ex) {
                     if (!sipStack.isAlive())
                         return;
@@ -392,7 +392,7 @@ public class SIPServerTransactionImpl extends SIPTransactionImpl implements SIPS
                 // Add to the fire list -- needs to be moved
                 // outside the synchronized block to prevent
                 // deadlock.
-                fireTimer();
+                runTransactionTimer();
             }
             if(originalRequest != null) {
                 originalRequest.cleanUp();
@@ -1222,7 +1222,7 @@ public class SIPServerTransactionImpl extends SIPTransactionImpl implements SIPS
                             }
                         }
                     }
-                    messageChannel.sendMessage(lastResponseAsBytes, InetAddress.getByName(hop.getHost()), hop.getPort(), false);
+                    messageChannel.sendMessage(lastResponseAsBytes, sipStack.getByName(hop.getHost()), hop.getPort(), false);
                 } else {
                     throw new IOException("Could not create a message channel for " + hop + " with source IP:Port "+
                             this.getSipProvider().getListeningPoint(
@@ -1586,7 +1586,7 @@ public class SIPServerTransactionImpl extends SIPTransactionImpl implements SIPS
                     SIPStackTimerTask myTimer = new TransactionTimer();
                     // Do not schedule when the stack is not alive.
                     if (sipStack.getTimer() != null && sipStack.getTimer().isStarted() ) {
-                        sipStack.getTimer().scheduleWithFixedDelay(myTimer, baseTimerInterval, baseTimerInterval);
+                        startTransactionTimer(myTimer);
                     }
                     myTimer = null;
                 }
@@ -41,6 +41,7 @@ import gov.nist.javax.sip.message.SIPMessage;
 import gov.nist.javax.sip.message.SIPRequest;
 import gov.nist.javax.sip.message.SIPResponse;
 import gov.nist.javax.sip.stack.SIPClientTransactionImpl.ExpiresTimerTask;
+import gov.nist.javax.sip.stack.timers.SipTimer;
 
 import java.io.IOException;
 import java.net.InetAddress;
@@ -161,11 +162,30 @@ public abstract class SIPTransactionImpl implements SIPTransaction {
     // Number of ticks the retransmission timer was set to last
     private transient int retransmissionTimerLastTickCount;
 
-    // Number of ticks before the message is retransmitted
-    private transient int retransmissionTimerTicksLeft;
+    // Time (ms, see timerNow()) at which the message is retransmitted, -1 if disabled
+    private transient long retransmissionTimerDeadline = -1;
 
-    // Number of ticks before the transaction times out
-    protected int timeoutTimerTicksLeft;
+    // Time (ms, see timerNow()) at which the transaction times out, -1 if disabled
+    private long timeoutTimerDeadline = -1;
+
+    /**
+     * Number of ticks the timeout timer was set to, -1 once it is disabled or
+     * has fired.
+     *
+     * @deprecated the timers are scheduled for their deadline and no longer
+     *             count ticks down, this only keeps the tick count the
+     *             timeout timer was last enabled with.
+     */
+    @Deprecated
+    protected int timeoutTimerTicksLeft = -1;
+
+    // One-shot task driving the retransmission and timeout timers, null when not running
+    private transient SIPStackTimerTask transactionTimerTask;
+
+    // Time the transaction timer task is currently scheduled for, -1 if it is not pending
+    private transient long transactionTimerTime = -1;
+
+    private final Object transactionTimerScheduleLock = new Object();
 
     // List of event listeners for this transaction
     private transient Set<SIPTransactionEventListener> eventListeners;
@@ -555,6 +575,8 @@ public abstract class SIPTransactionImpl implements SIPTransaction {
         
         if(newState == TransactionState._COMPLETED) {
         	enableTimeoutTimer(TIMER_H); // timer H must be started around now
+        } else if (newState == TransactionState._TERMINATED) {
+        	rescheduleTransactionTimer(); // let the timer task clean up
         }
         
         if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
@@ -603,13 +625,14 @@ public abstract class SIPTransactionImpl implements SIPTransaction {
     protected void enableRetransmissionTimer(int tickCount) {
         // For INVITE Client transactions, double interval each time
         if (isInviteTransaction() && (this instanceof SIPClientTransaction)) {
-            retransmissionTimerTicksLeft = tickCount;
+            retransmissionTimerLastTickCount = tickCount;
         } else {
             // non-INVITE transactions and 3xx-6xx responses are capped at T2
-            retransmissionTimerTicksLeft = Math.min(tickCount,
+            retransmissionTimerLastTickCount = Math.min(tickCount,
                     getTimerT2());
         }
-        retransmissionTimerLastTickCount = retransmissionTimerTicksLeft;
+        retransmissionTimerDeadline = timerNow() + (long) retransmissionTimerLastTickCount * baseTimerInterval;
+        rescheduleTransactionTimer();
     }
 
 
@@ -618,7 +641,8 @@ public abstract class SIPTransactionImpl implements SIPTransaction {
      */
     @Override
     public void disableRetransmissionTimer() {
-        retransmissionTimerTicksLeft = -1;
+        retransmissionTimerDeadline = -1;
+        rescheduleTransactionTimer();
     }
 
     /**
@@ -631,10 +655,12 @@ public abstract class SIPTransactionImpl implements SIPTransaction {
     protected void enableTimeoutTimer(int tickCount) {
         if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
             logger.logDebug("enableTimeoutTimer " + this
-                    + " tickCount " + tickCount + " currentTickCount = "
-                    + timeoutTimerTicksLeft);
+                    + " tickCount " + tickCount + " currentDeadline = "
+                    + timeoutTimerDeadline);
 
         timeoutTimerTicksLeft = tickCount;
+        timeoutTimerDeadline = timerNow() + (long) tickCount * baseTimerInterval;
+        rescheduleTransactionTimer();
     }
 
 
@@ -645,6 +671,8 @@ public abstract class SIPTransactionImpl implements SIPTransaction {
     public void disableTimeoutTimer() {
     	if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) logger.logDebug("disableTimeoutTimer " + this);
         timeoutTimerTicksLeft = -1;
+        timeoutTimerDeadline = -1;
+        rescheduleTransactionTimer();
     }
     
 
@@ -653,26 +681,126 @@ public abstract class SIPTransactionImpl implements SIPTransaction {
      */
     @Override
     public void fireTimer() {
-        // If the timeout timer is enabled,
+        long now = timerNow();
+        // If the timeout timer is enabled and has run out,
+        long timeout = timeoutTimerDeadline;
+        if (timeout != -1 && timeout <= now) {
+            timeoutTimerTicksLeft = -1;
+            timeoutTimerDeadline = -1;
+            fireTimeoutTimer();
+        }
+
+        // If the retransmission timer is enabled and has run out,
+        long retransmission = retransmissionTimerDeadline;
+        if (retransmission != -1 && retransmission <= now) {
+            // Enable this timer to fire again after
+            // twice the original time
+            enableRetransmissionTimer(retransmissionTimerLastTickCount * 2);
+            // Fire the timeout timer
+            fireRetransmissionTimer();
+        } 
+    }
 
-        if (timeoutTimerTicksLeft != -1) {
-            // Count down the timer, and if it has run out,
-            if (--timeoutTimerTicksLeft == 0) {
-                fireTimeoutTimer();
+    /**
+     * Clock used for the retransmission and timeout timer deadlines, in milliseconds.
+     */
+    private static long timerNow() {
+        return System.nanoTime() / 1000000L;
+    }
+
+    /**
+     * Start driving the retransmission and timeout timers of this transaction with the
+     * given task. Rather than ticking every base timer interval, the task is scheduled
+     * as a one-shot for the next timer that is due, and rescheduled whenever a timer is
+     * enabled or disabled or the transaction terminates. Its runTask() must call
+     * {@link #runTransactionTimer()} while the transaction is not terminated.
+     *
+     * @param task the task to schedule.
+     */
+    protected void startTransactionTimer(SIPStackTimerTask task) {
+        synchronized (transactionTimerScheduleLock) {
+            transactionTimerTask = task;
+            transactionTimerTime = -1;
+        }
+        rescheduleTransactionTimer();
+    }
+
+    /**
+     * Stop driving the timers of this transaction, cancelling the pending transaction
+     * timer task if any.
+     */
+    protected void cancelTransactionTimer() {
+        synchronized (transactionTimerScheduleLock) {
+            SIPStackTimerTask task = transactionTimerTask;
+            transactionTimerTask = null;
+            transactionTimerTime = -1;
+            if (task != null && task.getSipTimerTask() != null) {
+                sipStack.getTimer().cancel(task);
             }
         }
+    }
 
-        // If the retransmission timer is enabled,
-        if (retransmissionTimerTicksLeft != -1) {
-            // Count down the timer, and if it has run out,
-            if (--retransmissionTimerTicksLeft == 0) {
-                // Enable this timer to fire again after
-                // twice the original time
-                enableRetransmissionTimer(retransmissionTimerLastTickCount * 2);
-                // Fire the timeout timer
-                fireRetransmissionTimer();
+    /**
+     * Called by the transaction timer task when it runs: fires the timers that are due
+     * and schedules the task again for the next one.
+     */
+    protected void runTransactionTimer() {
+        synchronized (transactionTimerScheduleLock) {
+            transactionTimerTime = -1;
+        }
+        fireTimer();
+        rescheduleTransactionTimer();
+    }
+
+    /**
+     * Schedule the transaction timer task, if it was started, for the earliest enabled
+     * timer. A terminated transaction gets one more run after a base timer interval so
+     * that its task can clean it up, as the periodic timer used to.
+     */
+    protected void rescheduleTransactionTimer() {
+        synchronized (transactionTimerScheduleLock) {
+            SIPStackTimerTask task = transactionTimerTask;
+            if (task == null) {
+                return;
             }
-        } 
+            long now = timerNow();
+            long next = -1;
+            if (isTerminated()) {
+                next = now + baseTimerInterval;
+                if (transactionTimerTime != -1 && transactionTimerTime <= next) {
+                    return;
+                }
+            } else {
+                long timeout = timeoutTimerDeadline;
+                long retransmission = retransmissionTimerDeadline;
+                if (timeout != -1) {
+                    next = timeout;
+                }
+                if (retransmission != -1 && (next == -1 || retransmission < next)) {
+                    next = retransmission;
+                }
+                if (next == transactionTimerTime && next != -1) {
+                    // already scheduled for that time
+                    return;
+                }
+            }
+            SipTimer timer = sipStack.getTimer();
+            if (timer == null) {
+                return;
+            }
+            try {
+                if (transactionTimerTime != -1 && task.getSipTimerTask() != null) {
+                    timer.cancel(task);
+                }
+                transactionTimerTime = next;
+                if (next != -1) {
+                    timer.schedule(task, Math.max(next - now, 0));
+                }
+            } catch (IllegalStateException ex) {
+                // The timer has been stopped with the stack
+                transactionTimerTime = -1;
+            }
+        }
     }
 
     /**
@@ -27,6 +27,7 @@ package gov.nist.javax.sip.stack;
 
 import gov.nist.core.*;
 import gov.nist.core.net.AddressResolver;
+import gov.nist.core.net.HostNameResolver;
 import gov.nist.core.net.DefaultNetworkLayer;
 import gov.nist.core.net.NetworkLayer;
 import gov.nist.core.net.SecurityManagerProvider;
@@ -39,6 +40,10 @@ import gov.nist.javax.sip.message.SIPMessage;
 import gov.nist.javax.sip.message.SIPRequest;
 import gov.nist.javax.sip.message.SIPResponse;
 import gov.nist.javax.sip.parser.MessageParserFactory;
+import gov.nist.javax.sip.stack.store.DefaultSipStoreFactory;
+import gov.nist.javax.sip.stack.store.SipStore;
+import gov.nist.javax.sip.stack.store.SipStoreFactory;
+import gov.nist.javax.sip.stack.store.SipStoreListener;
 import gov.nist.javax.sip.stack.timers.SipTimer;
 
 import javax.sip.*;
@@ -102,10 +107,10 @@ public abstract class SIPTransactionStack implements
     protected ConcurrentHashMap<String, SIPServerTransaction> retransmissionAlertTransactions;
 
     // Table of early dialogs ( to keep identity mapping )
-    protected ConcurrentHashMap<String, SIPDialog> earlyDialogTable;
+    protected SipStore<SIPDialog> earlyDialogTable;
 
     // Table of dialogs.
-    protected ConcurrentHashMap<String, SIPDialog> dialogTable;
+    protected SipStore<SIPDialog> dialogTable;
 
     // Table of server dialogs ( for loop detection)
     protected ConcurrentHashMap<String, SIPDialog> serverDialogMergeTestTable;
@@ -121,7 +126,7 @@ public abstract class SIPTransactionStack implements
     private ConcurrentHashMap<String, SIPServerTransaction> pendingTransactions;
 
     // hashtable for fast lookup
-    protected ConcurrentHashMap<String, SIPClientTransaction> clientTransactionTable;
+    protected SipStore<SIPClientTransaction> clientTransactionTable;
 
     // Set to false if you want hiwat and lowat to be consulted.
     protected boolean unlimitedServerTransactionTableSize = true;
@@ -148,7 +153,10 @@ public abstract class SIPTransactionStack implements
     private AtomicInteger activeClientTransactionCount = new AtomicInteger(0);
 
     // Hashtable for server transactions.
-    protected ConcurrentHashMap<String, SIPServerTransaction> serverTransactionTable;
+    protected SipStore<SIPServerTransaction> serverTransactionTable;
+
+    // Creates the dialog and transaction tables above
+    private SipStoreFactory storeFactory = new DefaultSipStoreFactory();
 
     // A table of ongoing transactions indexed by mergeId ( for detecting merged
     // requests.
@@ -158,6 +166,14 @@ public abstract class SIPTransactionStack implements
 
     private ConcurrentHashMap<String,SIPClientTransaction> forkedClientTransactionTable;
 
+    // Transactions and dialogs by Call-ID, for the lookups that cannot use the
+    // key of their table ( RFC 2543 transactions, CANCEL, NOTIFY, Replaces ).
+    private CallIdIndex<SIPServerTransaction> serverTransactionCallIdIndex;
+
+    private CallIdIndex<SIPClientTransaction> clientTransactionCallIdIndex;
+
+    private CallIdIndex<SIPDialog> dialogCallIdIndex;
+
     protected boolean deliverRetransmittedAckToListener = false;
 
     /*
@@ -340,6 +356,17 @@ public abstract class SIPTransactionStack implements
     // Send UDP buffer size
     protected int sendUdpBufferSize;
 
+    // Number of receive loops (and sockets when SO_REUSEPORT is available) per UDP listening point
+    private int udpReceiveThreads = 1;
+
+    private int udpBatchSize = 0;
+
+    private int dialogHibernationIdleTime = 0;
+
+    private boolean dialogHibernationOffHeap;
+
+    protected DialogHibernationAuditor dialogHibernationAuditor;
+
     private int stackCongestionControlTimeout = 0;
 
     protected boolean isBackToBackUserAgent = false;
@@ -363,11 +390,17 @@ public abstract class SIPTransactionStack implements
 
     private boolean deliverTerminatedEventForAck = false;
 
+    // Whether the message parsers keep the headers the stack does not need unparsed until they are accessed
+    private boolean lazyHeaderParsing = false;
+
     protected ClientAuthType clientAuth = ClientAuthType.Default;
     
     // ThreadPool when parsed SIP messages are processed. Affects the case when many TCP calls use single socket.
     private int tcpPostParsingThreadPoolSize = 0;
 
+    // Maximum number of parsed messages of a call waiting for the post parsing thread pool, 0 for no limit.
+    private int tcpPostParsingMaxQueuedPerCall = 0;
+
     // Minimum time between NAT kee alive pings from clients.
     // Any ping that exceeds this time will result in  CRLF CRLF going
     // from the UDP message channel.
@@ -383,9 +416,39 @@ public abstract class SIPTransactionStack implements
     
     public long nioSocketMaxIdleTime;
 
+    // Number of I/O selector threads per NIO listening point, 1 means the accepting thread does all the I/O
+    private int nioSelectorThreads = 1;
+
+    private SelectorAssignmentStrategy selectorAssignmentStrategy = SelectorAssignmentStrategy.RoundRobin;
+
+    // Milliseconds NIO writes are held back to be coalesced with the following ones, 0 writes at once
+    private int nioWriteBatchWindow = 0;
+
+    // Bytes queued for writing on a NIO connection beyond which sends fail, 0 for no limit
+    private int nioMaxQueuedBytesPerConnection = 0;
+
+    // Accept the permessage-deflate offers of the WebSocket clients
+    private boolean webSocketPerMessageDeflate;
+
     private ReleaseReferencesStrategy releaseReferencesStrategy = ReleaseReferencesStrategy.None;
 
     public SIPMessageValve sipMessageValve;
+
+    // queueing delay and listener time samples, recorded only when set
+    private volatile LoadMonitor loadMonitor;
+
+    // TLS session cache size and timeout in seconds, -1 for the JSSE defaults
+    private int tlsSessionCacheSize = -1;
+
+    private int tlsSessionTimeout = -1;
+
+    // threads running the TLS handshake tasks, 0 to run them on the selector thread
+    private int tlsHandshakeThreads = 0;
+
+    private ExecutorService tlsHandshakeExecutor;
+
+    // handshake tasks waiting for a thread beyond which the selector runs them
+    private static final int TLS_HANDSHAKE_QUEUE_SIZE = 1000;
     
     public SIPEventInterceptor sipEventInterceptor;
 
@@ -393,6 +456,9 @@ public abstract class SIPTransactionStack implements
 
     private int threadPriority = Thread.MAX_PRIORITY;
 
+    // run the blocking I/O and dispatch threads of the stack as virtual threads
+    private boolean virtualThreads;
+
     /*
      * The socket factory. Can be overriden by applications that want direct
      * access to the underlying socket.
@@ -426,6 +492,9 @@ public abstract class SIPTransactionStack implements
         if(selfRoutingThreadpoolExecutor == null) {
             if(this.threadPoolSize<=0) {
                 selfRoutingThreadpoolExecutor = new SameThreadExecutor();
+            } else if(this.virtualThreads) {
+                selfRoutingThreadpoolExecutor = Executors.newFixedThreadPool(this.threadPoolSize,
+                        VirtualThreads.factory("SelfRoutingThread"));
             } else {
                 selfRoutingThreadpoolExecutor = Executors.newFixedThreadPool(this.threadPoolSize, new ThreadFactory() {
                     private int threadCount = 0;
@@ -445,15 +514,21 @@ public abstract class SIPTransactionStack implements
      * Executor used to optimise the ReinviteSender Runnable in the sendRequest
      * of the SipDialog
        */
-    private ExecutorService reinviteExecutor = Executors
-            .newCachedThreadPool(new ThreadFactory() {
-        private int threadCount = 0;
+    private ExecutorService reinviteExecutor = newReinviteExecutor(false);
 
-        public Thread newThread(Runnable pRunnable) {
-                    return new Thread(pRunnable, String.format("%s-%d",
-                            "ReInviteSender", threadCount++));
+    private static ExecutorService newReinviteExecutor(boolean virtualThreads) {
+        if (virtualThreads) {
+            return Executors.newCachedThreadPool(VirtualThreads.factory("ReInviteSender"));
         }
-    });
+        return Executors.newCachedThreadPool(new ThreadFactory() {
+            private int threadCount = 0;
+
+            public Thread newThread(Runnable pRunnable) {
+                return new Thread(pRunnable, String.format("%s-%d",
+                        "ReInviteSender", threadCount++));
+            }
+        });
+    }
 
     // / Timer to regularly ping the thread auditor (on behalf of the timer
     // thread)
@@ -552,15 +627,15 @@ public abstract class SIPTransactionStack implements
         // Create the transaction collections
 
         // Dialog dable.
-        this.dialogTable = new ConcurrentHashMap<String, SIPDialog>();
-        this.earlyDialogTable = new ConcurrentHashMap<String, SIPDialog>();
+        createTables();
         this.serverDialogMergeTestTable = new ConcurrentHashMap<String, SIPDialog>();
 
-        clientTransactionTable = new ConcurrentHashMap<String, SIPClientTransaction>();
-        serverTransactionTable = new ConcurrentHashMap<String, SIPServerTransaction>();
         this.terminatedServerTransactionsPendingAck = new ConcurrentHashMap<String, SIPServerTransaction>();
         mergeTable = new ConcurrentHashMap<String, SIPServerTransaction>();
         retransmissionAlertTransactions = new ConcurrentHashMap<String, SIPServerTransaction>();
+        serverTransactionCallIdIndex = new CallIdIndex<SIPServerTransaction>();
+        clientTransactionCallIdIndex = new CallIdIndex<SIPClientTransaction>();
+        dialogCallIdIndex = new CallIdIndex<SIPDialog>();
 
         // Start the timer event thread.
 
@@ -583,13 +658,13 @@ public abstract class SIPTransactionStack implements
         // Handle IO for this process.
         this.ioHandler = new IOHandler(this);
         pendingTransactions = new ConcurrentHashMap<String, SIPServerTransaction>();
-        clientTransactionTable = new ConcurrentHashMap<String, SIPClientTransaction>();
-        serverTransactionTable = new ConcurrentHashMap<String, SIPServerTransaction>();
         retransmissionAlertTransactions = new ConcurrentHashMap<String, SIPServerTransaction>();
         mergeTable = new ConcurrentHashMap<String, SIPServerTransaction>();
+        serverTransactionCallIdIndex = new CallIdIndex<SIPServerTransaction>();
+        clientTransactionCallIdIndex = new CallIdIndex<SIPClientTransaction>();
+        dialogCallIdIndex = new CallIdIndex<SIPDialog>();
         // Dialog dable.
-        this.dialogTable = new ConcurrentHashMap<String, SIPDialog>();
-        this.earlyDialogTable = new ConcurrentHashMap<String, SIPDialog>();
+        createTables();
         this.serverDialogMergeTestTable = new ConcurrentHashMap<String, SIPDialog>();
         this.terminatedServerTransactionsPendingAck = new ConcurrentHashMap<String,SIPServerTransaction>();
         this.forkedClientTransactionTable = new ConcurrentHashMap<String,SIPClientTransaction>();
@@ -600,6 +675,79 @@ public abstract class SIPTransactionStack implements
 
     }
 
+    /**
+     * Create the dialog and transaction tables with the store factory.
+     */
+    private void createTables() {
+        dialogTable = storeFactory.createDialogStore();
+        dialogTable.setListener(new SipStoreListener<SIPDialog>() {
+            public void entryLoaded(String key, SIPDialog dialog) {
+                dialogLoaded(dialog);
+            }
+            public void entryEvicted(String key, SIPDialog dialog) {
+                dialogCallIdIndex.remove(dialog);
+            }
+        });
+        earlyDialogTable = storeFactory.createEarlyDialogStore();
+        clientTransactionTable = storeFactory.createClientTransactionStore();
+        clientTransactionTable.setListener(new SipStoreListener<SIPClientTransaction>() {
+            public void entryLoaded(String key, SIPClientTransaction transaction) {
+                clientTransactionCallIdIndex.add(callIdOf(transaction.getOriginalRequest()), transaction);
+            }
+            public void entryEvicted(String key, SIPClientTransaction transaction) {
+                clientTransactionCallIdIndex.remove(transaction);
+                // room was made for the senders waiting on a full table
+                synchronized (clientTransactionTable) {
+                    clientTransactionTable.notifyAll();
+                }
+            }
+        });
+        serverTransactionTable = storeFactory.createServerTransactionStore();
+        serverTransactionTable.setListener(new SipStoreListener<SIPServerTransaction>() {
+            public void entryLoaded(String key, SIPServerTransaction transaction) {
+                serverTransactionCallIdIndex.add(callIdOf(transaction.getOriginalRequest()), transaction);
+            }
+            public void entryEvicted(String key, SIPServerTransaction transaction) {
+                serverTransactionCallIdIndex.remove(transaction);
+            }
+        });
+    }
+
+    /**
+     * @return the factory of the dialog and transaction tables.
+     */
+    public SipStoreFactory getStoreFactory() {
+        return storeFactory;
+    }
+
+    /**
+     * Set the factory of the dialog and transaction tables and create new,
+     * empty, tables with it. To be called before the stack is used.
+     *
+     * @param storeFactory
+     */
+    public void setStoreFactory(SipStoreFactory storeFactory) {
+        this.storeFactory = storeFactory;
+        createTables();
+    }
+
+    /**
+     * Attach a dialog that the dialog store obtained from outside the stack,
+     * such as a replica of a dialog of a failed peer, to this stack.
+     *
+     * @param dialog the loaded dialog.
+     */
+    protected void dialogLoaded(SIPDialog dialog) {
+        if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+            logger.logDebug("dialog loaded from the store " + dialog.getDialogId());
+        }
+        dialog.setStack(this);
+        CallIdHeader callIdHeader = dialog.getCallId();
+        if (callIdHeader != null) {
+            dialogCallIdIndex.add(callIdHeader.getCallId(), dialog);
+        }
+    }
+
     /**
      * Creates and binds, if necessary, a socket connected to the specified
      * destination address and port and then returns its local address.
@@ -770,6 +918,10 @@ public abstract class SIPTransactionStack implements
         if (logger.isLoggingEnabled(LogLevels.TRACE_DEBUG))
             logger.logStackTrace();
         dialogTable.put(dialogId, dialog);
+        CallIdHeader callIdHeader = dialog.getCallId();
+        if (callIdHeader != null) {
+            dialogCallIdIndex.add(callIdHeader.getCallId(), dialog);
+        }
         putMergeDialog(dialog);
         
         return dialog;
@@ -920,6 +1072,7 @@ public abstract class SIPTransactionStack implements
         }
 
         removeMergeDialog(dialog.getMergeId());
+        dialogCallIdIndex.remove(dialog);
 
         if (id != null) {
 
@@ -1049,7 +1202,9 @@ public abstract class SIPTransactionStack implements
             SIPRequest notifyMessage, ListeningPointImpl listeningPoint) {
         SIPClientTransaction retval = null;
         try {
-            Iterator it = clientTransactionTable.values().iterator();
+            // The NOTIFY carries the Call-ID of the SUBSCRIBE
+            Iterator<SIPClientTransaction> it = clientTransactionCallIdIndex
+                    .get(callIdOf(notifyMessage)).iterator();
             if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG))
                 logger.logDebug("ct table size = "
                         + clientTransactionTable.size());
@@ -1067,7 +1222,7 @@ public abstract class SIPTransactionStack implements
                 return retval;
             }
             while (it.hasNext()) {
-                SIPClientTransaction ct = (SIPClientTransaction) it.next();
+                SIPClientTransaction ct = it.next();
                 if (!ct.getMethod().equals(Request.SUBSCRIBE))
                     continue;
 
@@ -1202,13 +1357,10 @@ public abstract class SIPTransactionStack implements
                     }
 
                 }
-                // Need to scan the table for old style transactions (RFC 2543
-                // style)
-                Iterator<SIPServerTransaction> it = serverTransactionTable
-                        .values().iterator();
-                while (it.hasNext()) {
-                    SIPServerTransaction sipServerTransaction = (SIPServerTransaction) it
-                            .next();
+                // Need to look at the transactions of the call for old style
+                // transactions (RFC 2543 style)
+                for (SIPServerTransaction sipServerTransaction : serverTransactionCallIdIndex
+                        .get(callIdOf(sipMessage))) {
                     if (sipServerTransaction
                             .isMessagePartOfTransaction(sipMessage)) {
                         retval = sipServerTransaction;
@@ -1230,14 +1382,10 @@ public abstract class SIPTransactionStack implements
                     }
 
                 }
-                // Need to scan the table for old style transactions (RFC 2543
-                // style). This is terribly slow but we need to do this
-                // for backasswords compatibility.
-                Iterator<SIPClientTransaction> it = clientTransactionTable
-                        .values().iterator();
-                while (it.hasNext()) {
-                    SIPClientTransaction clientTransaction = (SIPClientTransaction) it
-                            .next();
+                // Need to look at the transactions of the call for old style
+                // transactions (RFC 2543 style) for backwards compatibility.
+                for (SIPClientTransaction clientTransaction : clientTransactionCallIdIndex
+                        .get(callIdOf(sipMessage))) {
                     if (clientTransaction
                             .isMessagePartOfTransaction(sipMessage)) {
                         retval = clientTransaction;
@@ -1277,25 +1425,20 @@ public abstract class SIPTransactionStack implements
                     + isServer);
         }
 
+        // The Call-ID of a CANCEL is the one of the request it cancels, so
+        // only the transactions of that call are candidates.
+        String callId = callIdOf(cancelRequest);
         if (isServer) {
-            Iterator<SIPServerTransaction> li = this.serverTransactionTable
-                    .values().iterator();
-            while (li.hasNext()) {
-                SIPTransaction transaction = (SIPTransaction) li.next();
-
-                SIPServerTransaction sipServerTransaction = (SIPServerTransaction) transaction;
+            for (SIPServerTransaction sipServerTransaction : this.serverTransactionCallIdIndex
+                    .get(callId)) {
                 if (sipServerTransaction
                         .doesCancelMatchTransaction(cancelRequest))
                     return sipServerTransaction;
             }
 
         } else {
-            Iterator<SIPClientTransaction> li = this.clientTransactionTable
-                    .values().iterator();
-            while (li.hasNext()) {
-                SIPTransaction transaction = (SIPTransaction) li.next();
-
-                SIPClientTransaction sipClientTransaction = (SIPClientTransaction) transaction;
+            for (SIPClientTransaction sipClientTransaction : this.clientTransactionCallIdIndex
+                    .get(callId)) {
                 if (sipClientTransaction
                         .doesCancelMatchTransaction(cancelRequest))
                     return sipClientTransaction;
@@ -1309,6 +1452,11 @@ public abstract class SIPTransactionStack implements
         return null;
     }
 
+    private static String callIdOf(SIPMessage sipMessage) {
+        CallIdHeader callIdHeader = sipMessage.getCallId();
+        return callIdHeader == null ? null : callIdHeader.getCallId();
+    }
+
     /**
      * Construcor for the stack. Registers the request and response factories
      * for the stack.
@@ -1515,8 +1663,7 @@ public abstract class SIPTransactionStack implements
                 while (transactionIterator.hasNext()
                         && currentTransaction == null) {
 
-                    nextTransaction = (SIPServerTransaction) transactionIterator
-                            .next();
+                    nextTransaction = transactionIterator.next();
 
                     // If this transaction should handle this request,
                     if (nextTransaction
@@ -1654,8 +1801,7 @@ public abstract class SIPTransactionStack implements
             currentTransaction = null;
             while (transactionIterator.hasNext() && currentTransaction == null) {
 
-                nextTransaction = (SIPClientTransaction) transactionIterator
-                        .next();
+                nextTransaction = transactionIterator.next();
 
                 // If this transaction should handle this request,
                 if (nextTransaction
@@ -1839,6 +1985,7 @@ public abstract class SIPTransactionStack implements
         		}
         		String key = sipTransaction.getTransactionId();
         		removed = serverTransactionTable.remove(key);
+        		serverTransactionCallIdIndex.remove((SIPServerTransaction) removed);
         		String method = sipTransaction.getMethod();
         		this
         		.removePendingTransaction((SIPServerTransaction) sipTransaction);
@@ -1863,6 +2010,7 @@ public abstract class SIPTransactionStack implements
 
         		String key = sipTransaction.getTransactionId();
         		removed = clientTransactionTable.remove(key);
+        		clientTransactionCallIdIndex.remove((SIPClientTransaction) removed);
 
         		if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
         			logger.logDebug("REMOVED client tx " + removed + " KEY = "
@@ -1967,8 +2115,15 @@ public abstract class SIPTransactionStack implements
                 this.activeClientTransactionCount.incrementAndGet();
             }
             String key = sipRequest.getTransactionId();
+            // index first so that a removal right after the put finds it
+            clientTransactionCallIdIndex.add(callIdOf(sipRequest),
+                    (SIPClientTransaction) sipTransaction);
             existingTx = clientTransactionTable.putIfAbsent(key,
                     (SIPClientTransaction) sipTransaction);
+            if (existingTx != null && existingTx != sipTransaction) {
+                clientTransactionCallIdIndex
+                        .remove((SIPClientTransaction) sipTransaction);
+            }
             
             if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
                 logger
@@ -1981,8 +2136,14 @@ public abstract class SIPTransactionStack implements
                 logger
                         .logDebug(" putTransactionHash : " + " key = " + key);
             }
+            serverTransactionCallIdIndex.add(callIdOf(sipRequest),
+                    (SIPServerTransaction) sipTransaction);
             existingTx = serverTransactionTable.putIfAbsent(key,
                     (SIPServerTransaction) sipTransaction);
+            if (existingTx != null && existingTx != sipTransaction) {
+                serverTransactionCallIdIndex
+                        .remove((SIPServerTransaction) sipTransaction);
+            }
 
         }
     	// http://java.net/jira/browse/JSIP-420
@@ -2024,10 +2185,12 @@ public abstract class SIPTransactionStack implements
                 logger.logDebug("removing client Tx : " + key);
             }
             removed = clientTransactionTable.remove(key);
+            clientTransactionCallIdIndex.remove((SIPClientTransaction) removed);
 
         } else if (sipTransaction instanceof SIPServerTransaction) {
             String key = sipTransaction.getTransactionId();
             removed = serverTransactionTable.remove(key);
+            serverTransactionCallIdIndex.remove((SIPServerTransaction) removed);
             if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
                 logger.logDebug("removing server Tx : " + key);
             }
@@ -2104,6 +2267,12 @@ public abstract class SIPTransactionStack implements
         	((ExecutorService)selfRoutingThreadpoolExecutor).shutdown();
         }
         selfRoutingThreadpoolExecutor = null;
+        synchronized (this) {
+            if (tlsHandshakeExecutor != null) {
+                tlsHandshakeExecutor.shutdown();
+                tlsHandshakeExecutor = null;
+            }
+        }
 
         // Threads must periodically check this flag.
         MessageProcessor[] processorList;
@@ -2122,8 +2291,12 @@ public abstract class SIPTransactionStack implements
         }
         this.clientTransactionTable.clear();
         this.serverTransactionTable.clear();
+        this.clientTransactionCallIdIndex.clear();
+        this.serverTransactionCallIdIndex.clear();
 
         this.dialogTable.clear();
+        this.dialogCallIdIndex.clear();
+        this.storeFactory.stop();
         this.serverLogger.closeLogFile();
 
     }
@@ -2252,6 +2425,26 @@ public abstract class SIPTransactionStack implements
         this.tcpPostParsingThreadPoolSize = tcpPostParsingThreadPoolSize;
     }
 
+    /**
+     * The maximum number of messages of a call waiting for the TCP post
+     * parsing thread pool. Further messages of the call are dropped until the
+     * pool catches up. 0 means no limit.
+     *
+     * @return the maximum number of queued messages per call.
+     */
+    public int getTcpPostParsingMaxQueuedPerCall() {
+        return tcpPostParsingMaxQueuedPerCall;
+    }
+
+    /**
+     * @param tcpPostParsingMaxQueuedPerCall the maximum number of messages of
+     *            a call waiting for the TCP post parsing thread pool, 0 for no
+     *            limit.
+     */
+    public void setTcpPostParsingMaxQueuedPerCall(int tcpPostParsingMaxQueuedPerCall) {
+        this.tcpPostParsingMaxQueuedPerCall = tcpPostParsingMaxQueuedPerCall;
+    }
+
     /**
      * Set the thread pool size for processing incoming UDP messages. Limit the
      * total number of threads for processing udp messages.
@@ -2586,6 +2779,22 @@ public abstract class SIPTransactionStack implements
         this.addressResolver = addressResolver;
     }
 
+    /**
+     * Resolve a host name of the message path. Goes through the address
+     * resolver when it implements {@link HostNameResolver}, which can cache
+     * the lookups, and through InetAddress.getByName otherwise.
+     *
+     * @param host -- a host name or an address literal.
+     * @throws UnknownHostException if the host has no address.
+     */
+    public InetAddress getByName(String host) throws UnknownHostException {
+        AddressResolver resolver = this.addressResolver;
+        if (resolver instanceof HostNameResolver) {
+            return ((HostNameResolver) resolver).getByName(host);
+        }
+        return InetAddress.getByName(host);
+    }
+
     /**
      * Set the logger factory.
      *
@@ -2719,7 +2928,8 @@ public abstract class SIPTransactionStack implements
      *
      * @return Audit report, null if no transaction leaks were found
      */
-    private String auditTransactions(ConcurrentHashMap transactionsMap,
+    private String auditTransactions(
+            SipStore<? extends SIPTransaction> transactionsMap,
             long a_nLeakedTransactionTimer) {
         String auditReport = "  Leaked transactions:\n";
         int leakedTransactions = 0;
@@ -2728,12 +2938,13 @@ public abstract class SIPTransactionStack implements
         // Make a shallow copy of the transaction list.
         // This copy will remain intact as leaked transactions are removed by
         // the stack.
-        LinkedList transactionsList = new LinkedList(transactionsMap.values());
+        LinkedList<SIPTransaction> transactionsList = new LinkedList<SIPTransaction>(
+                transactionsMap.values());
 
         // Iterate through our copy
-        Iterator it = transactionsList.iterator();
+        Iterator<SIPTransaction> it = transactionsList.iterator();
         while (it.hasNext()) {
-            SIPTransaction sipTransaction = (SIPTransaction) it.next();
+            SIPTransaction sipTransaction = it.next();
             if (sipTransaction != null) {
                 if (sipTransaction.getAuditTag() == 0) {
                     // First time we see this transaction. Mark it as audited.
@@ -2862,7 +3073,7 @@ public abstract class SIPTransactionStack implements
         String fromTag = replacesHeader.getFromTag();
         String toTag = replacesHeader.getToTag();
         
-        for ( SIPDialog dialog : this.dialogTable.values() ) {
+        for ( SIPDialog dialog : this.dialogCallIdIndex.get(cid) ) {
             if ( dialog.getCallId().getCallId().equals(cid) 
                     && fromTag.equalsIgnoreCase(dialog.lastResponseFromTag) 
                     && toTag.equalsIgnoreCase(dialog.lastResponseToTag)) {
@@ -2893,8 +3104,8 @@ public abstract class SIPTransactionStack implements
          * This could be a forked dialog. Search for it.
          */
         if ( replacesDialog == null ) {
-            for (SIPClientTransaction ctx : this.clientTransactionTable
-                    .values()) {
+            for (SIPClientTransaction ctx : this.clientTransactionCallIdIndex
+                    .get(cid)) {
                if ( ctx.getDialog(did) != null ) {
                    replacesDialog = ctx.getDialog(did);
                    break;
@@ -2969,6 +3180,294 @@ public abstract class SIPTransactionStack implements
         this.receiveUdpBufferSize = receiveUdpBufferSize;
     }
 
+    /**
+     * Number of I/O selector threads serving the connections of each NIO
+     * listening point. With 1 (the default) the thread accepting connections
+     * also does all the reads and writes.
+     *
+     * @return the number of I/O selector threads per NIO listening point
+     */
+    public int getNioSelectorThreads() {
+        return nioSelectorThreads;
+    }
+
+    /**
+     * @param nioSelectorThreads the number of I/O selector threads per NIO listening point
+     */
+    public void setNioSelectorThreads(int nioSelectorThreads) {
+        this.nioSelectorThreads = nioSelectorThreads;
+    }
+
+    /**
+     * @return how connections are assigned to the NIO I/O selector threads
+     */
+    public SelectorAssignmentStrategy getSelectorAssignmentStrategy() {
+        return selectorAssignmentStrategy;
+    }
+
+    /**
+     * @param selectorAssignmentStrategy how connections are assigned to the NIO I/O selector threads
+     */
+    public void setSelectorAssignmentStrategy(SelectorAssignmentStrategy selectorAssignmentStrategy) {
+        this.selectorAssignmentStrategy = selectorAssignmentStrategy;
+    }
+
+    /**
+     * Time during which the messages sent on a NIO connection are held back,
+     * so that they go out with the following ones in a single write. With 0
+     * (the default) the selector thread is woken up at once and writes all the
+     * messages queued by then.
+     *
+     * @return the write batching window in milliseconds
+     */
+    public int getNioWriteBatchWindow() {
+        return nioWriteBatchWindow;
+    }
+
+    /**
+     * @param nioWriteBatchWindow the write batching window in milliseconds, 0 to write at once
+     */
+    public void setNioWriteBatchWindow(int nioWriteBatchWindow) {
+        this.nioWriteBatchWindow = nioWriteBatchWindow;
+    }
+
+    /**
+     * Number of bytes that may wait to be written on a NIO connection. Sending
+     * more on a connection that does not drain fails with an IOException
+     * instead of growing the queue. 0 (the default) means no limit.
+     *
+     * @return the maximum number of bytes queued per connection
+     */
+    public int getNioMaxQueuedBytesPerConnection() {
+        return nioMaxQueuedBytesPerConnection;
+    }
+
+    /**
+     * @param nioMaxQueuedBytesPerConnection the maximum number of bytes queued per connection, 0 for no limit
+     */
+    public void setNioMaxQueuedBytesPerConnection(int nioMaxQueuedBytesPerConnection) {
+        this.nioMaxQueuedBytesPerConnection = nioMaxQueuedBytesPerConnection;
+    }
+
+    /**
+     * Whether the WS and WSS listening points accept the permessage-deflate
+     * extension (RFC 7692) offered by their clients, compressing the messages
+     * of the connections that negotiate it.
+     *
+     * @return true if permessage-deflate is accepted
+     */
+    public boolean isWebSocketPerMessageDeflate() {
+        return webSocketPerMessageDeflate;
+    }
+
+    /**
+     * @param webSocketPerMessageDeflate true to accept permessage-deflate offers
+     */
+    public void setWebSocketPerMessageDeflate(boolean webSocketPerMessageDeflate) {
+        this.webSocketPerMessageDeflate = webSocketPerMessageDeflate;
+    }
+
+    /**
+     * Number of threads receiving datagrams on each UDP listening point. When
+     * greater than one each thread reads from its own socket bound with
+     * SO_REUSEPORT and feeds its own worker queue.
+     *
+     * @return the number of UDP receive threads per listening point
+     */
+    public int getUdpReceiveThreads() {
+        return udpReceiveThreads;
+    }
+
+    /**
+     * Number of threads receiving datagrams on each UDP listening point. When
+     * greater than one each thread reads from its own socket bound with
+     * SO_REUSEPORT and feeds its own worker queue.
+     *
+     * @param udpReceiveThreads
+     */
+    public void setUdpReceiveThreads(int udpReceiveThreads) {
+        this.udpReceiveThreads = udpReceiveThreads;
+    }
+
+    /**
+     * Most datagrams moved per wake up of a UDP I/O thread, 0 when UDP
+     * listening points use blocking sockets.
+     *
+     * @return the UDP batch size.
+     */
+    public int getUdpBatchSize() {
+        return udpBatchSize;
+    }
+
+    /**
+     * When greater than 0 the UDP listening points whose network layer
+     * implements {@link gov.nist.core.net.DatagramIOFactory} are served by a
+     * non-blocking {@link gov.nist.core.net.DatagramIO}. Senders queue their
+     * datagrams and the I/O thread of the listening point writes the queue and
+     * reads up to that many datagrams each time it wakes up.
+     *
+     * @param udpBatchSize
+     */
+    public void setUdpBatchSize(int udpBatchSize) {
+        this.udpBatchSize = udpBatchSize;
+    }
+
+    /**
+     * Time in seconds after which an unused confirmed dialog is hibernated, 0
+     * when dialogs are never hibernated.
+     *
+     * @return the dialog hibernation idle time.
+     */
+    public int getDialogHibernationIdleTime() {
+        return dialogHibernationIdleTime;
+    }
+
+    /**
+     * When greater than 0 the stack periodically packs the state of the
+     * confirmed dialogs that were not used for that many seconds, see
+     * {@link SIPDialog#hibernate(boolean)}. Takes effect when the stack timer
+     * starts.
+     *
+     * @param dialogHibernationIdleTime
+     */
+    public void setDialogHibernationIdleTime(int dialogHibernationIdleTime) {
+        this.dialogHibernationIdleTime = dialogHibernationIdleTime;
+    }
+
+    /**
+     * @return true if the state of hibernated dialogs is kept outside the
+     *         Java heap.
+     */
+    public boolean isDialogHibernationOffHeap() {
+        return dialogHibernationOffHeap;
+    }
+
+    /**
+     * @param dialogHibernationOffHeap true to keep the state of hibernated
+     *            dialogs in direct buffers.
+     */
+    public void setDialogHibernationOffHeap(boolean dialogHibernationOffHeap) {
+        this.dialogHibernationOffHeap = dialogHibernationOffHeap;
+    }
+
+    /**
+     * Schedule the hibernation of idle dialogs on the stack timer, if enabled.
+     */
+    protected void scheduleDialogHibernation() {
+        if (dialogHibernationIdleTime > 0) {
+            long idleTime = dialogHibernationIdleTime * 1000L;
+            dialogHibernationAuditor = new DialogHibernationAuditor(this, idleTime,
+                    dialogHibernationOffHeap);
+            // scan a few times per idle time so dialogs do not stay awake
+            // much longer than it
+            long period = Math.max(1000L, idleTime / 4);
+            getTimer().scheduleWithFixedDelay(dialogHibernationAuditor, period, period);
+        }
+    }
+
+    /**
+     * @return the number of dialogs hibernated so far.
+     */
+    public long getHibernatedDialogs() {
+        return dialogHibernationAuditor == null ? 0
+                : dialogHibernationAuditor.getHibernatedDialogs();
+    }
+
+    /**
+     * @return the maximum number of TLS sessions cached per context, -1 for
+     *         the JSSE default.
+     */
+    public int getTlsSessionCacheSize() {
+        return tlsSessionCacheSize;
+    }
+
+    /**
+     * Set the maximum number of TLS sessions cached by the server and the
+     * client contexts of the NIO TLS and WSS listening points, 0 for no limit.
+     */
+    public void setTlsSessionCacheSize(int tlsSessionCacheSize) {
+        this.tlsSessionCacheSize = tlsSessionCacheSize;
+    }
+
+    /**
+     * @return the time in seconds a cached TLS session can be resumed, -1 for
+     *         the JSSE default.
+     */
+    public int getTlsSessionTimeout() {
+        return tlsSessionTimeout;
+    }
+
+    /**
+     * Set the time in seconds a cached TLS session can be resumed, 0 for no
+     * limit.
+     */
+    public void setTlsSessionTimeout(int tlsSessionTimeout) {
+        this.tlsSessionTimeout = tlsSessionTimeout;
+    }
+
+    /**
+     * @return the number of threads running the TLS handshake tasks.
+     */
+    public int getTlsHandshakeThreads() {
+        return tlsHandshakeThreads;
+    }
+
+    /**
+     * Set the number of threads running the delegated tasks of the NIO TLS
+     * handshakes, the costly key exchange and certificate checks, so that the
+     * selector threads keep serving the established connections during a
+     * reconnection storm. 0 runs them on the selector thread.
+     */
+    public void setTlsHandshakeThreads(int tlsHandshakeThreads) {
+        this.tlsHandshakeThreads = tlsHandshakeThreads;
+    }
+
+    /**
+     * Get the executor of the TLS handshake tasks. It has a bounded queue and
+     * rejects the tasks beyond it, which the caller then runs itself.
+     *
+     * @return the executor or null if the tasks run on the selector thread.
+     */
+    public synchronized Executor getTlsHandshakeExecutor() {
+        if (tlsHandshakeThreads <= 0 || toExit) {
+            return null;
+        }
+        if (tlsHandshakeExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(tlsHandshakeThreads, tlsHandshakeThreads,
+                    60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(TLS_HANDSHAKE_QUEUE_SIZE),
+                    new ThreadFactory() {
+                        private final AtomicInteger threadCount = new AtomicInteger();
+
+                        public Thread newThread(Runnable runnable) {
+                            return SIPTransactionStack.this.newThread(runnable,
+                                    "TlsHandshakeThread-" + threadCount.incrementAndGet(), true);
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            tlsHandshakeExecutor = executor;
+        }
+        return tlsHandshakeExecutor;
+    }
+
+    /**
+     * Get the monitor the message and event queues report their delays to.
+     *
+     * @return the load monitor or null if the stack records no samples.
+     */
+    public LoadMonitor getLoadMonitor() {
+        return loadMonitor;
+    }
+
+    /**
+     * Set the monitor the message and event queues report their delays to, as
+     * adaptive congestion control valves do.
+     *
+     * @param loadMonitor the monitor, null to stop recording samples.
+     */
+    public void setLoadMonitor(LoadMonitor loadMonitor) {
+        this.loadMonitor = loadMonitor;
+    }
+
     /**
      * Size of the send UDP buffer. This property affects performance under
      * load. Bigger buffer is better under load.
@@ -3051,6 +3550,22 @@ public abstract class SIPTransactionStack implements
         return deliverUnsolicitedNotify;
     }
 
+    /**
+     * @return true if the message parsers leave the headers the stack does not
+     *         need unparsed until the application accesses them
+     */
+    public boolean isLazyHeaderParsing() {
+        return lazyHeaderParsing;
+    }
+
+    /**
+     * @param lazyHeaderParsing
+     *            the lazyHeaderParsing to set
+     */
+    public void setLazyHeaderParsing(boolean lazyHeaderParsing) {
+        this.lazyHeaderParsing = lazyHeaderParsing;
+    }
+
     /**
      * @param deliverTerminatedEventForAck
      *            the deliverTerminatedEventForAck to set
@@ -3211,6 +3726,53 @@ public abstract class SIPTransactionStack implements
 		return threadPriority;
 	}
 
+    /**
+     * Run the connection threads of the blocking TCP and TLS transports, the
+     * self routing executor, the re-INVITE sender and the event delivery
+     * threads as virtual threads. Must be set before the stack creates these
+     * threads.
+     *
+     * @param virtualThreads true to use virtual threads.
+     * @throws UnsupportedOperationException if the JVM has no virtual threads.
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        if (virtualThreads == this.virtualThreads) {
+            return;
+        }
+        if (virtualThreads && !VirtualThreads.isAvailable()) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by this JVM");
+        }
+        this.virtualThreads = virtualThreads;
+        ExecutorService oldReinviteExecutor = this.reinviteExecutor;
+        this.reinviteExecutor = newReinviteExecutor(virtualThreads);
+        oldReinviteExecutor.shutdown();
+    }
+
+    /**
+     * @return true if the stack threads are virtual threads.
+     */
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Create an unstarted stack thread: a virtual thread if the stack runs on
+     * virtual threads, a platform thread with the given daemon status
+     * otherwise.
+     *
+     * @param runnable the code run by the thread.
+     * @param name the thread name.
+     * @param daemon the daemon status of a platform thread.
+     */
+    public Thread newThread(Runnable runnable, String name, boolean daemon) {
+        if (virtualThreads) {
+            return VirtualThreads.newThread(runnable, name);
+        }
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(daemon);
+        return thread;
+    }
+
     public int getReliableConnectionKeepAliveTimeout() {
         return reliableConnectionKeepAliveTimeout;
     }
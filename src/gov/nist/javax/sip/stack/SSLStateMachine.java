@@ -33,6 +33,9 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.LinkedList;
 import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLEngineResult;
@@ -40,6 +43,7 @@ import javax.net.ssl.SSLEngineResult.HandshakeStatus;
 import javax.net.ssl.SSLEngineResult.Status;
 import javax.net.ssl.SSLException;
 import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
 
 /**
  * This is a helper state machine that negotiates the SSL connection automatically
@@ -50,6 +54,10 @@ import javax.net.ssl.SSLPeerUnverifiedException;
  * and only supply them when they are ready to the original TCP channel once they are
  * decrypted.
  * 
+ * The network and application buffers are leased from the {@link ByteBufferFactory}
+ * pool for the duration of a wrap or unwrap and grown when the engine reports an
+ * overflow, so a connection holds no buffer while idle and a busy one allocates none.
+ * 
  * @author vladimirralev
  *
  */
@@ -57,14 +65,24 @@ public class SSLStateMachine {
 
 	private static StackLogger logger = CommonLogger.getLogger(SSLStateMachine.class);
 	public final static ByteBuffer EMPTY_BUFFER = ByteBuffer.wrap(new byte[] {});
+	private static final int TLS_RECORD_BUFFER_SIZE = 33270;
+
+	private static final AtomicLong wrappedMessages = new AtomicLong();
+	private static final AtomicLong sentBatches = new AtomicLong();
+	private static final AtomicLong grownBuffers = new AtomicLong();
 
 	protected SSLEngine sslEngine;
 	protected Queue<MessageSendItem> pendingOutboundBuffers = 
 			new LinkedList<MessageSendItem>();
 	protected NioTlsChannelInterface channel;
+	// leased while a partial TLS record waits for the rest of its bytes
 	protected ByteBuffer tlsRecordBuffer;
+	private boolean buffering;
 	private Object unwrapLock = new Object();
 	private Object wrapLock = new Object();
+	private volatile boolean delegatedTasksRunning;
+	private final long handshakeStartTime = System.currentTimeMillis();
+	private boolean handshakeCounted;
 
 	public SSLStateMachine(SSLEngine sslEngine, NioTlsChannelInterface channel) {
 		this.sslEngine = sslEngine;
@@ -72,8 +90,30 @@ public class SSLStateMachine {
 	}
 
 	public void wrapRemaining() throws IOException {
-		wrap(null, channel.prepareEncryptedDataBuffer(), null);
+		synchronized (wrapLock) {
+			// nothing queued while handshaking, spare the buffer lease
+			if(pendingOutboundBuffers.isEmpty()) {
+				return;
+			}
+			wrap(null, channel.prepareEncryptedDataBuffer(), null);
+		}
 	}
+
+	/**
+	 * Encrypt the message and send it with its callback, after the messages
+	 * queued before it. The messages queued while the handshake was running
+	 * are wrapped together when their callbacks are interchangeable, so that
+	 * several small messages share TLS records, and the records produced for
+	 * them are sent with one write as long as they fit the buffer. The other
+	 * messages are sent through their own callback.
+	 *
+	 * @param src the plain text message, null to only push the queued ones.
+	 * @param dst the buffer to encrypt into, leased with
+	 *            {@link NioTlsChannelInterface#prepareEncryptedDataBuffer()}.
+	 *            The state machine releases it.
+	 * @param callback how to send the encrypted message, null to send it over
+	 *            the existing connection.
+	 */
 	public void wrap(ByteBuffer src, ByteBuffer dst, 
 			MessageSendCallback callback) throws IOException {
 		synchronized (wrapLock) {
@@ -87,49 +127,80 @@ public class SSLStateMachine {
 			if(src != null) {
 				pendingOutboundBuffers.offer(new MessageSendItem(src, callback));
 			}
-			int iter = 0;
-			loop:while(true) {
-				iter ++;
+			// the callback of the first message of the records waiting in dst
+			MessageSendItem batchOwner = null;
+			try {
+			loop:while(!delegatedTasksRunning) {
 
 				MessageSendItem currentBuffer = pendingOutboundBuffers.peek();
 
 				// If there is no queued operations break out of the loop
 				if(currentBuffer == null) break;
 
+				if(batchOwner != null 
+						&& !interchangeable(batchOwner.getCallBack(), currentBuffer.getCallBack())) {
+					// the records waiting go out through their own callback
+					sendBatch(dst, batchOwner);
+					batchOwner = null;
+				}
+				// wrap together the messages sent the same way as the first one
+				int count = 0;
+				for(MessageSendItem item : pendingOutboundBuffers) {
+					if(count > 0 && !interchangeable(currentBuffer.getCallBack(), item.getCallBack())) {
+						break;
+					}
+					count++;
+				}
+				ByteBuffer[] messages = new ByteBuffer[count];
+				int i = 0;
+				for(MessageSendItem item : pendingOutboundBuffers) {
+					if(i == count) {
+						break;
+					}
+					messages[i++] = item.message;
+				}
 				SSLEngineResult result;
 				try {
-					result = sslEngine.wrap(currentBuffer.message, dst);
+					result = sslEngine.wrap(messages, dst);
 					if(logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
 						logger.logDebug("Wrap result " + result + " buffers size " + pendingOutboundBuffers.size());
 					}
 				} finally {
-					if(!currentBuffer.message.hasRemaining()) {
+					while(!pendingOutboundBuffers.isEmpty() 
+							&& !pendingOutboundBuffers.peek().message.hasRemaining()) {
 						pendingOutboundBuffers.remove();
+						wrappedMessages.incrementAndGet();
 						if(logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
 							logger.logDebug("REMOVED item from encryption queue because it has no more data, all is done, buffers size now is "
 								+ pendingOutboundBuffers.size() + " current buffer is " + currentBuffer);
 						}
 					}
 				}
-				int remaining = currentBuffer.message.remaining();
 
 				if(logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
-					logger.logDebug("Remaining " + remaining +  " queue size is " + pendingOutboundBuffers.size());
+					logger.logDebug("Remaining " + currentBuffer.message.remaining() +  " queue size is " + pendingOutboundBuffers.size());
 				}
 
+				if(result.getStatus() == Status.BUFFER_OVERFLOW) {
+					if(dst.position() > 0) {
+						// make room by sending the records batched so far
+						sendBatch(dst, batchOwner);
+						batchOwner = null;
+					} else {
+						dst = growBuffer(dst, sslEngine.getSession().getPacketBufferSize(), false);
+					}
+					continue;
+				}
 				if(result.bytesProduced() > 0) {
 					// produced > 0 means encryption was successful and we have something to send over the wire
-					dst.flip();
-					byte[] bytes = new byte[dst.remaining()];
-					dst.get(bytes);
-					if(currentBuffer.getCallBack() != null) {
-						// Send using message channel (it discriminates between client/server and new/old connecitons)
-						currentBuffer.getCallBack().doSend(bytes);
-					} else {
-						// Send using the existing connection without attempting to guess client or server etc
-						sendSSLMetadata(bytes);
+					if(batchOwner == null) {
+						batchOwner = currentBuffer;
+					}
+					if(pendingOutboundBuffers.isEmpty() 
+							|| dst.remaining() < sslEngine.getSession().getPacketBufferSize()) {
+						sendBatch(dst, batchOwner);
+						batchOwner = null;
 					}
-					dst.clear();
 				} else {
 					switch (result.getHandshakeStatus()) {
 					case NEED_WRAP:
@@ -141,9 +212,13 @@ public class SSLStateMachine {
 					case NEED_UNWRAP:
 						break loop;
 					case NEED_TASK:
-						runDelegatedTasks(result);
+						if(runDelegatedTasks(result)) {
+							// the queued messages are wrapped once the tasks are done
+							break loop;
+						}
 						break;
 					case FINISHED:
+						handshakeFinished();
 						// Added for https://java.net/jira/browse/JSIP-483 
 						if(channel instanceof NioTlsMessageChannel) {
 							((NioTlsMessageChannel)channel).setHandshakeCompleted(true);
@@ -173,9 +248,63 @@ public class SSLStateMachine {
 					}
 				}
 			}
+			if(batchOwner != null) {
+				sendBatch(dst, batchOwner);
+			}
+			} finally {
+				ByteBufferFactory.getInstance().release(dst);
+			}
+		}
+	}
+
+	/**
+	 * @return true if the records of the messages of both callbacks may be
+	 *         sent together through the first one: both are null or they are
+	 *         equal. Callbacks only equal each other when they send the same
+	 *         way over the same channel.
+	 */
+	private static boolean interchangeable(MessageSendCallback first, MessageSendCallback second) {
+		return first == null ? second == null : first.equals(second);
+	}
+
+	/**
+	 * Send the records waiting in the buffer and clear it.
+	 */
+	private void sendBatch(ByteBuffer dst, MessageSendItem owner) throws IOException {
+		dst.flip();
+		byte[] bytes = new byte[dst.remaining()];
+		dst.get(bytes);
+		dst.clear();
+		sentBatches.incrementAndGet();
+		if(owner != null && owner.getCallBack() != null) {
+			// Send using message channel (it discriminates between client/server and new/old connecitons)
+			owner.getCallBack().doSend(bytes);
+		} else {
+			// Send using the existing connection without attempting to guess client or server etc
+			sendSSLMetadata(bytes);
 		}
 	}
 
+	/**
+	 * Lease a buffer bigger by at least the given number of bytes, copy the
+	 * pending bytes of the buffer into it and release the buffer.
+	 *
+	 * @param buffer the buffer, in write mode or in read mode if flipped.
+	 */
+	private static ByteBuffer growBuffer(ByteBuffer buffer, int extra, boolean flipped) {
+		ByteBuffer bigger = ByteBufferFactory.getInstance().leaseDirect(buffer.capacity() + extra);
+		if(!flipped) {
+			buffer.flip();
+		}
+		bigger.put(buffer);
+		if(flipped) {
+			bigger.flip();
+		}
+		ByteBufferFactory.getInstance().release(buffer);
+		grownBuffers.incrementAndGet();
+		return bigger;
+	}
+
 	private void wrapNonAppData() throws Exception {
 		ByteBuffer encryptedDataBuffer = channel.prepareEncryptedDataBuffer();
 
@@ -199,6 +328,7 @@ public class SSLStateMachine {
 
 				switch (result.getHandshakeStatus()) {
 				case FINISHED:
+					handshakeFinished();
 					if(logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
 						logger.logDebug("Handshake complete!");
 					}
@@ -223,7 +353,9 @@ public class SSLStateMachine {
 					}
 					break;
 				case NEED_TASK:
-					runDelegatedTasks(result);
+					if(runDelegatedTasks(result)) {
+						return;
+					}
 					break;
 				}
 
@@ -235,40 +367,52 @@ public class SSLStateMachine {
 
 			throw e;
 		} finally {
-
+			ByteBufferFactory.getInstance().release(encryptedDataBuffer);
 		}
 	}
 
 	public void unwrap(ByteBuffer src) throws Exception {
-		ByteBuffer outputBuffer = channel.prepareAppDataBuffer();
-		unwrap(src, outputBuffer);
+		unwrap(src, channel.prepareAppDataBuffer());
 	}
 
 	private void startBuffer(ByteBuffer src) {
-		if(tlsRecordBuffer == null) {
+		if(!buffering && src.hasRemaining()) {
 
 			// Begin buffering, if there is already a buffer the normalization will take of adding the bytes
-			tlsRecordBuffer = ByteBufferFactory.getInstance().allocateDirect(33270); // max record size in other implementations
+			if(src == tlsRecordBuffer) {
+				// the rest of the previous record buffer, keep it in place
+				tlsRecordBuffer.compact();
+			} else {
+				if(tlsRecordBuffer == null) {
+					tlsRecordBuffer = ByteBufferFactory.getInstance().leaseDirect(
+							Math.max(TLS_RECORD_BUFFER_SIZE, src.remaining())); // max record size in other implementations
+				} else {
+					tlsRecordBuffer.clear();
+				}
 
-			// Append the current buffer
-			tlsRecordBuffer.put(src);
+				// Append the current buffer
+				tlsRecordBuffer.put(src);
+			}
 
 			// Prepare the buffer for reading
 			tlsRecordBuffer.flip();
+			buffering = true;
 
 			if(logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
-				logger.logDebug("Allocated record buffer for reading " + tlsRecordBuffer + " for src = " + src);
+				logger.logDebug("Started record buffer for reading " + tlsRecordBuffer + " for src = " + src);
 			}
 		}
 	}
 	private void clearBuffer() {
-		tlsRecordBuffer = null;
+		// the buffer may still hold the next records, it is released once
+		// the unwrapping is over
+		buffering = false;
 		if(logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
 			logger.logDebug("Buffer cleared");
 		}
 	}
 	private ByteBuffer normalizeTlsRecordBuffer(ByteBuffer src) {
-		if(tlsRecordBuffer == null) {
+		if(!buffering || src == tlsRecordBuffer) {
 			return src;
 		} else {
 			if(logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
@@ -276,6 +420,10 @@ public class SSLStateMachine {
 						+ tlsRecordBuffer);
 			}
 
+			if(tlsRecordBuffer.capacity() - tlsRecordBuffer.limit() < src.remaining()) {
+				tlsRecordBuffer = growBuffer(tlsRecordBuffer, src.remaining(), true);
+			}
+
 			// Reverse flip() to prepare the buffer to writing in append mode
 			tlsRecordBuffer.position(tlsRecordBuffer.limit());
 			tlsRecordBuffer.limit(tlsRecordBuffer.capacity());
@@ -290,10 +438,15 @@ public class SSLStateMachine {
 	}
 	private void unwrap(ByteBuffer src, ByteBuffer dst) throws Exception {
 		synchronized (unwrapLock) {
-
+			try {
 
 			loop:while(true) {
 				src = normalizeTlsRecordBuffer(src);
+				if(delegatedTasksRunning) {
+					// the engine can't make progress, keep the bytes for when the tasks are done
+					startBuffer(src);
+					break;
+				}
 				if(logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
 					logger.logDebug("Unwrap src " + src + " dst " 
 							+ dst);
@@ -319,6 +472,12 @@ public class SSLStateMachine {
 						logger.logDebug("Buffer underflow, wait for the next inbound chunk of data to feed the SSL engine");
 					}
 					startBuffer(src);
+					if(result.getHandshakeStatus() == HandshakeStatus.NEED_WRAP) {
+						// the delegated tasks run inline left handshake data to send,
+						// nothing else would send it before the peer gives up
+						wrapNonAppData();
+						wrapRemaining();
+					}
 					break;
 				} else {
 					clearBuffer();
@@ -334,6 +493,8 @@ public class SSLStateMachine {
 					ByteBuffer newBuf = channel.prepareAppDataBuffer(sslEngine.getSession().getPacketBufferSize() + dst.position());
 					dst.flip();
 					newBuf.put(dst);
+					ByteBufferFactory.getInstance().release(dst);
+					grownBuffers.incrementAndGet();
 					dst = newBuf;
 					if(logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
 						logger.logDebug(" new outNetBuffer remaining: " +  dst.remaining()
@@ -346,6 +507,8 @@ public class SSLStateMachine {
 					dst.flip();
 					byte[] a = new byte[dst.remaining()];
 					dst.get(a);
+					// the next record is decrypted from the start of the buffer
+					dst.clear();
 					// take it and feed the plain text to out chunk-by-chunk parser
 					channel.addPlaintextBytes(a);
 				}
@@ -363,9 +526,14 @@ public class SSLStateMachine {
 					wrapNonAppData();
 					break;
 				case NEED_TASK:
-					runDelegatedTasks(result);
+					if(runDelegatedTasks(result)) {
+						// keep the rest for when the tasks are done
+						startBuffer(src);
+						break loop;
+					}
 					break;
 				case FINISHED:
+					handshakeFinished();
 					if(logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
 						logger.logDebug("Handshaking just finnished, but has remaining. Will try to wrap the queues app items.");
 					}
@@ -428,10 +596,26 @@ public class SSLStateMachine {
 					break;
 				}
 			}
+			} finally {
+				// decrypted bytes are copied out before being handed to the parser
+				ByteBufferFactory.getInstance().release(dst);
+				if(!buffering && tlsRecordBuffer != null) {
+					ByteBufferFactory.getInstance().release(tlsRecordBuffer);
+					tlsRecordBuffer = null;
+				}
+			}
 		}
 	}
 
-	private void runDelegatedTasks(SSLEngineResult result) throws IOException {
+	/**
+	 * Run the delegated tasks of the engine, on the TLS handshake executor of
+	 * the stack when it has one so that the selector thread doesn't do the
+	 * handshake computations. The handshake resumes once they are done.
+	 *
+	 * @return true if the tasks run in the background and the caller must
+	 *         leave the engine alone until then.
+	 */
+	private boolean runDelegatedTasks(SSLEngineResult result) throws IOException {
 		if(logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
 			logger.logDebug("Running delegated task for " + result);
 		}
@@ -441,6 +625,25 @@ public class SSLStateMachine {
 		 *  Call them every time they have NEED_TASK otherwise the sslEngine won't make progress
 		 */
 		if (result.getHandshakeStatus() == HandshakeStatus.NEED_TASK) {
+			Executor executor = channel.getSIPStack().getTlsHandshakeExecutor();
+			if(executor != null) {
+				synchronized (this) {
+					if(delegatedTasksRunning) {
+						// another thread handed them over already
+						return true;
+					}
+					delegatedTasksRunning = true;
+				}
+				try {
+					executor.execute(new DelegatedTasks());
+					return true;
+				} catch (RejectedExecutionException e) {
+					delegatedTasksRunning = false;
+					if(logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+						logger.logDebug("TLS handshake executor is full, running the tasks inline");
+					}
+				}
+			}
 			Runnable runnable;
 			while ((runnable = sslEngine.getDelegatedTask()) != null) {
 				runnable.run();
@@ -454,12 +657,88 @@ public class SSLStateMachine {
 						"handshake shouldn't need additional tasks");
 			}
 		}
+		return false;
+	}
+
+	/**
+	 * Runs the delegated tasks in the background and carries on with the
+	 * bytes received and the messages queued meanwhile.
+	 */
+	private class DelegatedTasks implements Runnable {
+		public void run() {
+			try {
+				Runnable runnable;
+				while ((runnable = sslEngine.getDelegatedTask()) != null) {
+					runnable.run();
+				}
+			} finally {
+				delegatedTasksRunning = false;
+			}
+			try {
+				unwrap(EMPTY_BUFFER);
+				wrapRemaining();
+			} catch (Exception e) {
+				logger.logError("TLS handshake failed after its delegated tasks", e);
+				if(channel instanceof MessageChannel) {
+					((MessageChannel) channel).close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Count the handshake on the listening point, once, as resumed if its
+	 * session existed before the handshake started.
+	 */
+	private void handshakeFinished() {
+		if(handshakeCounted) {
+			return;
+		}
+		handshakeCounted = true;
+		SSLSession session = sslEngine.getSession();
+		boolean resumed = session != null && session.getCreationTime() < handshakeStartTime;
+		if(logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+			logger.logDebug((resumed ? "Resumed" : "Full") + " TLS handshake with session " + session);
+		}
+		channel.handshakeFinished(resumed);
+	}
+
+	/**
+	 * @return the number of plain text messages encrypted so far by all the
+	 *         TLS channels.
+	 */
+	public static long getWrappedMessages() {
+		return wrappedMessages.get();
+	}
+
+	/**
+	 * @return the number of writes of encrypted records so far, lower than
+	 *         the number of messages when messages share records.
+	 */
+	public static long getSentBatches() {
+		return sentBatches.get();
+	}
+
+	/**
+	 * @return the number of times a TLS buffer had to be replaced by a bigger
+	 *         one. The buffers themselves are leased from the
+	 *         {@link ByteBufferFactory} pool, which counts how many leases were
+	 *         served without allocating.
+	 */
+	public static long getGrownBuffers() {
+		return grownBuffers.get();
 	}
 
 	public void sendSSLMetadata(byte[] msg) throws IOException {
 		channel.sendEncryptedData(msg);
 	}
 
+	/**
+	 * Sends the encrypted records of a message. The records of several queued
+	 * messages go out through the callback of the first one when the callbacks
+	 * are equal, so callbacks only override equals when they are
+	 * interchangeable.
+	 */
 	public static interface MessageSendCallback {
 		public void doSend(byte[] bytes) throws IOException;
 	}
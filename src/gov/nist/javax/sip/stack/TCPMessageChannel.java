@@ -108,9 +108,7 @@ public class TCPMessageChannel extends ConnectionOrientedMessageChannel {
         myAddress = msgProcessor.getIpAddress().getHostAddress();
         myClientInputStream = mySock.getInputStream();
         myClientOutputStream = mySock.getOutputStream();
-        mythread = new Thread(this);
-        mythread.setDaemon(true);
-        mythread.setName(threadName);
+        mythread = sipStack.newThread(this, threadName, true);
         this.peerPort = mySock.getPort();
         this.key = MessageChannel.getKey(peerAddress, peerPort, "TCP");
 
@@ -227,7 +225,16 @@ public class TCPMessageChannel extends ConnectionOrientedMessageChannel {
      *            is the message to send.
      * @param isClient
      */
-    protected  synchronized void sendMessage(byte[] msg, boolean isClient) throws IOException {
+    protected void sendMessage(byte[] msg, boolean isClient) throws IOException {
+        sendLock.lock();
+        try {
+            sendMessageLocked(msg, isClient);
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    private void sendMessageLocked(byte[] msg, boolean isClient) throws IOException {
 
         if ( logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
             logger.logDebug("sendMessage isClient  = " + isClient);
@@ -249,7 +256,7 @@ public class TCPMessageChannel extends ConnectionOrientedMessageChannel {
                             + " key = " + key + " retrying on peerPortAdvertisedInHeaders "
                             + peerPortAdvertisedInHeaders);
                 }
-        		InetAddress address = InetAddress.getByName(peerAddressAdvertisedInHeaders);
+        		InetAddress address = sipStack.getByName(peerAddressAdvertisedInHeaders);
                 sock = this.sipStack.ioHandler.sendBytes(this.messageProcessor.getIpAddress(),
                 		address, this.peerPortAdvertisedInHeaders, this.peerProtocol, msg, isClient, this);        		
         		this.peerPort = this.peerPortAdvertisedInHeaders;
@@ -297,9 +304,7 @@ public class TCPMessageChannel extends ConnectionOrientedMessageChannel {
 	            mySock = sock;
 	            this.myClientInputStream = mySock.getInputStream();
 	            this.myClientOutputStream = mySock.getOutputStream();
-	            Thread thread = new Thread(this);
-	            thread.setDaemon(true);
-	            thread.setName("TCPMessageChannelThread");
+	            Thread thread = sipStack.newThread(this, "TCPMessageChannelThread", true);
 	            thread.start();
        	} else {
        		if(logger.isLoggingEnabled(LogWriter.TRACE_WARN)) {
@@ -324,7 +329,17 @@ public class TCPMessageChannel extends ConnectionOrientedMessageChannel {
      * @throws IOException
      *             If there is a problem connecting or sending.
      */
-    public synchronized void sendMessage(byte message[], InetAddress receiverAddress,
+    public void sendMessage(byte message[], InetAddress receiverAddress,
+            int receiverPort, boolean retry) throws IOException {
+        sendLock.lock();
+        try {
+            sendMessageLocked(message, receiverAddress, receiverPort, retry);
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    private void sendMessageLocked(byte message[], InetAddress receiverAddress,
             int receiverPort, boolean retry) throws IOException {
         if (message == null || receiverAddress == null)
             throw new IllegalArgumentException("Null argument");
@@ -362,7 +377,7 @@ public class TCPMessageChannel extends ConnectionOrientedMessageChannel {
                             + " receiverPort = " + receiverPort + " key = " + key
                             + " retrying on peerPortAdvertisedInHeaders " + peerPortAdvertisedInHeaders);
                 }
-        		InetAddress address = InetAddress.getByName(peerAddressAdvertisedInHeaders);
+        		InetAddress address = sipStack.getByName(peerAddressAdvertisedInHeaders);
                 sock = this.sipStack.ioHandler.sendBytes(this.messageProcessor.getIpAddress(),
                     address, this.peerPortAdvertisedInHeaders, "TCP", message, retry, this);
         		this.peerPort = this.peerPortAdvertisedInHeaders;
@@ -405,9 +420,7 @@ public class TCPMessageChannel extends ConnectionOrientedMessageChannel {
 	            this.myClientInputStream = mySock.getInputStream();
 	            this.myClientOutputStream = mySock.getOutputStream();
 	            // start a new reader on this end of the pipe.
-	            Thread mythread = new Thread(this);
-	            mythread.setDaemon(true);
-	            mythread.setName("TCPMessageChannelThread");
+	            Thread mythread = sipStack.newThread(this, "TCPMessageChannelThread", true);
 	            mythread.start();
             } else {
             	if(logger.isLoggingEnabled(LogWriter.TRACE_WARN)) {
@@ -79,10 +79,9 @@ public class TCPMessageProcessor extends ConnectionOrientedMessageProcessor impl
      * Start the processor.
      */
     public void start() throws IOException {
-        Thread thread = new Thread(this);
-        thread.setName("MessageProcessorThread-TCP-" + getIpAddress().getHostAddress() + '/' + getPort());
+        Thread thread = sipStack.newThread(this,
+                "MessageProcessorThread-TCP-" + getIpAddress().getHostAddress() + '/' + getPort(), true);
         thread.setPriority(sipStack.getThreadPriority());
-        thread.setDaemon(true);
         this.sock = sipStack.getNetworkLayer().createServerSocket(getPort(), 0, getIpAddress());
         if (getIpAddress().getHostAddress().equals(IN_ADDR_ANY)
                 || getIpAddress().getHostAddress().equals(IN6_ADDR_ANY)) {
@@ -187,7 +186,7 @@ public class TCPMessageProcessor extends ConnectionOrientedMessageProcessor impl
         if (messageChannels.get(key) != null) {
             return (TCPMessageChannel) this.messageChannels.get(key);
         } else {
-            TCPMessageChannel retval = new TCPMessageChannel(targetHostPort.getInetAddress(),
+            TCPMessageChannel retval = new TCPMessageChannel(getInetAddress(targetHostPort),
                     targetHostPort.getPort(), sipStack, this);
             this.messageChannels.put(key, retval);
             retval.isCached = true;
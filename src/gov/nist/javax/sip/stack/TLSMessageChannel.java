@@ -120,9 +120,7 @@ public class TLSMessageChannel extends ConnectionOrientedMessageChannel {
         myAddress = msgProcessor.getIpAddress().getHostAddress();
         myClientInputStream = mySock.getInputStream();
 
-        mythread = new Thread(this);
-        mythread.setDaemon(true);
-        mythread.setName(threadName);
+        mythread = sipStack.newThread(this, threadName, true);
 
         this.myPort = msgProcessor.getPort();
         this.peerPort = mySock.getPort();
@@ -227,7 +225,16 @@ public class TLSMessageChannel extends ConnectionOrientedMessageChannel {
      *            is the message to send.
      * @param retry
      */
-    protected synchronized void sendMessage(byte[] msg, boolean retry) throws IOException {
+    protected void sendMessage(byte[] msg, boolean retry) throws IOException {
+        sendLock.lock();
+        try {
+            sendMessageLocked(msg, retry);
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    private void sendMessageLocked(byte[] msg, boolean retry) throws IOException {
 
     	if ( logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
              logger.logDebug("sendMessage isClient  = " + retry);
@@ -246,7 +253,7 @@ public class TLSMessageChannel extends ConnectionOrientedMessageChannel {
         if(sock == null) { // http://java.net/jira/browse/JSIP-362 If we couldn't connect to the host, try the advertised host:port as failsafe
         	if(peerAddressAdvertisedInHeaders  != null && peerPortAdvertisedInHeaders > 0) { 
                 logger.logWarning("Couldn't connect to peerAddress = " + peerAddress + " peerPort = " + peerPort + " key = " + key +  " retrying on peerPortAdvertisedInHeaders " + peerPortAdvertisedInHeaders);
-                InetAddress address = InetAddress.getByName(peerAddressAdvertisedInHeaders);
+                InetAddress address = sipStack.getByName(peerAddressAdvertisedInHeaders);
                 sock = this.sipStack.ioHandler.sendBytes(this.messageProcessor.getIpAddress(),
                     address, this.peerPortAdvertisedInHeaders, this.peerProtocol, msg, retry, this);        		
         		this.peerPort = this.peerPortAdvertisedInHeaders;
@@ -286,9 +293,7 @@ public class TLSMessageChannel extends ConnectionOrientedMessageChannel {
           		}
    	            mySock = sock;
    	            this.myClientInputStream = mySock.getInputStream();
-   	            Thread thread = new Thread(this);
-   	            thread.setDaemon(true);
-   	            thread.setName("TCPMessageChannelThread");
+   	            Thread thread = sipStack.newThread(this, "TCPMessageChannelThread", true);
    	            thread.start();
           	} else {
           		if(logger.isLoggingEnabled(LogWriter.TRACE_WARN)) {
@@ -313,7 +318,17 @@ public class TLSMessageChannel extends ConnectionOrientedMessageChannel {
      * @throws IOException
      *             If there is a problem connecting or sending.
      */
-    public synchronized void sendMessage(byte message[], InetAddress receiverAddress,
+    public void sendMessage(byte message[], InetAddress receiverAddress,
+            int receiverPort, boolean retry) throws IOException {
+        sendLock.lock();
+        try {
+            sendMessageLocked(message, receiverAddress, receiverPort, retry);
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    private void sendMessageLocked(byte message[], InetAddress receiverAddress,
             int receiverPort, boolean retry) throws IOException {
         if (message == null || receiverAddress == null)
             throw new IllegalArgumentException("Null argument");
@@ -351,7 +366,7 @@ public class TLSMessageChannel extends ConnectionOrientedMessageChannel {
         if(sock == null) { // http://java.net/jira/browse/JSIP-362 If we couldn't connect to the host, try the advertised host:port as failsafe
         	if(peerAddressAdvertisedInHeaders  != null && peerPortAdvertisedInHeaders > 0) {
         		logger.logWarning("Couldn't connect to receiverAddress = " + receiverAddress + " receiverPort = " + receiverPort + " key = " + key +  " retrying on peerPortAdvertisedInHeaders " + peerPortAdvertisedInHeaders);
-        		InetAddress address = InetAddress.getByName(peerAddressAdvertisedInHeaders);
+        		InetAddress address = sipStack.getByName(peerAddressAdvertisedInHeaders);
             	sock = this.sipStack.ioHandler.sendBytes(this.messageProcessor.getIpAddress(),
             			address, this.peerPortAdvertisedInHeaders, "TLS", message, retry, this);
         		this.peerPort = this.peerPortAdvertisedInHeaders;
@@ -394,9 +409,7 @@ public class TLSMessageChannel extends ConnectionOrientedMessageChannel {
 	            mySock = sock;
 	            this.myClientInputStream = mySock.getInputStream();
 	            // start a new reader on this end of the pipe.
-	            Thread mythread = new Thread(this);
-	            mythread.setDaemon(true);
-	            mythread.setName("TCPMessageChannelThread");
+	            Thread mythread = sipStack.newThread(this, "TCPMessageChannelThread", true);
 	            mythread.start();
             } else {
             	if(logger.isLoggingEnabled(LogWriter.TRACE_WARN)) {
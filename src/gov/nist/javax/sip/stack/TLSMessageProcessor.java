@@ -86,11 +86,10 @@ public class TLSMessageProcessor extends ConnectionOrientedMessageProcessor impl
      * Start the processor.
      */
     public void start() throws IOException {
-        Thread thread = new Thread(this);
-        thread.setName("MessageProcessorThread-TLS-" + getIpAddress().getHostAddress() + '/' + getPort());
+        Thread thread = sipStack.newThread(this,
+                "MessageProcessorThread-TLS-" + getIpAddress().getHostAddress() + '/' + getPort(), true);
         // ISSUE 184
         thread.setPriority(sipStack.getThreadPriority());
-        thread.setDaemon(true);
 
         this.sock = sipStack.getNetworkLayer().createSSLServerSocket(this.getPort(), 0,
                 this.getIpAddress());
@@ -239,7 +238,7 @@ public class TLSMessageProcessor extends ConnectionOrientedMessageProcessor impl
         if (messageChannels.get(key) != null) {
             return (TLSMessageChannel) this.messageChannels.get(key);
         } else {
-            TLSMessageChannel retval = new TLSMessageChannel(targetHostPort.getInetAddress(),
+            TLSMessageChannel retval = new TLSMessageChannel(getInetAddress(targetHostPort),
                     targetHostPort.getPort(), sipStack, this);
             this.messageChannels.put(key, retval);
             retval.isCached = true;
@@ -57,9 +57,11 @@ import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 import java.util.Arrays;
 import java.util.Hashtable;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 import javax.sip.address.Hop;
@@ -138,6 +140,11 @@ public class UDPMessageChannel extends MessageChannel implements
 
     private Thread mythread = null;
 
+    /**
+     * The queue this pooled channel takes its work from.
+     */
+    private BlockingQueue<DatagramQueuedMessageDispatch> workQueue;
+
     /*
      * A table that keeps track of when the last pingback was sent to a given
      * remote IP address and port. This is for NAT compensation. This stays in
@@ -179,8 +186,28 @@ public class UDPMessageChannel extends MessageChannel implements
      */
     protected UDPMessageChannel(SIPTransactionStack stack,
             UDPMessageProcessor messageProcessor, String threadName) {
+        this(stack, messageProcessor, messageProcessor.messageQueue, threadName);
+    }
+
+    /**
+     * Constructor - creates a pooled channel draining the given queue of one
+     * of the receive loops of the message processor.
+     *
+     * @param stack
+     *            is the shared SIPStack structure
+     * @param messageProcessor
+     *            is the creating message processor.
+     * @param workQueue
+     *            the queue the incoming datagrams are taken from
+     * @param threadName
+     *            name that will be affected to the underlying thread
+     */
+    protected UDPMessageChannel(SIPTransactionStack stack,
+            UDPMessageProcessor messageProcessor,
+            BlockingQueue<DatagramQueuedMessageDispatch> workQueue, String threadName) {
         super.messageProcessor = messageProcessor;
         this.sipStack = stack;
+        this.workQueue = workQueue;
 
         // jeand : Create a new string message parser to parse the list of
         // messages.
@@ -273,6 +300,7 @@ public class UDPMessageChannel extends MessageChannel implements
         while (true) {
             // messages that we write out to him.
             DatagramPacket packet = null;
+            ByteBuffer leasedBuffer = null;
 
             if (sipStack.threadPoolSize != -1) {
 
@@ -291,10 +319,10 @@ public class UDPMessageChannel extends MessageChannel implements
                 	// adding condition to avoid looping and taking too much CPU if the 
                 	// auditing is not enabled
                 	if (threadHandle != null && sipStack.getThreadAuditor() !=null && sipStack.getThreadAuditor().isEnabled()) {
-                		work = udpMessageProcessor.messageQueue.poll(threadHandle
+                		work = workQueue.poll(threadHandle
 	                        .getPingIntervalInMillisecs(), TimeUnit.MILLISECONDS);
                 	} else {
-                		work = udpMessageProcessor.messageQueue.take();
+                		work = workQueue.take();
                 	}
 	                if (!udpMessageProcessor.isRunning) {
 	                    return;
@@ -302,7 +330,12 @@ public class UDPMessageChannel extends MessageChannel implements
 	                if (work == null) {
 	                	continue;
 	                } else {
+	                	LoadMonitor loadMonitor = sipStack.getLoadMonitor();
+	                	if (loadMonitor != null) {
+	                		loadMonitor.queueDelay(System.currentTimeMillis() - work.getReceptionTime());
+	                	}
 	                	packet = work.packet;
+	                	leasedBuffer = work.buffer;
 		                this.incomingPacket = work.packet;						
 	                }	                	
                 } catch (InterruptedException ex) {
@@ -321,6 +354,9 @@ public class UDPMessageChannel extends MessageChannel implements
 
                 logger.logError(
                         "Error while processing incoming UDP packet" + Arrays.toString(packet.getData()), e);
+            } finally {
+                // the message bytes were copied out of the pooled buffer
+                ByteBufferFactory.getInstance().release(leasedBuffer);
             }
 
             if (sipStack.threadPoolSize == -1) {
@@ -342,7 +378,7 @@ public class UDPMessageChannel extends MessageChannel implements
         // Read bytes and put it in a eueue.
         byte[] bytes = packet.getData();
         byte[] msgBytes = new byte[packetLength];
-        System.arraycopy(bytes, 0, msgBytes, 0, packetLength);
+        System.arraycopy(bytes, packet.getOffset(), msgBytes, 0, packetLength);
 
         // Do debug logging.
         if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
@@ -433,15 +469,13 @@ public class UDPMessageChannel extends MessageChannel implements
             if (pingBackRecord.get(key) == null
                     && sipStack.getMinKeepAliveInterval() > 0) {
                 byte[] retval = "\r\n\r\n".getBytes();
-                DatagramPacket keepalive = new DatagramPacket(retval, 0,
-                        retval.length, packet.getAddress(), packet.getPort());
                 PingBackTimerTask task = new PingBackTimerTask(packet
                         .getAddress().getHostAddress(), packet.getPort());
                 this.pingBackRecord.put(key, task);
                 this.sipStack.getTimer().schedule(task,
                         sipStack.getMinKeepAliveInterval() * 1000);
-                ((UDPMessageProcessor) this.messageProcessor).sock
-                        .send(keepalive);
+                ((UDPMessageProcessor) this.messageProcessor).send(retval,
+                        packet.getAddress(), packet.getPort());
             } else {
                 logger.logDebug("Not sending ping back");
             }
@@ -810,18 +844,13 @@ public class UDPMessageChannel extends MessageChannel implements
             }
 
         }
-        DatagramPacket reply = new DatagramPacket(msg, msg.length, peerAddress,
-                peerPort);
         try {
-            DatagramSocket sock;
-            boolean created = false;
-
             if (sipStack.udpFlag) {
                 // Use the socket from the message processor (for firewall
                 // support use the same socket as the message processor
                 // socket -- feature request # 18 from java.net). This also
                 // makes the whole thing run faster!
-                sock = ((UDPMessageProcessor) messageProcessor).sock;
+                ((UDPMessageProcessor) messageProcessor).send(msg, peerAddress, peerPort);
 
                 // Bind the socket to the stack address in case there
                 // are multiple interfaces on the machine (feature reqeust
@@ -829,12 +858,11 @@ public class UDPMessageChannel extends MessageChannel implements
                 // sock = new DatagramSocket(0,sipStack.stackInetAddress);
             } else {
                 // bind to any interface and port.
-                sock = new DatagramSocket();
-                created = true;
-            }
-            sock.send(reply);
-            if (created)
+                DatagramSocket sock = new DatagramSocket();
+                sock.send(new DatagramPacket(msg, msg.length, peerAddress,
+                        peerPort));
                 sock.close();
+            }
         } catch (IOException ex) {
             throw ex;
         } catch (Exception ex) {
@@ -875,26 +903,21 @@ public class UDPMessageChannel extends MessageChannel implements
             }
         }
         if (peerProtocol.compareToIgnoreCase("UDP") == 0) {
-            DatagramPacket reply = new DatagramPacket(msg, msg.length,
-                    peerAddress, peerPort);
-
             try {
-                DatagramSocket sock;
-                if (sipStack.udpFlag) {
-                    sock = ((UDPMessageProcessor) messageProcessor).sock;
-
-                } else {
-                    // bind to any interface and port.
-                    sock = sipStack.getNetworkLayer().createDatagramSocket();
-                }
                 if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
                     this.logger.logDebug(
                             "sendMessage " + peerAddress.getHostAddress() + "/"
                                     + peerPort + "\n" + new String(msg));
                 }
-                sock.send(reply);
-                if (!sipStack.udpFlag)
+                if (sipStack.udpFlag) {
+                    ((UDPMessageProcessor) messageProcessor).send(msg, peerAddress, peerPort);
+                } else {
+                    // bind to any interface and port.
+                    DatagramSocket sock = sipStack.getNetworkLayer().createDatagramSocket();
+                    sock.send(new DatagramPacket(msg, msg.length,
+                            peerAddress, peerPort));
                     sock.close();
+                }
             } catch (IOException ex) {
                 throw ex;
             } catch (Exception ex) {
@@ -33,18 +33,27 @@ import gov.nist.core.HostPort;
 import gov.nist.core.LogWriter;
 import gov.nist.core.StackLogger;
 import gov.nist.core.ThreadAuditor;
+import gov.nist.core.net.DatagramIO;
+import gov.nist.core.net.DatagramIOFactory;
+import gov.nist.core.net.NioDatagramIO;
 import gov.nist.javax.sip.SipStackImpl;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.sip.IOExceptionEvent;
 import javax.sip.SipListener;
@@ -69,6 +78,17 @@ import javax.sip.SipListener;
  * stack that were incorporated into this code. Niklas Uhrberg suggested that
  * thread pooling be added to limit the number of threads and improve
  * performance.
+ *
+ * When gov.nist.javax.sip.UDP_RECEIVE_THREADS is set to more than one, the
+ * listening point is served by that many receive loops. Each loop owns its own
+ * socket (bound to the same address and port with SO_REUSEPORT so that the
+ * kernel spreads datagrams over them) and its own worker queue. If the
+ * platform does not support SO_REUSEPORT all loops read from the same socket.
+ *
+ * When gov.nist.javax.sip.UDP_BATCH_SIZE is set, each socket is driven by a
+ * non-blocking DatagramIO: its receive loop also writes the datagrams queued
+ * by the senders and reads up to that many datagrams per wake up. Without
+ * SO_REUSEPORT a single loop serves the socket in that mode.
  */
 public class UDPMessageProcessor extends MessageProcessor implements Runnable {
 	
@@ -100,6 +120,26 @@ public class UDPMessageProcessor extends MessageProcessor implements Runnable {
 
     protected DatagramSocket sock;
 
+    /**
+     * Drives sock when gov.nist.javax.sip.UDP_BATCH_SIZE is set, null when
+     * sock is a blocking socket.
+     */
+    private DatagramIO datagramIO;
+
+    /**
+     * The receive loops serving this listening point. The first one always
+     * reads from sock and feeds messageQueue.
+     */
+    private List<UDPReceiveLoop> receiveLoops;
+
+    /**
+     * Datagrams read by the batching receive loops and the wake ups that read
+     * them.
+     */
+    private final AtomicLong batchedDatagrams = new AtomicLong();
+
+    private final AtomicLong receiveBatches = new AtomicLong();
+
     /**
      * A flag that is set to false to exit the message processor (suggestion by
      * Jeff Keyser).
@@ -110,6 +150,9 @@ public class UDPMessageProcessor extends MessageProcessor implements Runnable {
     
     private static final int LOWAT=2500;
 
+    // Most datagrams waiting to be sent on a socket driven by a DatagramIO
+    private static final int MAX_QUEUED_DATAGRAMS = 10000;
+
     private int maxMessageSize = SipStackImpl.MAX_DATAGRAM_SIZE;
     private int exceptionsReportedCounter;
     private static final int MAX_EXCEPTIONS_TO_REPORT = 10;
@@ -140,21 +183,73 @@ public class UDPMessageProcessor extends MessageProcessor implements Runnable {
         }
 
         this.port = port;
+        this.receiveLoops = new ArrayList<UDPReceiveLoop>();
         try {
-            this.sock = sipStack.getNetworkLayer().createDatagramSocket(port,
-                    ipAddress);
+            int receiveThreads = sipStack.getUdpReceiveThreads();
+            // the sockets come from the network layer, the layers that do not
+            // implement DatagramIOFactory get neither batching nor SO_REUSEPORT
+            DatagramIOFactory datagramIOFactory = sipStack.getNetworkLayer() instanceof DatagramIOFactory
+                    ? (DatagramIOFactory) sipStack.getNetworkLayer() : null;
+            boolean batching = sipStack.getUdpBatchSize() > 0 && datagramIOFactory != null;
+            boolean reusePort = false;
+            if (receiveThreads > 1 && datagramIOFactory != null) {
+                DatagramChannel channel = datagramIOFactory.createReusePortChannel(port, ipAddress);
+                if (channel != null) {
+                    reusePort = true;
+                    this.datagramIO = batching ? new NioDatagramIO(channel, MAX_QUEUED_DATAGRAMS) : null;
+                    this.sock = channel.socket();
+                }
+            } else if (receiveThreads > 1 && logger.isLoggingEnabled(LogWriter.TRACE_WARN)) {
+                logger.logWarning("The network layer " + sipStack.getNetworkLayer().getClass().getName()
+                        + " does not implement DatagramIOFactory, the " + receiveThreads
+                        + " UDP receive threads will share a single socket");
+            }
+            if (this.sock == null && batching) {
+                this.datagramIO = datagramIOFactory.createDatagramIO(port, ipAddress, MAX_QUEUED_DATAGRAMS);
+                if (this.datagramIO != null) {
+                    this.sock = datagramIO.getSocket();
+                }
+            }
+            if (this.sock == null) {
+                this.sock = sipStack.getNetworkLayer().createDatagramSocket(port,
+                        ipAddress);
+            }
+            if (receiveThreads > 1 && !reusePort && datagramIOFactory != null
+                    && logger.isLoggingEnabled(LogWriter.TRACE_INFO)) {
+                logger.logInfo("SO_REUSEPORT is not available, the "
+                        + receiveThreads + " UDP receive threads will share a single socket");
+            }
             // Create a new datagram socket.
-            sock.setReceiveBufferSize(sipStack.getReceiveUdpBufferSize());
-            sock.setSendBufferSize(sipStack.getSendUdpBufferSize());
+            configureSocket(sock);
+            receiveLoops.add(new UDPReceiveLoop(sock, datagramIO, messageQueue, congestionAuditor));
 
-            /**
-             * If the thread auditor is enabled, define a socket timeout value in order to
-             * prevent sock.receive() from blocking forever
-             */
-            // Contribution for https://github.com/Mobicents/jain-sip/issues/39
-            if (sipStack.getThreadAuditor() != null && sipStack.getThreadAuditor().isEnabled()) {
-                sock.setSoTimeout((int) sipStack.getThreadAuditor().getPingIntervalInMillisecs());
+            // A datagram I/O is read by its own thread only
+            if (datagramIO != null && !reusePort) {
+                receiveThreads = 1;
+            }
+            for (int i = 1; i < receiveThreads; i++) {
+                DatagramSocket loopSocket = sock;
+                DatagramIO loopIO = null;
+                if (reusePort) {
+                    DatagramChannel channel = datagramIOFactory.createReusePortChannel(sock.getLocalPort(), ipAddress);
+                    if (channel == null) {
+                        throw new IOException("SO_REUSEPORT refused for receive thread " + i);
+                    }
+                    loopIO = datagramIO != null ? new NioDatagramIO(channel, MAX_QUEUED_DATAGRAMS) : null;
+                    loopSocket = channel.socket();
+                    configureSocket(loopSocket);
+                }
+                BlockingQueue<DatagramQueuedMessageDispatch> loopQueue =
+                    new LinkedBlockingQueue<DatagramQueuedMessageDispatch>();
+                BlockingQueueDispatchAuditor loopAuditor = null;
+                if(sipStack.getStackCongestionControlTimeout()>0) {
+                    loopAuditor = new BlockingQueueDispatchAuditor(loopQueue);
+                    loopAuditor.setTimeout(sipStack.getStackCongestionControlTimeout());
+                    loopAuditor.start(2000);
+                }
+                receiveLoops.add(new UDPReceiveLoop(loopSocket, loopIO, loopQueue, loopAuditor));
             }
+
             if ( ipAddress.getHostAddress().equals(IN_ADDR_ANY)  ||
                  ipAddress.getHostAddress().equals(IN6_ADDR_ANY)){
                 // Store the address to which we are actually bound
@@ -165,11 +260,46 @@ public class UDPMessageProcessor extends MessageProcessor implements Runnable {
 
             }
         } catch (Exception ex) {
-        	if(this.congestionAuditor != null) this.congestionAuditor.stop();
+            for (UDPReceiveLoop loop : receiveLoops) {
+                if (loop.auditor != null && loop.auditor != congestionAuditor) loop.auditor.stop();
+                if (loop.socket != sock) loop.close();
+            }
+            if(this.congestionAuditor != null) this.congestionAuditor.stop();
+            if (this.datagramIO != null) this.datagramIO.close();
+            else if (this.sock != null) this.sock.close();
             throw new IOException(ex);
         }
     }
 
+    /**
+     * Apply the stack wide buffer sizes and timeouts to a receive socket.
+     */
+    private void configureSocket(DatagramSocket socket) throws SocketException {
+        socket.setReceiveBufferSize(sipStack.getReceiveUdpBufferSize());
+        socket.setSendBufferSize(sipStack.getSendUdpBufferSize());
+
+        /**
+         * If the thread auditor is enabled, define a socket timeout value in order to
+         * prevent sock.receive() from blocking forever
+         */
+        // Contribution for https://github.com/Mobicents/jain-sip/issues/39
+        if (sipStack.getThreadAuditor() != null && sipStack.getThreadAuditor().isEnabled()) {
+            socket.setSoTimeout((int) sipStack.getThreadAuditor().getPingIntervalInMillisecs());
+        }
+    }
+
+    /**
+     * Send a datagram from the socket of this listening point. With a datagram
+     * I/O the datagram is queued and this returns at once.
+     */
+    void send(byte[] data, InetAddress address, int port) throws IOException {
+        if (datagramIO != null) {
+            datagramIO.send(data, 0, data.length, new InetSocketAddress(address, port));
+        } else {
+            sock.send(new DatagramPacket(data, data.length, address, port));
+        }
+    }
+
 
 
     /**
@@ -204,71 +334,187 @@ public class UDPMessageProcessor extends MessageProcessor implements Runnable {
         // Check for running flag.
         this.messageChannels = new LinkedList();
         // start all our messageChannels (unless the thread pool size is
-        // infinity.
+        // infinity. Workers are spread evenly over the receive loops, each
+        // loop gets at least one.
         if (sipStack.threadPoolSize != -1) {
-            for (int i = 0; i < sipStack.threadPoolSize; i++) {
+            int workers = Math.max(sipStack.threadPoolSize, receiveLoops.size());
+            for (int i = 0; i < workers; i++) {
                 UDPMessageChannel channel = new UDPMessageChannel(sipStack,
-                        this, ((SipStackImpl)sipStack).getStackName() + "-UDPMessageChannelThread-" + i);
+                        this, receiveLoops.get(i % receiveLoops.size()).queue,
+                        ((SipStackImpl)sipStack).getStackName() + "-UDPMessageChannelThread-" + i);
                 this.messageChannels.add(channel);
 
             }
         }
 
-        // Ask the auditor to monitor this thread
-        ThreadAuditor.ThreadHandle threadHandle = null;
-        // Contribution for https://github.com/Mobicents/jain-sip/issues/39
-        if(sipStack.getThreadAuditor() != null) {
-        	threadHandle = sipStack.getThreadAuditor().addCurrentThread();
+        for (int i = 1; i < receiveLoops.size(); i++) {
+            Thread thread = new Thread(receiveLoops.get(i));
+            thread.setDaemon(true);
+            thread.setName("MessageProcessorThread-UDP-" + getIpAddress().getHostAddress() + '/' + getPort() + "-" + i);
+            thread.setPriority(sipStack.getThreadPriority());
+            thread.start();
         }
+        receiveLoops.get(0).run();
+    }
 
-        // Somebody asked us to exit. if isRunnning is set to false.
-        while (this.isRunning) {
+    /**
+     * A loop reading datagrams from one socket and handing them to the worker
+     * threads through its own queue.
+     */
+    private class UDPReceiveLoop implements Runnable {
+        private final DatagramSocket socket;
+        private final DatagramIO io;
+        private final BlockingQueue<DatagramQueuedMessageDispatch> queue;
+        private final BlockingQueueDispatchAuditor auditor;
+
+        UDPReceiveLoop(DatagramSocket socket, DatagramIO io,
+                BlockingQueue<DatagramQueuedMessageDispatch> queue,
+                BlockingQueueDispatchAuditor auditor) {
+            this.socket = socket;
+            this.io = io;
+            this.queue = queue;
+            this.auditor = auditor;
+        }
 
-            try {
-                // Let the thread auditor know we're up and running
-            	if(threadHandle != null)
-            		threadHandle.ping();
-
-                int bufsize = this.maxMessageSize;
-                byte message[] = new byte[bufsize];
-                DatagramPacket packet = new DatagramPacket(message, bufsize);
-                sock.receive(packet);
-                
-                // Count of # of packets in process.
-                // this.useCount++;
-                if (sipStack.threadPoolSize != -1) {
-                    // Note: the only condition watched for by threads
-                    // synchronizing on the messageQueue member is that it is
-                    // not empty. As soon as you introduce some other
-                    // condition you will have to call notifyAll instead of
-                    // notify below.
-
-                    this.messageQueue.offer(new DatagramQueuedMessageDispatch(packet, System.currentTimeMillis()));                 
-
-                } else {
-                    new UDPMessageChannel(sipStack, this, packet);
-                }
-                exceptionsReportedCounter = 0;	// reset lock flooding checker
+        void close() {
+            if (io != null) {
+                io.close();
+            } else {
+                socket.close();
+            }
+        }
+
+        public void run() {
+            // Ask the auditor to monitor this thread
+            ThreadAuditor.ThreadHandle threadHandle = null;
+            // Contribution for https://github.com/Mobicents/jain-sip/issues/39
+            if(sipStack.getThreadAuditor() != null) {
+            	threadHandle = sipStack.getThreadAuditor().addCurrentThread();
             }
-            catch (SocketTimeoutException ex) {
-              // This socket timeout allows us to ping the thread auditor periodically
+            if (io != null) {
+                runBatches(threadHandle);
+                return;
             }
-            catch (SocketException ex) {
-            	if( !isRunning ) {
-					if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
-	                    logger.logDebug("UDPMessageProcessor: Stopping");
-					}
-                    return;
-            	}
-            	else {
+
+            // Somebody asked us to exit. if isRunnning is set to false.
+            while (isRunning) {
+
+                try {
+                    // Let the thread auditor know we're up and running
+                	if(threadHandle != null)
+                		threadHandle.ping();
+
+                    int bufsize = maxMessageSize;
+                    if (sipStack.threadPoolSize != -1) {
+                        // The pooled workers give the buffer back once the
+                        // datagram is processed
+                        ByteBuffer buffer = ByteBufferFactory.getInstance().lease(bufsize);
+                        DatagramPacket packet = new DatagramPacket(buffer.array(), buffer.arrayOffset(), bufsize);
+                        try {
+                            socket.receive(packet);
+                        } catch (IOException ex) {
+                            ByteBufferFactory.getInstance().release(buffer);
+                            throw ex;
+                        }
+                        // Note: the only condition watched for by threads
+                        // synchronizing on the messageQueue member is that it is
+                        // not empty. As soon as you introduce some other
+                        // condition you will have to call notifyAll instead of
+                        // notify below.
+
+                        queue.offer(new DatagramQueuedMessageDispatch(packet, buffer, System.currentTimeMillis()));
+
+                    } else {
+                        byte message[] = new byte[bufsize];
+                        DatagramPacket packet = new DatagramPacket(message, bufsize);
+                        socket.receive(packet);
+                        new UDPMessageChannel(sipStack, UDPMessageProcessor.this, packet);
+                    }
+                    exceptionsReportedCounter = 0;	// reset lock flooding checker
+                }
+                catch (SocketTimeoutException ex) {
+                  // This socket timeout allows us to ping the thread auditor periodically
+                }
+                catch (SocketException ex) {
+                	if( !isRunning ) {
+    					if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+    	                    logger.logDebug("UDPMessageProcessor: Stopping");
+    					}
+                        return;
+                	}
+                	else {
+                		reportSockeException(ex);		// report exception but try to continue to receive data ...
+                	}
+                }
+                catch (IOException ex) {
             		reportSockeException(ex);		// report exception but try to continue to receive data ...
-            	}
-            }
-            catch (IOException ex) {
-        		reportSockeException(ex);		// report exception but try to continue to receive data ...
+                }
+                catch (Exception ex) {
+            		reportSockeException(ex);		// report exception but try to continue to receive data ...
+                }
             }
-            catch (Exception ex) {
-        		reportSockeException(ex);		// report exception but try to continue to receive data ...
+        }
+
+        /**
+         * Read the datagrams in batches from the datagram I/O, which also
+         * writes the datagrams queued by the senders.
+         */
+        private void runBatches(ThreadAuditor.ThreadHandle threadHandle) {
+            boolean pooled = sipStack.threadPoolSize != -1;
+            int batchSize = sipStack.getUdpBatchSize();
+            DatagramPacket[] packets = new DatagramPacket[batchSize];
+            ByteBuffer[] buffers = new ByteBuffer[batchSize];
+            // the thread auditor is pinged at least once per interval
+            long timeout = threadHandle != null && sipStack.getThreadAuditor().isEnabled()
+                    ? sipStack.getThreadAuditor().getPingIntervalInMillisecs() : 0;
+            try {
+                while (isRunning) {
+                    try {
+                        if(threadHandle != null)
+                            threadHandle.ping();
+
+                        // refill the slots handed over by the previous batch,
+                        // the datagram I/O fills the first ones
+                        for (int i = 0; i < batchSize && packets[i] == null; i++) {
+                            if (pooled) {
+                                buffers[i] = ByteBufferFactory.getInstance().lease(maxMessageSize);
+                                packets[i] = new DatagramPacket(buffers[i].array(), buffers[i].arrayOffset(), maxMessageSize);
+                            } else {
+                                packets[i] = new DatagramPacket(new byte[maxMessageSize], maxMessageSize);
+                            }
+                        }
+                        int received = io.receive(packets, timeout);
+                        long now = System.currentTimeMillis();
+                        for (int i = 0; i < received; i++) {
+                            if (pooled) {
+                                queue.offer(new DatagramQueuedMessageDispatch(packets[i], buffers[i], now));
+                                buffers[i] = null;
+                            } else {
+                                new UDPMessageChannel(sipStack, UDPMessageProcessor.this, packets[i]);
+                            }
+                            packets[i] = null;
+                        }
+                        if (received > 0) {
+                            batchedDatagrams.addAndGet(received);
+                            receiveBatches.incrementAndGet();
+                            exceptionsReportedCounter = 0;	// reset lock flooding checker
+                        }
+                    } catch (Exception ex) {
+                        if (!isRunning) {
+                            if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+                                logger.logDebug("UDPMessageProcessor: Stopping");
+                            }
+                            return;
+                        }
+                        reportSockeException(ex);		// report exception but try to continue to receive data ...
+                    }
+                }
+            } finally {
+                for (ByteBuffer buffer : buffers) {
+                    if (buffer != null) {
+                        ByteBufferFactory.getInstance().release(buffer);
+                    }
+                }
             }
         }
     }
@@ -312,14 +558,23 @@ public class UDPMessageProcessor extends MessageProcessor implements Runnable {
      */
     public void stop() {
             this.isRunning = false;
-            sock.close();        
+            for (UDPReceiveLoop loop : receiveLoops) {
+                if (loop.socket != sock || loop.io != null) {
+                    loop.close();
+                }
+            }
+            sock.close();
           // closing the channels
           for (Object messageChannel : messageChannels) {
 			((MessageChannel)messageChannel).close();
           }
           // Contribution for https://github.com/Mobicents/jain-sip/issues/39
-          if(sipStack.getStackCongestionControlTimeout() > 0 && congestionAuditor != null) {
-          	this.congestionAuditor.stop();
+          if(sipStack.getStackCongestionControlTimeout() > 0) {
+            for (UDPReceiveLoop loop : receiveLoops) {
+              if (loop.auditor != null) {
+                loop.auditor.stop();
+              }
+            }
           }
     }
 
@@ -346,7 +601,7 @@ public class UDPMessageProcessor extends MessageProcessor implements Runnable {
      */
     public MessageChannel createMessageChannel(HostPort targetHostPort)
             throws UnknownHostException {
-        return new UDPMessageChannel(targetHostPort.getInetAddress(),
+        return new UDPMessageChannel(getInetAddress(targetHostPort),
                 targetHostPort.getPort(), sipStack, this);
     }
 
@@ -380,7 +635,28 @@ public class UDPMessageProcessor extends MessageProcessor implements Runnable {
      * Return true if there are any messages in use.
      */
     public boolean inUse() {
-    	return !messageQueue.isEmpty();
+    	for (UDPReceiveLoop loop : receiveLoops) {
+    		if (!loop.queue.isEmpty()) {
+    			return true;
+    		}
+    	}
+    	return false;
+    }
+
+    /**
+     * @return the number of datagrams read in batches so far, see
+     *         gov.nist.javax.sip.UDP_BATCH_SIZE.
+     */
+    public long getBatchedDatagrams() {
+        return batchedDatagrams.get();
+    }
+
+    /**
+     * @return the number of wake ups of the batching receive loops that read
+     *         at least one datagram.
+     */
+    public long getReceiveBatches() {
+        return receiveBatches.get();
     }
 
 }
@@ -25,9 +25,13 @@
  */
 package gov.nist.javax.sip.stack;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 import gov.nist.core.CommonLogger;
 import gov.nist.core.LogLevels;
@@ -38,6 +42,17 @@ import gov.nist.core.StackLogger;
  * Decodes a web socket frame from wire protocol version 8 format. This code was originally based on <a
  * href="https://github.com/joewalnes/webbit">webbit</a>.
  *
+ * The decoder is a state machine fed with whatever the socket returned. It
+ * keeps the partial frame header and the partial message between calls, so
+ * every byte is read and unmasked once, straight into the array handed to the
+ * SIP parser. Continuation frames append to the same array, and control frames
+ * may come in between them.
+ *
+ * Once the permessage-deflate extension of RFC 7692 is negotiated, messages
+ * with RSV1 set are inflated and the messages sent are deflated. The sent
+ * messages do not take the compression context over from each other, the
+ * senders of a connection may run in any order.
+ *
  * @author vladimirralev
  *
  */
@@ -53,63 +68,156 @@ public class WebSocketCodec {
 	private static final byte OPCODE_PING = 0x9;
 	private static final byte OPCODE_PONG = 0xA;
 
+	private static final int RSV_DEFLATE = 0x4;
+
+	// The tail that permessage-deflate strips from the compressed messages
+	private static final byte[] DEFLATE_TAIL = new byte[] {0, 0, -1, -1};
+
+	// The size limit of the messages, received or inflated, when no maximum
+	// message size is configured
+	static final int DEFAULT_MAX_MESSAGE_SIZE = 1024 * 1024;
+
+	// The message array starts no bigger than this and grows as the payload
+	// arrives, whatever size the frame header announces
+	private static final int INITIAL_MESSAGE_CAPACITY = 65536;
+
 	// Websocket metadata
 	private int fragmentedFramesCount;
 	private boolean frameFinalFlag;
 	private int frameRsv;
 	private int frameOpcode;
 	private long framePayloadLength;
-	private byte[] maskingKey = new byte[4];
+	private boolean frameMasked;
+	private int maskingKey;
 	private final boolean allowExtensions;
 	private final boolean maskedPayload;
 	private boolean closeOpcodeReceived;
 
-	
-	// THe payload inside the websocket frame starts at this index
-	private int payloadStartIndex = -1;
+	// The frame header, up to 14 bytes, collected across reads
+	private final byte[] header = new byte[14];
+	private int headerLength;
+	private boolean readingPayload;
 
-	// Buffering incomplete and overflowing frames
-	private byte[] buffer = new byte[66000];
-	private int writeIndex = 0;
-	private int readIndex;
-	
-	// Total webscoket frame (metadata + payload)
-	private long totalPacketLength = -1;
+	// The payload bytes of the frame still to come
+	private long framePayloadRemaining;
+	// How many payload bytes of the frame were unmasked, for the mask phase
+	private int maskOffset;
+
+	// The data message being assembled from one or more frames
+	private byte[] message;
+	private int messageLength;
+	private boolean messageCompressed;
+
+	// The payload of the control frame being read
+	private byte[] control;
+	private int controlLength;
+
+	// The payload of the last ping not answered yet
+	private byte[] pingPayload;
 
+	private int maxMessageSize;
+
+	private boolean perMessageDeflate;
+	private Inflater inflater;
+	private Deflater deflater;
+
+	// Bytes read from a stream and not decoded yet
+	private ByteBuffer streamBuffer;
 
 	public WebSocketCodec(boolean maskedPayload, boolean allowExtensions) {
 
 		this.maskedPayload = maskedPayload;
 		this.allowExtensions = allowExtensions;
 	}
-	private byte readNextByte() {
-		if(readIndex >= writeIndex) {
-			throw new IllegalStateException();
-		}
-		return this.buffer[readIndex++];
-	}
 
+	/**
+	 * Decode from a stream, reading all it has to offer. The bytes beyond
+	 * the returned message are kept for the next call.
+	 *
+	 * @return the next message, or null if it is not complete yet.
+	 */
 	public byte[] decode(InputStream is)
 			throws Exception {
-		int bytesRead = is.read(buffer, writeIndex, buffer.length - writeIndex);
-		
-		if(bytesRead < 0) bytesRead = 0;
-		
-		// Update the count in the buffer
-		writeIndex += bytesRead;
-		
-		// Start over from scratch. This is rare and doesn't affect performance
-		readIndex = 0;
-		
-		// All TCP slow-start algorithms will be cut off right here without further analysis
-		if(writeIndex<4) {
-			if(logger.isLoggingEnabled(LogLevels.TRACE_DEBUG)) {
-				logger.logDebug("Abort decode. Write index is at " + writeIndex);
+		if(streamBuffer == null) {
+			streamBuffer = ByteBuffer.allocate(8192);
+			streamBuffer.flip();
+		}
+		streamBuffer.compact();
+		while(true) {
+			if(!streamBuffer.hasRemaining()) {
+				ByteBuffer bigger = ByteBuffer.allocate(streamBuffer.capacity() * 2);
+				streamBuffer.flip();
+				bigger.put(streamBuffer);
+				streamBuffer = bigger;
 			}
-			return null;
+			int bytesRead = is.read(streamBuffer.array(), streamBuffer.position(), streamBuffer.remaining());
+			if(bytesRead <= 0) break;
+			streamBuffer.position(streamBuffer.position() + bytesRead);
+		}
+		streamBuffer.flip();
+		return decode(streamBuffer);
+	}
+
+	/**
+	 * Decode the bytes of the buffer up to the end of the next data message.
+	 * The bytes after it are left in the buffer, so callers loop until null
+	 * comes back. Control frames are consumed on the way, a close frame stops
+	 * the decoding.
+	 *
+	 * @return the payload of the next data message, or null once the buffer is
+	 *         consumed without completing one.
+	 */
+	public byte[] decode(ByteBuffer src) throws Exception {
+		while(src.hasRemaining() && !closeOpcodeReceived) {
+			if(!readingPayload) {
+				if(!readHeader(src)) {
+					return null;
+				}
+				startFrame();
+				if(framePayloadRemaining > 0) {
+					continue;
+				}
+			} else {
+				readPayload(src);
+				if(framePayloadRemaining > 0) {
+					return null;
+				}
+			}
+			byte[] decoded = endFrame();
+			if(decoded != null) {
+				return decoded;
+			}
+		}
+		return null;
+	}
+
+	// Collect the header bytes, true once the whole header is there
+	private boolean readHeader(ByteBuffer src) {
+		while(src.hasRemaining()) {
+			header[headerLength++] = src.get();
+			if(headerLength >= 2 && headerLength == headerSize()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private int headerSize() {
+		int size = 2;
+		int length1 = header[1] & 0x7F;
+		if(length1 == 126) {
+			size += 2;
+		} else if(length1 == 127) {
+			size += 8;
+		}
+		if((header[1] & 0x80) != 0) {
+			size += 4;
 		}
+		return size;
+	}
 
-		byte b = readNextByte();
+	private void startFrame() {
+		byte b = header[0];
 		frameFinalFlag = (b & 0x80) != 0;
 		frameRsv = (b & 0x70) >> 4;
 		frameOpcode = b & 0x0F;
@@ -117,105 +225,249 @@ public class WebSocketCodec {
 		if(logger.isLoggingEnabled(LogLevels.TRACE_DEBUG)) {
 			logger.logDebug("Decoding WebSocket Frame opCode=" + frameOpcode);
 		}
-		
-		
-		if(frameOpcode == 8) {
-			//https://code.google.com/p/chromium/issues/detail?id=388243#c15
-			this.closeOpcodeReceived = true;
-		}
-
 
 		// MASK, PAYLOAD LEN 1
-		b = readNextByte();
-		boolean frameMasked = (b & 0x80) != 0;
+		b = header[1];
+		frameMasked = (b & 0x80) != 0;
 		int framePayloadLen1 = b & 0x7F;
 
 		if (frameRsv != 0 && !allowExtensions) {
 			protocolViolation("RSV != 0 and no extension negotiated, RSV:" + frameRsv);
-			return null;
 		}
 
 		if (maskedPayload && !frameMasked) {
 			protocolViolation("unmasked client to server frame");
-			return null;
 		}
 
 		protocolChecks();
 
-		try {
-			// Read frame payload length
-			if (framePayloadLen1 == 126) {
-				int byte1 = 0xff & readNextByte();
-				int byte2 = 0xff & readNextByte();
-				int value = (byte1<<8) | byte2;
-				framePayloadLength = value;
-			} else if (framePayloadLen1 == 127) {
-				long value = 0;
-				for(int q=0;q<8;q++) {
-					value &= (0xff&readNextByte())<<(7-q);
-				}
-				framePayloadLength = value;
+		int index = 2;
+		// Read frame payload length
+		if (framePayloadLen1 == 126) {
+			framePayloadLength = ((header[2] & 0xff) << 8) | (header[3] & 0xff);
+			index = 4;
+		} else if (framePayloadLen1 == 127) {
+			long value = 0;
+			for(int q=0;q<8;q++) {
+				value = (value << 8) | (header[2 + q] & 0xff);
+			}
+			framePayloadLength = value;
+			index = 10;
 
-				if (framePayloadLength < 65536) {
-					protocolViolation("invalid data frame length (not using minimal length encoding): " + framePayloadLength);
-					return null;
-				}
-			} else {
-				framePayloadLength = framePayloadLen1;
+			if (framePayloadLength < 65536) {
+				protocolViolation("invalid data frame length (not using minimal length encoding): " + framePayloadLength);
 			}
-			
-			if(framePayloadLength < 0) {
-				protocolViolation("Negative payload size: " + framePayloadLength);
+		} else {
+			framePayloadLength = framePayloadLen1;
+		}
+
+		if(framePayloadLength < 0) {
+			protocolViolation("Negative payload size: " + framePayloadLength);
+		}
+
+		if(logger.isLoggingEnabled(LogLevels.TRACE_DEBUG)) {
+			logger.logDebug("Decoding WebSocket Frame length=" + framePayloadLength);
+		}
+
+		// Analyze the mask
+		if (frameMasked) {
+			maskingKey = ((header[index] & 0xff) << 24) | ((header[index + 1] & 0xff) << 16)
+					| ((header[index + 2] & 0xff) << 8) | (header[index + 3] & 0xff);
+		}
+		headerLength = 0;
+		maskOffset = 0;
+		framePayloadRemaining = framePayloadLength;
+
+		if (frameOpcode > 7) {
+			if (framePayloadLength > 125) {
+				protocolViolation("control frame payload too big: " + framePayloadLength);
+			}
+			control = new byte[(int) framePayloadLength];
+			controlLength = 0;
+		} else {
+			if (frameOpcode != OPCODE_CONT) {
+				message = null;
+				messageLength = 0;
+				messageCompressed = perMessageDeflate && (frameRsv & RSV_DEFLATE) != 0;
 			}
+			long size = messageLength + framePayloadLength;
+			if (size > getMessageSizeLimit()) {
+				protocolViolation("message too big: " + size);
+			}
+			if (message == null) {
+				// a small single frame message gets an array of its exact size
+				message = new byte[(int) Math.min(size, INITIAL_MESSAGE_CAPACITY)];
+			}
+		}
+		readingPayload = framePayloadRemaining > 0;
+	}
 
-			if(logger.isLoggingEnabled(LogLevels.TRACE_DEBUG)) {
-				logger.logDebug("Decoding WebSocket Frame length=" + framePayloadLength);
+	// Copy the payload bytes at hand in place and unmask them there
+	private void readPayload(ByteBuffer src) {
+		int count = (int) Math.min(src.remaining(), framePayloadRemaining);
+		byte[] dst;
+		int offset;
+		if (frameOpcode > 7) {
+			dst = control;
+			offset = controlLength;
+			controlLength += count;
+		} else {
+			if (message.length < messageLength + count) {
+				// grow with the bytes received, up to the announced size
+				long size = messageLength + framePayloadRemaining;
+				message = Arrays.copyOf(message, (int) Math.min(size,
+						Math.max(messageLength + count, 2L * message.length)));
 			}
+			dst = message;
+			offset = messageLength;
+			messageLength += count;
+		}
+		src.get(dst, offset, count);
+		if (frameMasked) {
+			applyMask(dst, offset, offset + count, maskingKey, maskOffset);
+			maskOffset += count;
+		}
+		framePayloadRemaining -= count;
+		readingPayload = framePayloadRemaining > 0;
+	}
 
-			// Analyze the mask
-			if (frameMasked) {
-				for(int q=0; q<4 ;q++)
-					maskingKey[q] = readNextByte();
+	// The frame is complete, return the message it completes if any
+	private byte[] endFrame() throws IOException {
+		if (frameOpcode > 7) {
+			if (frameOpcode == OPCODE_CLOSE) {
+				//https://code.google.com/p/chromium/issues/detail?id=388243#c15
+				this.closeOpcodeReceived = true;
+			} else if (frameOpcode == OPCODE_PING) {
+				pingPayload = control;
 			}
+			control = null;
+			return null;
 		}
-		catch (IllegalStateException e) {
-			// the stream has ended we don't have enough data to continue
+		if (!frameFinalFlag) {
+			fragmentedFramesCount++;
 			return null;
 		}
+		fragmentedFramesCount = 0;
+		byte[] decoded;
+		if (messageCompressed) {
+			decoded = inflate();
+		} else if (messageLength == message.length) {
+			decoded = message;
+		} else {
+			decoded = Arrays.copyOf(message, messageLength);
+		}
+		message = null;
+		messageLength = 0;
+		return decoded;
+	}
 
-		// Remember the payload position
-		payloadStartIndex = readIndex;
-		totalPacketLength = readIndex + framePayloadLength;
-
-		// Check if we have enough data at all
-		if(writeIndex < totalPacketLength) {
-			if(logger.isLoggingEnabled(LogLevels.TRACE_DEBUG)) {
-				logger.logDebug("Abort decode. Write index is at " + writeIndex + " and totalPacketLength is " + totalPacketLength);
+	private byte[] inflate() throws IOException {
+		if (message.length < messageLength + DEFLATE_TAIL.length) {
+			message = Arrays.copyOf(message, messageLength + DEFLATE_TAIL.length);
+		}
+		System.arraycopy(DEFLATE_TAIL, 0, message, messageLength, DEFLATE_TAIL.length);
+		if (inflater == null) {
+			inflater = new Inflater(true);
+		}
+		inflater.setInput(message, 0, messageLength + DEFLATE_TAIL.length);
+		// one byte beyond the limit is enough to tell that it is exceeded
+		long outputLimit = getMessageSizeLimit() + 1L;
+		byte[] output = new byte[(int) Math.min(Math.max(256, messageLength * 4L), outputLimit)];
+		int length = 0;
+		try {
+			while (true) {
+				int count = inflater.inflate(output, length, output.length - length);
+				length += count;
+				if (length >= outputLimit) {
+					inflater.reset();
+					protocolViolation("inflated message too big: " + length);
+				}
+				if (length < output.length && (count == 0 || inflater.needsInput() || inflater.finished())) {
+					if (inflater.needsDictionary()) {
+						protocolViolation("permessage-deflate data needs a dictionary");
+					}
+					break;
+				}
+				if (length == output.length) {
+					output = Arrays.copyOf(output, (int) Math.min(output.length * 2L, outputLimit));
+				}
 			}
-			return null; // wait for more data
+		} catch (DataFormatException ex) {
+			throw new IOException("Bad permessage-deflate data", ex);
 		}
+		if (inflater.finished()) {
+			// the peer ended the deflate stream, the next message starts a new one
+			inflater.reset();
+		}
+		return Arrays.copyOf(output, length);
+	}
 
-		// Unmask data if needed and only if the condition above is true
-		if (frameMasked) {
-			unmask(buffer, payloadStartIndex, (int) (payloadStartIndex + framePayloadLength));
+	/**
+	 * Enable permessage-deflate once it was negotiated for the connection.
+	 */
+	public void setPerMessageDeflate(boolean perMessageDeflate) {
+		this.perMessageDeflate = perMessageDeflate;
+	}
+
+	public boolean isPerMessageDeflate() {
+		return perMessageDeflate;
+	}
+
+	/**
+	 * @param maxMessageSize the maximum size of a message, 0 for the default
+	 *            limit of 1 MB.
+	 */
+	public void setMaxMessageSize(int maxMessageSize) {
+		this.maxMessageSize = maxMessageSize;
+	}
+
+	private int getMessageSizeLimit() {
+		int limit = maxMessageSize > 0 ? maxMessageSize : DEFAULT_MAX_MESSAGE_SIZE;
+		return Math.min(limit, Integer.MAX_VALUE - DEFLATE_TAIL.length - 1);
+	}
+
+	/**
+	 * @return the pong frame answering the last ping received, null if there
+	 *         is nothing to answer.
+	 */
+	public byte[] takePongFrame() {
+		byte[] payload = pingPayload;
+		if (payload == null) {
+			return null;
+		}
+		pingPayload = null;
+		return encode(payload, 0, true, !maskedPayload, OPCODE_PONG);
+	}
+
+	/**
+	 * Encode a data message in a single frame, deflated if permessage-deflate
+	 * was negotiated.
+	 */
+	public byte[] encode(byte[] msg, boolean maskPayload) {
+		if (perMessageDeflate) {
+			return encode(deflate(msg), RSV_DEFLATE, true, maskPayload, OPCODE_TEXT);
 		}
+		return encode(msg, 0, true, maskPayload, OPCODE_TEXT);
+	}
 
-		// Finally isolate the unmasked payload, the bytes are plaintext here
-		byte[] plainTextBytes = new byte[(int) framePayloadLength];
-		System.arraycopy(buffer, payloadStartIndex, plainTextBytes, 0, (int) framePayloadLength);
-		
-		// Now move the pending data to the begining of the buffer so we can continue having good stream
-		for(int q=1; q<writeIndex - totalPacketLength; q++) {
-			buffer[q] = buffer[(int)totalPacketLength + q];
+	private synchronized byte[] deflate(byte[] msg) {
+		if (deflater == null) {
+			deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
 		}
-		writeIndex -= totalPacketLength;
-		
-		if(logger.isLoggingEnabled(LogLevels.TRACE_DEBUG)) {
-			logger.logDebug("writeIndex = " + writeIndex + " " + totalPacketLength);
+		deflater.setInput(msg);
+		byte[] output = new byte[msg.length / 2 + 64];
+		int length = 0;
+		while (true) {
+			length += deflater.deflate(output, length, output.length - length, Deflater.SYNC_FLUSH);
+			if (length < output.length) {
+				break;
+			}
+			output = Arrays.copyOf(output, output.length * 2);
 		}
-		
-		// All done, we are ready to be called again
-		return plainTextBytes;
+		// no context takeover, every message is deflated on its own
+		deflater.reset();
+		// the flush ends with the tail the peer puts back
+		return Arrays.copyOf(output, length - DEFLATE_TAIL.length);
 	}
 	
 	protected static byte[] encode(byte[] msg, int rsv, boolean fin, boolean maskPayload) throws Exception {
@@ -223,9 +475,7 @@ public class WebSocketCodec {
 	}
 
 
-	protected static byte[] encode(byte[] msg, int rsv, boolean fin, boolean maskPayload, byte opcode) throws Exception {
-		ByteArrayOutputStream frame = new ByteArrayOutputStream();
-
+	protected static byte[] encode(byte[] msg, int rsv, boolean fin, boolean maskPayload, byte opcode) {
 		int length = msg.length;
 
 		if(logger.isLoggingEnabled(LogLevels.TRACE_DEBUG)) {
@@ -239,40 +489,59 @@ public class WebSocketCodec {
 		b0 |= rsv % 8 << 4;
 		b0 |= opcode % 128;
 
-
+		int headerSize = (length <= 125 ? 2 : length <= 0xFFFF ? 4 : 10) + (maskPayload ? 4 : 0);
+		byte[] frame = new byte[headerSize + length];
+		frame[0] = (byte) b0;
+		int index;
 		if (length <= 125) {
-			frame.write(b0);
-			byte b = (byte) (maskPayload ? 0x80 | (byte) length : (byte) length);
-			frame.write(b);
+			frame[1] = (byte) (maskPayload ? 0x80 | (byte) length : (byte) length);
+			index = 2;
 		} else if (length <= 0xFFFF) {
-			frame.write(b0);
-			frame.write(maskPayload ? 0xFE : 126);
-			frame.write(length >>> 8 & 0xFF);
-			frame.write(length & 0xFF);
+			frame[1] = (byte) (maskPayload ? 0xFE : 126);
+			frame[2] = (byte) (length >>> 8 & 0xFF);
+			frame[3] = (byte) (length & 0xFF);
+			index = 4;
 		} else {
-			frame.write(b0);
-			frame.write(maskPayload ? 0xFF : 127);
+			frame[1] = (byte) (maskPayload ? 0xFF : 127);
 			for(int q=0;q<8;q++) {
-				frame.write((0xFF)&(length>>q));
+				frame[2 + q] = (byte) ((0xFF)&((long) length>>>(56 - 8 * q)));
 			}
+			index = 10;
 		}
+		System.arraycopy(msg, 0, frame, headerSize, length);
 		if(maskPayload) {
 			byte[] mask = new byte[] {1,1,1,1};
-			frame.write(mask);
-			applyMask(msg, 0, msg.length, mask);
+			System.arraycopy(mask, 0, frame, index, 4);
+			applyMask(frame, headerSize, frame.length, mask);
 		}
-		frame.write(msg);
-		return frame.toByteArray();
+		return frame;
 
 	}
 
-	private void unmask(byte[] frame, int startIndex, int endIndex) {
-		applyMask(frame, startIndex, endIndex, maskingKey);
-	}
-	
 	public static void applyMask(byte[] frame, int startIndex, int endIndex, byte[] mask) {
-		for (int i = 0; i < endIndex-startIndex; i++) {
-			frame[startIndex+i] = (byte) (frame[startIndex+i] ^ mask[i % 4]);
+		int key = ((mask[0] & 0xff) << 24) | ((mask[1] & 0xff) << 16) | ((mask[2] & 0xff) << 8) | (mask[3] & 0xff);
+		applyMask(frame, startIndex, endIndex, key, 0);
+	}
+
+	/**
+	 * Unmask in place eight bytes at a time.
+	 *
+	 * @param key the four mask bytes, the first one in the high byte.
+	 * @param offset how many bytes of the payload precede startIndex.
+	 */
+	private static void applyMask(byte[] frame, int startIndex, int endIndex, int key, int offset) {
+		// line the mask up with the first byte
+		int rotated = Integer.rotateLeft(key, 8 * (offset & 3));
+		long mask = ((rotated & 0xffffffffL) << 32) | (rotated & 0xffffffffL);
+		int i = startIndex;
+		if (endIndex - startIndex >= 16) {
+			ByteBuffer words = ByteBuffer.wrap(frame);
+			for (; i + 8 <= endIndex; i += 8) {
+				words.putLong(i, words.getLong(i) ^ mask);
+			}
+		}
+		for (; i < endIndex; i++) {
+			frame[i] = (byte) (frame[i] ^ (rotated >>> (24 - 8 * ((i - startIndex) & 3))));
 		}
 	}
 
@@ -48,7 +48,20 @@ public class WebSocketHttpHandshake {
 	
 	private HashMap<String, String> headers = new HashMap<String, String>();
 
+	// The offers of the Sec-WebSocket-Extensions headers
+	private StringBuilder extensions = new StringBuilder();
+
+	private boolean perMessageDeflate;
+
 	public byte[] createHttpResponse(String request) throws Exception {
+		return createHttpResponse(request, false);
+	}
+
+	/**
+	 * @param allowPerMessageDeflate accept a permessage-deflate offer of the
+	 *            client.
+	 */
+	public byte[] createHttpResponse(String request, boolean allowPerMessageDeflate) throws Exception {
 		
 		if(logger.isLoggingEnabled(LogLevels.TRACE_DEBUG)) {
 			logger.logDebug("Request=" + request);
@@ -85,8 +98,12 @@ public class WebSocketHttpHandshake {
 			if (parts[0].toLowerCase().startsWith("sec-websocket-key")) {
 				isSecure = true;
 			}
+			if (parts[0].trim().equalsIgnoreCase("Sec-WebSocket-Extensions")) {
+				extensions.append(parts[1].trim()).append(',');
+			}
 			headers.put(parts[0].trim(), parts[1].trim());
 		}
+		perMessageDeflate = allowPerMessageDeflate && acceptPerMessageDeflate(extensions.toString());
 		if (isSecure) {
 			byte[] key3 = new byte[8];
 			is.read(key3);
@@ -133,6 +150,9 @@ public class WebSocketHttpHandshake {
 		if (headers.get("Sec-WebSocket-Protocol") != null) {
 			sb.append("Sec-WebSocket-Protocol: ").append(headers.get("Sec-WebSocket-Protocol")).append(lineSeparator);
 		}
+		if (perMessageDeflate) {
+			sb.append("Sec-WebSocket-Extensions: permessage-deflate; server_no_context_takeover").append(lineSeparator);
+		}
 		sb.append(lineSeparator);
 
 		String response = sb.toString();
@@ -145,6 +165,40 @@ public class WebSocketHttpHandshake {
 		return output;
 	}
 
+	/**
+	 * @return true if permessage-deflate was negotiated by the last response.
+	 */
+	public boolean isPerMessageDeflate() {
+		return perMessageDeflate;
+	}
+
+	/**
+	 * Look for a permessage-deflate offer we can take. The deflater of the JDK
+	 * always uses the largest window, so offers limiting the server window are
+	 * declined, and the server never takes its context over.
+	 */
+	static boolean acceptPerMessageDeflate(String offers) {
+		for (String offer : offers.split(",")) {
+			String[] params = offer.split(";");
+			if (!params[0].trim().equalsIgnoreCase("permessage-deflate")) {
+				continue;
+			}
+			boolean acceptable = true;
+			for (int i = 1; i < params.length && acceptable; i++) {
+				String name = params[i].split("=", 2)[0].trim().toLowerCase();
+				acceptable = name.equals("server_no_context_takeover")
+						|| name.equals("client_no_context_takeover")
+						|| name.equals("client_max_window_bits")
+						|| (name.equals("server_max_window_bits")
+								&& params[i].replace("\"", "").replace(" ", "").endsWith("=15"));
+			}
+			if (acceptable) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	static String computeRev13Response(String key) throws IOException {
 		key = key + "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
 		MessageDigest md = null;
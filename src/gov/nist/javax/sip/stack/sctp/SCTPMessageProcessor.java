@@ -53,7 +53,7 @@ public final class SCTPMessageProcessor extends MessageProcessor implements Runn
 	@Override
 	public MessageChannel createMessageChannel(HostPort targetHostPort)
 			throws IOException {		
-		return this.createMessageChannel( targetHostPort.getInetAddress(), targetHostPort.getPort() );
+		return this.createMessageChannel( getInetAddress(targetHostPort), targetHostPort.getPort() );
 	}
 
 	@Override
@@ -0,0 +1,77 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ *
+ */
+package gov.nist.javax.sip.stack.store;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A store in a local concurrent hash map, the stack default. It never loads
+ * nor evicts entries on its own.
+ *
+ * @param <V> the type of the stored values.
+ */
+public class ConcurrentHashMapSipStore<V> implements SipStore<V> {
+
+    private final ConcurrentHashMap<String, V> map = new ConcurrentHashMap<String, V>();
+
+    public V get(String key) {
+        return map.get(key);
+    }
+
+    public V put(String key, V value) {
+        return map.put(key, value);
+    }
+
+    public V putIfAbsent(String key, V value) {
+        return map.putIfAbsent(key, value);
+    }
+
+    public V remove(String key) {
+        return map.remove(key);
+    }
+
+    public boolean containsKey(String key) {
+        return map.containsKey(key);
+    }
+
+    public Collection<V> values() {
+        return map.values();
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    public void clear() {
+        map.clear();
+    }
+
+    public void setListener(SipStoreListener<V> listener) {
+    }
+
+    public String toString() {
+        return map.toString();
+    }
+}
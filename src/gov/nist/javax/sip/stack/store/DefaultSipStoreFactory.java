@@ -0,0 +1,59 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ *
+ */
+package gov.nist.javax.sip.stack.store;
+
+import gov.nist.javax.sip.SipStackImpl;
+import gov.nist.javax.sip.stack.SIPClientTransaction;
+import gov.nist.javax.sip.stack.SIPDialog;
+import gov.nist.javax.sip.stack.SIPServerTransaction;
+
+import java.util.Properties;
+
+/**
+ * Keeps the stack tables in local concurrent hash maps.
+ */
+public class DefaultSipStoreFactory implements SipStoreFactory {
+
+    public void start(SipStackImpl sipStack, Properties configurationProperties) {
+    }
+
+    public SipStore<SIPDialog> createDialogStore() {
+        return new ConcurrentHashMapSipStore<SIPDialog>();
+    }
+
+    public SipStore<SIPDialog> createEarlyDialogStore() {
+        return new ConcurrentHashMapSipStore<SIPDialog>();
+    }
+
+    public SipStore<SIPClientTransaction> createClientTransactionStore() {
+        return new ConcurrentHashMapSipStore<SIPClientTransaction>();
+    }
+
+    public SipStore<SIPServerTransaction> createServerTransactionStore() {
+        return new ConcurrentHashMapSipStore<SIPServerTransaction>();
+    }
+
+    public void stop() {
+    }
+}
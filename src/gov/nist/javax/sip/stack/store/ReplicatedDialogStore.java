@@ -0,0 +1,205 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ *
+ */
+package gov.nist.javax.sip.stack.store;
+
+import gov.nist.javax.sip.stack.SIPDialog;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sip.DialogState;
+
+/**
+ * The dialog store of a {@link ReplicatedSipStoreFactory}. It keeps the
+ * dialogs of the stack in a local map, tracks which confirmed dialogs changed
+ * since they were last sent to the peers, and keeps the replicas received from
+ * the peers apart from the local dialogs until a message of their call asks
+ * for one of them.
+ */
+final class ReplicatedDialogStore implements SipStore<SIPDialog> {
+
+    private final ConcurrentHashMap<String, SIPDialog> dialogs = new ConcurrentHashMap<String, SIPDialog>();
+
+    // fingerprint of the state last sent to the peers, by dialog id
+    private final ConcurrentHashMap<String, Long> replicated = new ConcurrentHashMap<String, Long>();
+
+    // ids of the replicated dialogs removed since the last synchronization
+    private final Queue<String> removed = new ConcurrentLinkedQueue<String>();
+
+    // dialogs of the peers
+    private final ConcurrentHashMap<String, SIPDialog> replicas = new ConcurrentHashMap<String, SIPDialog>();
+
+    private final AtomicLong loadedDialogs = new AtomicLong();
+
+    private volatile SipStoreListener<SIPDialog> listener;
+
+    public SIPDialog get(String key) {
+        SIPDialog dialog = dialogs.get(key);
+        if (dialog == null && !replicas.isEmpty()) {
+            dialog = load(key);
+        }
+        return dialog;
+    }
+
+    /**
+     * Take over the replica of a dialog of a peer, the first time the stack
+     * looks the dialog up.
+     */
+    private synchronized SIPDialog load(String key) {
+        SIPDialog dialog = dialogs.get(key);
+        if (dialog != null) {
+            return dialog;
+        }
+        dialog = replicas.remove(key);
+        if (dialog == null) {
+            return null;
+        }
+        SipStoreListener<SIPDialog> listener = this.listener;
+        if (listener != null) {
+            listener.entryLoaded(key, dialog);
+        }
+        dialogs.put(key, dialog);
+        loadedDialogs.incrementAndGet();
+        return dialog;
+    }
+
+    public SIPDialog put(String key, SIPDialog value) {
+        replicas.remove(key);
+        return dialogs.put(key, value);
+    }
+
+    public SIPDialog putIfAbsent(String key, SIPDialog value) {
+        SIPDialog existing = get(key);
+        if (existing != null) {
+            return existing;
+        }
+        return dialogs.putIfAbsent(key, value);
+    }
+
+    public SIPDialog remove(String key) {
+        SIPDialog dialog = dialogs.remove(key);
+        replicas.remove(key);
+        if (replicated.remove(key) != null) {
+            removed.add(key);
+        }
+        return dialog;
+    }
+
+    public boolean containsKey(String key) {
+        return dialogs.containsKey(key) || replicas.containsKey(key);
+    }
+
+    public Collection<SIPDialog> values() {
+        return dialogs.values();
+    }
+
+    public int size() {
+        return dialogs.size();
+    }
+
+    public void clear() {
+        dialogs.clear();
+        replicas.clear();
+        replicated.clear();
+    }
+
+    public void setListener(SipStoreListener<SIPDialog> listener) {
+        this.listener = listener;
+    }
+
+    public String toString() {
+        return dialogs.toString();
+    }
+
+    /**
+     * @return the confirmed local dialogs, by id, whose state changed since it
+     *         was last sent to the peers, with the fingerprint of their state.
+     */
+    Map<String, Long> changedDialogs() {
+        Map<String, Long> changed = new HashMap<String, Long>();
+        for (Map.Entry<String, SIPDialog> entry : dialogs.entrySet()) {
+            SIPDialog dialog = entry.getValue();
+            if (dialog.getState() != DialogState.CONFIRMED) {
+                continue;
+            }
+            long fingerprint = fingerprint(dialog);
+            Long last = replicated.get(entry.getKey());
+            if (last == null || last.longValue() != fingerprint) {
+                changed.put(entry.getKey(), Long.valueOf(fingerprint));
+            }
+        }
+        return changed;
+    }
+
+    // The sequence numbers move with every request of the dialog, and the
+    // target and route set only change with a request or its response.
+    private static long fingerprint(SIPDialog dialog) {
+        return 31 * (31 * dialog.getLocalSeqNumber() + dialog.getRemoteSeqNumber())
+                + dialog.getState().getValue();
+    }
+
+    SIPDialog getLocal(String key) {
+        return dialogs.get(key);
+    }
+
+    void markReplicated(String key, long fingerprint) {
+        if (dialogs.containsKey(key)) {
+            replicated.put(key, Long.valueOf(fingerprint));
+        }
+    }
+
+    /**
+     * Send everything again, to a peer that just connected.
+     */
+    void resetReplicated() {
+        replicated.clear();
+    }
+
+    String pollRemoved() {
+        return removed.poll();
+    }
+
+    void replicaReceived(String key, SIPDialog dialog) {
+        if (!dialogs.containsKey(key)) {
+            replicas.put(key, dialog);
+        }
+    }
+
+    void replicaRemoved(String key) {
+        replicas.remove(key);
+    }
+
+    int getReplicaCount() {
+        return replicas.size();
+    }
+
+    long getLoadedDialogs() {
+        return loadedDialogs.get();
+    }
+}
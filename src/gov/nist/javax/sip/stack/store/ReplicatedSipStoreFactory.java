@@ -0,0 +1,592 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ *
+ */
+package gov.nist.javax.sip.stack.store;
+
+import gov.nist.core.CommonLogger;
+import gov.nist.core.DuplicateNameValueList;
+import gov.nist.core.GenericObject;
+import gov.nist.core.GenericObjectList;
+import gov.nist.core.LogWriter;
+import gov.nist.core.MultiValueMapImpl;
+import gov.nist.core.NameValueList;
+import gov.nist.core.StackLogger;
+import gov.nist.javax.sip.ReleaseReferencesStrategy;
+import gov.nist.javax.sip.SipStackImpl;
+import gov.nist.javax.sip.stack.SIPDialog;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Keeps the stack tables in local maps and replicates the confirmed dialogs to
+ * peer stacks, so that when a stack fails the peer that takes its traffic over
+ * carries on with its calls. Transactions are not replicated: a transaction in
+ * progress on the failed stack is retried by the other end, and the dialog it
+ * belongs to is found on the peer.
+ *
+ * Each stack listens for the dialogs of its peers on a TCP socket and connects
+ * to each of its peers. A synchronization thread periodically sends, in Java
+ * serialized form, the confirmed dialogs whose sequence numbers or state
+ * changed since they were last sent, and the ids of the replicated dialogs
+ * that were removed. The peers keep the replicas aside and a replica becomes a
+ * dialog of the peer stack the first time a message of its call looks it up.
+ *
+ * The peers share a secret. The listening side sends a random challenge to
+ * each connection and every frame sent on it carries an HMAC-SHA256, keyed
+ * with the secret, of the challenge, the frame number and the frame. A frame
+ * that does not authenticate closes the connection before any of it is
+ * deserialized. The replicas are then read with the classes a dialog is made
+ * of only, and no proxy class. The socket should still be reachable by the
+ * peer stacks alone, which is why it listens on the loopback address unless
+ * configured otherwise. It is configured with the following stack properties:
+ * <ul>
+ * <li><b>gov.nist.javax.sip.replication.PORT = int</b> the port to listen on
+ * for the dialogs of the peers, required.</li>
+ * <li><b>gov.nist.javax.sip.replication.ADDRESS = address</b> the address to
+ * listen on, 127.0.0.1 by default.</li>
+ * <li><b>gov.nist.javax.sip.replication.PEERS = host:port,...</b> the
+ * replication sockets of the peer stacks.</li>
+ * <li><b>gov.nist.javax.sip.replication.SECRET = string</b> the secret shared
+ * by the peer stacks, required.</li>
+ * <li><b>gov.nist.javax.sip.replication.INTERVAL = int</b> the time in
+ * milliseconds between two synchronizations, 500 by default.</li>
+ * </ul>
+ */
+public class ReplicatedSipStoreFactory extends DefaultSipStoreFactory {
+
+    private static StackLogger logger = CommonLogger.getLogger(ReplicatedSipStoreFactory.class);
+
+    private static final byte PUT = 1;
+
+    private static final byte REMOVE = 2;
+
+    private static final int CONNECT_TIMEOUT = 1000;
+
+    // bound on the size of a serialized dialog sent by a peer, a dialog takes
+    // a few kilobytes
+    private static final int MAX_REPLICA_SIZE = 1024 * 1024;
+
+    // the replica, its key and the fields around them
+    private static final int MAX_FRAME_SIZE = MAX_REPLICA_SIZE + 70000;
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    private static final int CHALLENGE_SIZE = 16;
+
+    // the classes of the JDK that make up a serialized dialog, the classes of
+    // the stack are checked by type
+    private static final Set<String> ALLOWED_CLASSES = new HashSet<String>(Arrays.asList(
+            "java.lang.Boolean", "java.lang.Character", "java.lang.Enum",
+            "java.lang.Integer", "java.lang.Long", "java.lang.Number",
+            "java.util.ArrayList", "java.util.HashMap", "java.util.HashSet",
+            "java.util.Hashtable", "java.util.LinkedHashMap", "java.util.LinkedHashSet",
+            "java.util.LinkedList", "java.util.concurrent.ConcurrentHashMap",
+            "java.util.concurrent.ConcurrentHashMap$Segment",
+            "java.util.concurrent.ConcurrentLinkedQueue",
+            "java.util.concurrent.CopyOnWriteArrayList",
+            "java.util.concurrent.locks.AbstractOwnableSynchronizer",
+            "java.util.concurrent.locks.AbstractQueuedSynchronizer",
+            "java.util.concurrent.locks.ReentrantLock",
+            "java.util.concurrent.locks.ReentrantLock$NonfairSync",
+            "java.util.concurrent.locks.ReentrantLock$Sync",
+            "java.net.InetAddress", "java.net.InetAddress$InetAddressHolder",
+            "java.net.Inet4Address", "java.net.Inet6Address",
+            "java.net.Inet6Address$Inet6AddressHolder"));
+
+    // the types of the stack classes that make up a serialized dialog
+    private static final Class<?>[] ALLOWED_TYPES = { SIPDialog.class,
+            GenericObject.class, GenericObjectList.class, NameValueList.class,
+            DuplicateNameValueList.class, MultiValueMapImpl.class,
+            ReleaseReferencesStrategy.class };
+
+    private final SecureRandom random = new SecureRandom();
+
+    private SecretKeySpec secret;
+
+    private volatile ReplicatedDialogStore dialogStore;
+
+    private ServerSocket serverSocket;
+
+    private final List<Peer> peers = new ArrayList<Peer>();
+
+    private long interval = 500;
+
+    private volatile boolean running;
+
+    private Thread synchronizer;
+
+    private final AtomicLong sentDialogs = new AtomicLong();
+
+    public void start(SipStackImpl sipStack, Properties configurationProperties) {
+        String address = configurationProperties.getProperty(
+                "gov.nist.javax.sip.replication.ADDRESS", "127.0.0.1");
+        int port = Integer.parseInt(configurationProperties.getProperty(
+                "gov.nist.javax.sip.replication.PORT"));
+        interval = Long.parseLong(configurationProperties.getProperty(
+                "gov.nist.javax.sip.replication.INTERVAL", "500"));
+        String sharedSecret = configurationProperties.getProperty(
+                "gov.nist.javax.sip.replication.SECRET");
+        if (sharedSecret == null || sharedSecret.length() == 0) {
+            throw new IllegalStateException(
+                    "gov.nist.javax.sip.replication.SECRET is required to replicate dialogs");
+        }
+        try {
+            secret = new SecretKeySpec(sharedSecret.getBytes("UTF-8"), MAC_ALGORITHM);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        peers.clear();
+        String peerList = configurationProperties.getProperty("gov.nist.javax.sip.replication.PEERS", "");
+        for (String peer : peerList.split(",")) {
+            peer = peer.trim();
+            if (peer.length() > 0) {
+                int colon = peer.lastIndexOf(':');
+                peers.add(new Peer(peer.substring(0, colon),
+                        Integer.parseInt(peer.substring(colon + 1)), secret));
+            }
+        }
+        try {
+            serverSocket = new ServerSocket();
+            serverSocket.setReuseAddress(true);
+            serverSocket.bind(new InetSocketAddress(InetAddress.getByName(address), port));
+        } catch (IOException ex) {
+            throw new IllegalStateException("Cannot listen for dialog replicas on "
+                    + address + ":" + port, ex);
+        }
+        running = true;
+        Thread acceptor = new Thread(new Runnable() {
+            public void run() {
+                accept();
+            }
+        }, "DialogReplicationAcceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        synchronizer = new Thread(new Runnable() {
+            public void run() {
+                while (running) {
+                    try {
+                        Thread.sleep(interval);
+                        synchronize();
+                    } catch (InterruptedException ex) {
+                        return;
+                    } catch (RuntimeException ex) {
+                        logger.logError("dialog replication failed", ex);
+                    }
+                }
+            }
+        }, "DialogReplicationSynchronizer");
+        synchronizer.setDaemon(true);
+        synchronizer.start();
+    }
+
+    public SipStore<SIPDialog> createDialogStore() {
+        ReplicatedDialogStore store = new ReplicatedDialogStore();
+        dialogStore = store;
+        return store;
+    }
+
+    public void stop() {
+        running = false;
+        if (synchronizer != null) {
+            synchronizer.interrupt();
+        }
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException ex) {
+        }
+        for (Peer peer : peers) {
+            peer.close();
+        }
+    }
+
+    /**
+     * @return the number of replicas received from the peers and not taken
+     *         over yet.
+     */
+    public int getReplicaCount() {
+        ReplicatedDialogStore store = dialogStore;
+        return store == null ? 0 : store.getReplicaCount();
+    }
+
+    /**
+     * @return the number of replicas taken over by this stack.
+     */
+    public long getLoadedDialogs() {
+        ReplicatedDialogStore store = dialogStore;
+        return store == null ? 0 : store.getLoadedDialogs();
+    }
+
+    /**
+     * @return the number of dialog states sent to the peers.
+     */
+    public long getSentDialogs() {
+        return sentDialogs.get();
+    }
+
+    /**
+     * Send the changed dialogs and the removed ones to the peers.
+     */
+    void synchronize() {
+        ReplicatedDialogStore store = dialogStore;
+        if (store == null || peers.isEmpty()) {
+            return;
+        }
+        boolean connected = false;
+        for (Peer peer : peers) {
+            connected |= peer.connect();
+        }
+        if (connected) {
+            store.resetReplicated();
+        }
+        String removedKey;
+        while ((removedKey = store.pollRemoved()) != null) {
+            sendToPeers(REMOVE, removedKey, null);
+        }
+        for (Map.Entry<String, Long> entry : store.changedDialogs().entrySet()) {
+            String key = entry.getKey();
+            SIPDialog dialog = store.getLocal(key);
+            if (dialog == null) {
+                continue;
+            }
+            byte[] state;
+            try {
+                state = serialize(dialog);
+            } catch (Exception ex) {
+                // changed while it was written, the next round sends it
+                if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+                    logger.logDebug("could not serialize dialog " + key + " : " + ex);
+                }
+                continue;
+            }
+            if (sendToPeers(PUT, key, state)) {
+                store.markReplicated(key, entry.getValue().longValue());
+                sentDialogs.incrementAndGet();
+            }
+        }
+    }
+
+    private static byte[] serialize(SIPDialog dialog) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(2048);
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        synchronized (dialog) {
+            out.writeObject(dialog);
+        }
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return false if the message could not be sent to a connected peer.
+     */
+    private boolean sendToPeers(byte op, String key, byte[] state) {
+        boolean sent = true;
+        for (Peer peer : peers) {
+            sent &= peer.send(op, key, state);
+        }
+        return sent;
+    }
+
+    private void accept() {
+        while (running) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException ex) {
+                if (running) {
+                    logger.logError("dialog replication socket failed", ex);
+                }
+                return;
+            }
+            Thread reader = new Thread(new Runnable() {
+                public void run() {
+                    read(socket);
+                }
+            }, "DialogReplicationReader-" + socket.getRemoteSocketAddress());
+            reader.setDaemon(true);
+            reader.start();
+        }
+    }
+
+    private void read(Socket socket) {
+        try {
+            byte[] challenge = new byte[CHALLENGE_SIZE];
+            random.nextBytes(challenge);
+            socket.getOutputStream().write(challenge);
+            socket.getOutputStream().flush();
+            Mac mac = newMac(secret);
+            byte[] tag = new byte[mac.getMacLength()];
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            for (long frame = 0; running; frame++) {
+                int length = in.readInt();
+                if (length < 0 || length > MAX_FRAME_SIZE) {
+                    throw new IOException("bad replication frame length " + length);
+                }
+                byte[] body = new byte[length];
+                in.readFully(body);
+                in.readFully(tag);
+                if (!MessageDigest.isEqual(tag, sign(mac, challenge, frame, body))) {
+                    if (logger.isLoggingEnabled(LogWriter.TRACE_WARN)) {
+                        logger.logWarning("dropping dialog replication connection from "
+                                + socket.getRemoteSocketAddress()
+                                + " : frame not signed with the shared secret");
+                    }
+                    return;
+                }
+                readFrame(new DataInputStream(new ByteArrayInputStream(body)));
+            }
+        } catch (Exception ex) {
+            if (running && logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+                logger.logDebug("dialog replication connection closed : " + ex);
+            }
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ex) {
+            }
+        }
+    }
+
+    private void readFrame(DataInputStream in) throws IOException,
+            ClassNotFoundException {
+        byte op = in.readByte();
+        String key = in.readUTF();
+        ReplicatedDialogStore store = dialogStore;
+        if (op == PUT) {
+            int length = in.readInt();
+            if (length < 0 || length > MAX_REPLICA_SIZE) {
+                throw new IOException("bad replica length " + length);
+            }
+            byte[] state = new byte[length];
+            in.readFully(state);
+            SIPDialog dialog = (SIPDialog) new ReplicaInputStream(
+                    new ByteArrayInputStream(state)).readObject();
+            if (store != null) {
+                store.replicaReceived(key, dialog);
+            }
+        } else if (op == REMOVE) {
+            if (store != null) {
+                store.replicaRemoved(key);
+            }
+        } else {
+            throw new IOException("unexpected replication message " + op);
+        }
+    }
+
+    private static Mac newMac(SecretKeySpec secret) throws IOException {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(secret);
+            return mac;
+        } catch (GeneralSecurityException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * @return the MAC of a frame of a connection, which ties the frame to the
+     *         connection and to its place on it.
+     */
+    private static byte[] sign(Mac mac, byte[] challenge, long frame, byte[] body) {
+        mac.update(challenge);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            mac.update((byte) (frame >>> shift));
+        }
+        return mac.doFinal(body);
+    }
+
+    /**
+     * Reads the replicas, refusing the classes a dialog is not made of.
+     */
+    private static class ReplicaInputStream extends ObjectInputStream {
+
+        ReplicaInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException,
+                ClassNotFoundException {
+            String name = desc.getName();
+            int start = 0;
+            while (start < name.length() && name.charAt(start) == '[') {
+                start++;
+            }
+            if (start > 0 && name.charAt(start) != 'L') {
+                // array of primitives
+                return super.resolveClass(desc);
+            }
+            String className = start > 0 ? name.substring(start + 1, name.length() - 1) : name;
+            if (ALLOWED_CLASSES.contains(className)) {
+                return super.resolveClass(desc);
+            }
+            if (className.startsWith("gov.nist.")) {
+                // loaded without running its static initializer to be checked
+                Class<?> type = Class.forName(className, false,
+                        ReplicatedSipStoreFactory.class.getClassLoader());
+                for (Class<?> allowed : ALLOWED_TYPES) {
+                    if (allowed.isAssignableFrom(type)) {
+                        return super.resolveClass(desc);
+                    }
+                }
+            }
+            throw new InvalidClassException(name, "not part of a replicated dialog");
+        }
+
+        protected Class<?> resolveProxyClass(String[] interfaces) throws IOException {
+            throw new InvalidClassException("proxy", "not part of a replicated dialog");
+        }
+    }
+
+    /**
+     * The connection to a peer stack, opened again when it fails.
+     */
+    private static class Peer {
+
+        private final String host;
+
+        private final int port;
+
+        private final SecretKeySpec secret;
+
+        private Socket socket;
+
+        private DataOutputStream out;
+
+        private Mac mac;
+
+        private byte[] challenge;
+
+        private long frame;
+
+        Peer(String host, int port, SecretKeySpec secret) {
+            this.host = host;
+            this.port = port;
+            this.secret = secret;
+        }
+
+        /**
+         * @return true if the connection was just opened.
+         */
+        synchronized boolean connect() {
+            if (socket != null) {
+                return false;
+            }
+            Socket newSocket = new Socket();
+            try {
+                newSocket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+                newSocket.setTcpNoDelay(true);
+                newSocket.setSoTimeout(CONNECT_TIMEOUT);
+                challenge = new byte[CHALLENGE_SIZE];
+                new DataInputStream(newSocket.getInputStream()).readFully(challenge);
+                newSocket.setSoTimeout(0);
+                mac = newMac(secret);
+                frame = 0;
+                socket = newSocket;
+                out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                return true;
+            } catch (IOException ex) {
+                try {
+                    newSocket.close();
+                } catch (IOException e) {
+                }
+                if (logger.isLoggingEnabled(LogWriter.TRACE_DEBUG)) {
+                    logger.logDebug("dialog replication peer " + host + ":" + port
+                            + " not reachable : " + ex);
+                }
+                return false;
+            }
+        }
+
+        /**
+         * @return false if the connection failed. A peer that is not
+         *         connected gets everything once it is.
+         */
+        synchronized boolean send(byte op, String key, byte[] state) {
+            if (out == null) {
+                return true;
+            }
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+                        state == null ? 128 : state.length + 128);
+                DataOutputStream body = new DataOutputStream(bytes);
+                body.writeByte(op);
+                body.writeUTF(key);
+                if (state != null) {
+                    body.writeInt(state.length);
+                    body.write(state);
+                }
+                body.close();
+                byte[] frameBody = bytes.toByteArray();
+                out.writeInt(frameBody.length);
+                out.write(frameBody);
+                out.write(sign(mac, challenge, frame++, frameBody));
+                out.flush();
+                return true;
+            } catch (IOException ex) {
+                close();
+                return false;
+            }
+        }
+
+        synchronized void close() {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException ex) {
+                }
+            }
+            socket = null;
+            out = null;
+            mac = null;
+        }
+    }
+}
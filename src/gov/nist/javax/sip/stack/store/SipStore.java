@@ -0,0 +1,89 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ *
+ */
+package gov.nist.javax.sip.stack.store;
+
+import java.util.Collection;
+
+/**
+ * A table of the stack, dialogs or transactions by their id. The stack keeps
+ * its dialog and transaction tables in stores created by the configured
+ * {@link SipStoreFactory}, so that an implementation can keep them elsewhere
+ * than in local maps, replicate them or bound them.
+ *
+ * Stores are accessed concurrently by the stack threads and must be thread
+ * safe. The values are live stack objects: a store that keeps copies of them
+ * elsewhere hands them back to the stack through
+ * {@link SipStoreListener#entryLoaded(String, Object)}.
+ *
+ * @param <V> the type of the stored values.
+ */
+public interface SipStore<V> {
+
+    /**
+     * @return the value stored under the key, null if none.
+     */
+    V get(String key);
+
+    /**
+     * Store the value under the key.
+     *
+     * @return the value previously stored under the key, null if none.
+     */
+    V put(String key, V value);
+
+    /**
+     * Store the value under the key if the key has no value yet.
+     *
+     * @return the value already stored under the key, null if the value was
+     *         stored.
+     */
+    V putIfAbsent(String key, V value);
+
+    /**
+     * Remove the value stored under the key.
+     *
+     * @return the removed value, null if none.
+     */
+    V remove(String key);
+
+    boolean containsKey(String key);
+
+    /**
+     * @return a weakly consistent view of the stored values, to iterate them.
+     */
+    Collection<V> values();
+
+    /**
+     * @return the number of stored values.
+     */
+    int size();
+
+    void clear();
+
+    /**
+     * Set the listener told about the entries the store loads or evicts on
+     * its own. The stack sets it right after creating the store.
+     */
+    void setListener(SipStoreListener<V> listener);
+}
@@ -0,0 +1,76 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ *
+ */
+package gov.nist.javax.sip.stack.store;
+
+import gov.nist.javax.sip.SipStackImpl;
+import gov.nist.javax.sip.stack.SIPClientTransaction;
+import gov.nist.javax.sip.stack.SIPDialog;
+import gov.nist.javax.sip.stack.SIPServerTransaction;
+
+import java.util.Properties;
+
+/**
+ * Interface to implement to plug the storage of the stack dialog and
+ * transaction tables, set with the gov.nist.javax.sip.SIP_STORE_FACTORY
+ * property. The one used by default keeps them in concurrent hash maps.
+ */
+public interface SipStoreFactory {
+
+    /**
+     * Start the factory, called when the stack is created and before any
+     * store is created. The stack configuration is passed so that
+     * implementations can use specific config properties to configure
+     * themselves.
+     *
+     * @param sipStack the stack
+     * @param configurationProperties the stack properties
+     */
+    void start(SipStackImpl sipStack, Properties configurationProperties);
+
+    /**
+     * @return a store for the dialogs by dialog id.
+     */
+    SipStore<SIPDialog> createDialogStore();
+
+    /**
+     * @return a store for the early dialogs by dialog id.
+     */
+    SipStore<SIPDialog> createEarlyDialogStore();
+
+    /**
+     * @return a store for the client transactions by transaction id.
+     */
+    SipStore<SIPClientTransaction> createClientTransactionStore();
+
+    /**
+     * @return a store for the server transactions by transaction id.
+     */
+    SipStore<SIPServerTransaction> createServerTransactionStore();
+
+    /**
+     * Stop the factory and release its resources, called when the stack
+     * stops.
+     */
+    void stop();
+}
@@ -0,0 +1,46 @@
+/*
+ * Conditions Of Use
+ *
+ * This software was developed by employees of the National Institute of
+ * Standards and Technology (NIST), an agency of the Federal Government.
+ * Pursuant to title 15 Untied States Code Section 105, works of NIST
+ * employees are not subject to copyright protection in the United States
+ * and are considered to be in the public domain.  As a result, a formal
+ * license is not needed to use the software.
+ *
+ * This software is provided by NIST as a service and is expressly
+ * provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+ * OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+ * AND DATA ACCURACY.  NIST does not warrant or make any representations
+ * regarding the use of the software or the results thereof, including but
+ * not limited to the correctness, accuracy, reliability or usefulness of
+ * the software.
+ *
+ * Permission to use this software is contingent upon your acceptance
+ * of the terms of this agreement.
+ *
+ */
+package gov.nist.javax.sip.stack.store;
+
+/**
+ * Told about the changes a {@link SipStore} makes to its entries on its own,
+ * as opposed to those the stack asked for.
+ *
+ * @param <V> the type of the stored values.
+ */
+public interface SipStoreListener<V> {
+
+    /**
+     * A value the store obtained from outside the stack, for instance a dialog
+     * replicated from a peer stack that failed, is now stored under the key.
+     * The stack attaches it to itself before using it.
+     */
+    void entryLoaded(String key, V value);
+
+    /**
+     * The store dropped the value stored under the key, for instance to stay
+     * within a size limit.
+     */
+    void entryEvicted(String key, V value);
+}
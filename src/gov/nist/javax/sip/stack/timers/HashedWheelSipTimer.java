@@ -0,0 +1,401 @@
+/*
+* Conditions Of Use
+*
+* This software was developed by employees of the National Institute of
+* Standards and Technology (NIST), an agency of the Federal Government.
+* Pursuant to title 15 Untied States Code Section 105, works of NIST
+* employees are not subject to copyright protection in the United States
+* and are considered to be in the public domain.  As a result, a formal
+* license is not needed to use the software.
+*
+* This software is provided by NIST as a service and is expressly
+* provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+* OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+* MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+* AND DATA ACCURACY.  NIST does not warrant or make any representations
+* regarding the use of the software or the results thereof, including but
+* not limited to the correctness, accuracy, reliability or usefulness of
+* the software.
+*
+* Permission to use this software is contingent upon your acceptance
+* of the terms of this agreement
+*
+* .
+*
+*/
+package gov.nist.javax.sip.stack.timers;
+
+import gov.nist.core.CommonLogger;
+import gov.nist.core.NamingThreadFactory;
+import gov.nist.core.StackLogger;
+import gov.nist.javax.sip.SipStackImpl;
+import gov.nist.javax.sip.stack.SIPStackTimerTask;
+
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Implementation of the SIP Timer based on a hashed timing wheel. Scheduling and
+ * cancelling a task are O(1) whatever the number of pending tasks, at the price of
+ * a precision limited to the tick duration. Expired tasks are handed over to a pool
+ * of worker threads so that a slow task doesn't delay the expiry of the others.
+ *
+ * The following configuration properties are supported:
+ * <ul>
+ * <li><b>gov.nist.javax.sip.timers.HASHED_WHEEL_TICK</b> duration of a tick in
+ * milliseconds, 10 by default.</li>
+ * <li><b>gov.nist.javax.sip.timers.HASHED_WHEEL_SIZE</b> number of buckets of a wheel,
+ * rounded up to a power of two, 512 by default.</li>
+ * <li><b>gov.nist.javax.sip.timers.HASHED_WHEEL_SHARDS</b> number of wheels, each
+ * with its own tick thread, tasks are spread over them. 1 by default.</li>
+ * <li><b>gov.nist.javax.sip.timers.HASHED_WHEEL_WORKER_THREADS</b> number of threads
+ * running the expired tasks, 1 by default so tasks never run concurrently, as with the
+ * other timers. 0 runs the tasks on the tick thread.</li>
+ * </ul>
+ *
+ * A task scheduled with a fixed delay is rescheduled once its run has completed, so
+ * it never overlaps itself.
+ */
+public class HashedWheelSipTimer implements SipTimer {
+	private static StackLogger logger = CommonLogger.getLogger(HashedWheelSipTimer.class);
+
+	private static final int INIT = 0;
+	private static final int EXPIRED = 1;
+	private static final int CANCELLED = 2;
+
+	private static final AtomicIntegerFieldUpdater<WheelTimeout> STATE =
+		AtomicIntegerFieldUpdater.newUpdater(WheelTimeout.class, "state");
+
+	protected SipStackImpl sipStackImpl;
+	private long tickNanos = TimeUnit.MILLISECONDS.toNanos(10);
+	private int wheelSize = 512;
+	private Wheel[] wheels;
+	private ExecutorService workers;
+	private volatile boolean started;
+
+	/*
+	 * (non-Javadoc)
+	 * @see gov.nist.javax.sip.stack.timers.SipTimer#start(gov.nist.javax.sip.SipStackImpl, java.util.Properties)
+	 */
+	public void start(SipStackImpl sipStack, Properties configurationProperties) {
+		sipStackImpl = sipStack;
+		Properties properties = configurationProperties != null ? configurationProperties : new Properties();
+		long tick = Long.parseLong(properties.getProperty("gov.nist.javax.sip.timers.HASHED_WHEEL_TICK", "10"));
+		int size = Integer.parseInt(properties.getProperty("gov.nist.javax.sip.timers.HASHED_WHEEL_SIZE", "512"));
+		int shards = Integer.parseInt(properties.getProperty("gov.nist.javax.sip.timers.HASHED_WHEEL_SHARDS", "1"));
+		int workerThreads = Integer.parseInt(properties.getProperty("gov.nist.javax.sip.timers.HASHED_WHEEL_WORKER_THREADS", "1"));
+		if (tick <= 0 || size <= 0 || shards <= 0 || workerThreads < 0) {
+			throw new IllegalArgumentException("Bad hashed wheel timer configuration tick=" + tick
+					+ " size=" + size + " shards=" + shards + " workers=" + workerThreads);
+		}
+		tickNanos = TimeUnit.MILLISECONDS.toNanos(tick);
+		wheelSize = Integer.highestOneBit(size);
+		if (wheelSize < size) {
+			wheelSize <<= 1;
+		}
+		if (workerThreads > 0) {
+			workers = Executors.newFixedThreadPool(workerThreads, new NamingThreadFactory("jain_sip_timer_worker"));
+		}
+		wheels = new Wheel[shards];
+		started = true;
+		for (int i = 0; i < shards; i++) {
+			wheels[i] = new Wheel();
+			Thread thread = new Thread(wheels[i], "jain_sip_timer_wheel-" + i);
+			wheels[i].thread = thread;
+			thread.start();
+		}
+		if (logger.isLoggingEnabled(StackLogger.TRACE_INFO)) {
+			logger.logInfo("the sip stack timer " + this.getClass().getName() + " has been started with "
+					+ shards + " wheel(s) of " + wheelSize + " ticks of " + tick + "ms");
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see gov.nist.javax.sip.stack.timers.SipTimer#stop()
+	 */
+	public void stop() {
+		started = false;
+		if (wheels != null) {
+			for (Wheel wheel : wheels) {
+				wheel.thread.interrupt();
+			}
+		}
+		if (workers != null) {
+			workers.shutdown();
+		}
+		logger.logStackTrace(StackLogger.TRACE_DEBUG);
+		if (logger.isLoggingEnabled(StackLogger.TRACE_INFO)) {
+			logger.logInfo("the sip stack timer " + this.getClass().getName() + " has been stopped");
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see gov.nist.javax.sip.stack.timers.SipTimer#schedule(gov.nist.javax.sip.stack.SIPStackTimerTask, long)
+	 */
+	public boolean schedule(SIPStackTimerTask task, long delay) {
+		return schedule(task, delay, 0);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see gov.nist.javax.sip.stack.timers.SipTimer#scheduleWithFixedDelay(gov.nist.javax.sip.stack.SIPStackTimerTask, long, long)
+	 */
+	public boolean scheduleWithFixedDelay(SIPStackTimerTask task, long delay, long period) {
+		if (period <= 0) {
+			throw new IllegalArgumentException("period must be positive : " + period);
+		}
+		return schedule(task, delay, period);
+	}
+
+	private boolean schedule(SIPStackTimerTask task, long delay, long period) {
+		if (!started) {
+			throw new IllegalStateException("The SIP Stack Timer has been stopped, no new tasks can be scheduled !");
+		}
+		Wheel wheel = wheels[wheels.length == 1 ? 0 : (System.identityHashCode(task) & 0x7fffffff) % wheels.length];
+		WheelTimeout timeout = new WheelTimeout(wheel, task, period);
+		task.setSipTimerTask(timeout);
+		wheel.add(timeout, delay);
+		return true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see gov.nist.javax.sip.stack.timers.SipTimer#cancel(gov.nist.javax.sip.stack.SIPStackTimerTask)
+	 */
+	public boolean cancel(SIPStackTimerTask task) {
+		Object timerTask = task.getSipTimerTask();
+		if (!(timerTask instanceof WheelTimeout)) {
+			return false;
+		}
+		task.cleanUpBeforeCancel();
+		task.setSipTimerTask(null);
+		return ((WheelTimeout) timerTask).cancel();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see gov.nist.javax.sip.stack.timers.SipTimer#isStarted()
+	 */
+	public boolean isStarted() {
+		return started;
+	}
+
+	/**
+	 * @return the number of tasks waiting in the wheels, for monitoring.
+	 */
+	public int getPendingTaskCount() {
+		int count = 0;
+		if (wheels != null) {
+			for (Wheel wheel : wheels) {
+				count += wheel.pendingCount;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * A task scheduled in a wheel. It sits in the doubly linked list of one bucket,
+	 * which is only ever touched by the tick thread of the wheel.
+	 */
+	private final class WheelTimeout implements Runnable {
+		private final Wheel wheel;
+		private final SIPStackTimerTask task;
+		private final long period;
+		volatile int state = INIT;
+		private long deadline;
+		private long remainingRounds;
+		private Bucket bucket;
+		private WheelTimeout next;
+		private WheelTimeout prev;
+
+		WheelTimeout(Wheel wheel, SIPStackTimerTask task, long period) {
+			this.wheel = wheel;
+			this.task = task;
+			this.period = period;
+		}
+
+		boolean cancel() {
+			while (true) {
+				int current = state;
+				if (current == CANCELLED || (current == EXPIRED && period == 0)) {
+					return false;
+				}
+				if (STATE.compareAndSet(this, current, CANCELLED)) {
+					if (current == INIT) {
+						// unlinked from its bucket by the tick thread
+						wheel.cancelled.add(this);
+					}
+					return true;
+				}
+			}
+		}
+
+		void expire() {
+			if (!STATE.compareAndSet(this, INIT, EXPIRED)) {
+				return;
+			}
+			if (workers == null) {
+				run();
+				return;
+			}
+			try {
+				workers.execute(this);
+			} catch (RejectedExecutionException e) {
+				// the timer is being stopped
+			}
+		}
+
+		public void run() {
+			try {
+				task.runTask();
+			} catch (Throwable e) {
+				System.out.println("SIP stack timer task failed due to exception:");
+				e.printStackTrace();
+			}
+			if (period > 0 && started && STATE.compareAndSet(this, EXPIRED, INIT)) {
+				wheel.add(this, period);
+			}
+		}
+	}
+
+	private static final class Bucket {
+		private WheelTimeout head;
+		private WheelTimeout tail;
+
+		void add(WheelTimeout timeout) {
+			timeout.bucket = this;
+			if (head == null) {
+				head = tail = timeout;
+			} else {
+				tail.next = timeout;
+				timeout.prev = tail;
+				tail = timeout;
+			}
+		}
+
+		WheelTimeout remove(WheelTimeout timeout) {
+			WheelTimeout next = timeout.next;
+			if (timeout.prev != null) {
+				timeout.prev.next = next;
+			}
+			if (timeout.next != null) {
+				timeout.next.prev = timeout.prev;
+			}
+			if (timeout == head) {
+				head = next;
+			}
+			if (timeout == tail) {
+				tail = timeout.prev;
+			}
+			timeout.prev = null;
+			timeout.next = null;
+			timeout.bucket = null;
+			return next;
+		}
+	}
+
+	/**
+	 * One wheel and its tick thread. Other threads only hand timeouts over through the
+	 * pending and cancelled queues.
+	 */
+	private final class Wheel implements Runnable {
+		private final Bucket[] buckets;
+		private final int mask;
+		private final Queue<WheelTimeout> pending = new ConcurrentLinkedQueue<WheelTimeout>();
+		private final Queue<WheelTimeout> cancelled = new ConcurrentLinkedQueue<WheelTimeout>();
+		private final long startTime = System.nanoTime();
+		private Thread thread;
+		private long tick;
+		private volatile int pendingCount;
+
+		Wheel() {
+			buckets = new Bucket[wheelSize];
+			for (int i = 0; i < wheelSize; i++) {
+				buckets[i] = new Bucket();
+			}
+			mask = wheelSize - 1;
+		}
+
+		void add(WheelTimeout timeout, long delay) {
+			timeout.deadline = System.nanoTime() - startTime + TimeUnit.MILLISECONDS.toNanos(Math.max(delay, 0));
+			pending.add(timeout);
+		}
+
+		public void run() {
+			while (started) {
+				long deadline = (tick + 1) * tickNanos;
+				long sleep = deadline - (System.nanoTime() - startTime);
+				if (sleep > 0) {
+					try {
+						TimeUnit.NANOSECONDS.sleep(sleep);
+					} catch (InterruptedException e) {
+						if (!started) {
+							break;
+						}
+					}
+					continue;
+				}
+				removeCancelled();
+				transferPending();
+				expire(buckets[(int) (tick & mask)], deadline);
+				tick++;
+			}
+		}
+
+		private void removeCancelled() {
+			WheelTimeout timeout;
+			while ((timeout = cancelled.poll()) != null) {
+				if (timeout.bucket != null) {
+					timeout.bucket.remove(timeout);
+					pendingCount--;
+				}
+			}
+		}
+
+		private void transferPending() {
+			// bounded so that a burst of schedules cannot starve the wheel
+			for (int i = 0; i < 100000; i++) {
+				WheelTimeout timeout = pending.poll();
+				if (timeout == null) {
+					break;
+				}
+				if (timeout.state != INIT) {
+					continue;
+				}
+				long expiryTick = timeout.deadline / tickNanos;
+				timeout.remainingRounds = (expiryTick - tick) / buckets.length;
+				// a deadline already in the past is expired at the current tick
+				long ticks = Math.max(expiryTick, tick);
+				buckets[(int) (ticks & mask)].add(timeout);
+				pendingCount++;
+			}
+		}
+
+		private void expire(Bucket bucket, long deadline) {
+			WheelTimeout timeout = bucket.head;
+			while (timeout != null) {
+				WheelTimeout next;
+				if (timeout.state == CANCELLED) {
+					next = bucket.remove(timeout);
+					pendingCount--;
+				} else if (timeout.remainingRounds <= 0) {
+					next = bucket.remove(timeout);
+					pendingCount--;
+					timeout.expire();
+				} else {
+					timeout.remainingRounds--;
+					next = timeout.next;
+				}
+				timeout = next;
+			}
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package test.benchmark;
+
+import gov.nist.javax.sip.header.SIPHeader;
+import gov.nist.javax.sip.parser.StringMsgParser;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cloning and comparison of the headers the stack copies into every response,
+ * dialog and transaction, with and without copy-on-write clones.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class HeaderCloneBenchmark {
+
+    @Param({ "false", "true" })
+    public boolean copyOnWriteClones;
+
+    private SIPHeader[] headers;
+
+    private SIPHeader[] others;
+
+    @Setup
+    public void setUp() throws Exception {
+        SIPHeader.setCopyOnWriteClones(copyOnWriteClones);
+        String[] texts = {
+            "Via: SIP/2.0/UDP pc33.atlanta.example.com;branch=z9hG4bK776asdhds",
+            "From: Alice <sip:alice@atlanta.example.com>;tag=1928301774",
+            "To: Bob <sip:bob@biloxi.example.com>;tag=a6c85cf",
+            "Call-ID: a84b4c76e66710@pc33.atlanta.example.com",
+            "CSeq: 314159 INVITE",
+            "Expires: 3600",
+            "Subject: Need more boxes",
+            "Event: presence;id=1"
+        };
+        headers = new SIPHeader[texts.length];
+        others = new SIPHeader[texts.length];
+        for (int i = 0; i < texts.length; i++) {
+            headers[i] = StringMsgParser.parseSIPHeader(texts[i]);
+            others[i] = StringMsgParser.parseSIPHeader(texts[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        SIPHeader.setCopyOnWriteClones(false);
+    }
+
+    @Benchmark
+    public void cloneHeaders(Blackhole blackhole) {
+        for (SIPHeader header : headers) {
+            blackhole.consume(header.clone());
+        }
+    }
+
+    @Benchmark
+    public void compareHeaders(Blackhole blackhole) {
+        for (int i = 0; i < headers.length; i++) {
+            blackhole.consume(headers[i].equals(others[i]));
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package test.benchmark;
+
+import gov.nist.javax.sip.address.AddressFactoryImpl;
+import gov.nist.javax.sip.header.HeaderFactoryImpl;
+import gov.nist.javax.sip.parser.StringMsgParser;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.sip.address.Address;
+import javax.sip.header.Header;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Header creation through the factory, both from text (as applications and
+ * the lazy parser do) and from typed values.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class HeaderFactoryBenchmark {
+
+    private HeaderFactoryImpl headerFactory;
+
+    private AddressFactoryImpl addressFactory;
+
+    private Address address;
+
+    @Setup
+    public void setUp() throws Exception {
+        headerFactory = new HeaderFactoryImpl();
+        addressFactory = new AddressFactoryImpl();
+        address = addressFactory.createAddress("Alice <sip:alice@atlanta.example.com>");
+    }
+
+    @Benchmark
+    public void createHeaderFromText(Blackhole blackhole) throws Exception {
+        blackhole.consume(headerFactory.createHeader("Via",
+            "SIP/2.0/UDP pc33.atlanta.example.com:5060;branch=z9hG4bK776asdhds;rport"));
+        blackhole.consume(headerFactory.createHeader("From",
+            "Alice <sip:alice@atlanta.example.com>;tag=1928301774"));
+        blackhole.consume(headerFactory.createHeader("Call-ID", "a84b4c76e66710@pc33.atlanta.example.com"));
+        blackhole.consume(headerFactory.createHeader("CSeq", "314159 INVITE"));
+        blackhole.consume(headerFactory.createHeader("Max-Forwards", "70"));
+    }
+
+    @Benchmark
+    public void createTypedHeaders(Blackhole blackhole) throws Exception {
+        Header via = headerFactory.createViaHeader("pc33.atlanta.example.com", 5060, "udp", "z9hG4bK776asdhds");
+        blackhole.consume(via);
+        blackhole.consume(headerFactory.createFromHeader(address, "1928301774"));
+        blackhole.consume(headerFactory.createCallIdHeader("a84b4c76e66710@pc33.atlanta.example.com"));
+        blackhole.consume(headerFactory.createCSeqHeader(314159L, "INVITE"));
+        blackhole.consume(headerFactory.createMaxForwardsHeader(70));
+    }
+
+    @Benchmark
+    public void parseSimpleHeadersWithLexer(Blackhole blackhole) throws Exception {
+        // what the factory did for every header before the simple ones skipped the lexer
+        blackhole.consume(StringMsgParser.parseSIPHeader("Call-ID: a84b4c76e66710@pc33.atlanta.example.com"));
+        blackhole.consume(StringMsgParser.parseSIPHeader("CSeq: 314159 INVITE"));
+        blackhole.consume(StringMsgParser.parseSIPHeader("Max-Forwards: 70"));
+    }
+
+    @Benchmark
+    public void createSimpleHeaders(Blackhole blackhole) throws Exception {
+        blackhole.consume(headerFactory.createHeader("Call-ID", "a84b4c76e66710@pc33.atlanta.example.com"));
+        blackhole.consume(headerFactory.createHeader("CSeq", "314159 INVITE"));
+        blackhole.consume(headerFactory.createHeader("Max-Forwards", "70"));
+    }
+
+    @Benchmark
+    public void createAddressFromText(Blackhole blackhole) throws Exception {
+        blackhole.consume(addressFactory.createAddress("Bob <sip:bob@biloxi.example.com;transport=tcp>"));
+        blackhole.consume(addressFactory.createURI("sip:carol@chicago.example.com:5060"));
+    }
+}
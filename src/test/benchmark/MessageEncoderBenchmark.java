@@ -0,0 +1,55 @@
+package test.benchmark;
+
+import gov.nist.javax.sip.message.SIPMessage;
+import gov.nist.javax.sip.parser.StringMsgParser;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Encoding of parsed messages to the bytes sent on the wire and to strings.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MessageEncoderBenchmark {
+
+    @Param({ "false", "true" })
+    public boolean lazyHeaderParsing;
+
+    private SIPMessage[] messages;
+
+    @Setup
+    public void setUp() throws Exception {
+        StringMsgParser parser = new StringMsgParser();
+        parser.setLazyHeaderParsing(lazyHeaderParsing);
+        byte[][] corpus = SipMessageCorpus.asBytes();
+        messages = new SIPMessage[corpus.length];
+        for (int i = 0; i < corpus.length; i++) {
+            messages[i] = parser.parseSIPMessage(corpus[i], true, false, null);
+        }
+    }
+
+    @Benchmark
+    public void encodeAsBytes(Blackhole blackhole) {
+        for (SIPMessage message : messages) {
+            blackhole.consume(message.encodeAsBytes("UDP"));
+        }
+    }
+
+    @Benchmark
+    public void encode(Blackhole blackhole) {
+        for (SIPMessage message : messages) {
+            blackhole.consume(message.encode());
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package test.benchmark;
+
+import gov.nist.javax.sip.message.SIPMessage;
+import gov.nist.javax.sip.parser.StringMsgParser;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Memory taken by the headers of the messages of the corpus, with the compact
+ * single-threaded header structures and with the concurrent collections.
+ *
+ * The retain benchmarks hold {@link #HELD_COPIES} copies of the corpus and
+ * report the growth of the heap after a full collection, in bytes per
+ * message, as the retainedBytesPerMessage counter: the memory the messages
+ * keep. The parse and clone benchmarks are for the gc profiler (-prof gc),
+ * whose gc.alloc.rate.norm is the bytes allocated per operation, garbage
+ * included.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MessageFootprintBenchmark {
+
+    private static final int HELD_COPIES = 200;
+
+    @Param({ "false", "true" })
+    public boolean concurrentHeaderAccess;
+
+    private StringMsgParser msgParser;
+
+    private byte[][] corpus;
+
+    private SIPMessage[] messages;
+
+    @Setup
+    public void setUp() throws Exception {
+        SIPMessage.setConcurrentHeaderAccess(concurrentHeaderAccess);
+        msgParser = new StringMsgParser();
+        corpus = SipMessageCorpus.asBytes();
+        messages = new SIPMessage[corpus.length];
+        for (int i = 0; i < corpus.length; i++) {
+            messages[i] = msgParser.parseSIPMessage(corpus[i], true, false, null);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        SIPMessage.setConcurrentHeaderAccess(false);
+    }
+
+    @Benchmark
+    public void parseMessages(Blackhole blackhole) throws ParseException {
+        for (byte[] message : corpus) {
+            blackhole.consume(msgParser.parseSIPMessage(message, true, false, null));
+        }
+    }
+
+    @Benchmark
+    public void cloneMessages(Blackhole blackhole) {
+        for (SIPMessage message : messages) {
+            blackhole.consume(message.clone());
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    public Object retainParsedMessages(Retained retained) throws ParseException {
+        long before = usedHeapAfterGc();
+        SIPMessage[] held = new SIPMessage[HELD_COPIES * corpus.length];
+        for (int i = 0; i < held.length; i++) {
+            held[i] = msgParser.parseSIPMessage(corpus[i % corpus.length], true, false, null);
+        }
+        retained.retainedBytesPerMessage = (usedHeapAfterGc() - before) / held.length;
+        return held;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    public Object retainClonedMessages(Retained retained) {
+        long before = usedHeapAfterGc();
+        Object[] held = new Object[HELD_COPIES * messages.length];
+        for (int i = 0; i < held.length; i++) {
+            held[i] = messages[i % messages.length].clone();
+        }
+        retained.retainedBytesPerMessage = (usedHeapAfterGc() - before) / held.length;
+        return held;
+    }
+
+    private static long usedHeapAfterGc() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * The bytes kept per held message, the held array included.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Retained {
+        public long retainedBytesPerMessage;
+    }
+}
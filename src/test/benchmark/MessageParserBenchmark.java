@@ -0,0 +1,108 @@
+package test.benchmark;
+
+import gov.nist.javax.sip.SipStackImpl;
+import gov.nist.javax.sip.message.SIPMessage;
+import gov.nist.javax.sip.parser.ByteMsgParser;
+import gov.nist.javax.sip.parser.NioPipelineParser;
+import gov.nist.javax.sip.parser.SIPMessageListener;
+import gov.nist.javax.sip.parser.StringMsgParser;
+
+import java.text.ParseException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parsing of the message corpus, one datagram at a time with the datagram
+ * parsers and as a stream with the NIO pipeline parser used for TCP and TLS.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MessageParserBenchmark {
+
+    @Param({ "string", "byte" })
+    public String parser;
+
+    @Param({ "false", "true" })
+    public boolean lazyHeaderParsing;
+
+    private StringMsgParser msgParser;
+
+    private byte[][] corpus;
+
+    private byte[] stream;
+
+    private SipStackImpl sipStack;
+
+    private NioPipelineParser pipelineParser;
+
+    private int parsed;
+
+    @Setup
+    public void setUp() throws Exception {
+        msgParser = parser.equals("byte") ? new ByteMsgParser() : new StringMsgParser();
+        msgParser.setLazyHeaderParsing(lazyHeaderParsing);
+        corpus = SipMessageCorpus.asBytes();
+        int length = 0;
+        for (byte[] message : corpus) {
+            length += message.length;
+        }
+        stream = new byte[length];
+        int offset = 0;
+        for (byte[] message : corpus) {
+            System.arraycopy(message, 0, stream, offset, message.length);
+            offset += message.length;
+        }
+
+        Properties properties = new Properties();
+        properties.setProperty("javax.sip.STACK_NAME", "parserBenchmark");
+        properties.setProperty("gov.nist.javax.sip.LAZY_HEADER_PARSING", String.valueOf(lazyHeaderParsing));
+        properties.setProperty("gov.nist.javax.sip.MESSAGE_PARSER_FACTORY",
+            parser.equals("byte") ? "gov.nist.javax.sip.parser.ByteMsgParserFactory"
+                : "gov.nist.javax.sip.parser.StringMsgParserFactory");
+        sipStack = new SipStackImpl(properties);
+        pipelineParser = new NioPipelineParser(sipStack, new SIPMessageListener() {
+            public void processMessage(SIPMessage msg) {
+                parsed++;
+            }
+
+            public void sendSingleCLRF() {
+            }
+
+            public void handleException(ParseException ex, SIPMessage sipMessage, Class headerClass,
+                    String headerText, String messageText) throws ParseException {
+                throw ex;
+            }
+        }, Integer.MAX_VALUE);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pipelineParser.close();
+        sipStack.stop();
+    }
+
+    @Benchmark
+    public void parseDatagrams(Blackhole blackhole) throws ParseException {
+        for (byte[] message : corpus) {
+            blackhole.consume(msgParser.parseSIPMessage(message, true, false, null));
+        }
+    }
+
+    @Benchmark
+    public int parseStream() throws Exception {
+        pipelineParser.addBytes(stream);
+        return parsed;
+    }
+}
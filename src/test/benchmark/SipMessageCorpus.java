@@ -0,0 +1,106 @@
+package test.benchmark;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A small corpus of realistic messages shared by the benchmarks: a call set
+ * up through a proxy, with SDP, plus the usual registration and event traffic.
+ */
+public final class SipMessageCorpus {
+
+    public static final String INVITE =
+        "INVITE sip:bob@biloxi.example.com SIP/2.0\r\n"
+        + "Via: SIP/2.0/UDP pc33.atlanta.example.com:5060;branch=z9hG4bK776asdhds;rport\r\n"
+        + "Via: SIP/2.0/UDP 192.0.2.10:5060;branch=z9hG4bKnashds8;received=192.0.2.10\r\n"
+        + "Max-Forwards: 69\r\n"
+        + "To: Bob <sip:bob@biloxi.example.com>\r\n"
+        + "From: Alice <sip:alice@atlanta.example.com>;tag=1928301774\r\n"
+        + "Call-ID: a84b4c76e66710@pc33.atlanta.example.com\r\n"
+        + "CSeq: 314159 INVITE\r\n"
+        + "Contact: <sip:alice@pc33.atlanta.example.com;transport=udp>\r\n"
+        + "Record-Route: <sip:p1.example.com;lr>\r\n"
+        + "Allow: INVITE, ACK, CANCEL, OPTIONS, BYE, REFER, NOTIFY, MESSAGE, SUBSCRIBE, INFO\r\n"
+        + "Supported: replaces, timer, 100rel\r\n"
+        + "Session-Expires: 1800;refresher=uac\r\n"
+        + "User-Agent: Benchmark UA 1.0\r\n"
+        + "P-Asserted-Identity: \"Alice\" <sip:alice@atlanta.example.com>\r\n"
+        + "Content-Type: application/sdp\r\n"
+        + "Content-Length: 149\r\n"
+        + "\r\n"
+        + "v=0\r\n"
+        + "o=alice 2890844526 2890844526 IN IP4 pc33.atlanta.example.com\r\n"
+        + "s=-\r\n"
+        + "c=IN IP4 192.0.2.101\r\n"
+        + "t=0 0\r\n"
+        + "m=audio 49172 RTP/AVP 0\r\n"
+        + "a=rtpmap:0 PCMU/8000\r\n";
+
+    public static final String RINGING =
+        "SIP/2.0 180 Ringing\r\n"
+        + "Via: SIP/2.0/UDP pc33.atlanta.example.com:5060;branch=z9hG4bK776asdhds;rport=5060;received=192.0.2.101\r\n"
+        + "Via: SIP/2.0/UDP 192.0.2.10:5060;branch=z9hG4bKnashds8;received=192.0.2.10\r\n"
+        + "To: Bob <sip:bob@biloxi.example.com>;tag=a6c85cf\r\n"
+        + "From: Alice <sip:alice@atlanta.example.com>;tag=1928301774\r\n"
+        + "Call-ID: a84b4c76e66710@pc33.atlanta.example.com\r\n"
+        + "CSeq: 314159 INVITE\r\n"
+        + "Contact: <sip:bob@192.0.2.4>\r\n"
+        + "Record-Route: <sip:p1.example.com;lr>\r\n"
+        + "Content-Length: 0\r\n"
+        + "\r\n";
+
+    public static final String REGISTER =
+        "REGISTER sip:registrar.biloxi.example.com SIP/2.0\r\n"
+        + "Via: SIP/2.0/TCP bobspc.biloxi.example.com:5060;branch=z9hG4bKnashds7\r\n"
+        + "Max-Forwards: 70\r\n"
+        + "To: Bob <sip:bob@biloxi.example.com>\r\n"
+        + "From: Bob <sip:bob@biloxi.example.com>;tag=456248\r\n"
+        + "Call-ID: 843817637684230@998sdasdh09\r\n"
+        + "CSeq: 1826 REGISTER\r\n"
+        + "Contact: <sip:bob@192.0.2.4>;expires=7200\r\n"
+        + "Authorization: Digest username=\"bob\", realm=\"biloxi.example.com\", "
+        + "nonce=\"dcd98b7102dd2f0e8b11d0f600bfb0c093\", uri=\"sip:registrar.biloxi.example.com\", "
+        + "response=\"245f23415f11432b3434341c022\", algorithm=MD5\r\n"
+        + "Expires: 7200\r\n"
+        + "Content-Length: 0\r\n"
+        + "\r\n";
+
+    public static final String NOTIFY =
+        "NOTIFY sip:alice@pc33.atlanta.example.com SIP/2.0\r\n"
+        + "Via: SIP/2.0/UDP server.biloxi.example.com:5060;branch=z9hG4bK4cd42a\r\n"
+        + "Max-Forwards: 70\r\n"
+        + "To: Alice <sip:alice@atlanta.example.com>;tag=28bde4\r\n"
+        + "From: <sip:bob@biloxi.example.com>;tag=ffd2\r\n"
+        + "Call-ID: 3f1c9b20@pc33.atlanta.example.com\r\n"
+        + "CSeq: 20 NOTIFY\r\n"
+        + "Contact: <sip:server.biloxi.example.com>\r\n"
+        + "Event: presence\r\n"
+        + "Subscription-State: active;expires=599\r\n"
+        + "Content-Type: application/pidf+xml\r\n"
+        + "Content-Length: 0\r\n"
+        + "\r\n";
+
+    public static final String ACK =
+        "ACK sip:bob@192.0.2.4 SIP/2.0\r\n"
+        + "Via: SIP/2.0/UDP pc33.atlanta.example.com:5060;branch=z9hG4bK74b76\r\n"
+        + "Max-Forwards: 70\r\n"
+        + "Route: <sip:p1.example.com;lr>\r\n"
+        + "To: Bob <sip:bob@biloxi.example.com>;tag=a6c85cf\r\n"
+        + "From: Alice <sip:alice@atlanta.example.com>;tag=1928301774\r\n"
+        + "Call-ID: a84b4c76e66710@pc33.atlanta.example.com\r\n"
+        + "CSeq: 314159 ACK\r\n"
+        + "Content-Length: 0\r\n"
+        + "\r\n";
+
+    public static final String[] MESSAGES = { INVITE, RINGING, REGISTER, NOTIFY, ACK };
+
+    private SipMessageCorpus() {
+    }
+
+    public static byte[][] asBytes() {
+        byte[][] result = new byte[MESSAGES.length][];
+        for (int i = 0; i < MESSAGES.length; i++) {
+            result[i] = MESSAGES[i].getBytes(StandardCharsets.UTF_8);
+        }
+        return result;
+    }
+}
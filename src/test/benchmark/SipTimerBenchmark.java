@@ -0,0 +1,63 @@
+package test.benchmark;
+
+import gov.nist.javax.sip.SipStackImpl;
+import gov.nist.javax.sip.stack.SIPStackTimerTask;
+import gov.nist.javax.sip.stack.timers.SipTimer;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Scheduling and cancelling of transaction timers, which is what almost every
+ * timer does: a response arrives before the retransmission or timeout is due.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(4)
+public class SipTimerBenchmark {
+
+    @Param({ "gov.nist.javax.sip.stack.timers.DefaultSipTimer",
+        "gov.nist.javax.sip.stack.timers.HashedWheelSipTimer" })
+    public String timerClassName;
+
+    private SipStackImpl sipStack;
+
+    private SipTimer timer;
+
+    @Setup
+    public void setUp() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("javax.sip.STACK_NAME", "timerBenchmark");
+        sipStack = new SipStackImpl(properties);
+        timer = (SipTimer) Class.forName(timerClassName).newInstance();
+        timer.start(sipStack, properties);
+    }
+
+    @TearDown
+    public void tearDown() {
+        timer.stop();
+        sipStack.stop();
+    }
+
+    @Benchmark
+    public boolean scheduleAndCancel() {
+        SIPStackTimerTask task = new SIPStackTimerTask() {
+            public void runTask() {
+            }
+        };
+        timer.schedule(task, 32000);
+        return timer.cancel(task);
+    }
+}
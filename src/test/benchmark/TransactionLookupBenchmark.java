@@ -0,0 +1,139 @@
+package test.benchmark;
+
+import gov.nist.core.Host;
+import gov.nist.core.HostPort;
+import gov.nist.javax.sip.ListeningPointImpl;
+import gov.nist.javax.sip.SipStackImpl;
+import gov.nist.javax.sip.message.SIPRequest;
+import gov.nist.javax.sip.parser.StringMsgParser;
+import gov.nist.javax.sip.stack.MessageChannel;
+import gov.nist.javax.sip.stack.SIPDialog;
+import gov.nist.javax.sip.stack.SIPServerTransaction;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import javax.sip.ListeningPoint;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Transaction and dialog lookups against tables filled with many calls: by
+ * branch, for RFC 2543 requests without a branch, for CANCEL and by dialog id.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TransactionLookupBenchmark {
+
+    @Param({ "1000", "100000" })
+    public int tableSize;
+
+    @Param({ "5099" })
+    public int port;
+
+    private SipStackImpl sipStack;
+
+    private SIPRequest[] requests;
+
+    private SIPRequest[] legacyRequests;
+
+    private SIPRequest[] cancels;
+
+    private String[] dialogIds;
+
+    private int next;
+
+    private static String invite(int i, String branch) {
+        return "INVITE sip:bob@127.0.0.1 SIP/2.0\r\n"
+            + "Via: SIP/2.0/UDP 192.0.2.1:5060" + (branch == null ? "" : ";branch=" + branch) + "\r\n"
+            + "Max-Forwards: 70\r\n"
+            + "To: <sip:bob@127.0.0.1>;tag=to" + i + "\r\n"
+            + "From: <sip:alice@192.0.2.1>;tag=from" + i + "\r\n"
+            + "Call-ID: call-" + i + "@192.0.2.1\r\n"
+            + "CSeq: 1 INVITE\r\n"
+            + "Contact: <sip:alice@192.0.2.1>\r\n"
+            + "Content-Length: 0\r\n\r\n";
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("javax.sip.STACK_NAME", "transactionLookupBenchmark");
+        sipStack = new SipStackImpl(properties);
+        ListeningPoint listeningPoint = sipStack.createListeningPoint("127.0.0.1", port, "udp");
+        // dialogs take their provider from the listening point of the transaction
+        sipStack.createSipProvider(listeningPoint);
+        HostPort target = new HostPort();
+        target.setHost(new Host("192.0.2.1"));
+        target.setPort(5060);
+        MessageChannel channel = ((ListeningPointImpl) listeningPoint).getMessageProcessor()
+            .createMessageChannel(target);
+
+        StringMsgParser parser = new StringMsgParser();
+        requests = new SIPRequest[tableSize];
+        legacyRequests = new SIPRequest[tableSize / 2];
+        cancels = new SIPRequest[tableSize];
+        dialogIds = new String[tableSize];
+        for (int i = 0; i < tableSize; i++) {
+            // every other call comes from an RFC 2543 user agent
+            String branch = i % 2 == 0 ? "z9hG4bK" + i : null;
+            SIPRequest request = (SIPRequest) parser.parseSIPMessage(
+                invite(i, branch).getBytes("UTF-8"), true, false, null);
+            SIPServerTransaction serverTransaction = sipStack.createServerTransaction(channel);
+            serverTransaction.setOriginalRequest(request);
+            sipStack.addTransaction(serverTransaction);
+            SIPDialog dialog = sipStack.createDialog(serverTransaction);
+            dialog.setDialogId(request.getDialogId(true));
+            sipStack.putDialog(dialog);
+            dialogIds[i] = dialog.getDialogId();
+            requests[i] = (SIPRequest) request.clone();
+            cancels[i] = request.createCancelRequest();
+            if (branch == null) {
+                legacyRequests[i / 2] = requests[i];
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        sipStack.stop();
+    }
+
+    private int nextIndex(int length) {
+        int i = next + 1;
+        if (i >= length) {
+            i = 0;
+        }
+        next = i;
+        return i;
+    }
+
+    @Benchmark
+    public Object findTransaction() {
+        return sipStack.findTransaction(requests[nextIndex(requests.length)], true);
+    }
+
+    @Benchmark
+    public Object findRfc2543Transaction() {
+        return sipStack.findTransaction(legacyRequests[nextIndex(legacyRequests.length)], true);
+    }
+
+    @Benchmark
+    public Object findCancelTransaction() {
+        return sipStack.findCancelTransaction(cancels[nextIndex(cancels.length)], true);
+    }
+
+    @Benchmark
+    public Object getDialog() {
+        return sipStack.getDialog(dialogIds[nextIndex(dialogIds.length)]);
+    }
+}
@@ -0,0 +1,39 @@
+package test.benchmark;
+
+import gov.nist.javax.sip.Utils;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Generation of the identifiers every new transaction and dialog needs. Run
+ * with several threads since the generators are shared by the whole stack.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(4)
+public class UtilsBenchmark {
+
+    @Benchmark
+    public String generateBranchId() {
+        return Utils.getInstance().generateBranchId();
+    }
+
+    @Benchmark
+    public String generateTag() {
+        return Utils.getInstance().generateTag();
+    }
+
+    @Benchmark
+    public String generateCallIdentifier() {
+        return Utils.getInstance().generateCallIdentifier("127.0.0.1");
+    }
+}
@@ -0,0 +1,178 @@
+package test.unit.gov.nist.javax.sip;
+
+import gov.nist.core.net.DnsLookup;
+import gov.nist.core.net.DnsRecord;
+import gov.nist.javax.sip.CachingAddressResolver;
+import gov.nist.javax.sip.stack.HopImpl;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import javax.sip.address.Hop;
+
+import junit.framework.TestCase;
+
+public class CachingAddressResolverTest extends TestCase {
+
+    private StandInDns dns;
+
+    private CachingAddressResolver resolver;
+
+    public void setUp() {
+        dns = new StandInDns();
+        // refreshes run on the calling thread to keep the test deterministic
+        resolver = new CachingAddressResolver(dns, new Executor() {
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+    }
+
+    public void testHopWithPortIsNotResolved() {
+        Hop hop = new HopImpl("example.com", 5070, "udp");
+        assertSame(hop, resolver.resolveAddress(hop));
+        assertEquals(0, dns.queries);
+    }
+
+    public void testNaptrThenSrv() {
+        dns.add("example.com", DnsRecord.naptr("example.com", 20, 10, "s", "SIP+D2U", "_sip._udp.example.com.", 300),
+            DnsRecord.naptr("example.com", 10, 10, "s", "SIP+D2T", "_sip._tcp.example.com.", 300));
+        dns.add("_sip._tcp.example.com", DnsRecord.srv("_sip._tcp.example.com", 10, 0, 5070, "tcp.example.com.", 300));
+        dns.add("_sip._udp.example.com", DnsRecord.srv("_sip._udp.example.com", 20, 0, 5080, "backup.example.com.", 300),
+            DnsRecord.srv("_sip._udp.example.com", 10, 0, 5060, "udp.example.com.", 300));
+
+        Hop hop = resolver.resolveAddress(new HopImpl("example.com", -1, "udp"));
+        assertEquals("udp.example.com", hop.getHost());
+        assertEquals(5060, hop.getPort());
+        assertEquals("udp", hop.getTransport());
+
+        hop = resolver.resolveAddress(new HopImpl("example.com", -1, "tcp"));
+        assertEquals("tcp.example.com", hop.getHost());
+        assertEquals(5070, hop.getPort());
+    }
+
+    public void testSrvWithoutNaptr() {
+        dns.add("_sips._tcp.example.org", DnsRecord.srv("_sips._tcp.example.org", 0, 0, 5071, "tls.example.org", 300));
+        Hop hop = resolver.resolveAddress(new HopImpl("example.org", -1, "tls"));
+        assertEquals("tls.example.org", hop.getHost());
+        assertEquals(5071, hop.getPort());
+    }
+
+    public void testDefaultPortWithoutSrv() {
+        Hop hop = resolver.resolveAddress(new HopImpl("nosrv.example.com", -1, "tls"));
+        assertEquals("nosrv.example.com", hop.getHost());
+        assertEquals(5061, hop.getPort());
+        hop = resolver.resolveAddress(new HopImpl("127.0.0.1", -1, "udp"));
+        assertEquals(5060, hop.getPort());
+    }
+
+    public void testAnswersAreCached() throws Exception {
+        dns.add("host.example.com", DnsRecord.address("host.example.com", InetAddress.getByName("10.0.0.1"), 300));
+        assertEquals("10.0.0.1", resolver.getByName("host.example.com").getHostAddress());
+        int queries = dns.queries;
+        assertEquals("10.0.0.1", resolver.getByName("HOST.example.com").getHostAddress());
+        assertEquals(queries, dns.queries);
+        assertEquals(1, resolver.getCacheHits());
+        // literals never reach the upstream
+        assertEquals("10.0.0.2", resolver.getByName("10.0.0.2").getHostAddress());
+        assertEquals(queries, dns.queries);
+    }
+
+    public void testMissingNamesAreCached() throws Exception {
+        try {
+            resolver.getByName("missing.example.com");
+            fail("resolved a missing name");
+        } catch (UnknownHostException expected) {
+        }
+        int queries = dns.queries;
+        try {
+            resolver.getByName("missing.example.com");
+            fail("resolved a missing name");
+        } catch (UnknownHostException expected) {
+        }
+        assertEquals(queries, dns.queries);
+
+        resolver.setNegativeTtl(0);
+        resolver.clearCache();
+        dns.add("missing.example.com", DnsRecord.address("missing.example.com", InetAddress.getByName("10.0.0.3"), 300));
+        assertEquals("10.0.0.3", resolver.getByName("missing.example.com").getHostAddress());
+    }
+
+    public void testExpiryAndRefresh() throws Exception {
+        dns.add("short.example.com", DnsRecord.address("short.example.com", InetAddress.getByName("10.0.0.4"), 1));
+        resolver.getByName("short.example.com");
+        int queries = dns.queries;
+        // in the last quarter of its life the entry is served and refreshed
+        Thread.sleep(800);
+        dns.add("short.example.com", DnsRecord.address("short.example.com", InetAddress.getByName("10.0.0.5"), 1));
+        assertEquals("10.0.0.4", resolver.getByName("short.example.com").getHostAddress());
+        assertEquals(queries + 1, dns.queries);
+        assertEquals(1, resolver.getRefreshes());
+        assertEquals("10.0.0.5", resolver.getByName("short.example.com").getHostAddress());
+    }
+
+    public void testFailedRefreshKeepsTheAnswer() throws Exception {
+        dns.add("flaky.example.com", DnsRecord.address("flaky.example.com", InetAddress.getByName("10.0.0.6"), 1));
+        resolver.getByName("flaky.example.com");
+        Thread.sleep(800);
+        dns.failing = true;
+        int queries = dns.queries;
+        assertEquals("10.0.0.6", resolver.getByName("flaky.example.com").getHostAddress());
+        assertEquals(queries + 1, dns.queries);
+        // the failed refresh is not retried on every lookup
+        assertEquals("10.0.0.6", resolver.getByName("flaky.example.com").getHostAddress());
+        assertEquals("10.0.0.6", resolver.getByName("flaky.example.com").getHostAddress());
+        assertEquals(queries + 1, dns.queries);
+        assertEquals(1, resolver.getRefreshes());
+    }
+
+    public void testFailuresAreNotCachedLikeMissingNames() throws Exception {
+        dns.failing = true;
+        try {
+            resolver.getByName("down.example.com");
+            fail("resolved a name while the DNS is down");
+        } catch (UnknownHostException expected) {
+        }
+        dns.failing = false;
+        dns.add("down.example.com", DnsRecord.address("down.example.com", InetAddress.getByName("10.0.0.7"), 300));
+        // retried after a few seconds, not after the 30s of a missing name
+        Thread.sleep(5100);
+        assertEquals("10.0.0.7", resolver.getByName("down.example.com").getHostAddress());
+    }
+
+    private static class StandInDns implements DnsLookup {
+        final Map<String, List<DnsRecord>> records = new HashMap<String, List<DnsRecord>>();
+
+        int queries;
+
+        boolean failing;
+
+        void add(String name, DnsRecord... added) {
+            records.remove(name);
+            records.put(name, new ArrayList<DnsRecord>(Arrays.asList(added)));
+        }
+
+        public synchronized List<DnsRecord> lookup(String name, String type) throws IOException {
+            queries++;
+            if (failing) {
+                throw new IOException("stand-in failure");
+            }
+            List<DnsRecord> answer = new ArrayList<DnsRecord>();
+            List<DnsRecord> known = records.get(name.toLowerCase());
+            for (DnsRecord record : known == null ? Collections.<DnsRecord>emptyList() : known) {
+                if (record.getType().equals(type)) {
+                    answer.add(record);
+                }
+            }
+            return answer;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package test.unit.gov.nist.javax.sip.header;
+
+import gov.nist.core.GenericObject;
+import gov.nist.core.NameValue;
+import gov.nist.javax.sip.address.AddressImpl;
+import gov.nist.javax.sip.address.TelephoneNumber;
+import gov.nist.javax.sip.header.CallID;
+import gov.nist.javax.sip.header.CallIdentifier;
+import gov.nist.javax.sip.header.Challenge;
+import gov.nist.javax.sip.header.Credentials;
+import gov.nist.javax.sip.header.From;
+import gov.nist.javax.sip.header.MediaRange;
+import gov.nist.javax.sip.header.Protocol;
+import gov.nist.javax.sip.header.SIPHeader;
+import gov.nist.javax.sip.header.SIPHeaderList;
+import gov.nist.javax.sip.header.StatusLine;
+import gov.nist.javax.sip.header.Subject;
+import gov.nist.javax.sip.header.To;
+import gov.nist.javax.sip.parser.StringMsgParser;
+
+import javax.sip.address.SipURI;
+
+import junit.framework.TestCase;
+
+/**
+ * The headers compare field by field, their clones are equal to them and
+ * copy-on-write clones do not see the changes of each other.
+ */
+public class HeaderEqualityTest extends TestCase {
+
+    // pairs of headers of the same class that differ in one field
+    private static final String[][] HEADERS = {
+        { "Accept: application/sdp;level=1", "Accept: application/sdp;level=2" },
+        { "Accept-Encoding: gzip;q=0.5", "Accept-Encoding: gzip;q=0.8" },
+        { "Accept-Language: da", "Accept-Language: en" },
+        { "Alert-Info: <http://www.example.com/sounds/moo.wav>", "Alert-Info: <http://www.example.com/sounds/bell.wav>" },
+        { "Allow: INVITE", "Allow: BYE" },
+        { "Allow-Events: presence", "Allow-Events: dialog" },
+        { "Authentication-Info: nextnonce=\"47364c23432d2e131a5fb210812c\"", "Authentication-Info: nextnonce=\"1\"" },
+        { "Authorization: Digest username=\"bob\", realm=\"atlanta.example.com\"",
+            "Authorization: Digest username=\"alice\", realm=\"atlanta.example.com\"" },
+        { "Proxy-Authorization: Digest username=\"bob\", realm=\"atlanta.example.com\"",
+            "Proxy-Authorization: Digest username=\"bob\", realm=\"biloxi.example.com\"" },
+        { "WWW-Authenticate: Digest realm=\"atlanta.example.com\", nonce=\"ea9c8e88df84f1cec4341ae6cbe5a359\"",
+            "WWW-Authenticate: Digest realm=\"atlanta.example.com\", nonce=\"1\"" },
+        { "Proxy-Authenticate: Digest realm=\"atlanta.example.com\", nonce=\"ea9c8e88df84f1cec4341ae6cbe5a359\"",
+            "Proxy-Authenticate: Digest realm=\"atlanta.example.com\", nonce=\"1\"" },
+        { "Call-Info: <http://www.example.com/alice/photo.jpg> ;purpose=icon",
+            "Call-Info: <http://www.example.com/alice/photo.jpg> ;purpose=info" },
+        { "Content-Disposition: session;handling=optional", "Content-Disposition: session;handling=required" },
+        { "Content-Encoding: gzip", "Content-Encoding: deflate" },
+        { "Content-Language: fr", "Content-Language: en" },
+        { "Error-Info: <sip:not-in-service-recording@atlanta.example.com>", "Error-Info: <sip:busy@atlanta.example.com>" },
+        { "Event: presence;id=1", "Event: presence;id=2" },
+        { "Expires: 30", "Expires: 60" },
+        { "X-Custom: a", "X-Custom: b" },
+        { "X-Custom: a", "X-Other: a" },
+        { "In-Reply-To: 70710@saturn.bell-tel.com", "In-Reply-To: 17320@saturn.bell-tel.com" },
+        { "MIME-Version: 1.0", "MIME-Version: 2.0" },
+        { "Min-Expires: 60", "Min-Expires: 120" },
+        { "Min-SE: 90", "Min-SE: 120" },
+        { "Organization: Boxes by Bob", "Organization: Bags by Alice" },
+        { "Priority: emergency", "Priority: urgent" },
+        { "Proxy-Require: foo", "Proxy-Require: bar" },
+        { "RAck: 776656 1 INVITE", "RAck: 776656 2 INVITE" },
+        { "RSeq: 988789", "RSeq: 1" },
+        { "Reason: SIP ;cause=200 ;text=\"Call completed elsewhere\"", "Reason: SIP ;cause=600 ;text=\"Busy\"" },
+        { "Replaces: 12345@example.com;to-tag=1;from-tag=2", "Replaces: 12345@example.com;to-tag=1;from-tag=3" },
+        { "Join: 12345@example.com;to-tag=1;from-tag=2", "Join: 54321@example.com;to-tag=1;from-tag=2" },
+        { "Require: 100rel", "Require: timer" },
+        { "Retry-After: 18000;duration=3600", "Retry-After: 120" },
+        { "Date: Sat, 13 Nov 2010 23:29:00 GMT", "Date: Sun, 14 Nov 2010 23:29:00 GMT" },
+        { "SIP-ETag: dx200xyz", "SIP-ETag: abc" },
+        { "SIP-If-Match: dx200xyz", "SIP-If-Match: abc" },
+        { "Server: HomeServer v2", "Server: HomeServer v3" },
+        { "Session-Expires: 4000;refresher=uac", "Session-Expires: 4000;refresher=uas" },
+        { "Subject: Need more boxes", "Subject: Tech Support" },
+        { "Subscription-State: active;expires=60", "Subscription-State: terminated;reason=timeout" },
+        { "Supported: 100rel", "Supported: timer" },
+        { "Timestamp: 54", "Timestamp: 55" },
+        { "Unsupported: foo", "Unsupported: bar" },
+        { "User-Agent: Softphone Beta1.5", "User-Agent: Softphone Beta1.6" },
+        { "Warning: 307 isi.edu \"Session parameter 'foo' not understood\"",
+            "Warning: 301 isi.edu \"Incompatible network address type 'E.164'\"" },
+        { "P-Charging-Vector: icid-value=1234bc9876e;icid-generated-at=192.0.6.8",
+            "P-Charging-Vector: icid-value=1234bc9876f;icid-generated-at=192.0.6.8" },
+        { "P-Charging-Function-Addresses: ccf=192.1.1.1;ecf=192.1.1.2",
+            "P-Charging-Function-Addresses: ccf=192.1.1.3;ecf=192.1.1.2" },
+        { "Via: SIP/2.0/UDP pc33.atlanta.example.com;branch=z9hG4bK776asdhds",
+            "Via: SIP/2.0/TCP pc33.atlanta.example.com;branch=z9hG4bK776asdhds" }
+    };
+
+    private static SIPHeader parse(String text) throws Exception {
+        SIPHeader header = StringMsgParser.parseSIPHeader(text);
+        if (header instanceof SIPHeaderList) {
+            header = (SIPHeader) ((SIPHeaderList<?>) header).getFirst();
+        }
+        return header;
+    }
+
+    public void testHeadersCompareFieldByField() throws Exception {
+        for (String[] pair : HEADERS) {
+            SIPHeader header = parse(pair[0]);
+            SIPHeader same = parse(pair[0]);
+            SIPHeader other = parse(pair[1]);
+            assertEquals(pair[0], header, same);
+            assertEquals(pair[0], header.hashCode(), same.hashCode());
+            assertEquals(pair[0], header, header.clone());
+            assertEquals(pair[0], header.clone(), header);
+            assertFalse(pair[1], header.equals(other));
+            assertFalse(pair[1], other.equals(header));
+            assertFalse(pair[0], header.equals(null));
+        }
+    }
+
+    public void testHeaderPartsHashLikeTheyCompare() throws Exception {
+        TelephoneNumber number = new TelephoneNumber();
+        number.setGlobal(true);
+        number.setPhoneNumber("15551234567");
+        number.setParameter("phone-context", "example.com");
+        Challenge challenge = new Challenge();
+        challenge.setScheme("Digest");
+        challenge.setParameter(new NameValue("realm", "atlanta.example.com", false));
+        Credentials credentials = new Credentials();
+        credentials.setScheme("Digest");
+        MediaRange mediaRange = new MediaRange();
+        mediaRange.setType("application");
+        mediaRange.setSubtype("sdp");
+        Protocol protocol = new Protocol();
+        protocol.setProtocol("SIP/2.0");
+        protocol.setTransport("UDP");
+        StatusLine statusLine = new StatusLine();
+        statusLine.setSipVersion("SIP/2.0");
+        statusLine.setStatusCode(486);
+        statusLine.setReasonPhrase("Busy Here");
+
+        GenericObject[] parts = { number, challenge, credentials, mediaRange, protocol, statusLine };
+        for (GenericObject part : parts) {
+            GenericObject copy = (GenericObject) part.clone();
+            assertEquals(part.getClass().getName(), part, copy);
+            assertEquals(part.getClass().getName(), part.hashCode(), copy.hashCode());
+        }
+    }
+
+    public void testTemplatesMatchIgnoringCase() throws Exception {
+        Subject subject = (Subject) parse("Subject: Need more boxes");
+        assertTrue(subject.match(parse("Subject: NEED MORE BOXES")));
+        assertTrue(subject.match(new Subject()));
+        assertFalse(subject.match(parse("Subject: Tech Support")));
+        assertTrue(parse("Expires: 30").match(parse("Expires: 30")));
+        assertFalse(parse("Expires: 30").match(parse("Expires: 60")));
+    }
+
+    public void testCopyOnWriteClones() throws Exception {
+        SIPHeader.setCopyOnWriteClones(true);
+        try {
+            From from = (From) parse("From: Alice <sip:alice@atlanta.example.com>;tag=1928301774");
+            From fromClone = (From) from.clone();
+            assertEquals(from, fromClone);
+            ((SipURI) fromClone.getAddress().getURI()).setUser("carol");
+            assertEquals("alice", ((SipURI) from.getAddress().getURI()).getUser());
+            ((AddressImpl) from.getAddress()).setDisplayName("Alice Liddell");
+            assertEquals("carol", ((SipURI) fromClone.getAddress().getURI()).getUser());
+            assertEquals("Alice", fromClone.getAddress().getDisplayName());
+
+            To to = (To) parse("To: Bob <sip:bob@biloxi.example.com>");
+            To toClone = (To) to.clone();
+            toClone.setTag("a6c85cf");
+            assertNull(to.getTag());
+            toClone.getHostPort().setPort(5070);
+            assertEquals(-1, ((SipURI) to.getAddress().getURI()).getPort());
+            assertEquals(5070, ((SipURI) toClone.getAddress().getURI()).getPort());
+
+            CallID callId = (CallID) parse("Call-ID: a84b4c76e66710@pc33.atlanta.example.com");
+            CallID callIdClone = (CallID) callId.clone();
+            assertEquals(callId, callIdClone);
+            callIdClone.getCallIdentifer().setLocalId("b84b4c76e66710");
+            assertEquals("a84b4c76e66710@pc33.atlanta.example.com", callId.getCallId());
+            assertEquals("b84b4c76e66710@pc33.atlanta.example.com", callIdClone.getCallId());
+
+            // a value handed out before the clone is copied, not shared
+            SipURI handedOut = (SipURI) from.getAddress().getURI();
+            From laterClone = (From) from.clone();
+            handedOut.setUser("dave");
+            assertEquals("carol", ((SipURI) fromClone.getAddress().getURI()).getUser());
+            assertEquals("alice", ((SipURI) laterClone.getAddress().getURI()).getUser());
+            CallIdentifier identifier = callId.getCallIdentifer();
+            CallID laterCallIdClone = (CallID) callId.clone();
+            identifier.setLocalId("c84b4c76e66710");
+            assertEquals("a84b4c76e66710@pc33.atlanta.example.com", laterCallIdClone.getCallId());
+        } finally {
+            SIPHeader.setCopyOnWriteClones(false);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package test.unit.gov.nist.javax.sip.message;
+
+import gov.nist.javax.sip.message.SIPMessage;
+import gov.nist.javax.sip.message.SIPRequest;
+import gov.nist.javax.sip.message.SIPResponse;
+import gov.nist.javax.sip.parser.StringMsgParser;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * encodeAsBytes writes first line, headers and body into one array that
+ * matches the String encoding of the message.
+ */
+public class EncodeAsBytesTest extends TestCase {
+
+    private static final String HEADERS = "Via: SIP/2.0/UDP 127.0.0.1:5060;branch=z9hG4bK-1\r\n"
+        + "Max-Forwards: 70\r\n"
+        + "From: \"%s\" <sip:alice@example.com>;tag=1\r\n"
+        + "To: <sip:bob@example.com>\r\n"
+        + "Call-ID: 1@127.0.0.1\r\n"
+        + "CSeq: 1 MESSAGE\r\n"
+        + "X-Custom:   kept    as is\r\n"
+        + "Content-Type: application/octet-stream\r\n"
+        + "Content-Length: %d\r\n\r\n";
+
+    private SIPMessage parse(String firstLine, String displayName, byte[] body, boolean lazy)
+            throws Exception {
+        byte[] head = (firstLine + String.format(HEADERS, displayName, body.length)).getBytes("UTF-8");
+        byte[] wire = new byte[head.length + body.length];
+        System.arraycopy(head, 0, wire, 0, head.length);
+        System.arraycopy(body, 0, wire, head.length, body.length);
+        StringMsgParser parser = new StringMsgParser();
+        parser.setLazyHeaderParsing(lazy);
+        return parser.parseSIPMessage(wire, true, false, null);
+    }
+
+    private static byte[] expected(SIPMessage message, byte[] body) throws Exception {
+        String encoded = message.encode();
+        byte[] head = encoded.substring(0, encoded.indexOf("\r\n\r\n") + 4).getBytes("UTF-8");
+        byte[] retval = new byte[head.length + body.length];
+        System.arraycopy(head, 0, retval, 0, head.length);
+        System.arraycopy(body, 0, retval, head.length, body.length);
+        return retval;
+    }
+
+    public void testRequestWithBinaryBody() throws Exception {
+        byte[] body = new byte[] { 0, (byte) 0xff, (byte) 0x80, 13, 10, 42 };
+        SIPMessage request = parse("MESSAGE sip:bob@example.com SIP/2.0\r\n", "Alice", body, false);
+        byte[] encoded = request.encodeAsBytes("UDP");
+        assertTrue(Arrays.equals(expected(request, body), encoded));
+        // the per thread scratch buffer must not leak into the next encoding
+        assertTrue(Arrays.equals(encoded, request.encodeAsBytes("UDP")));
+    }
+
+    public void testNonAsciiHeaders() throws Exception {
+        byte[] body = "hello".getBytes("UTF-8");
+        SIPMessage request = parse("MESSAGE sip:bob@example.com SIP/2.0\r\n",
+            "Алиса", body, false);
+        byte[] encoded = request.encodeAsBytes("UDP");
+        assertTrue(Arrays.equals(expected(request, body), encoded));
+        assertTrue(new String(encoded, "UTF-8").contains("Алиса"));
+    }
+
+    public void testResponseAndLazyHeaders() throws Exception {
+        byte[] body = new byte[0];
+        SIPMessage response = parse("SIP/2.0 200 OK\r\n", "Alice", body, true);
+        assertTrue(response instanceof SIPResponse);
+        byte[] encoded = response.encodeAsBytes("TCP");
+        assertTrue(Arrays.equals(expected(response, body), encoded));
+        String text = new String(encoded, "UTF-8");
+        assertTrue(text, text.startsWith("SIP/2.0 200 OK\r\nVia: SIP/2.0/TCP "));
+        assertTrue(text, text.contains("\r\nX-Custom:   kept    as is\r\n"));
+    }
+
+    public void testNullRequest() throws Exception {
+        SIPRequest request = new SIPRequest();
+        request.setNullRequest();
+        assertEquals("\r\n\r\n", new String(request.encodeAsBytes("UDP"), "UTF-8"));
+    }
+}
@@ -0,0 +1,92 @@
+package test.unit.gov.nist.javax.sip.message;
+
+import gov.nist.javax.sip.header.ExtensionHeaderImpl;
+import gov.nist.javax.sip.message.SIPMessage;
+import gov.nist.javax.sip.parser.StringMsgParser;
+
+import java.util.Iterator;
+import java.util.Random;
+
+import javax.sip.header.ViaHeader;
+
+import junit.framework.TestCase;
+
+/**
+ * The compact header store behaves like the concurrent one it replaces.
+ */
+public class HeaderStoreTest extends TestCase {
+
+    private static final String MESSAGE = "INVITE sip:bob@example.com SIP/2.0\r\n"
+        + "Via: SIP/2.0/UDP 127.0.0.1:5060;branch=z9hG4bK-1\r\n"
+        + "Via: SIP/2.0/UDP 127.0.0.2:5060;branch=z9hG4bK-2\r\n"
+        + "Max-Forwards: 70\r\n"
+        + "From: <sip:alice@example.com>;tag=1\r\n"
+        + "To: <sip:bob@example.com>\r\n"
+        + "Call-ID: 1@127.0.0.1\r\n"
+        + "CSeq: 1 INVITE\r\n"
+        + "Subject: store\r\n"
+        + "Content-Length: 0\r\n\r\n";
+
+    public void tearDown() {
+        SIPMessage.setConcurrentHeaderAccess(false);
+    }
+
+    private SIPMessage parse(boolean concurrent) throws Exception {
+        SIPMessage.setConcurrentHeaderAccess(concurrent);
+        return new StringMsgParser().parseSIPMessage(MESSAGE.getBytes("UTF-8"), true, false, null);
+    }
+
+    private static ExtensionHeaderImpl header(String name, String value) {
+        ExtensionHeaderImpl header = new ExtensionHeaderImpl(name);
+        header.setValue(value);
+        return header;
+    }
+
+    public void testSameResultAsConcurrentStore() throws Exception {
+        SIPMessage compact = parse(false);
+        SIPMessage concurrent = parse(true);
+        Random random = new Random(7);
+        for (int i = 0; i < 2000; i++) {
+            String name = "X-H" + random.nextInt(40);
+            if (random.nextInt(3) == 0) {
+                compact.removeHeader(name);
+                concurrent.removeHeader(name);
+            } else {
+                String value = "v" + i;
+                compact.setHeader(header(name, value));
+                concurrent.setHeader(header(name, value));
+            }
+            if (i % 100 == 0) {
+                assertEquals(concurrent.encode(), compact.encode());
+            }
+        }
+        assertEquals(concurrent.encode(), compact.encode());
+        assertEquals(concurrent, compact);
+        for (int i = 0; i < 40; i++) {
+            String name = "x-h" + i;
+            assertEquals(concurrent.hasHeader(name), compact.hasHeader(name));
+        }
+    }
+
+    public void testCloneAndRemove() throws Exception {
+        SIPMessage message = parse(false);
+        SIPMessage clone = (SIPMessage) message.clone();
+        message.removeHeader(ViaHeader.NAME, true);
+        assertEquals("127.0.0.2", ((ViaHeader) message.getHeader(ViaHeader.NAME)).getHost());
+        assertEquals("127.0.0.1", ((ViaHeader) clone.getHeader(ViaHeader.NAME)).getHost());
+        message.removeHeader(ViaHeader.NAME);
+        assertNull(message.getHeader(ViaHeader.NAME));
+        assertFalse(message.getHeaderNames().toString().contains("Via"));
+        assertEquals(parse(true).encode(), clone.encode());
+    }
+
+    public void testIteratorRemove() throws Exception {
+        SIPMessage message = parse(false);
+        int count = 0;
+        for (Iterator<?> it = message.getHeaders(); it.hasNext(); it.next()) {
+            count++;
+        }
+        assertEquals(8, count);
+        assertFalse(message.getUnrecognizedHeaders().hasNext());
+    }
+}
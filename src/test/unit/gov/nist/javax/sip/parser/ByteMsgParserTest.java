@@ -0,0 +1,110 @@
+package test.unit.gov.nist.javax.sip.parser;
+
+import gov.nist.javax.sip.header.CSeq;
+import gov.nist.javax.sip.header.SIPHeader;
+import gov.nist.javax.sip.message.SIPMessage;
+import gov.nist.javax.sip.message.SIPRequest;
+import gov.nist.javax.sip.parser.ByteMsgParser;
+import gov.nist.javax.sip.parser.ParseExceptionListener;
+import gov.nist.javax.sip.parser.StringMsgParser;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+
+import junit.framework.TestCase;
+
+/**
+ * The byte level parser must build the same messages as StringMsgParser.
+ */
+public class ByteMsgParserTest extends TestCase {
+
+    private static final String[] MESSAGES = {
+        "SIP/2.0 180 Ringing\r\n"
+            + "Via: SIP/2.0/UDP 172.18.1.29:5060;branch=z9hG4bK43fc10fb4446d55fc5c8f969607991f4, SIP/2.0/TCP 10.0.0.1;branch=z9hG4bK1\r\n"
+            + "To: \"0440\" <sip:0440@212.209.220.131>;tag=2600\r\n"
+            + "From: \"Andreas\" <sip:andreas@e-horizon.se>;tag=8524\r\n"
+            + "Call-ID: f51a1851c5f570606140f14c8eb64fd3@172.18.1.29\r\n"
+            + "CSeq: 1 INVITE\r\n"
+            + "Max-Forwards: 70\r\n"
+            + "Record-Route: <sip:212.209.220.131:5060;lr>, <sip:10.0.0.1;lr>\r\n"
+            + "Content-Length: 0\r\n\r\n",
+
+        "INVITE sip:littleguy@there.com:5060 SIP/2.0\r\n"
+            + "v: SIP/2.0/UDP 65.243.118.100:5050;branch=z9hG4bK-1\r\n"
+            + "f: M. Ranganathan  <sip:M.Ranganathan@sipbakeoff.com>;tag=1234\r\n"
+            + "t: \"littleguy@there.com\" <sip:littleguy@there.com:5060> \r\n"
+            + "i: Q2AboBsaGn9!?x6@sipbakeoff.com \r\n"
+            + "CSEQ:   7   invite \r\n"
+            + "m: <sip:mranga@65.243.118.100:5050>;expires=30\r\n"
+            + "Route: <sip:proxy@127.0.0.1:5070;transport=tcp;lr>\r\n"
+            + "Subject: folded\r\n"
+            + "  across lines\r\n"
+            + "P-Asserted-Identity: <sip:alice@example.com>\r\n"
+            + "X-Custom: some value\r\n"
+            + "Content-Type: application/sdp\r\n"
+            + "l: 13\r\n\r\n"
+            + "v=0\r\no=4855 1",
+
+        "MESSAGE sip:bob@example.com SIP/2.0\r\n"
+            + "Via: SIP/2.0/TCP 127.0.0.1:5060;branch=z9hG4bK-2\r\n"
+            + "Max-Forwards: 70\r\n"
+            + "From: <sip:alice@example.com>;tag=1\r\n"
+            + "To: <sip:bob@example.com>\r\n"
+            + "Call-ID: 2@127.0.0.1\r\n"
+            + "CSeq: 4294967295 MESSAGE\r\n"
+            + "Content-Length: 0\r\n\r\n",
+    };
+
+    public void testSameMessagesAsStringMsgParser() throws Exception {
+        for (String message : MESSAGES) {
+            SIPMessage expected = new StringMsgParser().parseSIPMessage(message.getBytes("UTF-8"), true, false, null);
+            SIPMessage actual = new ByteMsgParser().parseSIPMessage(message.getBytes("UTF-8"), true, false, null);
+            assertEquals(expected.encode(), actual.encode());
+            assertEquals(expected.getSize(), actual.getSize());
+            assertEquals(expected, actual);
+        }
+    }
+
+    public void testFastPathHeaders() throws Exception {
+        SIPRequest request = (SIPRequest) new ByteMsgParser().parseSIPMessage(MESSAGES[1].getBytes("UTF-8"), true, false, null);
+        CSeq cseq = (CSeq) request.getCSeq();
+        assertEquals(7, cseq.getSeqNumber());
+        assertEquals("invite", cseq.getMethod());
+        assertEquals("Q2AboBsaGn9!?x6@sipbakeoff.com", request.getCallId().getCallId());
+        assertEquals(13, request.getContentLength().getContentLength());
+        assertEquals("v=0\r\no=4855 1", new String(request.getRawContent()));
+        assertEquals("folded across lines", ((SIPHeader) request.getHeader("Subject")).getHeaderValue());
+    }
+
+    public void testBadHeadersReportedLikeStringMsgParser() throws Exception {
+        String message = "MESSAGE sip:bob@example.com SIP/2.0\r\n"
+            + "Via: SIP/2.0/TCP 127.0.0.1:5060;branch=z9hG4bK-3\r\n"
+            + "Max-Forwards: 700\r\n"
+            + "From: <sip:alice@example.com>;tag=1\r\n"
+            + "To: <sip:bob@example.com>\r\n"
+            + "Call-ID: 3@127.0.0.1\r\n"
+            + "CSeq: one MESSAGE\r\n"
+            + "Content-Length: 0\r\n\r\n";
+        List<String> expected = new ArrayList<String>();
+        new StringMsgParser().parseSIPMessage(message.getBytes("UTF-8"), true, false, new Recorder(expected));
+        List<String> actual = new ArrayList<String>();
+        new ByteMsgParser().parseSIPMessage(message.getBytes("UTF-8"), true, false, new Recorder(actual));
+        assertEquals(2, expected.size());
+        assertEquals(expected, actual);
+    }
+
+    private static class Recorder implements ParseExceptionListener {
+        private final List<String> headers;
+
+        Recorder(List<String> headers) {
+            this.headers = headers;
+        }
+
+        public void handleException(ParseException ex, SIPMessage sipMessage, Class headerClass,
+                String headerText, String messageText) throws ParseException {
+            headers.add(headerClass.getName() + " " + headerText);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package test.unit.gov.nist.javax.sip.parser;
+
+import gov.nist.javax.sip.message.SIPMessage;
+import gov.nist.javax.sip.message.SIPRequest;
+import gov.nist.javax.sip.message.SIPResponse;
+import gov.nist.javax.sip.parser.ByteMsgParser;
+import gov.nist.javax.sip.parser.StringMsgParser;
+
+import java.util.ListIterator;
+
+import javax.sip.header.AllowHeader;
+import javax.sip.header.SubjectHeader;
+
+import junit.framework.TestCase;
+
+/**
+ * Headers the stack does not need are only parsed when accessed and are
+ * forwarded unchanged otherwise.
+ */
+public class LazyHeaderParsingTest extends TestCase {
+
+    private static final String MESSAGE = "INVITE sip:bob@example.com SIP/2.0\r\n"
+        + "Via: SIP/2.0/UDP 127.0.0.1:5060;branch=z9hG4bK-1\r\n"
+        + "Max-Forwards: 70\r\n"
+        + "From: <sip:alice@example.com>;tag=1\r\n"
+        + "To: <sip:bob@example.com>\r\n"
+        + "Call-ID: 1@127.0.0.1\r\n"
+        + "CSeq: 1 INVITE\r\n"
+        + "allow:INVITE,ACK ,BYE\r\n"
+        + "Subject: lazy\r\n"
+        + "X-Custom:   kept    as is\r\n"
+        + "Allow: CANCEL\r\n"
+        + "Timestamp: 54\r\n"
+        + "Content-Length: 0\r\n\r\n";
+
+    private SIPRequest parse(StringMsgParser parser, boolean lazy) throws Exception {
+        parser.setLazyHeaderParsing(lazy);
+        return (SIPRequest) parser.parseSIPMessage(MESSAGE.getBytes("UTF-8"), true, false, null);
+    }
+
+    public void testUntouchedHeadersEncodedAsReceived() throws Exception {
+        SIPMessage lazy = parse(new StringMsgParser(), true);
+        String encoded = lazy.encode();
+        assertTrue(encoded, encoded.contains("allow:INVITE,ACK ,BYE\r\nSubject: lazy\r\nX-Custom:   kept    as is\r\nAllow: CANCEL\r\n"));
+        // Headers the stack needs are parsed right away
+        assertEquals("1@127.0.0.1", lazy.getCallId().getCallId());
+        assertEquals("1", lazy.getFromTag());
+    }
+
+    public void testHeadersParsedOnAccess() throws Exception {
+        SIPMessage eager = parse(new StringMsgParser(), false);
+        SIPMessage lazy = parse(new ByteMsgParser(), true);
+
+        AllowHeader allow = (AllowHeader) lazy.getHeader(AllowHeader.NAME);
+        assertEquals("INVITE", allow.getMethod());
+        ListIterator<?> allows = lazy.getHeaders(AllowHeader.NAME);
+        int count = 0;
+        while (allows.hasNext()) {
+            allows.next();
+            count++;
+        }
+        assertEquals(4, count);
+        assertEquals("lazy", ((SubjectHeader) lazy.getHeader("subject")).getSubject());
+        assertTrue(lazy.hasHeader("X-Custom"));
+
+        assertEquals(eager.encode(), lazy.encode());
+        assertEquals(eager, lazy);
+    }
+
+    public void testRemoveAndCloneLazyHeaders() throws Exception {
+        SIPMessage lazy = parse(new StringMsgParser(), true);
+        SIPMessage clone = (SIPMessage) lazy.clone();
+
+        lazy.removeHeader(AllowHeader.NAME);
+        assertNull(lazy.getHeader(AllowHeader.NAME));
+        assertFalse(lazy.encode().contains("INVITE,ACK"));
+
+        assertTrue(clone.encode().contains("allow:INVITE,ACK ,BYE\r\n"));
+        assertNotNull(clone.getHeader(AllowHeader.NAME));
+    }
+
+    public void testResponseCopiesLazyTimestamp() throws Exception {
+        SIPRequest lazy = parse(new StringMsgParser(), true);
+        SIPResponse response = lazy.createResponse(200);
+        assertNotNull(response.getHeader("Timestamp"));
+    }
+
+    public void testMalformedLazyHeaderDroppedOnAccess() throws Exception {
+        StringMsgParser parser = new StringMsgParser();
+        parser.setLazyHeaderParsing(true);
+        SIPMessage lazy = parser.parseSIPMessage(MESSAGE.replace("Timestamp: 54", "Expires: soon").getBytes("UTF-8"),
+                true, false, null);
+        assertTrue(lazy.encode().contains("Expires: soon\r\n"));
+        assertNull(lazy.getHeader("Expires"));
+        assertFalse(lazy.encode().contains("Expires"));
+    }
+}
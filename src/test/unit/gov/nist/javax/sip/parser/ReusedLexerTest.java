@@ -0,0 +1,100 @@
+package test.unit.gov.nist.javax.sip.parser;
+
+import gov.nist.javax.sip.address.AddressFactoryImpl;
+import gov.nist.javax.sip.header.HeaderFactoryImpl;
+import gov.nist.javax.sip.parser.Lexer;
+import gov.nist.javax.sip.parser.StringMsgParser;
+
+import java.text.ParseException;
+
+import javax.sip.address.Address;
+import javax.sip.address.SipURI;
+import javax.sip.header.Header;
+
+import junit.framework.TestCase;
+
+/**
+ * Strings are parsed with the lexer of the thread, and the simple headers of
+ * the factory skip it, with the same results as a parse on its own.
+ */
+public class ReusedLexerTest extends TestCase {
+
+    private static final String[] SIMPLE_HEADERS = {
+        "Call-ID: a84b4c76e66710@pc33.atlanta.example.com",
+        "i: 1234",
+        "Max-Forwards: 70",
+        "Expires: 3600",
+        "CSeq: 314159 INVITE",
+        "CSeq:  1\tinvite",
+        "Content-Length: 0",
+        "l: 349"
+    };
+
+    private static final String[] INVALID_HEADERS = {
+        "Max-Forwards: 256",
+        "Expires: -1",
+        "CSeq: 1",
+        "CSeq: 123456789012 INVITE",
+        "Content-Length: 12a"
+    };
+
+    private HeaderFactoryImpl headerFactory = new HeaderFactoryImpl();
+
+    public void testSimpleHeadersMatchTheParser() throws Exception {
+        for (String text : SIMPLE_HEADERS) {
+            Header parsed = StringMsgParser.parseSIPHeader(text);
+            Header created = headerFactory.createHeader(text);
+            assertEquals(text, parsed.getClass(), created.getClass());
+            assertEquals(text, parsed, created);
+            assertEquals(text, parsed.toString(), created.toString());
+            int colon = text.indexOf(':');
+            assertEquals(text, parsed, headerFactory.createHeader(text.substring(0, colon),
+                text.substring(colon + 1)));
+        }
+    }
+
+    public void testInvalidSimpleHeadersAreRejected() throws Exception {
+        for (String text : INVALID_HEADERS) {
+            try {
+                headerFactory.createHeader(text);
+                fail(text);
+            } catch (ParseException ex) {
+                // expected
+            }
+        }
+    }
+
+    public void testNothingLeaksFromTheLastParse() throws Exception {
+        AddressFactoryImpl addressFactory = new AddressFactoryImpl();
+        Address longAddress = addressFactory.createAddress(
+            "\"Alice Long Display Name\" <sip:alice.with.a.long.user@atlanta.example.com:5061;transport=tls;lr>");
+        assertEquals(5061, ((SipURI) longAddress.getURI()).getPort());
+        Address shortAddress = addressFactory.createAddress("sip:b@c");
+        SipURI uri = (SipURI) shortAddress.getURI();
+        assertEquals("b", uri.getUser());
+        assertEquals("c", uri.getHost());
+        assertEquals(-1, uri.getPort());
+        assertNull(uri.getTransportParam());
+        assertEquals("sip:b@c", shortAddress.toString());
+    }
+
+    public void testNestedLeaseGetsItsOwnLexer() throws Exception {
+        Lexer outer = Lexer.lease("charLexer", "outer");
+        try {
+            Lexer inner = Lexer.lease("charLexer", "inner");
+            assertNotSame(outer, inner);
+            assertEquals("inner", inner.getBuffer());
+            inner.release();
+            assertEquals("outer", outer.getBuffer());
+        } finally {
+            outer.release();
+        }
+        Lexer again = Lexer.lease("charLexer", "again");
+        try {
+            assertSame(outer, again);
+            assertEquals("again", again.getBuffer());
+        } finally {
+            again.release();
+        }
+    }
+}
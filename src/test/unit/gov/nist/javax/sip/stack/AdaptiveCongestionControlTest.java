@@ -0,0 +1,185 @@
+package test.unit.gov.nist.javax.sip.stack;
+
+import gov.nist.javax.sip.stack.AdaptiveCongestionControlMessageValve;
+import gov.nist.javax.sip.stack.SIPTransactionStack;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.sip.DialogTerminatedEvent;
+import javax.sip.IOExceptionEvent;
+import javax.sip.ListeningPoint;
+import javax.sip.RequestEvent;
+import javax.sip.ResponseEvent;
+import javax.sip.SipFactory;
+import javax.sip.SipListener;
+import javax.sip.SipProvider;
+import javax.sip.SipStack;
+import javax.sip.TimeoutEvent;
+import javax.sip.TransactionTerminatedEvent;
+import javax.sip.address.AddressFactory;
+import javax.sip.address.SipURI;
+import javax.sip.header.HeaderFactory;
+import javax.sip.header.RetryAfterHeader;
+import javax.sip.header.ViaHeader;
+import javax.sip.message.MessageFactory;
+import javax.sip.message.Request;
+import javax.sip.message.Response;
+
+import junit.framework.TestCase;
+
+/**
+ * A server whose listener falls behind lowers its admission limit and sheds
+ * new INVITEs with 503 and Retry-After, while requests with a To tag still get
+ * through.
+ */
+public class AdaptiveCongestionControlTest extends TestCase {
+
+    private static final int SERVER_PORT = 5622;
+
+    private static final int CLIENT_PORT = 5623;
+
+    private static final int REQUESTS = 30;
+
+    private static final double INITIAL_LIMIT = 50;
+
+    private SipStack serverStack;
+
+    private SipStack clientStack;
+
+    private SipProvider clientProvider;
+
+    private AddressFactory addressFactory;
+
+    private HeaderFactory headerFactory;
+
+    private MessageFactory messageFactory;
+
+    private final BlockingQueue<Response> clientResponses = new LinkedBlockingQueue<Response>();
+
+    private SipStack createStack(String name, boolean valve) throws Exception {
+        Properties properties = StackFixture.stackProperties(name);
+        if (valve) {
+            properties.setProperty("gov.nist.javax.sip.SIP_MESSAGE_VALVE",
+                AdaptiveCongestionControlMessageValve.class.getName());
+            properties.setProperty("gov.nist.javax.sip.congestion.TARGET_LISTENER_TIME", "10");
+            properties.setProperty("gov.nist.javax.sip.congestion.INITIAL_LIMIT", Double.toString(INITIAL_LIMIT));
+            properties.setProperty("gov.nist.javax.sip.congestion.MIN_LIMIT", "10");
+            properties.setProperty("gov.nist.javax.sip.congestion.UPDATE_INTERVAL", "50");
+        }
+        return StackFixture.createStack(properties);
+    }
+
+    private static SipListener clientListener(final BlockingQueue<Response> responses) {
+        return new SipListener() {
+            public void processRequest(RequestEvent requestEvent) {}
+            public void processResponse(ResponseEvent responseEvent) {
+                if (responseEvent.getResponse().getStatusCode() >= 200) {
+                    responses.add(responseEvent.getResponse());
+                }
+            }
+            public void processTimeout(TimeoutEvent timeoutEvent) {}
+            public void processIOException(IOExceptionEvent exceptionEvent) {}
+            public void processTransactionTerminated(TransactionTerminatedEvent transactionTerminatedEvent) {}
+            public void processDialogTerminated(DialogTerminatedEvent dialogTerminatedEvent) {}
+        };
+    }
+
+    public void setUp() throws Exception {
+        SipFactory sipFactory = SipFactory.getInstance();
+        addressFactory = sipFactory.createAddressFactory();
+        headerFactory = sipFactory.createHeaderFactory();
+        messageFactory = sipFactory.createMessageFactory();
+
+        serverStack = createStack("adaptiveCongestionServer", true);
+        ListeningPoint serverLp = serverStack.createListeningPoint("127.0.0.1", SERVER_PORT, "udp");
+        final SipProvider serverProvider = serverStack.createSipProvider(serverLp);
+        serverProvider.addSipListener(new SipListener() {
+            public void processRequest(RequestEvent requestEvent) {
+                Request request = requestEvent.getRequest();
+                if (request.getMethod().equals(Request.ACK)) {
+                    return;
+                }
+                try {
+                    // a listener that cannot keep up
+                    Thread.sleep(40);
+                    serverProvider.sendResponse(messageFactory.createResponse(Response.BUSY_HERE, request));
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+            }
+            public void processResponse(ResponseEvent responseEvent) {}
+            public void processTimeout(TimeoutEvent timeoutEvent) {}
+            public void processIOException(IOExceptionEvent exceptionEvent) {}
+            public void processTransactionTerminated(TransactionTerminatedEvent transactionTerminatedEvent) {}
+            public void processDialogTerminated(DialogTerminatedEvent dialogTerminatedEvent) {}
+        });
+
+        clientStack = createStack("adaptiveCongestionClient", false);
+        ListeningPoint clientLp = clientStack.createListeningPoint("127.0.0.1", CLIENT_PORT, "udp");
+        clientProvider = clientStack.createSipProvider(clientLp);
+        clientProvider.addSipListener(clientListener(clientResponses));
+        serverStack.start();
+        clientStack.start();
+    }
+
+    public void tearDown() throws Exception {
+        clientStack.stop();
+        serverStack.stop();
+    }
+
+    private Request createRequest(String method, String toTag) throws Exception {
+        SipURI requestUri = addressFactory.createSipURI("bob", "127.0.0.1:" + SERVER_PORT);
+        List<ViaHeader> vias = new ArrayList<ViaHeader>();
+        vias.add(headerFactory.createViaHeader("127.0.0.1", CLIENT_PORT, "udp", null));
+        Request request = messageFactory.createRequest(requestUri, method,
+            clientProvider.getNewCallId(), headerFactory.createCSeqHeader(1L, method),
+            headerFactory.createFromHeader(addressFactory.createAddress("sip:alice@127.0.0.1"), "client"),
+            headerFactory.createToHeader(addressFactory.createAddress("sip:bob@127.0.0.1"), toTag),
+            vias, headerFactory.createMaxForwardsHeader(70));
+        request.addHeader(headerFactory.createContactHeader(
+            addressFactory.createAddress("<sip:alice@127.0.0.1:" + CLIENT_PORT + ">")));
+        return request;
+    }
+
+    public void testSlowListenerShedsNewInvites() throws Exception {
+        AdaptiveCongestionControlMessageValve valve = (AdaptiveCongestionControlMessageValve)
+            ((SIPTransactionStack) serverStack).sipMessageValve;
+        assertEquals(INITIAL_LIMIT, valve.getLimit());
+
+        for (int i = 0; i < REQUESTS; i++) {
+            clientProvider.getNewClientTransaction(createRequest(Request.INVITE, null)).sendRequest();
+            Thread.sleep(20);
+        }
+        int rejected = 0;
+        for (int i = 0; i < REQUESTS; i++) {
+            Response response = clientResponses.poll(10, TimeUnit.SECONDS);
+            assertNotNull(response);
+            if (response.getStatusCode() == Response.SERVICE_UNAVAILABLE) {
+                RetryAfterHeader retryAfter = (RetryAfterHeader) response.getHeader(RetryAfterHeader.NAME);
+                assertNotNull(retryAfter);
+                assertTrue(retryAfter.getRetryAfter() >= 5 && retryAfter.getRetryAfter() <= 10);
+                rejected++;
+            } else {
+                assertEquals(Response.BUSY_HERE, response.getStatusCode());
+            }
+        }
+        assertTrue(rejected > 0);
+        assertEquals(rejected, valve.getRejectedInitialRequests());
+        assertEquals(REQUESTS - rejected, valve.getAdmittedRequests());
+        assertTrue(valve.getListenerTime() > 10);
+        assertTrue(valve.getLimit() < INITIAL_LIMIT);
+
+        // a request within a dialog is never shed
+        long rejectedBefore = valve.getRejectedRequests();
+        clientProvider.getNewClientTransaction(createRequest(Request.INFO, "server")).sendRequest();
+        Response response = clientResponses.poll(10, TimeUnit.SECONDS);
+        assertNotNull(response);
+        assertTrue(response.getStatusCode() != Response.SERVICE_UNAVAILABLE);
+        assertEquals(rejectedBefore, valve.getRejectedRequests());
+    }
+}
@@ -0,0 +1,95 @@
+package test.unit.gov.nist.javax.sip.stack;
+
+import gov.nist.javax.sip.stack.BlockingQueueDispatchAuditor;
+import gov.nist.javax.sip.stack.ByteBufferFactory;
+import gov.nist.javax.sip.stack.DatagramQueuedMessageDispatch;
+
+import java.net.DatagramPacket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import junit.framework.TestCase;
+
+/**
+ * Lease/release contract of the receive buffer pool.
+ */
+public class ByteBufferFactoryTest extends TestCase {
+
+    private ByteBufferFactory factory;
+
+    public void setUp() {
+        factory = new ByteBufferFactory();
+    }
+
+    public void testReleasedBufferIsReused() {
+        ByteBuffer first = factory.lease(1000);
+        assertEquals(1000, first.limit());
+        assertEquals(1024, first.capacity());
+        assertTrue(first.hasArray());
+        first.put((byte) 1);
+        factory.release(first);
+
+        ByteBuffer second = factory.lease(700);
+        assertSame(first, second);
+        assertEquals(0, second.position());
+        assertEquals(700, second.limit());
+        assertEquals(1, factory.getAllocationCount());
+        assertEquals(2, factory.getLeaseCount());
+        assertEquals(1, factory.getOutstandingLeaseCount());
+    }
+
+    public void testSizeClassesAreKeptApart() {
+        ByteBuffer small = factory.lease(100);
+        factory.release(small);
+        ByteBuffer large = factory.lease(4096);
+        assertNotSame(small, large);
+        assertEquals(4096, large.capacity());
+    }
+
+    public void testOversizedBuffersAreNotPooled() {
+        ByteBuffer huge = factory.lease(100000);
+        assertEquals(100000, huge.capacity());
+        factory.release(huge);
+        assertNotSame(huge, factory.lease(100000));
+    }
+
+    public void testDirectAndHeapPoolsAreSeparate() {
+        factory.setUseDirect(true);
+        ByteBuffer direct = factory.leaseDirect(2048);
+        assertTrue(direct.isDirect());
+        factory.release(direct);
+        assertFalse(factory.lease(2048).isDirect());
+        assertSame(direct, factory.leaseDirect(2048));
+    }
+
+    public void testPoolingCanBeDisabled() {
+        factory.setMaxPooledBuffers(0);
+        ByteBuffer buffer = factory.lease(512);
+        factory.release(buffer);
+        assertNotSame(buffer, factory.lease(512));
+    }
+
+    public void testLeakDetectionRejectsDoubleRelease() {
+        factory.setLeakDetection(true);
+        ByteBuffer buffer = factory.lease(512);
+        factory.release(buffer);
+        factory.release(buffer);
+        assertSame(buffer, factory.lease(512));
+        // the second release must not have pooled the buffer twice
+        assertNotSame(buffer, factory.lease(512));
+    }
+
+    public void testStuckDispatchesGiveTheirBuffersBack() {
+        ByteBufferFactory shared = ByteBufferFactory.getInstance();
+        ByteBuffer buffer = shared.lease(1500);
+        long outstanding = shared.getOutstandingLeaseCount();
+        LinkedBlockingQueue<DatagramQueuedMessageDispatch> queue =
+            new LinkedBlockingQueue<DatagramQueuedMessageDispatch>();
+        queue.add(new DatagramQueuedMessageDispatch(new DatagramPacket(buffer.array(), 1500),
+            buffer, System.currentTimeMillis() - 10000));
+        BlockingQueueDispatchAuditor auditor = new BlockingQueueDispatchAuditor(queue);
+        auditor.run();
+        assertTrue(queue.isEmpty());
+        assertEquals(outstanding - 1, shared.getOutstandingLeaseCount());
+    }
+}
@@ -0,0 +1,260 @@
+package test.unit.gov.nist.javax.sip.stack;
+
+import gov.nist.javax.sip.stack.ByteBufferFactory;
+import gov.nist.javax.sip.stack.SIPDialog;
+import gov.nist.javax.sip.stack.SIPTransactionStack;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.sip.ClientTransaction;
+import javax.sip.Dialog;
+import javax.sip.DialogTerminatedEvent;
+import javax.sip.IOExceptionEvent;
+import javax.sip.ListeningPoint;
+import javax.sip.RequestEvent;
+import javax.sip.ResponseEvent;
+import javax.sip.ServerTransaction;
+import javax.sip.SipFactory;
+import javax.sip.SipListener;
+import javax.sip.SipProvider;
+import javax.sip.SipStack;
+import javax.sip.TimeoutEvent;
+import javax.sip.TransactionTerminatedEvent;
+import javax.sip.address.Address;
+import javax.sip.address.AddressFactory;
+import javax.sip.address.SipURI;
+import javax.sip.header.CSeqHeader;
+import javax.sip.header.ContactHeader;
+import javax.sip.header.HeaderFactory;
+import javax.sip.header.RouteHeader;
+import javax.sip.header.ViaHeader;
+import javax.sip.message.MessageFactory;
+import javax.sip.message.Request;
+import javax.sip.message.Response;
+
+import junit.framework.TestCase;
+
+/**
+ * Idle confirmed dialogs are hibernated, by the stack or the application, and
+ * restored with their route set and addresses by their next request.
+ */
+public class DialogHibernationTest extends TestCase {
+
+    private static final int SERVER_PORT = 5615;
+
+    private static final int CLIENT_PORT = 5616;
+
+    private SipStack serverStack;
+
+    private SipStack clientStack;
+
+    private SipProvider serverProvider;
+
+    private SipProvider clientProvider;
+
+    private AddressFactory addressFactory;
+
+    private HeaderFactory headerFactory;
+
+    private MessageFactory messageFactory;
+
+    private volatile SIPDialog serverDialog;
+
+    private final BlockingQueue<Request> serverRequests = new ArrayBlockingQueue<Request>(10);
+
+    private final BlockingQueue<Response> clientResponses = new ArrayBlockingQueue<Response>(10);
+
+    private SipStack createStack(String name, String idleTime) throws Exception {
+        Properties properties = StackFixture.stackProperties(name);
+        if (idleTime != null) {
+            properties.setProperty("gov.nist.javax.sip.DIALOG_HIBERNATION_IDLE_TIME", idleTime);
+        }
+        return StackFixture.createStack(properties);
+    }
+
+    public void setUp() throws Exception {
+        SipFactory sipFactory = SipFactory.getInstance();
+        addressFactory = sipFactory.createAddressFactory();
+        headerFactory = sipFactory.createHeaderFactory();
+        messageFactory = sipFactory.createMessageFactory();
+
+        serverStack = createStack("hibernationServer", "1");
+        ListeningPoint serverLp = serverStack.createListeningPoint("127.0.0.1", SERVER_PORT, "udp");
+        serverProvider = serverStack.createSipProvider(serverLp);
+        serverProvider.addSipListener(new SipListener() {
+            public void processRequest(RequestEvent requestEvent) {
+                Request request = requestEvent.getRequest();
+                try {
+                    if (request.getMethod().equals(Request.ACK)) {
+                        serverDialog = (SIPDialog) requestEvent.getDialog();
+                        serverRequests.add(request);
+                        return;
+                    }
+                    ServerTransaction st = requestEvent.getServerTransaction();
+                    if (st == null) {
+                        st = serverProvider.getNewServerTransaction(request);
+                    }
+                    Response response = messageFactory.createResponse(Response.OK, request);
+                    if (request.getMethod().equals(Request.INVITE)) {
+                        ((javax.sip.header.ToHeader) response.getHeader("To")).setTag("server");
+                        response.addHeader(headerFactory.createContactHeader(
+                            addressFactory.createAddress("<sip:bob@127.0.0.1:" + SERVER_PORT + ">")));
+                    }
+                    serverRequests.add(request);
+                    st.sendResponse(response);
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+            }
+            public void processResponse(ResponseEvent responseEvent) {}
+            public void processTimeout(TimeoutEvent timeoutEvent) {}
+            public void processIOException(IOExceptionEvent exceptionEvent) {}
+            public void processTransactionTerminated(TransactionTerminatedEvent transactionTerminatedEvent) {}
+            public void processDialogTerminated(DialogTerminatedEvent dialogTerminatedEvent) {}
+        });
+
+        clientStack = createStack("hibernationClient", null);
+        ListeningPoint clientLp = clientStack.createListeningPoint("127.0.0.1", CLIENT_PORT, "udp");
+        clientProvider = clientStack.createSipProvider(clientLp);
+        clientProvider.addSipListener(new SipListener() {
+            public void processRequest(RequestEvent requestEvent) {}
+            public void processResponse(ResponseEvent responseEvent) {
+                clientResponses.add(responseEvent.getResponse());
+            }
+            public void processTimeout(TimeoutEvent timeoutEvent) {}
+            public void processIOException(IOExceptionEvent exceptionEvent) {}
+            public void processTransactionTerminated(TransactionTerminatedEvent transactionTerminatedEvent) {}
+            public void processDialogTerminated(DialogTerminatedEvent dialogTerminatedEvent) {}
+        });
+        serverStack.start();
+        clientStack.start();
+    }
+
+    public void tearDown() throws Exception {
+        clientStack.stop();
+        serverStack.stop();
+    }
+
+    private Request createInvite() throws Exception {
+        SipURI requestUri = addressFactory.createSipURI("bob", "127.0.0.1:" + SERVER_PORT);
+        List<ViaHeader> vias = new ArrayList<ViaHeader>();
+        vias.add(headerFactory.createViaHeader("127.0.0.1", CLIENT_PORT, "udp", null));
+        Request invite = messageFactory.createRequest(requestUri, Request.INVITE,
+            clientProvider.getNewCallId(), headerFactory.createCSeqHeader(1L, Request.INVITE),
+            headerFactory.createFromHeader(addressFactory.createAddress("sip:alice@127.0.0.1"), "client"),
+            headerFactory.createToHeader(addressFactory.createAddress("sip:bob@127.0.0.1"), null),
+            vias, headerFactory.createMaxForwardsHeader(70));
+        invite.addHeader(headerFactory.createContactHeader(
+            addressFactory.createAddress("<sip:alice@127.0.0.1:" + CLIENT_PORT + ">")));
+        // the route set of the dialog, as a proxy on each side would record it
+        invite.addLast(headerFactory.createRecordRouteHeader(
+            addressFactory.createAddress("<sip:127.0.0.1:" + CLIENT_PORT + ";lr>")));
+        invite.addLast(headerFactory.createRecordRouteHeader(
+            addressFactory.createAddress("<sip:127.0.0.1:" + SERVER_PORT + ";lr>")));
+        return invite;
+    }
+
+    private static List<String> routes(Dialog dialog) {
+        List<String> routes = new ArrayList<String>();
+        for (Iterator it = dialog.getRouteSet(); it.hasNext();) {
+            routes.add(it.next().toString().trim());
+        }
+        return routes;
+    }
+
+    private static void hibernate(SIPDialog dialog, boolean offHeap) throws InterruptedException {
+        // the INVITE transaction has to terminate first
+        for (int i = 0; i < 400 && !dialog.hibernate(offHeap); i++) {
+            Thread.sleep(100);
+        }
+        assertTrue(dialog.isHibernated());
+    }
+
+    public void testDialogsAreRestoredByTheirNextRequest() throws Exception {
+        ClientTransaction inviteTx = clientProvider.getNewClientTransaction(createInvite());
+        inviteTx.sendRequest();
+        Response ok = clientResponses.poll(5, TimeUnit.SECONDS);
+        assertNotNull(ok);
+        assertEquals(Response.OK, ok.getStatusCode());
+        Dialog clientDialog = inviteTx.getDialog();
+        clientDialog.sendAck(clientDialog.createAck(1L));
+
+        Request invite = serverRequests.poll(5, TimeUnit.SECONDS);
+        assertEquals(Request.INVITE, invite.getMethod());
+        assertEquals(Request.ACK, serverRequests.poll(5, TimeUnit.SECONDS).getMethod());
+        assertNotNull(serverDialog);
+
+        List<String> clientRoutes = routes(clientDialog);
+        List<String> serverRoutes = routes(serverDialog);
+        assertEquals(2, clientRoutes.size());
+        String remoteTarget = clientDialog.getRemoteTarget().toString();
+        String remoteParty = clientDialog.getRemoteParty().toString();
+
+        // the server stack hibernates its idle dialog on its own
+        for (int i = 0; i < 400 && !serverDialog.isHibernated(); i++) {
+            Thread.sleep(100);
+        }
+        assertTrue(serverDialog.isHibernated());
+        assertTrue(((SIPTransactionStack) serverStack).getHibernatedDialogs() >= 1);
+        // the off-heap state is leased from the buffer pool until wake up
+        long outstanding = ByteBufferFactory.getInstance().getOutstandingLeaseCount();
+        hibernate((SIPDialog) clientDialog, true);
+        assertEquals(outstanding + 1, ByteBufferFactory.getInstance().getOutstandingLeaseCount());
+
+        // replicating a hibernated dialog leaves it asleep, and so is the copy
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        synchronized (clientDialog) {
+            out.writeObject(clientDialog);
+        }
+        out.close();
+        assertTrue(((SIPDialog) clientDialog).isHibernated());
+        SIPDialog replica = (SIPDialog) new ObjectInputStream(
+            new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        assertTrue(replica.isHibernated());
+        assertEquals(remoteTarget, replica.getRemoteTarget().toString());
+        assertFalse(replica.isHibernated());
+
+        assertEquals(clientRoutes, routes(clientDialog));
+        assertFalse(((SIPDialog) clientDialog).isHibernated());
+        assertEquals(outstanding, ByteBufferFactory.getInstance().getOutstandingLeaseCount());
+        assertEquals(remoteTarget, clientDialog.getRemoteTarget().toString());
+        assertEquals(remoteParty, clientDialog.getRemoteParty().toString());
+        assertEquals(1L, ((SIPDialog) clientDialog).getLastAckSent().getCSeq().getSeqNumber());
+        assertEquals("sip:alice@127.0.0.1:" + CLIENT_PORT,
+            ((SIPDialog) clientDialog).getMyContactHeader().getAddress().getURI().toString());
+        hibernate((SIPDialog) clientDialog, false);
+
+        Request bye = clientDialog.createRequest(Request.BYE);
+        ClientTransaction byeTx = clientProvider.getNewClientTransaction(bye);
+        clientDialog.sendRequest(byeTx);
+        Request received = serverRequests.poll(5, TimeUnit.SECONDS);
+        assertNotNull(received);
+        assertEquals(Request.BYE, received.getMethod());
+        assertEquals(2L, ((CSeqHeader) received.getHeader(CSeqHeader.NAME)).getSeqNumber());
+        assertEquals(((SipURI) ((ContactHeader) ok.getHeader(ContactHeader.NAME)).getAddress().getURI()).toString(),
+            received.getRequestURI().toString());
+        ListIterator<?> byeRoutes = received.getHeaders(RouteHeader.NAME);
+        assertTrue(byeRoutes.hasNext());
+        Address firstRoute = ((RouteHeader) byeRoutes.next()).getAddress();
+        assertEquals(SERVER_PORT, ((SipURI) firstRoute.getURI()).getPort());
+
+        // the server dialog woke up to match the BYE
+        assertFalse(serverDialog.isHibernated());
+        assertEquals(serverRoutes, routes(serverDialog));
+        Response byeOk = clientResponses.poll(5, TimeUnit.SECONDS);
+        assertNotNull(byeOk);
+        assertEquals(Response.OK, byeOk.getStatusCode());
+    }
+}
@@ -0,0 +1,245 @@
+package test.unit.gov.nist.javax.sip.stack;
+
+import gov.nist.javax.sip.stack.SIPTransactionStack;
+import gov.nist.javax.sip.stack.store.ReplicatedSipStoreFactory;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.sip.ClientTransaction;
+import javax.sip.Dialog;
+import javax.sip.DialogState;
+import javax.sip.DialogTerminatedEvent;
+import javax.sip.IOExceptionEvent;
+import javax.sip.ListeningPoint;
+import javax.sip.RequestEvent;
+import javax.sip.ResponseEvent;
+import javax.sip.ServerTransaction;
+import javax.sip.SipFactory;
+import javax.sip.SipListener;
+import javax.sip.SipProvider;
+import javax.sip.SipStack;
+import javax.sip.TimeoutEvent;
+import javax.sip.TransactionTerminatedEvent;
+import javax.sip.address.AddressFactory;
+import javax.sip.address.SipURI;
+import javax.sip.header.HeaderFactory;
+import javax.sip.header.ToHeader;
+import javax.sip.header.ViaHeader;
+import javax.sip.message.MessageFactory;
+import javax.sip.message.Request;
+import javax.sip.message.Response;
+
+import junit.framework.TestCase;
+
+/**
+ * A confirmed dialog of a stack is replicated to its peer, which carries on
+ * with the call once the stack is gone.
+ */
+public class DialogReplicationTest extends TestCase {
+
+    private static final int PRIMARY_PORT = 5617;
+
+    private static final int BACKUP_PORT = 5618;
+
+    private static final int CLIENT_PORT = 5619;
+
+    private static final int PRIMARY_REPLICATION_PORT = 5620;
+
+    private static final int BACKUP_REPLICATION_PORT = 5621;
+
+    private SipStack primaryStack;
+
+    private SipStack backupStack;
+
+    private SipStack clientStack;
+
+    private SipProvider clientProvider;
+
+    private AddressFactory addressFactory;
+
+    private HeaderFactory headerFactory;
+
+    private MessageFactory messageFactory;
+
+    private final BlockingQueue<RequestEvent> backupRequests = new ArrayBlockingQueue<RequestEvent>(10);
+
+    private final BlockingQueue<Response> clientResponses = new ArrayBlockingQueue<Response>(10);
+
+    private SipStack createStack(String name, int replicationPort, int peerPort) throws Exception {
+        Properties properties = StackFixture.stackProperties(name);
+        if (replicationPort > 0) {
+            properties.setProperty("gov.nist.javax.sip.SIP_STORE_FACTORY",
+                ReplicatedSipStoreFactory.class.getName());
+            properties.setProperty("gov.nist.javax.sip.replication.PORT", Integer.toString(replicationPort));
+            properties.setProperty("gov.nist.javax.sip.replication.PEERS", "127.0.0.1:" + peerPort);
+            properties.setProperty("gov.nist.javax.sip.replication.INTERVAL", "100");
+            properties.setProperty("gov.nist.javax.sip.replication.SECRET", "replicationTest");
+        }
+        return StackFixture.createStack(properties);
+    }
+
+    private SipProvider createServer(SipStack stack, int port, final BlockingQueue<RequestEvent> requests)
+            throws Exception {
+        ListeningPoint lp = stack.createListeningPoint("127.0.0.1", port, "udp");
+        final SipProvider provider = stack.createSipProvider(lp);
+        provider.addSipListener(new SipListener() {
+            public void processRequest(RequestEvent requestEvent) {
+                Request request = requestEvent.getRequest();
+                try {
+                    if (requests != null) {
+                        requests.add(requestEvent);
+                    }
+                    if (request.getMethod().equals(Request.ACK)) {
+                        return;
+                    }
+                    ServerTransaction st = requestEvent.getServerTransaction();
+                    if (st == null) {
+                        st = provider.getNewServerTransaction(request);
+                    }
+                    Response response = messageFactory.createResponse(Response.OK, request);
+                    if (request.getMethod().equals(Request.INVITE)) {
+                        ((ToHeader) response.getHeader(ToHeader.NAME)).setTag("primary");
+                        response.addHeader(headerFactory.createContactHeader(
+                            addressFactory.createAddress("<sip:bob@127.0.0.1:" + PRIMARY_PORT + ">")));
+                    }
+                    st.sendResponse(response);
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+            }
+            public void processResponse(ResponseEvent responseEvent) {}
+            public void processTimeout(TimeoutEvent timeoutEvent) {}
+            public void processIOException(IOExceptionEvent exceptionEvent) {}
+            public void processTransactionTerminated(TransactionTerminatedEvent transactionTerminatedEvent) {}
+            public void processDialogTerminated(DialogTerminatedEvent dialogTerminatedEvent) {}
+        });
+        return provider;
+    }
+
+    public void setUp() throws Exception {
+        SipFactory sipFactory = SipFactory.getInstance();
+        addressFactory = sipFactory.createAddressFactory();
+        headerFactory = sipFactory.createHeaderFactory();
+        messageFactory = sipFactory.createMessageFactory();
+
+        primaryStack = createStack("replicationPrimary", PRIMARY_REPLICATION_PORT, BACKUP_REPLICATION_PORT);
+        createServer(primaryStack, PRIMARY_PORT, null);
+        backupStack = createStack("replicationBackup", BACKUP_REPLICATION_PORT, PRIMARY_REPLICATION_PORT);
+        createServer(backupStack, BACKUP_PORT, backupRequests);
+
+        clientStack = createStack("replicationClient", 0, 0);
+        ListeningPoint clientLp = clientStack.createListeningPoint("127.0.0.1", CLIENT_PORT, "udp");
+        clientProvider = clientStack.createSipProvider(clientLp);
+        clientProvider.addSipListener(new SipListener() {
+            public void processRequest(RequestEvent requestEvent) {}
+            public void processResponse(ResponseEvent responseEvent) {
+                clientResponses.add(responseEvent.getResponse());
+            }
+            public void processTimeout(TimeoutEvent timeoutEvent) {}
+            public void processIOException(IOExceptionEvent exceptionEvent) {}
+            public void processTransactionTerminated(TransactionTerminatedEvent transactionTerminatedEvent) {}
+            public void processDialogTerminated(DialogTerminatedEvent dialogTerminatedEvent) {}
+        });
+        primaryStack.start();
+        backupStack.start();
+        clientStack.start();
+    }
+
+    public void tearDown() throws Exception {
+        clientStack.stop();
+        backupStack.stop();
+        if (primaryStack != null) {
+            primaryStack.stop();
+        }
+    }
+
+    private Request createInvite() throws Exception {
+        SipURI requestUri = addressFactory.createSipURI("bob", "127.0.0.1:" + PRIMARY_PORT);
+        List<ViaHeader> vias = new ArrayList<ViaHeader>();
+        vias.add(headerFactory.createViaHeader("127.0.0.1", CLIENT_PORT, "udp", null));
+        Request invite = messageFactory.createRequest(requestUri, Request.INVITE,
+            clientProvider.getNewCallId(), headerFactory.createCSeqHeader(1L, Request.INVITE),
+            headerFactory.createFromHeader(addressFactory.createAddress("sip:alice@127.0.0.1"), "client"),
+            headerFactory.createToHeader(addressFactory.createAddress("sip:bob@127.0.0.1"), null),
+            vias, headerFactory.createMaxForwardsHeader(70));
+        invite.addHeader(headerFactory.createContactHeader(
+            addressFactory.createAddress("<sip:alice@127.0.0.1:" + CLIENT_PORT + ">")));
+        return invite;
+    }
+
+    public void testBackupTakesTheCallOver() throws Exception {
+        ReplicatedSipStoreFactory backupStore =
+            (ReplicatedSipStoreFactory) ((SIPTransactionStack) backupStack).getStoreFactory();
+
+        ClientTransaction inviteTx = clientProvider.getNewClientTransaction(createInvite());
+        inviteTx.sendRequest();
+        Response ok = clientResponses.poll(5, TimeUnit.SECONDS);
+        assertNotNull(ok);
+        assertEquals(Response.OK, ok.getStatusCode());
+        Dialog clientDialog = inviteTx.getDialog();
+        clientDialog.sendAck(clientDialog.createAck(1L));
+
+        for (int i = 0; i < 50 && backupStore.getReplicaCount() == 0; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(1, backupStore.getReplicaCount());
+        // replicas stay aside until their call shows up
+        assertEquals(0, ((SIPTransactionStack) backupStack).getDialogs().size());
+
+        primaryStack.stop();
+        primaryStack = null;
+
+        // the BYE reaches the backup, as after a failover of the address
+        Request bye = clientDialog.createRequest(Request.BYE);
+        ((SipURI) bye.getRequestURI()).setPort(BACKUP_PORT);
+        ClientTransaction byeTx = clientProvider.getNewClientTransaction(bye);
+        clientDialog.sendRequest(byeTx);
+
+        RequestEvent byeEvent = backupRequests.poll(5, TimeUnit.SECONDS);
+        assertNotNull(byeEvent);
+        assertEquals(Request.BYE, byeEvent.getRequest().getMethod());
+        Dialog backupDialog = byeEvent.getDialog();
+        assertNotNull(backupDialog);
+        assertEquals(clientDialog.getCallId().getCallId(), backupDialog.getCallId().getCallId());
+        assertEquals("primary", backupDialog.getLocalTag());
+        assertEquals(1, backupStore.getLoadedDialogs());
+
+        Response byeOk = clientResponses.poll(5, TimeUnit.SECONDS);
+        assertNotNull(byeOk);
+        assertEquals(Response.OK, byeOk.getStatusCode());
+        assertEquals(DialogState.TERMINATED, backupDialog.getState());
+    }
+
+    public void testUnsignedReplicasAreRefused() throws Exception {
+        ReplicatedSipStoreFactory backupStore =
+            (ReplicatedSipStoreFactory) ((SIPTransactionStack) backupStack).getStoreFactory();
+        Socket socket = new Socket("127.0.0.1", BACKUP_REPLICATION_PORT);
+        try {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            in.readFully(new byte[16]);
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            byte[] state = { (byte) 0xac, (byte) 0xed, 0, 5 };
+            out.writeInt(1 + 2 + "forged".length() + 4 + state.length);
+            out.writeByte(1);
+            out.writeUTF("forged");
+            out.writeInt(state.length);
+            out.write(state);
+            out.write(new byte[32]);
+            out.flush();
+            // the frame does not authenticate, the backup hangs up
+            socket.setSoTimeout(5000);
+            assertEquals(-1, in.read());
+        } finally {
+            socket.close();
+        }
+        assertEquals(0, backupStore.getReplicaCount());
+    }
+}
@@ -0,0 +1,147 @@
+package test.unit.gov.nist.javax.sip.stack;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sip.DialogTerminatedEvent;
+import javax.sip.IOExceptionEvent;
+import javax.sip.ListeningPoint;
+import javax.sip.RequestEvent;
+import javax.sip.ResponseEvent;
+import javax.sip.SipFactory;
+import javax.sip.SipListener;
+import javax.sip.SipProvider;
+import javax.sip.SipStack;
+import javax.sip.TimeoutEvent;
+import javax.sip.TransactionTerminatedEvent;
+import javax.sip.header.CSeqHeader;
+import javax.sip.header.CallIdHeader;
+
+import junit.framework.TestCase;
+
+/**
+ * With several event delivery threads the calls are delivered in parallel
+ * while the events of each call keep their order and their thread.
+ */
+public class EventDeliveryThreadsTest extends TestCase {
+
+    private static final int PORT = 5608;
+
+    private static final int CLIENT_PORT = 5609;
+
+    private static final int CALLS = 8;
+
+    private static final int REQUESTS_PER_CALL = 5;
+
+    private SipStack sipStack;
+
+    private DatagramSocket client;
+
+    private final Map<String, List<Long>> sequences = new HashMap<String, List<Long>>();
+
+    private final Map<String, Set<String>> threads = new HashMap<String, Set<String>>();
+
+    private final AtomicInteger inListener = new AtomicInteger();
+
+    private final AtomicInteger maxInListener = new AtomicInteger();
+
+    private final CountDownLatch delivered = new CountDownLatch(CALLS * REQUESTS_PER_CALL);
+
+    public void setUp() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("javax.sip.STACK_NAME", "eventDeliveryThreads");
+        properties.setProperty("gov.nist.javax.sip.TRACE_LEVEL", "0");
+        properties.setProperty("gov.nist.javax.sip.EVENT_DELIVERY_THREADS", "4");
+        // a single UDP thread hands the requests to the event scanner in order
+        properties.setProperty("gov.nist.javax.sip.THREAD_POOL_SIZE", "1");
+        SipFactory sipFactory = SipFactory.getInstance();
+        sipFactory.setPathName("gov.nist");
+        sipStack = sipFactory.createSipStack(properties);
+        ListeningPoint lp = sipStack.createListeningPoint("127.0.0.1", PORT, "udp");
+        SipProvider provider = sipStack.createSipProvider(lp);
+        provider.addSipListener(new SipListener() {
+            public void processRequest(RequestEvent requestEvent) {
+                int current = inListener.incrementAndGet();
+                if (current > maxInListener.get()) {
+                    maxInListener.set(current);
+                }
+                String callId = ((CallIdHeader) requestEvent.getRequest().getHeader(CallIdHeader.NAME)).getCallId();
+                long seq = ((CSeqHeader) requestEvent.getRequest().getHeader(CSeqHeader.NAME)).getSeqNumber();
+                synchronized (sequences) {
+                    sequences.get(callId).add(seq);
+                    threads.get(callId).add(Thread.currentThread().getName());
+                }
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException ex) {
+                }
+                inListener.decrementAndGet();
+                delivered.countDown();
+            }
+            public void processResponse(ResponseEvent responseEvent) {}
+            public void processTimeout(TimeoutEvent timeoutEvent) {}
+            public void processIOException(IOExceptionEvent exceptionEvent) {}
+            public void processTransactionTerminated(TransactionTerminatedEvent transactionTerminatedEvent) {}
+            public void processDialogTerminated(DialogTerminatedEvent dialogTerminatedEvent) {}
+        });
+        sipStack.start();
+        client = new DatagramSocket(CLIENT_PORT);
+    }
+
+    public void tearDown() throws Exception {
+        client.close();
+        sipStack.stop();
+    }
+
+    private void send(String callId, int seq) throws Exception {
+        String message = "MESSAGE sip:bob@127.0.0.1:" + PORT + " SIP/2.0\r\n"
+            + "Via: SIP/2.0/UDP 127.0.0.1:" + CLIENT_PORT + ";branch=z9hG4bK-" + callId + "-" + seq + "\r\n"
+            + "Max-Forwards: 70\r\n"
+            + "From: <sip:alice@127.0.0.1>;tag=" + callId + "\r\n"
+            + "To: <sip:bob@127.0.0.1>\r\n"
+            + "Call-ID: " + callId + "\r\n"
+            + "CSeq: " + seq + " MESSAGE\r\n"
+            + "Content-Length: 0\r\n\r\n";
+        byte[] bytes = message.getBytes("UTF-8");
+        client.send(new DatagramPacket(bytes, bytes.length, InetAddress.getByName("127.0.0.1"), PORT));
+    }
+
+    public void testCallsAreDeliveredInParallelAndInOrder() throws Exception {
+        for (int call = 0; call < CALLS; call++) {
+            sequences.put("call-" + call, new ArrayList<Long>());
+            threads.put("call-" + call, new HashSet<String>());
+        }
+        for (int seq = 1; seq <= REQUESTS_PER_CALL; seq++) {
+            for (int call = 0; call < CALLS; call++) {
+                send("call-" + call, seq);
+            }
+        }
+        assertTrue(delivered.await(10, TimeUnit.SECONDS));
+
+        Set<String> allThreads = new HashSet<String>();
+        synchronized (sequences) {
+            for (int call = 0; call < CALLS; call++) {
+                List<Long> received = sequences.get("call-" + call);
+                assertEquals(REQUESTS_PER_CALL, received.size());
+                for (int i = 0; i < REQUESTS_PER_CALL; i++) {
+                    assertEquals("call-" + call + " " + received, i + 1, received.get(i).longValue());
+                }
+                assertEquals(1, threads.get("call-" + call).size());
+                allThreads.addAll(threads.get("call-" + call));
+            }
+        }
+        assertTrue(allThreads.size() > 1);
+        assertTrue(maxInListener.get() > 1);
+    }
+}
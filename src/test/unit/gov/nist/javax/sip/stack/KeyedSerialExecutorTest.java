@@ -0,0 +1,252 @@
+package test.unit.gov.nist.javax.sip.stack;
+
+import gov.nist.javax.sip.stack.DroppableMessageDispatch;
+import gov.nist.javax.sip.stack.KeyedSerialExecutor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class KeyedSerialExecutorTest extends TestCase {
+
+    private ExecutorService pool;
+
+    public void setUp() {
+        pool = Executors.newFixedThreadPool(4);
+    }
+
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    private void awaitIdle(KeyedSerialExecutor<?> executor) throws InterruptedException {
+        for (int i = 0; i < 100 && executor.getActiveKeys() > 0; i++) {
+            Thread.sleep(10);
+        }
+    }
+
+    public void testTasksOfAKeyRunInOrderAndOneAtATime() throws Exception {
+        KeyedSerialExecutor<String> executor = new KeyedSerialExecutor<String>(pool, 0, 0);
+        final int keys = 8;
+        final int tasks = 500;
+        final List<List<Integer>> runs = new ArrayList<List<Integer>>();
+        final AtomicInteger[] running = new AtomicInteger[keys];
+        final AtomicInteger overlaps = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(keys * tasks);
+        for (int k = 0; k < keys; k++) {
+            runs.add(Collections.synchronizedList(new ArrayList<Integer>()));
+            running[k] = new AtomicInteger();
+        }
+        for (int i = 0; i < tasks; i++) {
+            for (int k = 0; k < keys; k++) {
+                final int key = k;
+                final int seq = i;
+                assertTrue(executor.execute("call-" + k, new Runnable() {
+                    public void run() {
+                        if (running[key].incrementAndGet() > 1) {
+                            overlaps.incrementAndGet();
+                        }
+                        runs.get(key).add(seq);
+                        running[key].decrementAndGet();
+                        done.countDown();
+                    }
+                }));
+            }
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(0, overlaps.get());
+        for (int k = 0; k < keys; k++) {
+            List<Integer> run = runs.get(k);
+            assertEquals(tasks, run.size());
+            for (int i = 0; i < tasks; i++) {
+                assertEquals(i, run.get(i).intValue());
+            }
+        }
+        assertEquals(keys * tasks, executor.getExecutedTasks());
+        awaitIdle(executor);
+        // drained mailboxes are reclaimed
+        assertEquals(0, executor.getActiveKeys());
+    }
+
+    public void testBusyKeyDoesNotHoldOtherKeys() throws Exception {
+        ExecutorService single = Executors.newSingleThreadExecutor();
+        try {
+            KeyedSerialExecutor<String> executor = new KeyedSerialExecutor<String>(single, 0, 0);
+            final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+            final CountDownLatch done = new CountDownLatch(4);
+            final CountDownLatch submitted = new CountDownLatch(1);
+            for (final String task : new String[] { "hot-1", "hot-2", "hot-3" }) {
+                executor.execute("hot", new Runnable() {
+                    public void run() {
+                        try {
+                            submitted.await(5, TimeUnit.SECONDS);
+                        } catch (InterruptedException ex) {
+                        }
+                        order.add(task);
+                        done.countDown();
+                    }
+                });
+            }
+            executor.execute("cold", new Runnable() {
+                public void run() {
+                    order.add("cold-1");
+                    done.countDown();
+                }
+            });
+            submitted.countDown();
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            // the hot call yields the thread after each of its tasks
+            assertEquals(order.toString(), 1, order.indexOf("cold-1"));
+        } finally {
+            single.shutdownNow();
+        }
+    }
+
+    public void testTasksBeyondTheLimitAreRejected() throws Exception {
+        KeyedSerialExecutor<String> executor = new KeyedSerialExecutor<String>(pool, 2, 0);
+        final CountDownLatch release = new CountDownLatch(1);
+        Runnable blocked = new Runnable() {
+            public void run() {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                }
+            }
+        };
+        assertTrue(executor.execute("call", blocked));
+        assertTrue(executor.execute("call", blocked));
+        assertFalse(executor.execute("call", blocked));
+        assertTrue(executor.execute("other", blocked));
+        assertEquals(2, executor.getPendingTasks("call"));
+        assertEquals(1, executor.getRejectedTasks());
+        release.countDown();
+        awaitIdle(executor);
+        assertEquals(0, executor.getActiveKeys());
+        assertEquals(3, executor.getExecutedTasks());
+    }
+
+    public void testExpiredDispatchesAreDropped() throws Exception {
+        KeyedSerialExecutor<String> executor = new KeyedSerialExecutor<String>(pool, 0, 1000);
+        final AtomicInteger ran = new AtomicInteger();
+        final long now = System.currentTimeMillis();
+        Dispatch expired = new Dispatch(now - 5000, ran);
+        executor.execute("call", expired);
+        executor.execute("call", new Dispatch(now, ran));
+        awaitIdle(executor);
+        assertEquals(1, ran.get());
+        assertEquals(1, executor.getExpiredTasks());
+        assertEquals(1, expired.dropped.get());
+    }
+
+    public void testQueuedDispatchesAreDroppedWhenTheExecutorShutsDown() throws Exception {
+        ExecutorService single = Executors.newSingleThreadExecutor();
+        KeyedSerialExecutor<String> executor = new KeyedSerialExecutor<String>(single, 0, 0);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        executor.execute("call", new Runnable() {
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                }
+            }
+        });
+        AtomicInteger ran = new AtomicInteger();
+        Dispatch queued = new Dispatch(System.currentTimeMillis(), ran);
+        assertTrue(executor.execute("call", queued));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        single.shutdown();
+        release.countDown();
+        assertTrue(single.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(0, ran.get());
+        assertEquals(1, queued.dropped.get());
+        assertEquals(0, executor.getActiveKeys());
+    }
+
+    public void testNoTaskIsLostWhenTheExecutorRejects() throws Exception {
+        ExecutorService stopped = Executors.newSingleThreadExecutor();
+        stopped.shutdown();
+        final KeyedSerialExecutor<String> executor = new KeyedSerialExecutor<String>(stopped, 0, 0);
+        final int submitters = 4;
+        final int tasks = 2000;
+        final AtomicInteger accepted = new AtomicInteger();
+        final List<Dispatch> dispatches = Collections.synchronizedList(new ArrayList<Dispatch>());
+        final CountDownLatch go = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(submitters);
+        for (int s = 0; s < submitters; s++) {
+            pool.execute(new Runnable() {
+                public void run() {
+                    try {
+                        go.await();
+                        for (int i = 0; i < tasks; i++) {
+                            Dispatch dispatch = new Dispatch(System.currentTimeMillis(), new AtomicInteger());
+                            if (executor.execute("call-" + (i % 4), dispatch)) {
+                                accepted.incrementAndGet();
+                                dispatches.add(dispatch);
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        go.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        // a task accepted by a retired mailbox is dropped, never forgotten
+        for (Dispatch dispatch : dispatches) {
+            assertEquals(1, dispatch.dropped.get());
+        }
+        assertEquals(submitters * tasks, executor.getRejectedTasks());
+        assertEquals(0, executor.getActiveKeys());
+    }
+
+    public void testFailingTaskDoesNotStopItsKey() throws Exception {
+        KeyedSerialExecutor<String> executor = new KeyedSerialExecutor<String>(pool, 0, 0);
+        final CountDownLatch done = new CountDownLatch(1);
+        executor.execute("call", new Runnable() {
+            public void run() {
+                throw new IllegalStateException("expected");
+            }
+        });
+        executor.execute("call", new Runnable() {
+            public void run() {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, executor.getFailedTasks());
+    }
+
+    private static class Dispatch implements DroppableMessageDispatch {
+        private final long receptionTime;
+        private final AtomicInteger ran;
+        private final AtomicInteger dropped = new AtomicInteger();
+
+        Dispatch(long receptionTime, AtomicInteger ran) {
+            this.receptionTime = receptionTime;
+            this.ran = ran;
+        }
+
+        public void run() {
+            ran.incrementAndGet();
+        }
+
+        public long getReceptionTime() {
+            return receptionTime;
+        }
+
+        public void dropped() {
+            dropped.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package test.unit.gov.nist.javax.sip.stack;
+
+import gov.nist.javax.sip.stack.NioMessageProcessorFactory;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import javax.sip.SipStack;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that a NIO TCP listening point with several I/O selector threads
+ * (gov.nist.javax.sip.NIO_SELECTOR_THREADS) reads requests from and writes
+ * responses to every connection.
+ */
+public class NioSelectorThreadsTest extends TestCase {
+
+    private static final int SERVER_PORT = 5603;
+
+    private static final int SELECTOR_THREADS = 3;
+
+    private static final int CONNECTIONS = 10;
+
+    private SipStack sipStack;
+
+    public void setUp() throws Exception {
+        Properties properties = StackFixture.stackProperties("nioSelectorThreads");
+        properties.setProperty("gov.nist.javax.sip.MESSAGE_PROCESSOR_FACTORY", NioMessageProcessorFactory.class.getName());
+        properties.setProperty("gov.nist.javax.sip.NIO_SELECTOR_THREADS", "" + SELECTOR_THREADS);
+        properties.setProperty("gov.nist.javax.sip.NIO_SELECTOR_ASSIGNMENT", getName().endsWith("LeastLoaded") ? "LeastLoaded" : "RoundRobin");
+        sipStack = StackFixture.createStack(properties);
+        StackFixture.createOkResponder(sipStack, SERVER_PORT, "tcp");
+        sipStack.start();
+    }
+
+    public void tearDown() throws Exception {
+        sipStack.stop();
+    }
+
+    public void testEveryConnectionServedRoundRobin() throws Exception {
+        exchangeOnEveryConnection();
+    }
+
+    public void testEveryConnectionServedLeastLoaded() throws Exception {
+        exchangeOnEveryConnection();
+    }
+
+    private void exchangeOnEveryConnection() throws Exception {
+        List<Socket> sockets = new ArrayList<Socket>();
+        try {
+            for (int i = 0; i < CONNECTIONS; i++) {
+                Socket socket = new Socket("127.0.0.1", SERVER_PORT);
+                socket.setSoTimeout(5000);
+                sockets.add(socket);
+            }
+            for (int round = 0; round < 2; round++) {
+                for (int i = 0; i < CONNECTIONS; i++) {
+                    Socket socket = sockets.get(i);
+                    OutputStream out = socket.getOutputStream();
+                    out.write(StackFixture.createMessage("TCP", SERVER_PORT, socket.getLocalPort(), round + "-" + i).getBytes());
+                    out.flush();
+                }
+                for (int i = 0; i < CONNECTIONS; i++) {
+                    BufferedReader in = new BufferedReader(new InputStreamReader(sockets.get(i).getInputStream()));
+                    assertEquals("SIP/2.0 200 OK", in.readLine());
+                    String line;
+                    while ((line = in.readLine()) != null && line.length() > 0) {
+                    }
+                }
+            }
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+
+        int selectorThreads = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("NioSelector-TCP-127.0.0.1/" + SERVER_PORT)) {
+                selectorThreads++;
+            }
+        }
+        // the acceptor plus the I/O threads
+        assertEquals(SELECTOR_THREADS + 1, selectorThreads);
+    }
+}
@@ -0,0 +1,85 @@
+package test.unit.gov.nist.javax.sip.stack;
+
+import gov.nist.javax.sip.ListeningPointImpl;
+import gov.nist.javax.sip.stack.NioMessageProcessorFactory;
+import gov.nist.javax.sip.stack.NioTcpMessageProcessor;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+import javax.sip.SipProvider;
+import javax.sip.SipStack;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that the responses written on a NIO TCP connection during the write
+ * batching window (gov.nist.javax.sip.NIO_WRITE_BATCH_WINDOW) all reach the
+ * peer, whole and in the order they were sent, in fewer socket writes than
+ * responses.
+ */
+public class NioWriteBatchingTest extends TestCase {
+
+    private static final int SERVER_PORT = 5612;
+
+    private static final int REQUESTS = 50;
+
+    private SipStack sipStack;
+
+    private NioTcpMessageProcessor processor;
+
+    public void setUp() throws Exception {
+        Properties properties = StackFixture.stackProperties("nioWriteBatching");
+        properties.setProperty("gov.nist.javax.sip.MESSAGE_PROCESSOR_FACTORY", NioMessageProcessorFactory.class.getName());
+        properties.setProperty("gov.nist.javax.sip.NIO_WRITE_BATCH_WINDOW", "5");
+        properties.setProperty("gov.nist.javax.sip.NIO_MAX_QUEUED_BYTES_PER_CONNECTION", "1000000");
+        sipStack = StackFixture.createStack(properties);
+        SipProvider provider = StackFixture.createOkResponder(sipStack, SERVER_PORT, "tcp");
+        processor = (NioTcpMessageProcessor) ((ListeningPointImpl) provider.getListeningPoint("tcp"))
+            .getMessageProcessor();
+        sipStack.start();
+    }
+
+    public void tearDown() throws Exception {
+        sipStack.stop();
+    }
+
+    public void testBatchedResponses() throws Exception {
+        Socket socket = new Socket("127.0.0.1", SERVER_PORT);
+        try {
+            socket.setSoTimeout(5000);
+            StringBuilder requests = new StringBuilder();
+            for (int i = 0; i < REQUESTS; i++) {
+                requests.append(StackFixture.createMessage("TCP", SERVER_PORT, socket.getLocalPort(), "" + i));
+            }
+            OutputStream out = socket.getOutputStream();
+            out.write(requests.toString().getBytes());
+            out.flush();
+
+            Set<String> answered = new HashSet<String>();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            for (int i = 0; i < REQUESTS; i++) {
+                assertEquals("SIP/2.0 200 OK", in.readLine());
+                String line;
+                while ((line = in.readLine()) != null && line.length() > 0) {
+                    if (line.startsWith("Call-ID: ")) {
+                        answered.add(line);
+                    }
+                }
+            }
+            assertEquals(REQUESTS, answered.size());
+        } finally {
+            socket.close();
+        }
+        // the responses queued during a window went out together
+        long queued = processor.getQueuedMessages();
+        assertTrue(queued >= REQUESTS);
+        assertTrue(processor.getSocketWrites() + " writes for " + queued + " messages",
+            processor.getSocketWrites() < queued / 2);
+    }
+}
@@ -0,0 +1,87 @@
+package test.unit.gov.nist.javax.sip.stack;
+
+import java.util.Properties;
+
+import javax.sip.DialogTerminatedEvent;
+import javax.sip.IOExceptionEvent;
+import javax.sip.ListeningPoint;
+import javax.sip.PeerUnavailableException;
+import javax.sip.RequestEvent;
+import javax.sip.ResponseEvent;
+import javax.sip.SipFactory;
+import javax.sip.SipListener;
+import javax.sip.SipProvider;
+import javax.sip.SipStack;
+import javax.sip.TimeoutEvent;
+import javax.sip.TransactionTerminatedEvent;
+import javax.sip.message.MessageFactory;
+import javax.sip.message.Response;
+
+/**
+ * The stacks and messages the stack tests share: a quiet stack, a provider on
+ * the loopback address answering every request with a 200 OK, and the MESSAGE
+ * requests sent to it.
+ */
+public final class StackFixture {
+
+    private StackFixture() {
+    }
+
+    /**
+     * @return the properties of a stack of the given name that does not log,
+     *         to add the properties under test to.
+     */
+    public static Properties stackProperties(String name) {
+        Properties properties = new Properties();
+        properties.setProperty("javax.sip.STACK_NAME", name);
+        properties.setProperty("gov.nist.javax.sip.TRACE_LEVEL", "0");
+        return properties;
+    }
+
+    public static SipStack createStack(Properties properties) throws PeerUnavailableException {
+        SipFactory sipFactory = SipFactory.getInstance();
+        sipFactory.setPathName("gov.nist");
+        return sipFactory.createSipStack(properties);
+    }
+
+    /**
+     * Listen on 127.0.0.1 and answer every request with a 200 OK.
+     */
+    public static SipProvider createOkResponder(SipStack sipStack, int port, String transport)
+            throws Exception {
+        final MessageFactory messageFactory = SipFactory.getInstance().createMessageFactory();
+        ListeningPoint lp = sipStack.createListeningPoint("127.0.0.1", port, transport);
+        final SipProvider provider = sipStack.createSipProvider(lp);
+        provider.addSipListener(new SipListener() {
+            public void processRequest(RequestEvent requestEvent) {
+                try {
+                    Response response = messageFactory.createResponse(Response.OK, requestEvent.getRequest());
+                    provider.sendResponse(response);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+            public void processResponse(ResponseEvent responseEvent) {}
+            public void processTimeout(TimeoutEvent timeoutEvent) {}
+            public void processIOException(IOExceptionEvent exceptionEvent) {}
+            public void processTransactionTerminated(TransactionTerminatedEvent transactionTerminatedEvent) {}
+            public void processDialogTerminated(DialogTerminatedEvent dialogTerminatedEvent) {}
+        });
+        return provider;
+    }
+
+    /**
+     * @return a MESSAGE sent from 127.0.0.1:sourcePort to 127.0.0.1:serverPort,
+     *         with the id as branch, From tag and Call-ID.
+     */
+    public static String createMessage(String transport, int serverPort, int sourcePort, String id) {
+        return "MESSAGE sip:bob@127.0.0.1:" + serverPort + " SIP/2.0\r\n"
+            + "Via: SIP/2.0/" + transport + " 127.0.0.1:" + sourcePort + ";branch=z9hG4bK-" + id + "\r\n"
+            + "Max-Forwards: 70\r\n"
+            + "To: <sip:bob@127.0.0.1>\r\n"
+            + "From: <sip:alice@127.0.0.1>;tag=" + id + "\r\n"
+            + "Call-ID: " + id + "@127.0.0.1\r\n"
+            + "CSeq: 1 MESSAGE\r\n"
+            + "Content-Length: 0\r\n\r\n";
+    }
+}
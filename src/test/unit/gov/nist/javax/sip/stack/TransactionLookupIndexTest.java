@@ -0,0 +1,152 @@
+package test.unit.gov.nist.javax.sip.stack;
+
+import gov.nist.javax.sip.message.SIPRequest;
+import gov.nist.javax.sip.stack.SIPServerTransaction;
+import gov.nist.javax.sip.stack.SIPTransactionStack;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.sip.DialogTerminatedEvent;
+import javax.sip.IOExceptionEvent;
+import javax.sip.ListeningPoint;
+import javax.sip.RequestEvent;
+import javax.sip.ResponseEvent;
+import javax.sip.ServerTransaction;
+import javax.sip.SipFactory;
+import javax.sip.SipListener;
+import javax.sip.SipProvider;
+import javax.sip.SipStack;
+import javax.sip.TimeoutEvent;
+import javax.sip.TransactionTerminatedEvent;
+import javax.sip.header.CallIdHeader;
+import javax.sip.message.MessageFactory;
+import javax.sip.message.Request;
+
+import junit.framework.TestCase;
+
+/**
+ * Transactions that cannot be found by branch (RFC 2543 requests, CANCEL) are
+ * looked up among the transactions of their call.
+ */
+public class TransactionLookupIndexTest extends TestCase {
+
+    private static final int PORT = 5606;
+
+    private static final int CLIENT_PORT = 5607;
+
+    private SipStack sipStack;
+
+    private SipProvider provider;
+
+    private MessageFactory messageFactory;
+
+    private DatagramSocket client;
+
+    private final Map<String, ServerTransaction> serverTransactions =
+        new ConcurrentHashMap<String, ServerTransaction>();
+
+    public void setUp() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("javax.sip.STACK_NAME", "transactionLookupIndex");
+        properties.setProperty("gov.nist.javax.sip.TRACE_LEVEL", "0");
+        SipFactory sipFactory = SipFactory.getInstance();
+        sipFactory.setPathName("gov.nist");
+        sipStack = sipFactory.createSipStack(properties);
+        messageFactory = sipFactory.createMessageFactory();
+        ListeningPoint lp = sipStack.createListeningPoint("127.0.0.1", PORT, "udp");
+        provider = sipStack.createSipProvider(lp);
+        provider.addSipListener(new SipListener() {
+            public void processRequest(RequestEvent requestEvent) {
+                try {
+                    Request request = requestEvent.getRequest();
+                    if (request.getMethod().equals(Request.INVITE)) {
+                        serverTransactions.put(((CallIdHeader) request.getHeader(CallIdHeader.NAME)).getCallId(),
+                            provider.getNewServerTransaction(request));
+                    }
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+            }
+            public void processResponse(ResponseEvent responseEvent) {}
+            public void processTimeout(TimeoutEvent timeoutEvent) {}
+            public void processIOException(IOExceptionEvent exceptionEvent) {}
+            public void processTransactionTerminated(TransactionTerminatedEvent transactionTerminatedEvent) {}
+            public void processDialogTerminated(DialogTerminatedEvent dialogTerminatedEvent) {}
+        });
+        sipStack.start();
+        client = new DatagramSocket(CLIENT_PORT);
+    }
+
+    public void tearDown() throws Exception {
+        client.close();
+        sipStack.stop();
+    }
+
+    private String invite(String callId, String branch) {
+        return "INVITE sip:bob@127.0.0.1:" + PORT + " SIP/2.0\r\n"
+            + "Via: SIP/2.0/UDP 127.0.0.1:" + CLIENT_PORT + (branch == null ? "" : ";branch=" + branch) + "\r\n"
+            + "Max-Forwards: 70\r\n"
+            + "From: <sip:alice@127.0.0.1>;tag=from-" + callId + "\r\n"
+            + "To: <sip:bob@127.0.0.1>\r\n"
+            + "Call-ID: " + callId + "\r\n"
+            + "CSeq: 1 INVITE\r\n"
+            + "Contact: <sip:alice@127.0.0.1:" + CLIENT_PORT + ">\r\n"
+            + "Content-Length: 0\r\n\r\n";
+    }
+
+    private void send(String message) throws Exception {
+        byte[] bytes = message.getBytes("UTF-8");
+        client.send(new DatagramPacket(bytes, bytes.length, InetAddress.getByName("127.0.0.1"), PORT));
+    }
+
+    private SIPRequest parse(String message) throws Exception {
+        return (SIPRequest) messageFactory.createRequest(message);
+    }
+
+    private void awaitTransactions(int count) throws InterruptedException {
+        for (int i = 0; i < 100 && serverTransactions.size() < count; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(count, serverTransactions.size());
+    }
+
+    public void testRfc2543RequestIsFoundAmongOtherCalls() throws Exception {
+        SIPTransactionStack stack = (SIPTransactionStack) sipStack;
+        for (int i = 0; i < 20; i++) {
+            send(invite("other-" + i, null));
+        }
+        String invite = invite("call-2543", null);
+        send(invite);
+        awaitTransactions(21);
+
+        assertSame(serverTransactions.get("call-2543"), stack.findTransaction(parse(invite), true));
+        // the Call-ID narrows the search but does not decide the match
+        SIPRequest laterRequest = parse(invite);
+        laterRequest.getCSeq().setSeqNumber(2L);
+        assertNull(stack.findTransaction(laterRequest, true));
+
+        stack.removeTransaction((SIPServerTransaction) serverTransactions.get("call-2543"));
+        assertNull(stack.findTransaction(parse(invite), true));
+        assertSame(serverTransactions.get("other-7"), stack.findTransaction(parse(invite("other-7", null)), true));
+    }
+
+    public void testCancelIsMatchedWithinItsCall() throws Exception {
+        SIPTransactionStack stack = (SIPTransactionStack) sipStack;
+        send(invite("other-call", "z9hG4bKother"));
+        String invite = invite("cancelled-call", "z9hG4bKcancelled");
+        send(invite);
+        awaitTransactions(2);
+
+        SIPRequest cancel = parse(invite).createCancelRequest();
+        assertSame(serverTransactions.get("cancelled-call"), stack.findCancelTransaction(cancel, true));
+
+        SIPRequest strayCancel = (SIPRequest) cancel.clone();
+        strayCancel.getCallId().setCallId("unknown-call");
+        assertNull(stack.findCancelTransaction(strayCancel, true));
+    }
+}
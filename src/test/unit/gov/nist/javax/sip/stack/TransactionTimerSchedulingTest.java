@@ -0,0 +1,120 @@
+package test.unit.gov.nist.javax.sip.stack;
+
+import gov.nist.javax.sip.stack.SIPStackTimerTask;
+import gov.nist.javax.sip.stack.timers.DefaultSipTimer;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sip.ClientTransaction;
+import javax.sip.DialogTerminatedEvent;
+import javax.sip.IOExceptionEvent;
+import javax.sip.ListeningPoint;
+import javax.sip.RequestEvent;
+import javax.sip.ResponseEvent;
+import javax.sip.SipFactory;
+import javax.sip.SipListener;
+import javax.sip.SipProvider;
+import javax.sip.SipStack;
+import javax.sip.TimeoutEvent;
+import javax.sip.TransactionTerminatedEvent;
+import javax.sip.message.Request;
+
+import junit.framework.TestCase;
+
+/**
+ * Transactions schedule their next retransmission or timeout as a one-shot
+ * timer instead of ticking every base timer interval.
+ */
+public class TransactionTimerSchedulingTest extends TestCase {
+
+    private static final int CLIENT_PORT = 5604;
+
+    private static final int SERVER_PORT = 5605;
+
+    static final AtomicInteger periodicSchedules = new AtomicInteger();
+
+    /**
+     * Timer counting the tasks scheduled with a fixed delay.
+     */
+    public static class CountingSipTimer extends DefaultSipTimer {
+        public boolean scheduleWithFixedDelay(SIPStackTimerTask task, long delay, long period) {
+            periodicSchedules.incrementAndGet();
+            return super.scheduleWithFixedDelay(task, delay, period);
+        }
+    }
+
+    private SipStack sipStack;
+
+    private SipProvider provider;
+
+    private DatagramSocket server;
+
+    public void setUp() throws Exception {
+        periodicSchedules.set(0);
+        server = new DatagramSocket(SERVER_PORT);
+        server.setSoTimeout(500);
+        Properties properties = new Properties();
+        properties.setProperty("javax.sip.STACK_NAME", "transactionTimerScheduling");
+        properties.setProperty("gov.nist.javax.sip.TRACE_LEVEL", "0");
+        properties.setProperty("gov.nist.javax.sip.TIMER_CLASS_NAME", CountingSipTimer.class.getName());
+        SipFactory sipFactory = SipFactory.getInstance();
+        sipFactory.setPathName("gov.nist");
+        sipStack = sipFactory.createSipStack(properties);
+        ListeningPoint lp = sipStack.createListeningPoint("127.0.0.1", CLIENT_PORT, "udp");
+        provider = sipStack.createSipProvider(lp);
+        provider.addSipListener(new SipListener() {
+            public void processRequest(RequestEvent requestEvent) {}
+            public void processResponse(ResponseEvent responseEvent) {}
+            public void processTimeout(TimeoutEvent timeoutEvent) {}
+            public void processIOException(IOExceptionEvent exceptionEvent) {}
+            public void processTransactionTerminated(TransactionTerminatedEvent transactionTerminatedEvent) {}
+            public void processDialogTerminated(DialogTerminatedEvent dialogTerminatedEvent) {}
+        });
+        sipStack.start();
+    }
+
+    public void tearDown() throws Exception {
+        sipStack.stop();
+        server.close();
+    }
+
+    public void testInviteRetransmissionsFollowTimerA() throws Exception {
+        Request invite = SipFactory.getInstance().createMessageFactory().createRequest(
+            "INVITE sip:bob@127.0.0.1:" + SERVER_PORT + " SIP/2.0\r\n"
+            + "Via: SIP/2.0/UDP 127.0.0.1:" + CLIENT_PORT + ";branch=z9hG4bK-timers\r\n"
+            + "Max-Forwards: 70\r\n"
+            + "To: <sip:bob@127.0.0.1>\r\n"
+            + "From: <sip:alice@127.0.0.1>;tag=timers\r\n"
+            + "Call-ID: timers@127.0.0.1\r\n"
+            + "CSeq: 1 INVITE\r\n"
+            + "Contact: <sip:alice@127.0.0.1:" + CLIENT_PORT + ">\r\n"
+            + "Content-Length: 0\r\n\r\n");
+        ClientTransaction ct = provider.getNewClientTransaction(invite);
+        ct.sendRequest();
+
+        List<Long> arrivals = new ArrayList<Long>();
+        long end = System.currentTimeMillis() + 3800;
+        byte[] buffer = new byte[4096];
+        while (System.currentTimeMillis() < end) {
+            try {
+                server.receive(new DatagramPacket(buffer, buffer.length));
+                arrivals.add(System.currentTimeMillis());
+            } catch (java.net.SocketTimeoutException e) {
+            }
+        }
+        // sent at 0, retransmitted at 500, 1500 and 3500ms
+        assertEquals("arrivals " + arrivals, 4, arrivals.size());
+        long first = arrivals.get(1) - arrivals.get(0);
+        long second = arrivals.get(2) - arrivals.get(1);
+        long third = arrivals.get(3) - arrivals.get(2);
+        assertTrue("first interval " + first, first >= 450 && first < 800);
+        assertTrue("second interval " + second, second >= 950 && second < 1300);
+        assertTrue("third interval " + third, third >= 1950 && third < 2300);
+        assertEquals(0, periodicSchedules.get());
+    }
+}
@@ -0,0 +1,88 @@
+package test.unit.gov.nist.javax.sip.stack;
+
+import gov.nist.javax.sip.ListeningPointImpl;
+import gov.nist.javax.sip.stack.UDPMessageProcessor;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+import javax.sip.SipProvider;
+import javax.sip.SipStack;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that a UDP listening point driven by a datagram I/O
+ * (gov.nist.javax.sip.UDP_BATCH_SIZE) reads a burst of requests several
+ * datagrams per wake up and sends every response, with pooled workers and
+ * with a thread per message.
+ */
+public class UdpBatchingTest extends TestCase {
+
+    private static final int SERVER_PORT = 5613;
+
+    private static final int CLIENT_PORT = 5614;
+
+    private static final int REQUESTS = 100;
+
+    private SipStack sipStack;
+
+    private UDPMessageProcessor processor;
+
+    private DatagramSocket client;
+
+    public void setUp() throws Exception {
+        Properties properties = StackFixture.stackProperties("udpBatching");
+        properties.setProperty("gov.nist.javax.sip.UDP_BATCH_SIZE", "16");
+        if (getName().endsWith("PooledWorkers")) {
+            properties.setProperty("gov.nist.javax.sip.THREAD_POOL_SIZE", "4");
+        }
+        sipStack = StackFixture.createStack(properties);
+        SipProvider provider = StackFixture.createOkResponder(sipStack, SERVER_PORT, "udp");
+        processor = (UDPMessageProcessor) ((ListeningPointImpl) provider.getListeningPoint("udp"))
+            .getMessageProcessor();
+        sipStack.start();
+        client = new DatagramSocket(CLIENT_PORT, InetAddress.getByName("127.0.0.1"));
+        client.setReceiveBufferSize(256 * 1024);
+        client.setSoTimeout(5000);
+    }
+
+    public void tearDown() throws Exception {
+        client.close();
+        sipStack.stop();
+    }
+
+    public void testBurstWithPooledWorkers() throws Exception {
+        exchangeBurst();
+    }
+
+    public void testBurstWithThreadPerMessage() throws Exception {
+        exchangeBurst();
+    }
+
+    private void exchangeBurst() throws Exception {
+        InetAddress server = InetAddress.getByName("127.0.0.1");
+        for (int i = 0; i < REQUESTS; i++) {
+            byte[] request = StackFixture.createMessage("UDP", SERVER_PORT, CLIENT_PORT, "" + i).getBytes();
+            client.send(new DatagramPacket(request, request.length, server, SERVER_PORT));
+        }
+        Set<String> answered = new HashSet<String>();
+        byte[] buffer = new byte[4096];
+        while (answered.size() < REQUESTS) {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            client.receive(packet);
+            String response = new String(packet.getData(), 0, packet.getLength());
+            assertTrue(response, response.startsWith("SIP/2.0 200 OK"));
+            int callId = response.indexOf("Call-ID: ");
+            answered.add(response.substring(callId, response.indexOf("\r\n", callId)));
+        }
+        // the burst was drained several datagrams per wake up
+        assertEquals(REQUESTS, processor.getBatchedDatagrams());
+        assertTrue(processor.getReceiveBatches() + " wake ups for " + REQUESTS + " datagrams",
+            processor.getReceiveBatches() < REQUESTS);
+    }
+}
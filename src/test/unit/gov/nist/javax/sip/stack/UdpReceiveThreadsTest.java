@@ -0,0 +1,131 @@
+package test.unit.gov.nist.javax.sip.stack;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.sip.DialogTerminatedEvent;
+import javax.sip.IOExceptionEvent;
+import javax.sip.ListeningPoint;
+import javax.sip.RequestEvent;
+import javax.sip.ResponseEvent;
+import javax.sip.SipListener;
+import javax.sip.SipProvider;
+import javax.sip.SipStack;
+import javax.sip.TimeoutEvent;
+import javax.sip.TransactionTerminatedEvent;
+import javax.sip.header.CallIdHeader;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that a UDP listening point served by several receive threads
+ * (gov.nist.javax.sip.UDP_RECEIVE_THREADS) delivers every datagram sent to it.
+ */
+public class UdpReceiveThreadsTest extends TestCase {
+
+    private static final int SERVER_PORT = 5602;
+
+    private static final int RECEIVE_THREADS = 4;
+
+    private static final int SENDERS = 8;
+
+    private static final int MESSAGES_PER_SENDER = 25;
+
+    private SipStack sipStack;
+
+    private final CountDownLatch received = new CountDownLatch(SENDERS * MESSAGES_PER_SENDER);
+
+    // senders whose probe got through
+    private final Set<String> probed = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    public void setUp() throws Exception {
+        Properties properties = StackFixture.stackProperties("udpReceiveThreads");
+        properties.setProperty("gov.nist.javax.sip.THREAD_POOL_SIZE", "8");
+        properties.setProperty("gov.nist.javax.sip.UDP_RECEIVE_THREADS", "" + RECEIVE_THREADS);
+        sipStack = StackFixture.createStack(properties);
+        ListeningPoint lp = sipStack.createListeningPoint("127.0.0.1", SERVER_PORT, "udp");
+        SipProvider provider = sipStack.createSipProvider(lp);
+        provider.addSipListener(new SipListener() {
+            public void processRequest(RequestEvent requestEvent) {
+                String id = ((CallIdHeader) requestEvent.getRequest().getHeader(CallIdHeader.NAME)).getCallId();
+                if (id.startsWith("probe-")) {
+                    // probe-<sender>-<attempt>@127.0.0.1
+                    probed.add(id.substring(0, id.lastIndexOf('-')));
+                } else {
+                    received.countDown();
+                }
+            }
+            public void processResponse(ResponseEvent responseEvent) {}
+            public void processTimeout(TimeoutEvent timeoutEvent) {}
+            public void processIOException(IOExceptionEvent exceptionEvent) {}
+            public void processTransactionTerminated(TransactionTerminatedEvent transactionTerminatedEvent) {}
+            public void processDialogTerminated(DialogTerminatedEvent dialogTerminatedEvent) {}
+        });
+        sipStack.start();
+    }
+
+    public void tearDown() throws Exception {
+        sipStack.stop();
+    }
+
+    private static int countReceiveThreads() {
+        int receiveThreads = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("MessageProcessorThread-UDP-127.0.0.1/" + SERVER_PORT)) {
+                receiveThreads++;
+            }
+        }
+        return receiveThreads;
+    }
+
+    // the kernel picks the socket of a datagram from its source address, so
+    // each sender checks that its socket is read before sending for real
+    private void probe(DatagramSocket sender, InetAddress target, int s) throws Exception {
+        String id = "probe-" + s;
+        for (int attempt = 0; attempt < 50 && !probed.contains(id); attempt++) {
+            byte[] bytes = StackFixture.createMessage("UDP", SERVER_PORT, sender.getLocalPort(), id + "-" + attempt).getBytes();
+            sender.send(new DatagramPacket(bytes, bytes.length, target, SERVER_PORT));
+            for (int i = 0; i < 20 && !probed.contains(id); i++) {
+                Thread.sleep(10);
+            }
+        }
+        assertTrue("sender " + s + " never got through", probed.contains(id));
+    }
+
+    public void testAllDatagramsDelivered() throws Exception {
+        for (int i = 0; i < 500 && countReceiveThreads() < RECEIVE_THREADS; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(RECEIVE_THREADS, countReceiveThreads());
+
+        InetAddress target = InetAddress.getByName("127.0.0.1");
+        DatagramSocket[] senders = new DatagramSocket[SENDERS];
+        try {
+            for (int s = 0; s < SENDERS; s++) {
+                senders[s] = new DatagramSocket();
+                probe(senders[s], target, s);
+            }
+            for (int s = 0; s < SENDERS; s++) {
+                for (int i = 0; i < MESSAGES_PER_SENDER; i++) {
+                    byte[] bytes = StackFixture.createMessage("UDP", SERVER_PORT, senders[s].getLocalPort(), s + "-" + i).getBytes();
+                    senders[s].send(new DatagramPacket(bytes, bytes.length, target, SERVER_PORT));
+                }
+            }
+        } finally {
+            for (DatagramSocket sender : senders) {
+                if (sender != null) {
+                    sender.close();
+                }
+            }
+        }
+        assertTrue("only " + (SENDERS * MESSAGES_PER_SENDER - received.getCount()) + " messages received",
+                received.await(10, TimeUnit.SECONDS));
+    }
+}
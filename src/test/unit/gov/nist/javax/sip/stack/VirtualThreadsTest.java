@@ -0,0 +1,159 @@
+package test.unit.gov.nist.javax.sip.stack;
+
+import gov.nist.core.VirtualThreads;
+import gov.nist.javax.sip.stack.SIPTransactionStack;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.sip.ClientTransaction;
+import javax.sip.DialogTerminatedEvent;
+import javax.sip.IOExceptionEvent;
+import javax.sip.ListeningPoint;
+import javax.sip.RequestEvent;
+import javax.sip.ResponseEvent;
+import javax.sip.SipFactory;
+import javax.sip.SipListener;
+import javax.sip.SipProvider;
+import javax.sip.SipStack;
+import javax.sip.TimeoutEvent;
+import javax.sip.TransactionTerminatedEvent;
+import javax.sip.address.Address;
+import javax.sip.address.AddressFactory;
+import javax.sip.address.SipURI;
+import javax.sip.header.CSeqHeader;
+import javax.sip.header.CallIdHeader;
+import javax.sip.header.FromHeader;
+import javax.sip.header.HeaderFactory;
+import javax.sip.header.MaxForwardsHeader;
+import javax.sip.header.ToHeader;
+import javax.sip.header.ViaHeader;
+import javax.sip.message.MessageFactory;
+import javax.sip.message.Request;
+import javax.sip.message.Response;
+
+import junit.framework.TestCase;
+
+/**
+ * Requests and responses go through the blocking TCP transport when the stack
+ * is asked to run on virtual threads, which it does when the JVM supports them.
+ */
+public class VirtualThreadsTest extends TestCase {
+
+    private static final int SERVER_PORT = 5610;
+
+    private static final int CLIENT_PORT = 5611;
+
+    private static final int REQUESTS = 20;
+
+    private SipStack serverStack;
+
+    private SipStack clientStack;
+
+    private SipProvider clientProvider;
+
+    private AddressFactory addressFactory;
+
+    private HeaderFactory headerFactory;
+
+    private MessageFactory messageFactory;
+
+    private final CountDownLatch responses = new CountDownLatch(REQUESTS);
+
+    private final List<Thread> listenerThreads = new ArrayList<Thread>();
+
+    private SipStack createStack(String name) throws Exception {
+        Properties properties = StackFixture.stackProperties(name);
+        properties.setProperty("gov.nist.javax.sip.VIRTUAL_THREADS", "true");
+        return StackFixture.createStack(properties);
+    }
+
+    public void setUp() throws Exception {
+        SipFactory sipFactory = SipFactory.getInstance();
+        addressFactory = sipFactory.createAddressFactory();
+        headerFactory = sipFactory.createHeaderFactory();
+        messageFactory = sipFactory.createMessageFactory();
+
+        serverStack = createStack("virtualThreadsServer");
+        ListeningPoint serverLp = serverStack.createListeningPoint("127.0.0.1", SERVER_PORT, "tcp");
+        final SipProvider serverProvider = serverStack.createSipProvider(serverLp);
+        serverProvider.addSipListener(new SipListener() {
+            public void processRequest(RequestEvent requestEvent) {
+                synchronized (listenerThreads) {
+                    listenerThreads.add(Thread.currentThread());
+                }
+                try {
+                    serverProvider.sendResponse(messageFactory.createResponse(Response.OK,
+                        requestEvent.getRequest()));
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+            }
+            public void processResponse(ResponseEvent responseEvent) {}
+            public void processTimeout(TimeoutEvent timeoutEvent) {}
+            public void processIOException(IOExceptionEvent exceptionEvent) {}
+            public void processTransactionTerminated(TransactionTerminatedEvent transactionTerminatedEvent) {}
+            public void processDialogTerminated(DialogTerminatedEvent dialogTerminatedEvent) {}
+        });
+
+        clientStack = createStack("virtualThreadsClient");
+        ListeningPoint clientLp = clientStack.createListeningPoint("127.0.0.1", CLIENT_PORT, "tcp");
+        clientProvider = clientStack.createSipProvider(clientLp);
+        clientProvider.addSipListener(new SipListener() {
+            public void processRequest(RequestEvent requestEvent) {}
+            public void processResponse(ResponseEvent responseEvent) {
+                if (responseEvent.getResponse().getStatusCode() == Response.OK) {
+                    responses.countDown();
+                }
+            }
+            public void processTimeout(TimeoutEvent timeoutEvent) {}
+            public void processIOException(IOExceptionEvent exceptionEvent) {}
+            public void processTransactionTerminated(TransactionTerminatedEvent transactionTerminatedEvent) {}
+            public void processDialogTerminated(DialogTerminatedEvent dialogTerminatedEvent) {}
+        });
+        serverStack.start();
+        clientStack.start();
+    }
+
+    public void tearDown() throws Exception {
+        clientStack.stop();
+        serverStack.stop();
+    }
+
+    private Request createMessage(int seq) throws Exception {
+        SipURI requestUri = addressFactory.createSipURI("bob", "127.0.0.1:" + SERVER_PORT);
+        requestUri.setTransportParam("tcp");
+        Address from = addressFactory.createAddress("sip:alice@127.0.0.1");
+        Address to = addressFactory.createAddress("sip:bob@127.0.0.1");
+        List<ViaHeader> vias = new ArrayList<ViaHeader>();
+        vias.add(headerFactory.createViaHeader("127.0.0.1", CLIENT_PORT, "tcp", null));
+        CallIdHeader callId = clientProvider.getNewCallId();
+        CSeqHeader cseq = headerFactory.createCSeqHeader((long) seq, Request.MESSAGE);
+        FromHeader fromHeader = headerFactory.createFromHeader(from, "tag" + seq);
+        ToHeader toHeader = headerFactory.createToHeader(to, null);
+        MaxForwardsHeader maxForwards = headerFactory.createMaxForwardsHeader(70);
+        return messageFactory.createRequest(requestUri, Request.MESSAGE, callId, cseq,
+            fromHeader, toHeader, vias, maxForwards);
+    }
+
+    public void testMessagesOverTcp() throws Exception {
+        assertEquals(VirtualThreads.isAvailable(), ((SIPTransactionStack) serverStack).isVirtualThreads());
+        for (int i = 1; i <= REQUESTS; i++) {
+            ClientTransaction ct = clientProvider.getNewClientTransaction(createMessage(i));
+            ct.sendRequest();
+        }
+        assertTrue(responses.await(10, TimeUnit.SECONDS));
+
+        if (VirtualThreads.isAvailable()) {
+            synchronized (listenerThreads) {
+                for (Thread thread : listenerThreads) {
+                    assertTrue(thread.getName(),
+                        ((Boolean) Thread.class.getMethod("isVirtual").invoke(thread)).booleanValue());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package test.unit.gov.nist.javax.sip.stack;
+
+import gov.nist.javax.sip.stack.WebSocketCodec;
+import gov.nist.javax.sip.stack.WebSocketHttpHandshake;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * The streaming frame decoder across reads of any size, with fragmented
+ * messages and permessage-deflate.
+ */
+public class WebSocketCodecTest extends TestCase {
+
+    private static final String SDP_LINE = "a=candidate:1 1 udp 2122260223 192.168.1.10 54400 typ host generation 0\r\n";
+
+    private static byte[] message(int size) {
+        byte[] message = new byte[size];
+        for (int i = 0; i < size; i++) {
+            message[i] = (byte) ('a' + i % 26);
+        }
+        return message;
+    }
+
+    private static byte[] frame(int b0, byte[] payload) {
+        // unmasked server to client frame
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        frame.write(b0);
+        frame.write(payload.length);
+        frame.write(payload, 0, payload.length);
+        return frame.toByteArray();
+    }
+
+    public void testByteByByteDecoding() throws Exception {
+        WebSocketCodec client = new WebSocketCodec(false, true);
+        WebSocketCodec server = new WebSocketCodec(true, true);
+        for (int size : new int[] { 0, 1, 125, 126, 1000, 65535, 70001 }) {
+            byte[] sent = message(size);
+            byte[] frame = client.encode(sent.clone(), true);
+            ByteBuffer buffer = ByteBuffer.allocate(1);
+            byte[] received = null;
+            for (int i = 0; i < frame.length; i++) {
+                assertNull(received);
+                buffer.clear();
+                buffer.put(frame[i]).flip();
+                received = server.decode(buffer);
+            }
+            assertTrue("size " + size, Arrays.equals(sent, received));
+        }
+    }
+
+    public void testSeveralMessagesInOneRead() throws Exception {
+        WebSocketCodec client = new WebSocketCodec(false, true);
+        WebSocketCodec server = new WebSocketCodec(true, true);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (int i = 1; i <= 3; i++) {
+            byte[] frame = client.encode(message(i * 300), true);
+            stream.write(frame, 0, frame.length);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(stream.toByteArray());
+        for (int i = 1; i <= 3; i++) {
+            assertTrue(Arrays.equals(message(i * 300), server.decode(buffer)));
+        }
+        assertNull(server.decode(buffer));
+        assertFalse(buffer.hasRemaining());
+    }
+
+    public void testFragmentedMessageWithPing() throws Exception {
+        WebSocketCodec client = new WebSocketCodec(false, true);
+        byte[] part1 = "INVITE sip:bob@example.com SIP/2.0\r\n".getBytes();
+        byte[] part2 = "Content-Length: 0\r\n\r\n".getBytes();
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stream.write(frame(0x01, part1));
+        stream.write(frame(0x89, "ping".getBytes()));
+        stream.write(frame(0x80, part2));
+        byte[] bytes = stream.toByteArray();
+
+        // split in the middle of the ping
+        ByteBuffer first = ByteBuffer.wrap(bytes, 0, part1.length + 4);
+        assertNull(client.decode(first));
+        assertFalse(first.hasRemaining());
+        byte[] received = client.decode(ByteBuffer.wrap(bytes, part1.length + 4, bytes.length - part1.length - 4));
+        assertEquals(new String(part1) + new String(part2), new String(received));
+
+        // the pong echoes the ping, masked as it goes from the client
+        byte[] pong = client.takePongFrame();
+        assertNotNull(pong);
+        assertEquals((byte) 0x8A, pong[0]);
+        assertEquals((byte) 0x84, pong[1]);
+        assertNull(client.takePongFrame());
+        WebSocketCodec server = new WebSocketCodec(true, true);
+        assertNull(server.decode(ByteBuffer.wrap(pong)));
+    }
+
+    public void testCloseStopsDecoding() throws Exception {
+        WebSocketCodec client = new WebSocketCodec(false, true);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stream.write(frame(0x88, new byte[0]));
+        stream.write(frame(0x81, "after".getBytes()));
+        assertNull(client.decode(ByteBuffer.wrap(stream.toByteArray())));
+        assertTrue(client.isCloseOpcodeReceived());
+    }
+
+    public void testPerMessageDeflate() throws Exception {
+        WebSocketCodec client = new WebSocketCodec(false, true);
+        WebSocketCodec server = new WebSocketCodec(true, true);
+        client.setPerMessageDeflate(true);
+        server.setPerMessageDeflate(true);
+        StringBuilder sdp = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            sdp.append(SDP_LINE);
+        }
+        byte[] sent = sdp.toString().getBytes();
+        for (int i = 0; i < 3; i++) {
+            byte[] frame = client.encode(sent.clone(), true);
+            assertTrue(frame.length < sent.length / 4);
+            assertEquals("RSV1", 0x40, frame[0] & 0x70);
+            assertTrue(Arrays.equals(sent, server.decode(ByteBuffer.wrap(frame))));
+        }
+        byte[] back = server.encode(sent.clone(), false);
+        assertTrue(Arrays.equals(sent, client.decode(ByteBuffer.wrap(back))));
+    }
+
+    public void testOversizedMessagesAreRejected() throws Exception {
+        // a header announcing a 2 GB frame must not allocate it
+        byte[] header = new byte[] { (byte) 0x81, 127, 0, 0, 0, 0, 0x7F, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF };
+        try {
+            new WebSocketCodec(false, true).decode(ByteBuffer.wrap(header));
+            fail("oversized frame accepted");
+        } catch (RuntimeException expected) {
+            assertTrue(expected.getMessage().contains("too big"));
+        }
+
+        // nor may a small compressed message inflate without bound
+        WebSocketCodec client = new WebSocketCodec(false, true);
+        WebSocketCodec server = new WebSocketCodec(true, true);
+        client.setPerMessageDeflate(true);
+        server.setPerMessageDeflate(true);
+        byte[] frame = client.encode(new byte[4 * 1024 * 1024], true);
+        assertTrue(frame.length < 65536);
+        try {
+            server.decode(ByteBuffer.wrap(frame));
+            fail("oversized inflated message accepted");
+        } catch (RuntimeException expected) {
+            assertTrue(expected.getMessage().contains("too big"));
+        }
+
+        server = new WebSocketCodec(true, true);
+        server.setPerMessageDeflate(true);
+        server.setMaxMessageSize(8 * 1024 * 1024);
+        assertEquals(4 * 1024 * 1024, server.decode(ByteBuffer.wrap(frame)).length);
+    }
+
+    public void testPerMessageDeflateNegotiation() throws Exception {
+        String request = "GET / HTTP/1.1\r\n"
+                + "Host: 127.0.0.1\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n"
+                + "Sec-WebSocket-Protocol: sip\r\n"
+                + "Sec-WebSocket-Extensions: permessage-deflate; server_max_window_bits=10, "
+                + "permessage-deflate; client_max_window_bits\r\n"
+                + "Sec-WebSocket-Version: 13\r\n\r\n";
+        WebSocketHttpHandshake handshake = new WebSocketHttpHandshake();
+        String response = new String(handshake.createHttpResponse(request, true));
+        assertTrue(handshake.isPerMessageDeflate());
+        assertTrue(response.contains("Sec-WebSocket-Extensions: permessage-deflate; server_no_context_takeover\r\n"));
+
+        handshake = new WebSocketHttpHandshake();
+        response = new String(handshake.createHttpResponse(request, false));
+        assertFalse(handshake.isPerMessageDeflate());
+        assertFalse(response.contains("Sec-WebSocket-Extensions"));
+
+        handshake = new WebSocketHttpHandshake();
+        handshake.createHttpResponse(request.replace(", permessage-deflate; client_max_window_bits", ""), true);
+        assertFalse(handshake.isPerMessageDeflate());
+    }
+}
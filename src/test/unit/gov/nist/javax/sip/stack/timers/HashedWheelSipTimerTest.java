@@ -0,0 +1,131 @@
+package test.unit.gov.nist.javax.sip.stack.timers;
+
+import gov.nist.javax.sip.stack.SIPStackTimerTask;
+import gov.nist.javax.sip.stack.timers.HashedWheelSipTimer;
+
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * Scheduling, cancellation and worker handoff of the hashed wheel timer.
+ */
+public class HashedWheelSipTimerTest extends TestCase {
+
+    private HashedWheelSipTimer timer;
+
+    private void start(String shards, String workers) {
+        Properties properties = new Properties();
+        properties.setProperty("gov.nist.javax.sip.timers.HASHED_WHEEL_TICK", "5");
+        properties.setProperty("gov.nist.javax.sip.timers.HASHED_WHEEL_SIZE", "60");
+        properties.setProperty("gov.nist.javax.sip.timers.HASHED_WHEEL_SHARDS", shards);
+        properties.setProperty("gov.nist.javax.sip.timers.HASHED_WHEEL_WORKER_THREADS", workers);
+        timer = new HashedWheelSipTimer();
+        timer.start(null, properties);
+    }
+
+    public void tearDown() {
+        if (timer != null) {
+            timer.stop();
+        }
+    }
+
+    private static class LatchTask extends SIPStackTimerTask {
+        final CountDownLatch latch;
+        final AtomicInteger runs = new AtomicInteger();
+        volatile long ranAt;
+
+        LatchTask(int count) {
+            latch = new CountDownLatch(count);
+        }
+
+        public void runTask() {
+            ranAt = System.nanoTime();
+            runs.incrementAndGet();
+            latch.countDown();
+        }
+    }
+
+    public void testTaskRunsAfterDelay() throws Exception {
+        start("1", "1");
+        assertTrue(timer.isStarted());
+        LatchTask task = new LatchTask(1);
+        long scheduledAt = System.nanoTime();
+        // longer than a full rotation of the wheel (64 * 5ms)
+        timer.schedule(task, 400);
+        assertTrue(task.latch.await(2, TimeUnit.SECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(task.ranAt - scheduledAt) >= 400);
+        assertFalse(timer.cancel(task));
+    }
+
+    public void testCancelledTaskDoesNotRun() throws Exception {
+        start("1", "1");
+        LatchTask cancelled = new LatchTask(1);
+        LatchTask other = new LatchTask(1);
+        timer.schedule(cancelled, 50);
+        timer.schedule(other, 100);
+        assertTrue(timer.cancel(cancelled));
+        assertNull(cancelled.getSipTimerTask());
+        assertTrue(other.latch.await(2, TimeUnit.SECONDS));
+        assertEquals(0, cancelled.runs.get());
+        assertEquals(0, timer.getPendingTaskCount());
+    }
+
+    public void testFixedDelayTaskRepeatsUntilCancelled() throws Exception {
+        start("1", "0");
+        LatchTask task = new LatchTask(3);
+        timer.scheduleWithFixedDelay(task, 10, 10);
+        assertTrue(task.latch.await(2, TimeUnit.SECONDS));
+        assertTrue(timer.cancel(task));
+        Thread.sleep(100);
+        int runs = task.runs.get();
+        Thread.sleep(100);
+        assertEquals(runs, task.runs.get());
+    }
+
+    public void testManyTasksAcrossShards() throws Exception {
+        start("4", "2");
+        final LatchTask task = new LatchTask(1000);
+        for (int i = 0; i < 1000; i++) {
+            timer.schedule(new SIPStackTimerTask() {
+                public void runTask() {
+                    task.runTask();
+                }
+            }, i % 200);
+        }
+        assertTrue(task.latch.await(3, TimeUnit.SECONDS));
+        assertEquals(1000, task.runs.get());
+    }
+
+    public void testSlowTaskDoesNotStallTheWheel() throws Exception {
+        start("1", "2");
+        final CountDownLatch release = new CountDownLatch(1);
+        timer.schedule(new SIPStackTimerTask() {
+            public void runTask() {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                }
+            }
+        }, 0);
+        LatchTask task = new LatchTask(1);
+        timer.schedule(task, 50);
+        assertTrue(task.latch.await(2, TimeUnit.SECONDS));
+        release.countDown();
+    }
+
+    public void testScheduleAfterStopIsRejected() {
+        start("1", "1");
+        timer.stop();
+        assertFalse(timer.isStarted());
+        try {
+            timer.schedule(new LatchTask(1), 10);
+            fail("schedule must fail once stopped");
+        } catch (IllegalStateException expected) {
+        }
+        timer = null;
+    }
+}
@@ -0,0 +1,179 @@
+package test.unit.gov.nist.javax.sip.stack.tls;
+
+import gov.nist.javax.sip.stack.ByteBufferFactory;
+import gov.nist.javax.sip.stack.NioMessageProcessorFactory;
+import gov.nist.javax.sip.stack.SSLStateMachine;
+
+import test.unit.gov.nist.javax.sip.stack.StackFixture;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.sip.DialogTerminatedEvent;
+import javax.sip.IOExceptionEvent;
+import javax.sip.ListeningPoint;
+import javax.sip.RequestEvent;
+import javax.sip.ResponseEvent;
+import javax.sip.SipFactory;
+import javax.sip.SipListener;
+import javax.sip.SipProvider;
+import javax.sip.SipStack;
+import javax.sip.TimeoutEvent;
+import javax.sip.TransactionTerminatedEvent;
+import javax.sip.address.AddressFactory;
+import javax.sip.address.SipURI;
+import javax.sip.header.HeaderFactory;
+import javax.sip.header.ViaHeader;
+import javax.sip.message.MessageFactory;
+import javax.sip.message.Request;
+import javax.sip.message.Response;
+
+import junit.framework.TestCase;
+
+/**
+ * Messages of all sizes go through the NIO TLS transport with the TLS buffers
+ * leased from the pool and all of them given back.
+ */
+public class NioTlsBufferTest extends TestCase {
+
+    private static final int SERVER_PORT = 5624;
+
+    private static final int CLIENT_PORT = 5625;
+
+    private static final int REQUESTS = 20;
+
+    private SipStack serverStack;
+
+    private SipStack clientStack;
+
+    private SipProvider clientProvider;
+
+    private AddressFactory addressFactory;
+
+    private HeaderFactory headerFactory;
+
+    private MessageFactory messageFactory;
+
+    private final BlockingQueue<Request> serverRequests = new LinkedBlockingQueue<Request>();
+
+    private final BlockingQueue<Response> clientResponses = new LinkedBlockingQueue<Response>();
+
+    private SipStack createStack(String name) throws Exception {
+        Properties properties = StackFixture.stackProperties(name);
+        properties.setProperty("gov.nist.javax.sip.MESSAGE_PROCESSOR_FACTORY",
+            NioMessageProcessorFactory.class.getName());
+        properties.setProperty("gov.nist.javax.sip.TLS_CLIENT_AUTH_TYPE", "Disabled");
+        return StackFixture.createStack(properties);
+    }
+
+    public void setUp() throws Exception {
+        System.setProperty("javax.net.ssl.keyStore", TlsTest.class.getResource("testkeys").getPath());
+        System.setProperty("javax.net.ssl.trustStore", TlsTest.class.getResource("testkeys").getPath());
+        System.setProperty("javax.net.ssl.keyStorePassword", "passphrase");
+        System.setProperty("javax.net.ssl.keyStoreType", "jks");
+
+        SipFactory sipFactory = SipFactory.getInstance();
+        addressFactory = sipFactory.createAddressFactory();
+        headerFactory = sipFactory.createHeaderFactory();
+        messageFactory = sipFactory.createMessageFactory();
+
+        serverStack = createStack("nioTlsBufferServer");
+        ListeningPoint serverLp = serverStack.createListeningPoint("127.0.0.1", SERVER_PORT, "tls");
+        final SipProvider serverProvider = serverStack.createSipProvider(serverLp);
+        serverProvider.addSipListener(new SipListener() {
+            public void processRequest(RequestEvent requestEvent) {
+                Request request = requestEvent.getRequest();
+                serverRequests.add(request);
+                try {
+                    Response response = messageFactory.createResponse(Response.OK, request);
+                    // echo the body so that the responses are as big as the requests
+                    response.setContent(request.getRawContent(),
+                        headerFactory.createContentTypeHeader("text", "plain"));
+                    serverProvider.sendResponse(response);
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+            }
+            public void processResponse(ResponseEvent responseEvent) {}
+            public void processTimeout(TimeoutEvent timeoutEvent) {}
+            public void processIOException(IOExceptionEvent exceptionEvent) {}
+            public void processTransactionTerminated(TransactionTerminatedEvent transactionTerminatedEvent) {}
+            public void processDialogTerminated(DialogTerminatedEvent dialogTerminatedEvent) {}
+        });
+
+        clientStack = createStack("nioTlsBufferClient");
+        ListeningPoint clientLp = clientStack.createListeningPoint("127.0.0.1", CLIENT_PORT, "tls");
+        clientProvider = clientStack.createSipProvider(clientLp);
+        clientProvider.addSipListener(new SipListener() {
+            public void processRequest(RequestEvent requestEvent) {}
+            public void processResponse(ResponseEvent responseEvent) {
+                clientResponses.add(responseEvent.getResponse());
+            }
+            public void processTimeout(TimeoutEvent timeoutEvent) {}
+            public void processIOException(IOExceptionEvent exceptionEvent) {}
+            public void processTransactionTerminated(TransactionTerminatedEvent transactionTerminatedEvent) {}
+            public void processDialogTerminated(DialogTerminatedEvent dialogTerminatedEvent) {}
+        });
+        serverStack.start();
+        clientStack.start();
+    }
+
+    public void tearDown() throws Exception {
+        clientStack.stop();
+        serverStack.stop();
+        System.clearProperty("javax.net.ssl.keyStore");
+        System.clearProperty("javax.net.ssl.trustStore");
+        System.clearProperty("javax.net.ssl.keyStorePassword");
+        System.clearProperty("javax.net.ssl.keyStoreType");
+    }
+
+    private Request createMessage(int seq, byte[] body) throws Exception {
+        SipURI requestUri = addressFactory.createSipURI("bob", "127.0.0.1:" + SERVER_PORT);
+        requestUri.setTransportParam("tls");
+        List<ViaHeader> vias = new ArrayList<ViaHeader>();
+        vias.add(headerFactory.createViaHeader("127.0.0.1", CLIENT_PORT, "tls", null));
+        Request request = messageFactory.createRequest(requestUri, Request.MESSAGE,
+            clientProvider.getNewCallId(), headerFactory.createCSeqHeader((long) seq, Request.MESSAGE),
+            headerFactory.createFromHeader(addressFactory.createAddress("sip:alice@127.0.0.1"), "tag" + seq),
+            headerFactory.createToHeader(addressFactory.createAddress("sip:bob@127.0.0.1"), null),
+            vias, headerFactory.createMaxForwardsHeader(70));
+        request.setContent(body, headerFactory.createContentTypeHeader("text", "plain"));
+        return request;
+    }
+
+    public void testMessagesOfAllSizes() throws Exception {
+        long wrapped = SSLStateMachine.getWrappedMessages();
+        for (int i = 1; i <= REQUESTS; i++) {
+            // from a few bytes to several TLS records
+            byte[] body = new byte[i * i * 100];
+            Arrays.fill(body, (byte) ('a' + i % 26));
+            clientProvider.getNewClientTransaction(createMessage(i, body)).sendRequest();
+            Request request = serverRequests.poll(10, TimeUnit.SECONDS);
+            assertNotNull(request);
+            assertTrue("message " + i, Arrays.equals(body, request.getRawContent()));
+            Response response = clientResponses.poll(10, TimeUnit.SECONDS);
+            assertNotNull(response);
+            assertEquals(Response.OK, response.getStatusCode());
+            assertTrue(Arrays.equals(body, response.getRawContent()));
+        }
+        assertTrue(SSLStateMachine.getWrappedMessages() - wrapped >= 2 * REQUESTS);
+
+        // the buffers leased for the sends go back once the traffic is over
+        ByteBufferFactory factory = ByteBufferFactory.getInstance();
+        long leases = factory.getLeaseCount();
+        long allocations = factory.getAllocationCount();
+        for (int i = 0; i < REQUESTS; i++) {
+            clientProvider.getNewClientTransaction(createMessage(REQUESTS + 1 + i, new byte[200])).sendRequest();
+            assertNotNull(serverRequests.poll(10, TimeUnit.SECONDS));
+            assertNotNull(clientResponses.poll(10, TimeUnit.SECONDS));
+        }
+        assertTrue(factory.getLeaseCount() - leases >= 4 * REQUESTS);
+        // warm pools serve the leases without allocating
+        assertTrue(factory.getAllocationCount() - allocations < REQUESTS);
+    }
+}
@@ -0,0 +1,180 @@
+package test.unit.gov.nist.javax.sip.stack.tls;
+
+import gov.nist.javax.sip.ListeningPointImpl;
+import gov.nist.javax.sip.stack.NioMessageProcessorFactory;
+import gov.nist.javax.sip.stack.NioTlsMessageProcessor;
+import gov.nist.javax.sip.stack.SIPTransactionStack;
+
+import test.unit.gov.nist.javax.sip.stack.StackFixture;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.sip.DialogTerminatedEvent;
+import javax.sip.IOExceptionEvent;
+import javax.sip.ListeningPoint;
+import javax.sip.RequestEvent;
+import javax.sip.ResponseEvent;
+import javax.sip.SipFactory;
+import javax.sip.SipListener;
+import javax.sip.SipProvider;
+import javax.sip.SipStack;
+import javax.sip.TimeoutEvent;
+import javax.sip.TransactionTerminatedEvent;
+import javax.sip.address.AddressFactory;
+import javax.sip.address.SipURI;
+import javax.sip.header.HeaderFactory;
+import javax.sip.header.ViaHeader;
+import javax.sip.message.MessageFactory;
+import javax.sip.message.Request;
+import javax.sip.message.Response;
+
+import junit.framework.TestCase;
+
+/**
+ * A client reconnecting over NIO TLS resumes its cached session, with the
+ * handshake tasks run by the handshake threads.
+ */
+public class NioTlsSessionTest extends TestCase {
+
+    private static final int SERVER_PORT = 5626;
+
+    private static final int CLIENT_PORT = 5627;
+
+    private SipStack serverStack;
+
+    private SipStack clientStack;
+
+    private ListeningPoint serverLp;
+
+    private ListeningPoint clientLp;
+
+    private SipProvider clientProvider;
+
+    private AddressFactory addressFactory;
+
+    private HeaderFactory headerFactory;
+
+    private MessageFactory messageFactory;
+
+    private final BlockingQueue<Response> clientResponses = new LinkedBlockingQueue<Response>();
+
+    private SipStack createStack(String name) throws Exception {
+        Properties properties = StackFixture.stackProperties(name);
+        properties.setProperty("gov.nist.javax.sip.MESSAGE_PROCESSOR_FACTORY",
+            NioMessageProcessorFactory.class.getName());
+        properties.setProperty("gov.nist.javax.sip.TLS_CLIENT_AUTH_TYPE", "Disabled");
+        properties.setProperty("gov.nist.javax.sip.TLS_SESSION_CACHE_SIZE", "100");
+        properties.setProperty("gov.nist.javax.sip.TLS_SESSION_TIMEOUT", "600");
+        properties.setProperty("gov.nist.javax.sip.TLS_HANDSHAKE_THREADS", "2");
+        return StackFixture.createStack(properties);
+    }
+
+    public void setUp() throws Exception {
+        System.setProperty("javax.net.ssl.keyStore", TlsTest.class.getResource("testkeys").getPath());
+        System.setProperty("javax.net.ssl.trustStore", TlsTest.class.getResource("testkeys").getPath());
+        System.setProperty("javax.net.ssl.keyStorePassword", "passphrase");
+        System.setProperty("javax.net.ssl.keyStoreType", "jks");
+
+        SipFactory sipFactory = SipFactory.getInstance();
+        addressFactory = sipFactory.createAddressFactory();
+        headerFactory = sipFactory.createHeaderFactory();
+        messageFactory = sipFactory.createMessageFactory();
+
+        serverStack = createStack("nioTlsSessionServer");
+        serverLp = serverStack.createListeningPoint("127.0.0.1", SERVER_PORT, "tls");
+        final SipProvider serverProvider = serverStack.createSipProvider(serverLp);
+        serverProvider.addSipListener(new SipListener() {
+            public void processRequest(RequestEvent requestEvent) {
+                try {
+                    serverProvider.sendResponse(messageFactory.createResponse(Response.OK,
+                        requestEvent.getRequest()));
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+            }
+            public void processResponse(ResponseEvent responseEvent) {}
+            public void processTimeout(TimeoutEvent timeoutEvent) {}
+            public void processIOException(IOExceptionEvent exceptionEvent) {}
+            public void processTransactionTerminated(TransactionTerminatedEvent transactionTerminatedEvent) {}
+            public void processDialogTerminated(DialogTerminatedEvent dialogTerminatedEvent) {}
+        });
+
+        clientStack = createStack("nioTlsSessionClient");
+        clientLp = clientStack.createListeningPoint("127.0.0.1", CLIENT_PORT, "tls");
+        clientProvider = clientStack.createSipProvider(clientLp);
+        clientProvider.addSipListener(new SipListener() {
+            public void processRequest(RequestEvent requestEvent) {}
+            public void processResponse(ResponseEvent responseEvent) {
+                clientResponses.add(responseEvent.getResponse());
+            }
+            public void processTimeout(TimeoutEvent timeoutEvent) {}
+            public void processIOException(IOExceptionEvent exceptionEvent) {}
+            public void processTransactionTerminated(TransactionTerminatedEvent transactionTerminatedEvent) {}
+            public void processDialogTerminated(DialogTerminatedEvent dialogTerminatedEvent) {}
+        });
+        serverStack.start();
+        clientStack.start();
+    }
+
+    public void tearDown() throws Exception {
+        clientStack.stop();
+        serverStack.stop();
+        System.clearProperty("javax.net.ssl.keyStore");
+        System.clearProperty("javax.net.ssl.trustStore");
+        System.clearProperty("javax.net.ssl.keyStorePassword");
+        System.clearProperty("javax.net.ssl.keyStoreType");
+    }
+
+    private void sendMessage(int seq) throws Exception {
+        SipURI requestUri = addressFactory.createSipURI("bob", "127.0.0.1:" + SERVER_PORT);
+        requestUri.setTransportParam("tls");
+        List<ViaHeader> vias = new ArrayList<ViaHeader>();
+        vias.add(headerFactory.createViaHeader("127.0.0.1", CLIENT_PORT, "tls", null));
+        Request request = messageFactory.createRequest(requestUri, Request.MESSAGE,
+            clientProvider.getNewCallId(), headerFactory.createCSeqHeader((long) seq, Request.MESSAGE),
+            headerFactory.createFromHeader(addressFactory.createAddress("sip:alice@127.0.0.1"), "tag" + seq),
+            headerFactory.createToHeader(addressFactory.createAddress("sip:bob@127.0.0.1"), null),
+            vias, headerFactory.createMaxForwardsHeader(70));
+        clientProvider.getNewClientTransaction(request).sendRequest();
+        Response response = clientResponses.poll(10, TimeUnit.SECONDS);
+        assertNotNull(response);
+        assertEquals(Response.OK, response.getStatusCode());
+    }
+
+    private static NioTlsMessageProcessor processor(ListeningPoint lp) {
+        return (NioTlsMessageProcessor) ((ListeningPointImpl) lp).getMessageProcessor();
+    }
+
+    private static boolean handshakeThreadStarted() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("TlsHandshakeThread-")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void testReconnectionResumesTheSession() throws Exception {
+        sendMessage(1);
+        assertEquals(1, processor(clientLp).getFullHandshakes());
+        assertEquals(0, processor(clientLp).getResumedHandshakes());
+        assertNotNull(((SIPTransactionStack) serverStack).getTlsHandshakeExecutor());
+        assertTrue(handshakeThreadStarted());
+
+        // the next request needs a new connection
+        processor(clientLp).createMessageChannel(InetAddress.getByName("127.0.0.1"), SERVER_PORT).close();
+        Thread.sleep(500);
+
+        sendMessage(2);
+        assertEquals(1, processor(clientLp).getFullHandshakes());
+        assertEquals(1, processor(clientLp).getResumedHandshakes());
+        assertEquals(1, processor(serverLp).getFullHandshakes());
+        assertEquals(1, processor(serverLp).getResumedHandshakes());
+    }
+}
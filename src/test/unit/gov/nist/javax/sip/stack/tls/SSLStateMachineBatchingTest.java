@@ -0,0 +1,191 @@
+package test.unit.gov.nist.javax.sip.stack.tls;
+
+import gov.nist.javax.sip.ClientTransactionExt;
+import gov.nist.javax.sip.SipStackImpl;
+import gov.nist.javax.sip.stack.ByteBufferFactory;
+import gov.nist.javax.sip.stack.NioTlsChannelInterface;
+import gov.nist.javax.sip.stack.SSLStateMachine;
+import gov.nist.javax.sip.stack.SSLStateMachine.MessageSendCallback;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.KeyStore;
+import java.util.LinkedList;
+import java.util.Properties;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.TrustManagerFactory;
+import javax.sip.SipFactory;
+
+import junit.framework.TestCase;
+
+/**
+ * The messages queued during the handshake share TLS records only when their
+ * callbacks are interchangeable, every other message goes out through its own
+ * callback.
+ */
+public class SSLStateMachineBatchingTest extends TestCase {
+
+    private SipStackImpl sipStack;
+
+    private LoopbackChannel client;
+
+    private LoopbackChannel server;
+
+    public void setUp() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("javax.sip.STACK_NAME", "sslBatching");
+        properties.setProperty("gov.nist.javax.sip.TRACE_LEVEL", "0");
+        SipFactory sipFactory = SipFactory.getInstance();
+        sipFactory.setPathName("gov.nist");
+        sipStack = (SipStackImpl) sipFactory.createSipStack(properties);
+
+        char[] passphrase = "passphrase".toCharArray();
+        KeyStore keyStore = KeyStore.getInstance("jks");
+        FileInputStream in = new FileInputStream(TlsTest.class.getResource("testkeys").getPath());
+        try {
+            keyStore.load(in, passphrase);
+        } finally {
+            in.close();
+        }
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, passphrase);
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(keyStore);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
+
+        SSLEngine clientEngine = context.createSSLEngine();
+        clientEngine.setUseClientMode(true);
+        SSLEngine serverEngine = context.createSSLEngine();
+        serverEngine.setUseClientMode(false);
+        client = new LoopbackChannel(clientEngine);
+        server = new LoopbackChannel(serverEngine);
+    }
+
+    public void tearDown() {
+        sipStack.stop();
+    }
+
+    // deliver the records both ways until the connection is quiet, all the
+    // records sent so far in one read as a socket would
+    private void pump() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            if (!client.outbox.isEmpty()) {
+                server.stateMachine.unwrap(ByteBuffer.wrap(client.drainOutbox()));
+            } else if (!server.outbox.isEmpty()) {
+                client.stateMachine.unwrap(ByteBuffer.wrap(server.drainOutbox()));
+            } else {
+                return;
+            }
+        }
+        fail("the connection does not settle");
+    }
+
+    private void send(String message, MessageSendCallback callback) throws IOException {
+        client.stateMachine.wrap(ByteBuffer.wrap(message.getBytes()),
+            client.prepareEncryptedDataBuffer(), callback);
+    }
+
+    public void testEveryCallbackRunsForItsMessages() throws Exception {
+        Callback first = new Callback("first");
+        Callback second = new Callback("second");
+        Callback firstAgain = new Callback("first");
+        // queued behind the handshake started by the first message
+        send("one;", first);
+        send("two;", firstAgain);
+        send("three;", second);
+        send("four;", first);
+        pump();
+
+        assertEquals("one;two;three;four;", server.received.toString());
+        // the interchangeable callbacks share the records of their messages
+        assertEquals(0, firstAgain.sends);
+        assertTrue(second.sends > 0);
+        assertTrue(first.sends > 0);
+
+        // once the handshake is over each message goes out on its own
+        send("five;", firstAgain);
+        pump();
+        assertEquals("one;two;three;four;five;", server.received.toString());
+        assertEquals(1, firstAgain.sends);
+    }
+
+    private class Callback implements MessageSendCallback {
+        private final String target;
+        private int sends;
+
+        Callback(String target) {
+            this.target = target;
+        }
+
+        public void doSend(byte[] bytes) throws IOException {
+            sends++;
+            client.outbox.add(bytes);
+        }
+
+        public boolean equals(Object other) {
+            return other instanceof Callback && ((Callback) other).target.equals(target);
+        }
+
+        public int hashCode() {
+            return target.hashCode();
+        }
+    }
+
+    private class LoopbackChannel implements NioTlsChannelInterface {
+        private final SSLEngine engine;
+        private final SSLStateMachine stateMachine;
+        private final LinkedList<byte[]> outbox = new LinkedList<byte[]>();
+        private final StringBuilder received = new StringBuilder();
+
+        LoopbackChannel(SSLEngine engine) {
+            this.engine = engine;
+            this.stateMachine = new SSLStateMachine(engine, this);
+        }
+
+        byte[] drainOutbox() {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            while (!outbox.isEmpty()) {
+                byte[] record = outbox.poll();
+                bytes.write(record, 0, record.length);
+            }
+            return bytes.toByteArray();
+        }
+
+        public void sendEncryptedData(byte[] msg) throws IOException {
+            outbox.add(msg);
+        }
+
+        public ByteBuffer prepareAppDataBuffer() {
+            return ByteBufferFactory.getInstance().leaseDirect(engine.getSession().getApplicationBufferSize());
+        }
+
+        public ByteBuffer prepareAppDataBuffer(int capacity) {
+            return ByteBufferFactory.getInstance().leaseDirect(capacity);
+        }
+
+        public ByteBuffer prepareEncryptedDataBuffer() {
+            return ByteBufferFactory.getInstance().leaseDirect(engine.getSession().getPacketBufferSize());
+        }
+
+        public void addPlaintextBytes(byte[] bytes) throws Exception {
+            received.append(new String(bytes));
+        }
+
+        public SipStackImpl getSIPStack() {
+            return sipStack;
+        }
+
+        public ClientTransactionExt getEncapsulatedClientTransaction() {
+            return null;
+        }
+
+        public void handshakeFinished(boolean resumed) {
+        }
+    }
+}